@@ -1,28 +1,59 @@
 package com.cvagent.config;
 
-import com.cvagent.service.AiServiceManager;
+import com.cvagent.service.AiCircuitBreaker;
+import com.cvagent.service.AiExecutionService;
 import com.cvagent.service.ai.ChatAssistant;
 import com.cvagent.service.ai.CreativeWritingAssistant;
+import com.cvagent.service.ai.FakeChatModel;
+import com.cvagent.service.ai.FakeLlmBehavior;
+import com.cvagent.service.ai.FakeStreamingChatModel;
+import com.cvagent.service.ai.HedgePolicy;
+import com.cvagent.service.ai.ModelTier;
+import com.cvagent.service.ai.ResilientChatModel;
+import com.cvagent.service.ai.ResilientStreamingChatModel;
 import com.cvagent.service.ai.ResumeOptimizationAssistant;
+import com.cvagent.service.ai.StreamingCreativeWritingAssistant;
+import com.cvagent.service.ai.StreamingResumeOptimizationAssistant;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModelName;
 import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import dev.langchain4j.service.AiServices;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
 
 /**
  * AI服务配置类
- * 配置langchain4j和OpenAI模型
+ * 配置langchain4j和OpenAI模型，每个模型Bean都包装了熔断、对冲请求和降级链
  */
 @Configuration
 public class AiServiceConfig {
 
+    public static final double CHAT_TEMPERATURE = 0.7;
+
+    public static final String RESUME_OPTIMIZATION_MODEL_NAME = OpenAiChatModelName.GPT_4_TURBO_PREVIEW.toString();
+    public static final double RESUME_OPTIMIZATION_TEMPERATURE = 0.3;
+
+    public static final String CREATIVE_WRITING_MODEL_NAME = OpenAiChatModelName.GPT_4_TURBO_PREVIEW.toString();
+    public static final double CREATIVE_WRITING_TEMPERATURE = 0.9;
+
+    // 仅在fake-llm配置文件下存在，此时各级模型替换为模拟模型
+    @Autowired(required = false)
+    private FakeLlmBehavior fakeLlmBehavior;
+
+    // 模型调用的span，未启用追踪时不记录
+    @Autowired(required = false)
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
     @Value("${openai.api-key}")
     private String apiKey;
 
@@ -32,54 +63,92 @@ public class AiServiceConfig {
     @Value("${openai.model}")
     private String modelName;
 
+    @Value("${ai.resilience.fallback-models:}")
+    private List<String> fallbackModels;
+
+    @Value("${ai.resilience.fallback-timeout-seconds:30}")
+    private long fallbackTimeoutSeconds;
+
+    @Value("${ai.resilience.breaker.window-size:50}")
+    private int breakerWindowSize;
+
+    @Value("${ai.resilience.breaker.minimum-calls:10}")
+    private int breakerMinimumCalls;
+
+    @Value("${ai.resilience.breaker.failure-rate-threshold:50}")
+    private double breakerFailureRateThreshold;
+
+    @Value("${ai.resilience.breaker.slow-call-rate-threshold:60}")
+    private double breakerSlowCallRateThreshold;
+
+    @Value("${ai.resilience.breaker.slow-call-ms:20000}")
+    private long breakerSlowCallMillis;
+
+    @Value("${ai.resilience.breaker.open-ms:30000}")
+    private long breakerOpenMillis;
+
+    @Value("${ai.resilience.breaker.half-open-permits:3}")
+    private int breakerHalfOpenPermits;
+
+    @Value("${ai.resilience.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${ai.resilience.hedge.min-delay-ms:2000}")
+    private long hedgeMinDelayMillis;
+
+    @Value("${ai.resilience.hedge.min-samples:20}")
+    private int hedgeMinSamples;
+
+    @Value("${ai.resilience.hedge.max-ratio:0.1}")
+    private double hedgeMaxRatio;
+
     /**
      * 配置OpenAI聊天模型
      */
     @Bean
-    public StreamingChatModel chatLanguageModel() {
-        return OpenAiStreamingChatModel.builder()
-                .apiKey(apiKey)
-                .baseUrl(baseUrl)
-                .modelName(modelName)
-                .temperature(0.7)
-                .timeout(Duration.ofSeconds(30))
-                .logRequests(true)
-                .logResponses(true)
-                .build();
+    public ResilientStreamingChatModel chatLanguageModel() {
+        return resilientStreaming("chatLanguageModel", modelName,
+                name -> streamingModel(name, CHAT_TEMPERATURE, timeoutFor(name, modelName, Duration.ofSeconds(30))));
     }
 
     /**
      * 配置简历优化专用模型（更低的温度，更一致的结果）
      */
     @Bean
-    public ChatModel resumeOptimizationModel() {
-        return OpenAiChatModel.builder()
-                .apiKey(apiKey)
-                .baseUrl(baseUrl)
-                .modelName(OpenAiChatModelName.GPT_4_TURBO_PREVIEW)
-                .temperature(0.3)
-                .timeout(Duration.ofSeconds(45))
-                .maxRetries(3)
-                .logRequests(true)
-                .logResponses(true)
-                .build();
+    public ResilientChatModel resumeOptimizationModel(AiExecutionService aiExecutionService) {
+        return resilient("resumeOptimizationModel", RESUME_OPTIMIZATION_MODEL_NAME, aiExecutionService,
+                name -> chatModel(name, RESUME_OPTIMIZATION_TEMPERATURE,
+                        timeoutFor(name, RESUME_OPTIMIZATION_MODEL_NAME, Duration.ofSeconds(45))));
     }
 
     /**
      * 配置创意写作模型（更高的温度，更有创意的结果）
      */
     @Bean
-    public ChatModel creativeWritingModel() {
-        return OpenAiChatModel.builder()
-                .apiKey(apiKey)
-                .baseUrl(baseUrl)
-                .modelName(OpenAiChatModelName.GPT_4_TURBO_PREVIEW)
-                .temperature(0.9)
-                .timeout(Duration.ofSeconds(60))
-                .maxRetries(2)
-                .logRequests(true)
-                .logResponses(true)
-                .build();
+    public ResilientChatModel creativeWritingModel(AiExecutionService aiExecutionService) {
+        return resilient("creativeWritingModel", CREATIVE_WRITING_MODEL_NAME, aiExecutionService,
+                name -> chatModel(name, CREATIVE_WRITING_TEMPERATURE,
+                        timeoutFor(name, CREATIVE_WRITING_MODEL_NAME, Duration.ofSeconds(60))));
+    }
+
+    /**
+     * 配置简历优化流式模型（参数与简历优化模型一致，用于SSE逐字输出）
+     */
+    @Bean
+    public ResilientStreamingChatModel resumeOptimizationStreamingModel() {
+        return resilientStreaming("resumeOptimizationStreamingModel", RESUME_OPTIMIZATION_MODEL_NAME,
+                name -> streamingModel(name, RESUME_OPTIMIZATION_TEMPERATURE,
+                        timeoutFor(name, RESUME_OPTIMIZATION_MODEL_NAME, Duration.ofSeconds(45))));
+    }
+
+    /**
+     * 配置创意写作流式模型（参数与创意写作模型一致，用于SSE逐字输出）
+     */
+    @Bean
+    public ResilientStreamingChatModel creativeWritingStreamingModel() {
+        return resilientStreaming("creativeWritingStreamingModel", CREATIVE_WRITING_MODEL_NAME,
+                name -> streamingModel(name, CREATIVE_WRITING_TEMPERATURE,
+                        timeoutFor(name, CREATIVE_WRITING_MODEL_NAME, Duration.ofSeconds(60))));
     }
 
     @Bean
@@ -96,4 +165,112 @@ public class AiServiceConfig {
     public CreativeWritingAssistant creativeWritingAssistant(ChatModel creativeWritingModel) {
         return AiServices.builder(CreativeWritingAssistant.class).chatModel(creativeWritingModel).build();
     }
-}
\ No newline at end of file
+
+    @Bean
+    public StreamingResumeOptimizationAssistant streamingResumeOptimizationAssistant(
+            StreamingChatModel resumeOptimizationStreamingModel) {
+        return AiServices.builder(StreamingResumeOptimizationAssistant.class)
+                .streamingChatModel(resumeOptimizationStreamingModel).build();
+    }
+
+    @Bean
+    public StreamingCreativeWritingAssistant streamingCreativeWritingAssistant(
+            StreamingChatModel creativeWritingStreamingModel) {
+        return AiServices.builder(StreamingCreativeWritingAssistant.class)
+                .streamingChatModel(creativeWritingStreamingModel).build();
+    }
+
+    /**
+     * 构建同步模型的降级链：主模型在前，ai.resilience.fallback-models中的模型依次在后。
+     * 重试交给降级链处理，单个模型不再盲目重试
+     */
+    private ResilientChatModel resilient(String beanName, String primaryModel, AiExecutionService aiExecutionService,
+                                         Function<String, ChatModel> factory) {
+        List<ModelTier<ChatModel>> tiers = new ArrayList<>();
+        for (String name : chainFor(primaryModel)) {
+            tiers.add(new ModelTier<>(name, factory.apply(name), breaker(beanName, name)));
+        }
+        HedgePolicy hedgePolicy = new HedgePolicy(hedgeEnabled, hedgeMinDelayMillis, hedgeMinSamples, hedgeMaxRatio);
+        return new ResilientChatModel(beanName, tiers, aiExecutionService.executor(), hedgePolicy,
+                aiExecutionService.bulkhead(beanName), observationRegistry);
+    }
+
+    /**
+     * 构建流式模型的降级链
+     */
+    private ResilientStreamingChatModel resilientStreaming(String beanName, String primaryModel,
+                                                           Function<String, StreamingChatModel> factory) {
+        List<ModelTier<StreamingChatModel>> tiers = new ArrayList<>();
+        for (String name : chainFor(primaryModel)) {
+            tiers.add(new ModelTier<>(name, factory.apply(name), breaker(beanName, name)));
+        }
+        return new ResilientStreamingChatModel(beanName, tiers);
+    }
+
+    private List<String> chainFor(String primaryModel) {
+        List<String> chain = new ArrayList<>();
+        chain.add(primaryModel);
+        for (String fallback : fallbackModels) {
+            if (!fallback.isBlank() && !chain.contains(fallback.trim())) {
+                chain.add(fallback.trim());
+            }
+        }
+        return chain;
+    }
+
+    private AiCircuitBreaker breaker(String beanName, String model) {
+        return new AiCircuitBreaker(beanName + ":" + model, breakerWindowSize, breakerMinimumCalls,
+                breakerFailureRateThreshold, breakerSlowCallRateThreshold, breakerSlowCallMillis,
+                breakerOpenMillis, breakerHalfOpenPermits);
+    }
+
+    /**
+     * 主模型使用Bean自身的超时，降级模型使用较短的超时以尽快给出结果
+     */
+    private Duration timeoutFor(String model, String primaryModel, Duration primaryTimeout) {
+        return model.equals(primaryModel) ? primaryTimeout : Duration.ofSeconds(fallbackTimeoutSeconds);
+    }
+
+    private ChatModel chatModel(String model, double temperature, Duration timeout) {
+        if (fakeLlmBehavior != null) {
+            ChatModel delegate = fakeLlmBehavior.getMode() == FakeLlmBehavior.Mode.RECORD
+                    ? openAiChatModel(model, temperature, timeout) : null;
+            return new FakeChatModel(model, fakeLlmBehavior, delegate);
+        }
+        return openAiChatModel(model, temperature, timeout);
+    }
+
+    private ChatModel openAiChatModel(String model, double temperature, Duration timeout) {
+        return OpenAiChatModel.builder()
+                .apiKey(apiKey)
+                .baseUrl(baseUrl)
+                .modelName(model)
+                .temperature(temperature)
+                .timeout(timeout)
+                .maxRetries(0)
+                .logRequests(true)
+                .logResponses(true)
+                .build();
+    }
+
+    private StreamingChatModel streamingModel(String model, double temperature, Duration timeout) {
+        if (fakeLlmBehavior != null) {
+            StreamingChatModel delegate = fakeLlmBehavior.getMode() == FakeLlmBehavior.Mode.RECORD
+                    ? openAiStreamingModel(model, temperature, timeout) : null;
+            return new FakeStreamingChatModel(model, fakeLlmBehavior, delegate);
+        }
+        return openAiStreamingModel(model, temperature, timeout);
+    }
+
+    private StreamingChatModel openAiStreamingModel(String model, double temperature, Duration timeout) {
+        return OpenAiStreamingChatModel.builder()
+                .apiKey(apiKey)
+                .baseUrl(baseUrl)
+                .modelName(model)
+                .temperature(temperature)
+                .timeout(timeout)
+                .logRequests(true)
+                .logResponses(true)
+                .build();
+    }
+}
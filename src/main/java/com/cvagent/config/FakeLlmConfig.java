@@ -0,0 +1,114 @@
+package com.cvagent.config;
+
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.service.ai.FakeLlmBehavior;
+import com.cvagent.service.ai.LatencyDistribution;
+import com.cvagent.service.ai.PromptCassette;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * 模拟模型配置
+ * 启用fake-llm配置文件后，AiServiceConfig中的各级模型都替换为模拟模型，
+ * 熔断、对冲和降级链仍然生效，用于在没有网络和模型费用的情况下压测
+ */
+@Configuration
+@Profile("fake-llm")
+public class FakeLlmConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeLlmConfig.class);
+
+    private static final String DEFAULT_RESPONSE_TEMPLATE = "【模拟回答·{model}】\n{body}";
+
+    @Value("${ai.fake.mode:generate}")
+    private String mode;
+
+    @Value("${ai.fake.latency.type:lognormal}")
+    private String latencyType;
+
+    @Value("${ai.fake.latency.fixed-ms:800}")
+    private long fixedLatencyMillis;
+
+    @Value("${ai.fake.latency.median-ms:1500}")
+    private double medianLatencyMillis;
+
+    @Value("${ai.fake.latency.sigma:0.6}")
+    private double latencySigma;
+
+    @Value("${ai.fake.latency.usage-log-samples:1000}")
+    private int usageLogSamples;
+
+    @Value("${ai.fake.error-rate:0}")
+    private double errorRate;
+
+    @Value("${ai.fake.output-tokens:300}")
+    private int outputTokens;
+
+    @Value("${ai.fake.response-template:}")
+    private String responseTemplate;
+
+    @Value("${ai.fake.stream.token-interval-ms:30}")
+    private long tokenIntervalMillis;
+
+    @Value("${ai.fake.stream.chunk-chars:4}")
+    private int chunkChars;
+
+    @Value("${ai.fake.cassette-path:}")
+    private String cassettePath;
+
+    @Bean
+    public FakeLlmBehavior fakeLlmBehavior(MongoTemplate mongoTemplate) {
+        FakeLlmBehavior.Mode fakeMode = FakeLlmBehavior.Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        PromptCassette cassette = cassettePath.isBlank() ? null : new PromptCassette(Path.of(cassettePath));
+        logger.warn("已启用模拟模型: 模式 {}, 延迟分布 {}, 错误率 {}", fakeMode, latencyType, errorRate);
+        return new FakeLlmBehavior(fakeMode, latency(mongoTemplate), errorRate, outputTokens,
+                responseTemplate.isBlank() ? DEFAULT_RESPONSE_TEMPLATE : responseTemplate,
+                tokenIntervalMillis, chunkChars, cassette);
+    }
+
+    private LatencyDistribution latency(MongoTemplate mongoTemplate) {
+        switch (latencyType.trim().toLowerCase(Locale.ROOT)) {
+            case "fixed":
+                return LatencyDistribution.fixed(fixedLatencyMillis);
+            case "usage-log":
+                long[] samples = loadUsageLogLatencies(mongoTemplate);
+                if (samples.length > 0) {
+                    logger.info("模拟模型使用 {} 条实测响应时间作为延迟样本", samples.length);
+                    return LatencyDistribution.empirical(samples);
+                }
+                logger.warn("没有可用的实测响应时间，改用对数正态分布");
+                return LatencyDistribution.lognormal(medianLatencyMillis, latencySigma);
+            default:
+                return LatencyDistribution.lognormal(medianLatencyMillis, latencySigma);
+        }
+    }
+
+    /**
+     * 读取最近成功调用的响应时间
+     */
+    private long[] loadUsageLogLatencies(MongoTemplate mongoTemplate) {
+        try {
+            Query query = Query.query(Criteria.where("success").is(true).and("responseTime").gt(0))
+                    .with(Sort.by(Sort.Direction.DESC, "requestTime"))
+                    .limit(usageLogSamples);
+            query.fields().include("responseTime");
+            return mongoTemplate.find(query, AiUsageLog.class).stream()
+                    .mapToLong(AiUsageLog::getResponseTime)
+                    .toArray();
+        } catch (Exception e) {
+            logger.warn("读取使用日志响应时间失败: {}", e.getMessage());
+            return new long[0];
+        }
+    }
+}
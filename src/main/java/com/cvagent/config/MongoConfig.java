@@ -1,7 +1,15 @@
 package com.cvagent.config;
 
+import com.cvagent.service.MongoQueryProfiler;
+import io.micrometer.observation.ObservationPredicate;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
+import org.springframework.data.mongodb.observability.ContextProviderFactory;
+import org.springframework.data.mongodb.observability.MongoObservationCommandListener;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
 @Configuration
@@ -15,4 +23,34 @@ public class MongoConfig {
 
     // 可以在这里添加自定义的MongoDB配置
     // 例如连接池设置、索引配置等
-}
\ No newline at end of file
+
+    private static final String MONGO_COMMAND_OBSERVATION = "spring.data.mongodb.command";
+
+    /**
+     * 为每条Mongo命令创建span，挂在发起命令的线程当前的observation下
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoObservationCustomizer(ObservationRegistry observationRegistry) {
+        return builder -> builder
+                .contextProvider(ContextProviderFactory.create(observationRegistry))
+                .addCommandListener(new MongoObservationCommandListener(observationRegistry));
+    }
+
+    /**
+     * 按集合和查询形状统计命令延迟，慢查询通过 /api/admin/slow-queries 查看
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoProfilerCustomizer(MongoQueryProfiler mongoQueryProfiler) {
+        return builder -> builder.addCommandListener(mongoQueryProfiler);
+    }
+
+    /**
+     * 只追踪请求链路中的Mongo命令；日志写入线程、定时任务等没有父observation的命令不单独成链，
+     * 避免挤占内存链路存储。同步驱动在发起命令的线程上创建observation，当前observation即父observation
+     */
+    @Bean
+    public ObservationPredicate mongoParentObservationPredicate(ObjectProvider<ObservationRegistry> observationRegistry) {
+        return (name, context) -> !MONGO_COMMAND_OBSERVATION.equals(name)
+                || observationRegistry.getObject().getCurrentObservation() != null;
+    }
+}
@@ -0,0 +1,120 @@
+package com.cvagent.controller;
+
+import com.cvagent.service.MongoQueryProfiler;
+import com.cvagent.service.TraceStoreService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 管理员诊断控制器
+ * 提供链路追踪、慢查询分析等运维诊断接口
+ */
+@RestController
+@RequestMapping("/api/admin")
+@Tag(name = "管理诊断", description = "链路追踪、慢查询分析等运维诊断接口")
+public class AdminController {
+
+    @Autowired
+    private TraceStoreService traceStoreService;
+
+    @Autowired
+    private MongoQueryProfiler mongoQueryProfiler;
+
+    /**
+     * 最近的请求链路
+     */
+    @GetMapping("/traces")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "最近的请求链路", description = "按开始时间倒序返回内存中保存的链路摘要，可按最小耗时和根span名称过滤")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getTraces(
+            @RequestParam(defaultValue = "0") long minDurationMs,
+            @RequestParam(required = false) String name,
+            @RequestParam(defaultValue = "50") int limit) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("traces", traceStoreService.getRecentTraces(Math.max(minDurationMs, 0), name,
+                Math.min(Math.max(limit, 1), 500)));
+        result.put("store", traceStoreService.getStatistics());
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 按阶段汇总的耗时分布
+     */
+    @GetMapping("/traces/stages")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "各阶段耗时分布", description = "汇总内存中保存的链路，按阶段（span名称）统计次数、总耗时和自身耗时")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getStageBreakdown(@RequestParam(required = false) String name) {
+        return ResponseEntity.ok(traceStoreService.getStageBreakdown(name));
+    }
+
+    /**
+     * 单条链路详情
+     */
+    @GetMapping("/traces/{traceId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "链路详情", description = "返回链路的span树和各阶段耗时分布")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功"),
+        @ApiResponse(responseCode = "404", description = "链路不存在或已被淘汰")
+    })
+    public ResponseEntity<Map<String, Object>> getTrace(@PathVariable String traceId) {
+        return traceStoreService.getTrace(traceId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Mongo慢查询分析
+     */
+    @GetMapping("/slow-queries")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Mongo慢查询分析", description = "按集合和查询形状返回命令延迟分布、最近的慢查询及其执行计划，默认按总耗时排序")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功"),
+        @ApiResponse(responseCode = "400", description = "排序字段不支持")
+    })
+    public ResponseEntity<Map<String, Object>> getSlowQueries(
+            @RequestParam(required = false) String collection,
+            @RequestParam(defaultValue = "totalTime") String sortBy,
+            @RequestParam(defaultValue = "50") int limit) {
+        try {
+            return ResponseEntity.ok(mongoQueryProfiler.getReport(collection, sortBy, Math.min(Math.max(limit, 1), 500)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 清空慢查询统计
+     */
+    @DeleteMapping("/slow-queries")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "清空慢查询统计", description = "补建索引或改写查询后清空统计重新观察")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "清空成功")
+    })
+    public ResponseEntity<Map<String, Object>> resetSlowQueries() {
+        mongoQueryProfiler.reset();
+        return ResponseEntity.ok(Map.of("message", "慢查询统计已清空"));
+    }
+}
@@ -1,11 +1,20 @@
 package com.cvagent.controller;
 
+import com.cvagent.exception.AiOverloadedException;
+import com.cvagent.exception.AiRateLimitException;
 import com.cvagent.model.User;
 import com.cvagent.repository.UserRepository;
 import com.cvagent.security.UserPrincipal;
+import com.cvagent.service.AiBatchJobService;
+import com.cvagent.service.AiCostService;
 import com.cvagent.service.AiMonitoringService;
+import com.cvagent.service.AiUserUsageService;
+import com.cvagent.service.AiResponseCacheService;
 import com.cvagent.service.AiServiceManager;
 import com.cvagent.service.PromptTemplateService;
+import com.cvagent.service.ai.AiResponseMetadata;
+import com.cvagent.service.ai.AiStreamHandle;
+import com.cvagent.service.ai.AiStreamListener;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -16,14 +25,27 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * AI服务控制器
@@ -48,6 +70,24 @@ public class AiController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private AiResponseCacheService responseCacheService;
+
+    @Autowired
+    private AiBatchJobService batchJobService;
+
+    @Autowired
+    private AiCostService aiCostService;
+
+    @Autowired
+    private AiUserUsageService aiUserUsageService;
+
+    @Value("${ai.streaming.timeout-ms:120000}")
+    private long streamTimeout;
+
+    @Value("${ai.batch.async-threshold:10}")
+    private int batchAsyncThreshold;
+
     /**
      * 基础聊天功能
      */
@@ -80,7 +120,7 @@ public class AiController {
             ));
         } catch (Exception e) {
             logger.error("聊天请求失败: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "聊天服务暂时不可用"));
+            return aiFailure(e, "聊天服务暂时不可用");
         }
     }
 
@@ -110,15 +150,16 @@ public class AiController {
             return ResponseEntity.badRequest().body(Map.of("error", "简历内容不能为空"));
         }
 
-        try {
+        try (AiResponseMetadata metadata = AiResponseMetadata.start()) {
             String response = aiServiceManager.optimizeResume(resumeContent, jobDescription);
             return ResponseEntity.ok(Map.of(
                     "optimizedResume", response,
-                    "type", "resume_optimization"
+                    "type", "resume_optimization",
+                    "metadata", metadata.toMap()
             ));
         } catch (Exception e) {
             logger.error("简历优化请求失败: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "简历优化服务暂时不可用"));
+            return aiFailure(e, "简历优化服务暂时不可用");
         }
     }
 
@@ -161,7 +202,7 @@ public class AiController {
             ));
         } catch (Exception e) {
             logger.error("求职信生成请求失败: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "求职信生成服务暂时不可用"));
+            return aiFailure(e, "求职信生成服务暂时不可用");
         }
     }
 
@@ -195,16 +236,17 @@ public class AiController {
             return ResponseEntity.badRequest().body(Map.of("error", "章节类型不能为空"));
         }
 
-        try {
+        try (AiResponseMetadata metadata = AiResponseMetadata.start()) {
             String response = aiServiceManager.improveResumeSection(sectionContent, sectionType);
             return ResponseEntity.ok(Map.of(
                     "improvedSection", response,
                     "sectionType", sectionType,
-                    "type", "resume_section_improvement"
+                    "type", "resume_section_improvement",
+                    "metadata", metadata.toMap()
             ));
         } catch (Exception e) {
             logger.error("简历章节改进请求失败: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "简历章节改进服务暂时不可用"));
+            return aiFailure(e, "简历章节改进服务暂时不可用");
         }
     }
 
@@ -241,8 +283,126 @@ public class AiController {
             ));
         } catch (Exception e) {
             logger.error("项目描述生成请求失败: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "项目描述生成服务暂时不可用"));
+            return aiFailure(e, "项目描述生成服务暂时不可用");
+        }
+    }
+
+    /**
+     * 流式聊天
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "流式AI聊天", description = "以SSE逐段返回AI聊天内容")
+    @SecurityRequirement(name = "bearerAuth")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "开始推送")
+    })
+    public SseEmitter chatStream(
+            @Parameter(description = "聊天请求参数", required = true)
+            @RequestBody Map<String, String> request,
+            @Parameter(hidden = true)
+            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+
+        logger.info("用户 {} 发起流式聊天请求", userPrincipal.getUsername());
+
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        String message = request.get("message");
+        if (message == null || message.trim().isEmpty()) {
+            return rejectStream(emitter, "消息内容不能为空");
         }
+
+        return bindStream(emitter,
+                aiServiceManager.streamChat(message, sseListener(emitter, "chat", "聊天服务暂时不可用")));
+    }
+
+    /**
+     * 流式简历优化
+     */
+    @PostMapping(value = "/optimize-resume/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "流式简历优化", description = "以SSE逐段返回AI优化后的简历内容")
+    @SecurityRequirement(name = "bearerAuth")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "开始推送")
+    })
+    public SseEmitter optimizeResumeStream(
+            @Parameter(description = "简历优化请求参数", required = true)
+            @RequestBody Map<String, String> request,
+            @Parameter(hidden = true)
+            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+
+        logger.info("用户 {} 发起流式简历优化请求", userPrincipal.getUsername());
+
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        String resumeContent = request.get("resumeContent");
+        String jobDescription = request.get("jobDescription");
+        if (resumeContent == null || resumeContent.trim().isEmpty()) {
+            return rejectStream(emitter, "简历内容不能为空");
+        }
+
+        return bindStream(emitter, aiServiceManager.streamOptimizeResume(resumeContent, jobDescription,
+                sseListener(emitter, "resume_optimization", "简历优化服务暂时不可用")));
+    }
+
+    /**
+     * 流式改进简历章节
+     */
+    @PostMapping(value = "/improve-resume-section/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "流式改进简历章节", description = "以SSE逐段返回AI改进后的简历章节")
+    @SecurityRequirement(name = "bearerAuth")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "开始推送")
+    })
+    public SseEmitter improveResumeSectionStream(
+            @Parameter(description = "章节改进请求参数", required = true)
+            @RequestBody Map<String, String> request,
+            @Parameter(hidden = true)
+            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+
+        logger.info("用户 {} 发起流式简历章节改进请求", userPrincipal.getUsername());
+
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        String sectionContent = request.get("sectionContent");
+        String sectionType = request.get("sectionType");
+        if (sectionContent == null || sectionContent.trim().isEmpty()) {
+            return rejectStream(emitter, "章节内容不能为空");
+        }
+        if (sectionType == null || sectionType.trim().isEmpty()) {
+            return rejectStream(emitter, "章节类型不能为空");
+        }
+
+        return bindStream(emitter, aiServiceManager.streamImproveResumeSection(sectionContent, sectionType,
+                sseListener(emitter, "resume_section_improvement", "简历章节改进服务暂时不可用")));
+    }
+
+    /**
+     * 流式生成求职信
+     */
+    @PostMapping(value = "/generate-cover-letter/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "流式生成求职信", description = "以SSE逐段返回AI生成的求职信")
+    @SecurityRequirement(name = "bearerAuth")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "开始推送")
+    })
+    public SseEmitter generateCoverLetterStream(
+            @Parameter(description = "求职信生成请求参数", required = true)
+            @RequestBody Map<String, String> request,
+            @Parameter(hidden = true)
+            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+
+        logger.info("用户 {} 发起流式求职信生成请求", userPrincipal.getUsername());
+
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        String resumeContent = request.get("resumeContent");
+        String jobDescription = request.get("jobDescription");
+        String companyInfo = request.get("companyInfo");
+        if (resumeContent == null || resumeContent.trim().isEmpty()) {
+            return rejectStream(emitter, "简历内容不能为空");
+        }
+        if (jobDescription == null || jobDescription.trim().isEmpty()) {
+            return rejectStream(emitter, "职位描述不能为空");
+        }
+
+        return bindStream(emitter, aiServiceManager.streamGenerateCoverLetter(resumeContent, jobDescription, companyInfo,
+                sseListener(emitter, "cover_letter_generation", "求职信生成服务暂时不可用")));
     }
 
     /**
@@ -280,9 +440,7 @@ public class AiController {
                 })
                 .exceptionally(e -> {
                     logger.error("异步聊天请求失败: {}", e.getMessage(), e);
-                    Map<String, Object> errorResponse = new HashMap<>();
-                    errorResponse.put("error", "聊天服务暂时不可用");
-                    return ResponseEntity.internalServerError().body(errorResponse);
+                    return aiFailure(e, "聊天服务暂时不可用");
                 });
     }
 
@@ -294,6 +452,7 @@ public class AiController {
     @SecurityRequirement(name = "bearerAuth")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "处理成功"),
+        @ApiResponse(responseCode = "202", description = "已创建批量任务"),
         @ApiResponse(responseCode = "400", description = "请求参数错误"),
         @ApiResponse(responseCode = "500", description = "AI服务暂时不可用")
     })
@@ -312,6 +471,24 @@ public class AiController {
             return ResponseEntity.badRequest().body(Map.of("error", "处理请求不能为空"));
         }
 
+        // 请求数超过阈值或显式要求异步时，返回任务句柄
+        if (requests.size() > batchAsyncThreshold || Boolean.TRUE.equals(request.get("async"))) {
+            AiBatchJobService.BatchJob job;
+            try {
+                job = batchJobService.submit(userPrincipal.getId(), requests);
+            } catch (AiOverloadedException e) {
+                return aiFailure(e, "批量处理服务暂时不可用");
+            }
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of(
+                    "jobId", job.getJobId(),
+                    "total", job.getTotal(),
+                    "status", job.getStatus(),
+                    "statusUrl", "/api/ai/batch-jobs/" + job.getJobId(),
+                    "streamUrl", "/api/ai/batch-jobs/" + job.getJobId() + "/stream",
+                    "type", "batch_process_async"
+            ));
+        }
+
         try {
             Map<String, String> results = aiServiceManager.batchProcess(requests);
             return ResponseEntity.ok(Map.of(
@@ -321,10 +498,71 @@ public class AiController {
             ));
         } catch (Exception e) {
             logger.error("批量处理请求失败: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "批量处理服务暂时不可用"));
+            return aiFailure(e, "批量处理服务暂时不可用");
         }
     }
 
+    /**
+     * 查询批量任务
+     */
+    @GetMapping("/batch-jobs/{jobId}")
+    @Operation(summary = "查询批量任务", description = "获取批量任务的进度和已完成的结果")
+    @SecurityRequirement(name = "bearerAuth")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功"),
+        @ApiResponse(responseCode = "404", description = "任务不存在或已过期")
+    })
+    public ResponseEntity<Map<String, Object>> getBatchJob(
+            @Parameter(description = "任务ID", required = true)
+            @PathVariable String jobId,
+            @Parameter(hidden = true)
+            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+
+        return batchJobService.getJob(jobId, userPrincipal.getId())
+                .map(job -> ResponseEntity.ok(job.toMap()))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "任务不存在或已过期")));
+    }
+
+    /**
+     * 订阅批量任务（SSE）
+     */
+    @GetMapping(value = "/batch-jobs/{jobId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "订阅批量任务", description = "以SSE推送每个请求的完成结果，item为单条结果，done为任务结束")
+    @SecurityRequirement(name = "bearerAuth")
+    public SseEmitter streamBatchJob(
+            @Parameter(description = "任务ID", required = true)
+            @PathVariable String jobId,
+            @Parameter(hidden = true)
+            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        Optional<AiBatchJobService.BatchJob> job = batchJobService.getJob(jobId, userPrincipal.getId());
+        if (job.isEmpty()) {
+            return rejectStream(emitter, "任务不存在或已过期");
+        }
+
+        AiBatchJobService.BatchJobListener listener = new AiBatchJobService.BatchJobListener() {
+            @Override
+            public void onItem(String key, String result) {
+                sendEvent(emitter, SseEmitter.event().name("item").data(Map.of("key", key, "result", result)));
+            }
+
+            @Override
+            public void onComplete(AiBatchJobService.BatchJob finished) {
+                sendEvent(emitter, SseEmitter.event().name("done").data(Map.of(
+                        "status", finished.getStatus(),
+                        "total", finished.getTotal(),
+                        "completed", finished.getCompleted()
+                )));
+                emitter.complete();
+            }
+        };
+        emitter.onCompletion(() -> job.get().unsubscribe(listener));
+        emitter.onTimeout(() -> job.get().unsubscribe(listener));
+        job.get().subscribe(listener);
+        return emitter;
+    }
+
     /**
      * 获取AI服务状态
      */
@@ -369,13 +607,138 @@ public class AiController {
      * 获取性能报告
      */
     @GetMapping("/performance-report")
-    @Operation(summary = "获取性能报告", description = "获取AI服务的性能报告")
+    @Operation(summary = "获取性能报告", description = "按时间范围和服务类型获取AI服务的性能报告，默认过去24小时的所有服务")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getPerformanceReport(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String serviceType) {
+        if (from == null && to == null && serviceType == null) {
+            return ResponseEntity.ok(aiMonitoringService.getPerformanceReport());
+        }
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusHours(24);
+        if (!start.isBefore(end)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "开始时间必须早于结束时间"));
+        }
+        return ResponseEntity.ok(aiMonitoringService.getPerformanceReport(start, end, serviceType));
+    }
+
+    /**
+     * 按用户汇总AI调用费用
+     */
+    @GetMapping("/costs/users")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "用户费用排行", description = "按用户汇总时间范围内的令牌用量和费用，默认最近7天")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getCostByUser(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "20") int limit) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusDays(7);
+        return ResponseEntity.ok(aiCostService.getCostByUser(start, end, Math.min(Math.max(limit, 1), 100)));
+    }
+
+    /**
+     * 按服务类型汇总AI调用费用
+     */
+    @GetMapping("/costs/services")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "服务费用统计", description = "按服务类型汇总时间范围内的令牌用量和费用，默认最近7天")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getCostByService(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusDays(7);
+        return ResponseEntity.ok(aiCostService.getCostByService(start, end));
+    }
+
+    /**
+     * 按模型汇总AI调用费用
+     */
+    @GetMapping("/costs/models")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "模型费用统计", description = "按实际响应的模型汇总时间范围内的令牌用量和费用，默认最近7天")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "获取成功")
     })
-    public ResponseEntity<Map<String, Object>> getPerformanceReport() {
-        Map<String, Object> report = aiMonitoringService.getPerformanceReport();
-        return ResponseEntity.ok(report);
+    public ResponseEntity<Map<String, Object>> getCostByModel(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusDays(7);
+        return ResponseEntity.ok(aiCostService.getCostByModel(start, end));
+    }
+
+    /**
+     * 当前用户的AI调用费用
+     */
+    @GetMapping("/costs/me")
+    @Operation(summary = "我的费用", description = "按服务类型汇总当前用户在时间范围内的令牌用量和费用，默认最近7天")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getMyCost(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusDays(7);
+        return ResponseEntity.ok(aiCostService.getUserCost(userPrincipal.getId(), start, end));
+    }
+
+    /**
+     * 当前用户的AI用量
+     */
+    @GetMapping("/usage/me")
+    @Operation(summary = "我的用量", description = "当前用户在日期范围内的请求数、令牌、费用，按服务类型和按天汇总，默认最近7天")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getMyUsage(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(6);
+        return ResponseEntity.ok(aiUserUsageService.getUserUsage(userPrincipal.getId(), start, end));
+    }
+
+    /**
+     * 用量最大的用户
+     */
+    @GetMapping("/usage/top")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "用户用量排行", description = "按请求数、错误数、令牌或费用排序日期范围内用量最大的用户，默认最近7天按令牌排序")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功"),
+        @ApiResponse(responseCode = "400", description = "排序字段不支持")
+    })
+    public ResponseEntity<Map<String, Object>> getTopUsage(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "tokensUsed") String sortBy,
+            @RequestParam(defaultValue = "20") int limit) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(6);
+        try {
+            Map<String, Object> result = new HashMap<>();
+            result.put("from", start);
+            result.put("to", end);
+            result.put("sortBy", sortBy);
+            result.put("users", aiUserUsageService.getTopUsers(start, end, sortBy, Math.min(Math.max(limit, 1), 100)));
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
     }
 
     /**
@@ -418,6 +781,37 @@ public class AiController {
         return ResponseEntity.ok(logs);
     }
 
+    /**
+     * 按条件查询使用日志，游标分页
+     */
+    @GetMapping("/logs")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "查询日志", description = "按成功状态、服务类型、用户和时间范围查询AI使用日志，按请求时间倒序，"
+            + "用上一页返回的nextCursor获取下一页")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功"),
+        @ApiResponse(responseCode = "400", description = "游标无效")
+    })
+    public ResponseEntity<Map<String, Object>> queryLogs(
+            @RequestParam(required = false) Boolean success,
+            @RequestParam(required = false) String serviceType,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String cursor) {
+        try {
+            AiMonitoringService.LogPage page = aiMonitoringService.findLogs(success, serviceType, userId, from, to,
+                    Math.min(Math.max(limit, 1), 200), cursor);
+            Map<String, Object> result = new HashMap<>();
+            result.put("logs", page.getLogs());
+            result.put("nextCursor", page.getNextCursor());
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * 获取服务排行榜
      */
@@ -431,6 +825,37 @@ public class AiController {
         return ResponseEntity.ok(ranking);
     }
 
+    /**
+     * 获取响应缓存统计
+     */
+    @GetMapping("/cache-statistics")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "获取缓存统计", description = "获取AI响应缓存的命中率和节省的延迟")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<Map<String, Object>> getCacheStatistics() {
+        return ResponseEntity.ok(responseCacheService.getStatistics());
+    }
+
+    /**
+     * 清除响应缓存
+     */
+    @PostMapping("/clear-cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "清除缓存", description = "清除AI响应缓存，可指定服务类型")
+    @SecurityRequirement(name = "bearerAuth")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "清除成功")
+    })
+    public ResponseEntity<Map<String, String>> clearCache(
+            @Parameter(description = "服务类型，为空时清除全部", required = false, example = "resume_optimization")
+            @RequestParam(required = false) String serviceType) {
+
+        responseCacheService.evict(serviceType);
+        return ResponseEntity.ok(Map.of("message", serviceType == null ? "已清除全部缓存" : "已清除缓存: " + serviceType));
+    }
+
     /**
      * 获取所有提示词模板
      */
@@ -465,6 +890,62 @@ public class AiController {
         return ResponseEntity.ok(details);
     }
 
+    /**
+     * 保存提示词模板的新版本
+     */
+    @PutMapping("/prompt-templates/{templateName}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "保存模板", description = "保存提示词模板的新版本，所有节点在下次刷新时生效")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "保存成功"),
+        @ApiResponse(responseCode = "400", description = "模板内容为空")
+    })
+    public ResponseEntity<Map<String, Object>> savePromptTemplate(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable String templateName,
+            @RequestBody Map<String, String> request) {
+
+        String content = request.get("content");
+        if (content == null || content.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "模板内容不能为空"));
+        }
+
+        com.cvagent.model.PromptTemplate saved = promptTemplateService.saveTemplate(templateName, content,
+                userPrincipal != null ? userPrincipal.getUsername() : null);
+        return ResponseEntity.ok(Map.of(
+                "templateName", templateName,
+                "version", saved.getVersion()
+        ));
+    }
+
+    /**
+     * 删除自定义提示词模板
+     */
+    @DeleteMapping("/prompt-templates/{templateName}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "删除模板", description = "停用提示词模板的所有自定义版本，内置模板恢复为默认内容")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "删除成功")
+    })
+    public ResponseEntity<Map<String, Object>> deletePromptTemplate(@PathVariable String templateName) {
+        promptTemplateService.removeTemplate(templateName);
+        return ResponseEntity.ok(Map.of("message", "已删除模板: " + templateName));
+    }
+
+    /**
+     * 获取提示词模板的版本历史
+     */
+    @GetMapping("/prompt-templates/{templateName}/versions")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "模板版本历史", description = "获取提示词模板的所有自定义版本")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "获取成功")
+    })
+    public ResponseEntity<List<com.cvagent.model.PromptTemplate>> getPromptTemplateVersions(
+            @PathVariable String templateName) {
+        return ResponseEntity.ok(promptTemplateService.getTemplateVersions(templateName));
+    }
+
     /**
      * 使用提示词模板
      */
@@ -489,7 +970,7 @@ public class AiController {
             ));
         } catch (Exception e) {
             logger.error("使用提示词模板失败: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "处理提示词模板失败"));
+            return aiFailure(e, "处理提示词模板失败");
         }
     }
 
@@ -518,7 +999,97 @@ public class AiController {
             @Parameter(description = "保留天数", required = false, example = "30")
             @RequestParam(defaultValue = "30") int daysToKeep) {
 
-        aiMonitoringService.cleanupOldLogs(daysToKeep);
-        return ResponseEntity.ok(Map.of("message", "清理了 " + daysToKeep + " 天前的日志"));
+        long deleted = aiMonitoringService.cleanupOldLogs(daysToKeep);
+        return ResponseEntity.ok(Map.of("message", "清理了 " + deleted + " 条 " + daysToKeep + " 天前的日志"));
+    }
+
+    /**
+     * 客户端断开、连接超时或推送出错时取消流式请求，释放模型舱壁许可并停止转发
+     */
+    private SseEmitter bindStream(SseEmitter emitter, AiStreamHandle handle) {
+        emitter.onCompletion(handle::cancel);
+        emitter.onTimeout(handle::cancel);
+        emitter.onError(error -> handle.cancel());
+        return emitter;
+    }
+
+    /**
+     * 将流式回调转发为SSE事件：token为增量内容，done为结束标记，error为错误信息
+     */
+    private AiStreamListener sseListener(SseEmitter emitter, String type, String errorMessage) {
+        return new AiStreamListener() {
+            @Override
+            public void onToken(String token) {
+                sendEvent(emitter, SseEmitter.event().name("token").data(token));
+            }
+
+            @Override
+            public void onComplete(String response) {
+                sendEvent(emitter, SseEmitter.event().name("done").data(Map.of(
+                        "type", type,
+                        "length", response != null ? response.length() : 0
+                )));
+                emitter.complete();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (error instanceof CancellationException) {
+                    // 客户端已断开，连接已经结束
+                    return;
+                }
+                if (error instanceof AiOverloadedException overloaded) {
+                    sendEvent(emitter, SseEmitter.event().name("error").data(overloadedBody(overloaded)));
+                } else {
+                    sendEvent(emitter, SseEmitter.event().name("error").data(Map.of("error", errorMessage)));
+                }
+                emitter.complete();
+            }
+        };
+    }
+
+    /**
+     * AI调用失败响应：过载返回429并带Retry-After，其余返回500
+     */
+    private ResponseEntity<Map<String, Object>> aiFailure(Throwable e, String errorMessage) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof AiOverloadedException overloaded) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()))
+                    .body(overloadedBody(overloaded));
+        }
+        return ResponseEntity.internalServerError().body(Map.of("error", errorMessage));
+    }
+
+    /**
+     * 429响应体：限流时返回具体原因，舱壁过载时返回统一的繁忙提示
+     */
+    private Map<String, Object> overloadedBody(AiOverloadedException overloaded) {
+        if (overloaded instanceof AiRateLimitException rateLimited) {
+            return Map.of(
+                    "error", rateLimited.getMessage(),
+                    "limitType", rateLimited.getLimitType(),
+                    "retryAfter", rateLimited.getRetryAfterSeconds()
+            );
+        }
+        return Map.of(
+                "error", "AI服务繁忙，请稍后重试",
+                "retryAfter", overloaded.getRetryAfterSeconds()
+        );
+    }
+
+    private SseEmitter rejectStream(SseEmitter emitter, String error) {
+        sendEvent(emitter, SseEmitter.event().name("error").data(Map.of("error", error)));
+        emitter.complete();
+        return emitter;
+    }
+
+    private void sendEvent(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开，忽略剩余事件
+            logger.debug("SSE推送失败，客户端可能已断开: {}", e.getMessage());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package com.cvagent.exception;
+
+/**
+ * AI模型不可用异常
+ * 降级链上的所有模型都已熔断或调用失败时抛出
+ */
+public class AiModelUnavailableException extends RuntimeException {
+
+    public AiModelUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,27 @@
+package com.cvagent.exception;
+
+/**
+ * AI服务过载异常
+ * 模型并发已满且等待队列溢出时抛出，对应HTTP 429
+ */
+public class AiOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public AiOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * 拒绝属于正常流控时不采集堆栈，保证拒绝路径足够廉价
+     */
+    protected AiOverloadedException(String message, long retryAfterSeconds, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,23 @@
+package com.cvagent.exception;
+
+/**
+ * AI调用限流异常
+ * 用户或模型的令牌桶耗尽、或用户当日配额用完时抛出，对应HTTP 429
+ */
+public class AiRateLimitException extends AiOverloadedException {
+
+    public static final String USER_RATE = "user_rate";
+    public static final String MODEL_RATE = "model_rate";
+    public static final String DAILY_QUOTA = "daily_quota";
+
+    private final String limitType;
+
+    public AiRateLimitException(String message, String limitType, long retryAfterSeconds) {
+        super(message, retryAfterSeconds, false);
+        this.limitType = limitType;
+    }
+
+    public String getLimitType() {
+        return limitType;
+    }
+}
@@ -0,0 +1,93 @@
+package com.cvagent.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * AI响应缓存实体（二级缓存）
+ * 以请求内容哈希为主键，过期时间由TTL索引自动清理
+ */
+@Document(collection = "ai_response_cache")
+public class AiResponseCacheEntry {
+
+    // 缓存键：服务类型、模型、温度和规范化输入的SHA-256
+    @Id
+    private String id;
+
+    @Indexed
+    private String serviceType;
+
+    private String modelName;
+
+    private String response;
+
+    // 生成该响应的原始耗时（毫秒），用于统计命中节省的延迟
+    private long generationTime;
+
+    private LocalDateTime createdAt;
+
+    // 近似匹配用的LSH分桶键（已包含模型和精确匹配部分），多键索引用于查找候选条目
+    @Indexed
+    private List<String> lshBands;
+
+    // 主要输入的MinHash签名
+    private List<Long> minHash;
+
+    // 过期时间，到期后由MongoDB TTL监控线程删除
+    @Indexed(expireAfter = "0s")
+    private LocalDateTime expiresAt;
+
+    public AiResponseCacheEntry() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public AiResponseCacheEntry(String id, String serviceType, String modelName, String response,
+                                long generationTime, LocalDateTime expiresAt) {
+        this();
+        this.id = id;
+        this.serviceType = serviceType;
+        this.modelName = modelName;
+        this.response = response;
+        this.generationTime = generationTime;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * 是否已过期（TTL监控线程每分钟运行一次，读取时需要自行判断）
+     */
+    public boolean isExpired() {
+        return expiresAt != null && expiresAt.isBefore(LocalDateTime.now());
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getServiceType() { return serviceType; }
+    public void setServiceType(String serviceType) { this.serviceType = serviceType; }
+
+    public String getModelName() { return modelName; }
+    public void setModelName(String modelName) { this.modelName = modelName; }
+
+    public String getResponse() { return response; }
+    public void setResponse(String response) { this.response = response; }
+
+    public long getGenerationTime() { return generationTime; }
+    public void setGenerationTime(long generationTime) { this.generationTime = generationTime; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(LocalDateTime expiresAt) { this.expiresAt = expiresAt; }
+
+    public List<String> getLshBands() { return lshBands; }
+    public void setLshBands(List<String> lshBands) { this.lshBands = lshBands; }
+
+    public List<Long> getMinHash() { return minHash; }
+    public void setMinHash(List<Long> minHash) { this.minHash = minHash; }
+}
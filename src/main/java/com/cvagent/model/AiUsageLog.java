@@ -1,6 +1,9 @@
 package com.cvagent.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -10,6 +13,13 @@ import java.time.LocalDateTime;
  * 记录AI服务的使用情况
  */
 @Document(collection = "ai_usage_logs")
+@CompoundIndexes({
+    // 日志查询按 (requestTime, _id) 倒序做游标分页，各过滤条件作为前缀
+    @CompoundIndex(name = "request_time_id_idx", def = "{'requestTime': -1, '_id': -1}"),
+    @CompoundIndex(name = "service_request_time_idx", def = "{'serviceType': 1, 'requestTime': -1, '_id': -1}"),
+    @CompoundIndex(name = "user_request_time_idx", def = "{'userId': 1, 'requestTime': -1, '_id': -1}"),
+    @CompoundIndex(name = "success_request_time_idx", def = "{'success': 1, 'requestTime': -1, '_id': -1}")
+})
 public class AiUsageLog {
 
     @Id
@@ -36,12 +46,31 @@ public class AiUsageLog {
     // 令牌使用量（可选）
     private Integer tokensUsed;
 
+    // 实际响应的模型名称（可选）
+    private String modelName;
+
+    // 输入令牌数（可选）
+    private Integer inputTokens;
+
+    // 输出令牌数（可选）
+    private Integer outputTokens;
+
+    // 按价格表计算的费用（可选）
+    private Double cost;
+
     // 请求内容摘要（可选）
     private String requestSummary;
 
     // 响应内容摘要（可选）
     private String responseSummary;
 
+    // 链路追踪ID，可在 /api/admin/traces/{traceId} 查看各阶段耗时（可选）
+    private String traceId;
+
+    // 过期时间，由TTL索引到期删除；为空时永久保留
+    @Indexed(name = "expire_at_ttl_idx", expireAfter = "0s")
+    private LocalDateTime expireAt;
+
     // 构造函数
     public AiUsageLog() {
         this.requestTime = LocalDateTime.now();
@@ -112,6 +141,38 @@ public class AiUsageLog {
         this.tokensUsed = tokensUsed;
     }
 
+    public String getModelName() {
+        return modelName;
+    }
+
+    public void setModelName(String modelName) {
+        this.modelName = modelName;
+    }
+
+    public Integer getInputTokens() {
+        return inputTokens;
+    }
+
+    public void setInputTokens(Integer inputTokens) {
+        this.inputTokens = inputTokens;
+    }
+
+    public Integer getOutputTokens() {
+        return outputTokens;
+    }
+
+    public void setOutputTokens(Integer outputTokens) {
+        this.outputTokens = outputTokens;
+    }
+
+    public Double getCost() {
+        return cost;
+    }
+
+    public void setCost(Double cost) {
+        this.cost = cost;
+    }
+
     public String getRequestSummary() {
         return requestSummary;
     }
@@ -128,6 +189,22 @@ public class AiUsageLog {
         this.responseSummary = responseSummary;
     }
 
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public void setTraceId(String traceId) {
+        this.traceId = traceId;
+    }
+
+    public LocalDateTime getExpireAt() {
+        return expireAt;
+    }
+
+    public void setExpireAt(LocalDateTime expireAt) {
+        this.expireAt = expireAt;
+    }
+
     /**
      * 创建成功日志
      */
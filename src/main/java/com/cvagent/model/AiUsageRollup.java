@@ -0,0 +1,173 @@
+package com.cvagent.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AI使用时间桶汇总实体
+ * 每个服务每分钟、每小时各一个文档，写入日志时以$inc累加；报表和健康检查读取汇总而不是原始日志
+ */
+@Document(collection = "ai_usage_rollups")
+@CompoundIndex(name = "granularity_bucket_service_idx", def = "{'granularity': 1, 'bucketStart': 1, 'serviceType': 1}")
+public class AiUsageRollup {
+
+    public static final String GRANULARITY_MINUTE = "minute";
+    public static final String GRANULARITY_HOUR = "hour";
+
+    // 粒度|服务类型|桶起点
+    @Id
+    private String id;
+
+    private String granularity;
+
+    private String serviceType;
+
+    // 桶起点
+    private LocalDateTime bucketStart;
+
+    private long count;
+
+    private long errors;
+
+    // 响应时间总和与最大值（毫秒）
+    private long latencySum;
+
+    private long latencyMax;
+
+    // 延迟直方图：LatencyHistogram的桶序号 -> 次数，只保存出现过的桶
+    private Map<String, Long> latencyBuckets = new HashMap<>();
+
+    private long inputTokens;
+
+    private long outputTokens;
+
+    private long tokensUsed;
+
+    private double cost;
+
+    // 过期时间，由TTL索引到期删除；为空时永久保留
+    @Indexed(name = "expire_at_ttl_idx", expireAfter = "0s")
+    private LocalDateTime expireAt;
+
+    public static String idOf(String granularity, String serviceType, LocalDateTime bucketStart) {
+        return granularity + "|" + serviceType + "|" + bucketStart;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(String granularity) {
+        this.granularity = granularity;
+    }
+
+    public String getServiceType() {
+        return serviceType;
+    }
+
+    public void setServiceType(String serviceType) {
+        this.serviceType = serviceType;
+    }
+
+    public LocalDateTime getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(LocalDateTime bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public void setErrors(long errors) {
+        this.errors = errors;
+    }
+
+    public long getLatencySum() {
+        return latencySum;
+    }
+
+    public void setLatencySum(long latencySum) {
+        this.latencySum = latencySum;
+    }
+
+    public long getLatencyMax() {
+        return latencyMax;
+    }
+
+    public void setLatencyMax(long latencyMax) {
+        this.latencyMax = latencyMax;
+    }
+
+    public Map<String, Long> getLatencyBuckets() {
+        return latencyBuckets;
+    }
+
+    public void setLatencyBuckets(Map<String, Long> latencyBuckets) {
+        this.latencyBuckets = latencyBuckets;
+    }
+
+    public long getInputTokens() {
+        return inputTokens;
+    }
+
+    public void setInputTokens(long inputTokens) {
+        this.inputTokens = inputTokens;
+    }
+
+    public long getOutputTokens() {
+        return outputTokens;
+    }
+
+    public void setOutputTokens(long outputTokens) {
+        this.outputTokens = outputTokens;
+    }
+
+    public long getTokensUsed() {
+        return tokensUsed;
+    }
+
+    public void setTokensUsed(long tokensUsed) {
+        this.tokensUsed = tokensUsed;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public void setCost(double cost) {
+        this.cost = cost;
+    }
+
+    public LocalDateTime getExpireAt() {
+        return expireAt;
+    }
+
+    public void setExpireAt(LocalDateTime expireAt) {
+        this.expireAt = expireAt;
+    }
+}
@@ -0,0 +1,205 @@
+package com.cvagent.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 用户每日AI用量实体
+ * 每个用户每天一个文档，写入日志时以$inc累加；配额检查和用量查询只读这些文档，与日志总量无关
+ */
+@Document(collection = "ai_user_daily_usage")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_date_idx", def = "{'userId': 1, 'date': -1}"),
+    @CompoundIndex(name = "date_user_idx", def = "{'date': 1, 'userId': 1}")
+})
+public class AiUserDailyUsage {
+
+    // 用户ID|日期
+    @Id
+    private String id;
+
+    private String userId;
+
+    private LocalDate date;
+
+    private long requests;
+
+    private long errors;
+
+    private long inputTokens;
+
+    private long outputTokens;
+
+    private long tokensUsed;
+
+    // 响应时间总和（毫秒）
+    private long latencySum;
+
+    private double cost;
+
+    // 按服务类型的用量
+    private Map<String, ServiceUsage> services = new HashMap<>();
+
+    // 过期时间，由TTL索引到期删除；为空时永久保留
+    @Indexed(name = "expire_at_ttl_idx", expireAfter = "0s")
+    private LocalDateTime expireAt;
+
+    public static String idOf(String userId, LocalDate date) {
+        return userId + "|" + date;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public void setDate(LocalDate date) {
+        this.date = date;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public void setRequests(long requests) {
+        this.requests = requests;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public void setErrors(long errors) {
+        this.errors = errors;
+    }
+
+    public long getInputTokens() {
+        return inputTokens;
+    }
+
+    public void setInputTokens(long inputTokens) {
+        this.inputTokens = inputTokens;
+    }
+
+    public long getOutputTokens() {
+        return outputTokens;
+    }
+
+    public void setOutputTokens(long outputTokens) {
+        this.outputTokens = outputTokens;
+    }
+
+    public long getTokensUsed() {
+        return tokensUsed;
+    }
+
+    public void setTokensUsed(long tokensUsed) {
+        this.tokensUsed = tokensUsed;
+    }
+
+    public long getLatencySum() {
+        return latencySum;
+    }
+
+    public void setLatencySum(long latencySum) {
+        this.latencySum = latencySum;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public void setCost(double cost) {
+        this.cost = cost;
+    }
+
+    public Map<String, ServiceUsage> getServices() {
+        return services;
+    }
+
+    public void setServices(Map<String, ServiceUsage> services) {
+        this.services = services;
+    }
+
+    public LocalDateTime getExpireAt() {
+        return expireAt;
+    }
+
+    public void setExpireAt(LocalDateTime expireAt) {
+        this.expireAt = expireAt;
+    }
+
+    /**
+     * 单个服务类型的用量
+     */
+    public static class ServiceUsage {
+        private long requests;
+        private long errors;
+        private long tokensUsed;
+        private long latencySum;
+        private double cost;
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public void setRequests(long requests) {
+            this.requests = requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public void setErrors(long errors) {
+            this.errors = errors;
+        }
+
+        public long getTokensUsed() {
+            return tokensUsed;
+        }
+
+        public void setTokensUsed(long tokensUsed) {
+            this.tokensUsed = tokensUsed;
+        }
+
+        public long getLatencySum() {
+            return latencySum;
+        }
+
+        public void setLatencySum(long latencySum) {
+            this.latencySum = latencySum;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        public void setCost(double cost) {
+            this.cost = cost;
+        }
+    }
+}
@@ -48,6 +48,7 @@ public class EnhancedResume {
     private List<String> optimizationSuggestions;
     private String aiGeneratedSummary;
     private String optimizationReport;
+    private List<String> optimizedSections; // 已完成优化的章节键，任务重试时跳过
     private LocalDateTime optimizedAt;
 
     // 模板和格式信息
@@ -516,6 +517,9 @@ public class EnhancedResume {
     public String getOptimizationReport() { return optimizationReport; }
     public void setOptimizationReport(String optimizationReport) { this.optimizationReport = optimizationReport; }
 
+    public List<String> getOptimizedSections() { return optimizedSections; }
+    public void setOptimizedSections(List<String> optimizedSections) { this.optimizedSections = optimizedSections; }
+
     public LocalDateTime getOptimizedAt() { return optimizedAt; }
     public void setOptimizedAt(LocalDateTime optimizedAt) { this.optimizedAt = optimizedAt; }
 
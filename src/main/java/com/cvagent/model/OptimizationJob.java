@@ -0,0 +1,142 @@
+package com.cvagent.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 后台优化任务实体
+ * 各节点以租约方式领取任务，租约过期未续期的任务会被其他节点重新领取
+ */
+@Document(collection = "optimization_jobs")
+@CompoundIndexes({
+    @CompoundIndex(name = "status_next_attempt_idx", def = "{'status': 1, 'nextAttemptAt': 1}"),
+    @CompoundIndex(name = "status_lease_idx", def = "{'status': 1, 'leaseExpiresAt': 1}")
+})
+public class OptimizationJob {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @Id
+    private String id;
+
+    private String type;
+
+    @Indexed
+    private String targetId;
+
+    // 未结束的任务为 type:targetId，结束后清除；唯一稀疏索引保证同一目标只有一个进行中的任务
+    @Indexed(unique = true, sparse = true)
+    private String activeKey;
+
+    private String userId;
+
+    private Map<String, Object> payload = new HashMap<>();
+
+    private String status = STATUS_PENDING;
+
+    private int attempts;
+
+    private int maxAttempts;
+
+    private LocalDateTime nextAttemptAt;
+
+    // 领取者标识（节点ID/领取令牌），完成和失败时以此作为条件，过期领取者的写入不会生效
+    private String leaseOwner;
+
+    private LocalDateTime leaseExpiresAt;
+
+    private String lastError;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+
+    // 结束时间，结束的任务保留一段时间后由TTL索引清理
+    @Indexed(expireAfter = "7d")
+    private LocalDateTime finishedAt;
+
+    public OptimizationJob() {
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = LocalDateTime.now();
+        this.nextAttemptAt = this.createdAt;
+    }
+
+    public OptimizationJob(String type, String targetId, String userId, Map<String, Object> payload, int maxAttempts) {
+        this();
+        this.type = type;
+        this.targetId = targetId;
+        this.activeKey = activeKeyOf(type, targetId);
+        this.userId = userId;
+        if (payload != null) {
+            this.payload = new HashMap<>(payload);
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public static String activeKeyOf(String type, String targetId) {
+        return type + ":" + targetId;
+    }
+
+    public boolean isFinished() {
+        return STATUS_COMPLETED.equals(status) || STATUS_FAILED.equals(status);
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getTargetId() { return targetId; }
+    public void setTargetId(String targetId) { this.targetId = targetId; }
+
+    public String getActiveKey() { return activeKey; }
+    public void setActiveKey(String activeKey) { this.activeKey = activeKey; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public Map<String, Object> getPayload() { return payload; }
+    public void setPayload(Map<String, Object> payload) { this.payload = payload; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public int getMaxAttempts() { return maxAttempts; }
+    public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+    public LocalDateTime getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(LocalDateTime nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+
+    public String getLeaseOwner() { return leaseOwner; }
+    public void setLeaseOwner(String leaseOwner) { this.leaseOwner = leaseOwner; }
+
+    public LocalDateTime getLeaseExpiresAt() { return leaseExpiresAt; }
+    public void setLeaseExpiresAt(LocalDateTime leaseExpiresAt) { this.leaseExpiresAt = leaseExpiresAt; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+    public LocalDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(LocalDateTime finishedAt) { this.finishedAt = finishedAt; }
+}
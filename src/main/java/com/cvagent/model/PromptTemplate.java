@@ -0,0 +1,68 @@
+package com.cvagent.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * 提示词模板实体
+ * 每次修改保存为一个新版本，同名模板以启用中的最高版本为准
+ */
+@Document(collection = "prompt_templates")
+@CompoundIndex(name = "name_version", def = "{'name': 1, 'version': -1}", unique = true)
+public class PromptTemplate {
+
+    @Id
+    private String id;
+
+    private String name;
+
+    private Integer version;
+
+    private String content;
+
+    private Boolean active;
+
+    private String changedBy;
+
+    private LocalDateTime createdAt;
+
+    // 最后修改时间，各节点按此字段增量刷新本地模板
+    @Indexed
+    private LocalDateTime updatedAt;
+
+    public PromptTemplate() {
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    public PromptTemplate(String name, Integer version, String content, String changedBy) {
+        this();
+        this.name = name;
+        this.version = version;
+        this.content = content;
+        this.active = true;
+        this.changedBy = changedBy;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public Integer getVersion() { return version; }
+    public void setVersion(Integer version) { this.version = version; }
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+    public Boolean getActive() { return active; }
+    public void setActive(Boolean active) { this.active = active; }
+    public String getChangedBy() { return changedBy; }
+    public void setChangedBy(String changedBy) { this.changedBy = changedBy; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
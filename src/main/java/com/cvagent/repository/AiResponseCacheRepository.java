@@ -0,0 +1,30 @@
+package com.cvagent.repository;
+
+import com.cvagent.model.AiResponseCacheEntry;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * AI响应缓存Repository
+ */
+@Repository
+public interface AiResponseCacheRepository extends MongoRepository<AiResponseCacheEntry, String> {
+
+    /**
+     * 删除指定服务类型的缓存
+     */
+    long deleteByServiceType(String serviceType);
+
+    /**
+     * 统计指定服务类型的缓存条目数
+     */
+    long countByServiceType(String serviceType);
+
+    /**
+     * 按LSH分桶键查找近似匹配的候选条目
+     */
+    List<AiResponseCacheEntry> findTop20ByServiceTypeAndLshBandsIn(String serviceType, Collection<String> lshBands);
+}
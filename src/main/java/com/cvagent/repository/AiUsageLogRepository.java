@@ -24,21 +24,11 @@ public interface AiUsageLogRepository extends MongoRepository<AiUsageLog, String
      */
     List<AiUsageLog> findByRequestTimeAfter(LocalDateTime requestTime);
 
-    /**
-     * 查找指定时间之前的日志
-     */
-    List<AiUsageLog> findByRequestTimeBefore(LocalDateTime requestTime);
-
     /**
      * 查找指定时间范围内的日志
      */
     List<AiUsageLog> findByRequestTimeBetween(LocalDateTime startTime, LocalDateTime endTime);
 
-    /**
-     * 查找失败的日志
-     */
-    List<AiUsageLog> findBySuccessFalse();
-
     /**
      * 根据用户ID查找日志
      */
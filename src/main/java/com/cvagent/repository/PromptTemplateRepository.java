@@ -0,0 +1,36 @@
+package com.cvagent.repository;
+
+import com.cvagent.model.PromptTemplate;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 提示词模板数据访问层
+ */
+@Repository
+public interface PromptTemplateRepository extends MongoRepository<PromptTemplate, String> {
+
+    /**
+     * 获取模板启用中的最新版本
+     */
+    Optional<PromptTemplate> findFirstByNameAndActiveTrueOrderByVersionDesc(String name);
+
+    /**
+     * 获取模板的最大版本（含已停用的版本）
+     */
+    Optional<PromptTemplate> findFirstByNameOrderByVersionDesc(String name);
+
+    /**
+     * 获取模板的所有版本
+     */
+    List<PromptTemplate> findByNameOrderByVersionDesc(String name);
+
+    /**
+     * 获取指定时间之后修改过的模板版本
+     */
+    List<PromptTemplate> findByUpdatedAtAfter(LocalDateTime time);
+}
@@ -1,20 +1,44 @@
 package com.cvagent.service;
 
+import com.cvagent.exception.AiOverloadedException;
 import com.cvagent.model.EnhancedResume;
 import com.cvagent.model.JobRequirement;
+import com.cvagent.model.OptimizationJob;
 import com.cvagent.repository.EnhancedResumeRepository;
 import com.cvagent.repository.JobRequirementRepository;
+import com.cvagent.service.ai.AiUsageContext;
 // import dev.langchain4j.model.chat.ChatLanguageModel; // 临时注释掉
 // import dev.langchain4j.model.input.Prompt;
 // import dev.langchain4j.model.input.PromptTemplate;
 // import dev.langchain4j.service.AiServices;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /**
  * AI简历优化服务
@@ -24,41 +48,88 @@ import java.util.Map;
 @Transactional
 public class AIResumeOptimizationService {
 
+    private static final Logger logger = LoggerFactory.getLogger(AIResumeOptimizationService.class);
+
+    static final String JOB_TYPE = "resume_optimization";
+
+    private static final Pattern SKILL_SEPARATOR = Pattern.compile("[,，、;；]+");
+    private static final Pattern SKILL_BULLET = Pattern.compile("^\\s*(?:[-*•·]|\\d+[.、)])\\s*");
+    private static final int MAX_SKILL_LENGTH = 40;
+
     @Autowired
     private EnhancedResumeRepository enhancedResumeRepository;
 
     @Autowired
     private JobRequirementRepository jobRequirementRepository;
 
-    // @Autowired
-    // private ChatLanguageModel chatLanguageModel;
+    @Autowired
+    private OptimizationJobQueue optimizationJobQueue;
+
+    @PostConstruct
+    public void registerJobHandler() {
+        optimizationJobQueue.registerHandler(JOB_TYPE, new OptimizationJobQueue.JobHandler() {
+            @Override
+            public void handle(OptimizationJob job) {
+                // 队列线程没有安全上下文，AI调用记在提交任务的用户名下
+                AiUsageContext.callAs(job.getUserId(), () -> {
+                    runOptimizationJob(job);
+                    return null;
+                });
+            }
+
+            @Override
+            public void onFailure(OptimizationJob job) {
+                markOptimizationFailed(job);
+            }
+        });
+    }
+
+    @Autowired
+    private AiServiceManager aiServiceManager;
+
+    @Autowired
+    private AiExecutionService aiExecutionService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private AiRateLimiter rateLimiter;
+
+    @Value("${ai.resume-optimization.section-deadline-ms:90000}")
+    private long sectionDeadlineMillis;
 
     /**
      * 优化简历摘要
      */
     public String optimizeSummary(String originalSummary, String jobDescription) {
-        // 简化的优化逻辑，实际应用中应该调用AI服务
-        return "优化后的摘要：" + originalSummary + "（基于招聘要求：" + jobDescription + "）";
+        return aiServiceManager.improveResumeSection(sectionPrompt(originalSummary, jobDescription), "summary");
     }
 
     /**
      * 优化工作经验描述
      */
     public String optimizeExperience(String originalExperience, String jobRequirements) {
-        // 简化的优化逻辑
-        return "优化后的工作经验：" + originalExperience + "（匹配技能要求：" + jobRequirements + "）";
+        return aiServiceManager.improveResumeSection(sectionPrompt(originalExperience, jobRequirements), "experience");
     }
 
     /**
      * 优化技能描述
      */
     public String optimizeSkills(String originalSkills, String requiredSkills) {
-        // 简化的优化逻辑
-        return "优化后的技能：" + originalSkills + "（重点突出：" + requiredSkills + "）";
+        return aiServiceManager.improveResumeSection(sectionPrompt(originalSkills, requiredSkills), "skills");
+    }
+
+    /**
+     * 优化项目经历描述
+     */
+    public String optimizeProject(String originalProject, String jobDescription) {
+        return aiServiceManager.improveResumeSection(sectionPrompt(originalProject, jobDescription), "project");
     }
 
     /**
      * 全面优化简历
+     * 先保存状态为processing的优化副本，各部分的优化作为后台任务执行，调用方通过optimizationStatus轮询
      */
     public EnhancedResume optimizeResume(String resumeId, String jobRequirementId) {
         EnhancedResume resume = enhancedResumeRepository.findById(resumeId)
@@ -67,72 +138,277 @@ public class AIResumeOptimizationService {
         JobRequirement jobRequirement = jobRequirementRepository.findById(jobRequirementId)
                 .orElseThrow(() -> new RuntimeException("招聘需求不存在"));
 
+        // 后台任务不经过用户限流，提交时按各章节的预估token扣减用户配额，被拒绝时不留下processing副本
+        long estimatedTokens = estimateTokens(resume, jobRequirement);
+        rateLimiter.acquireUser(resume.getUserId(), estimatedTokens);
+
         // 创建优化后的简历副本
         EnhancedResume optimizedResume = createOptimizedCopy(resume);
         optimizedResume.setJobRequirementId(jobRequirementId);
         optimizedResume.setOptimizationStatus("processing");
+        optimizedResume = enhancedResumeRepository.save(optimizedResume);
+
+        // 提交后台任务优化各个部分
+        if (optimizationJobQueue.submit(JOB_TYPE, optimizedResume.getId(), optimizedResume.getUserId(),
+                Map.of("jobRequirementId", jobRequirement.getId())).isEmpty()) {
+            // 已有进行中的任务，本次提交不会执行
+            rateLimiter.refundUser(resume.getUserId(), estimatedTokens);
+        }
+
+        return optimizedResume;
+    }
 
-        // 异步优化各个部分
-        optimizeResumeSectionsAsync(optimizedResume, jobRequirement);
+    /**
+     * 执行简历优化任务，已完成的简历直接跳过
+     * 各章节在同一截止时间内并发优化，每个章节完成即单独持久化；到期未完成的章节被取消并保留原文，
+     * 结果按章节顺序合并，耗时取决于最慢的章节。重试时跳过已完成的章节
+     */
+    void runOptimizationJob(OptimizationJob job) {
+        EnhancedResume resume = enhancedResumeRepository.findById(job.getTargetId()).orElse(null);
+        if (resume == null || "completed".equals(resume.getOptimizationStatus())) {
+            return;
+        }
+
+        String jobRequirementId = (String) job.getPayload().get("jobRequirementId");
+        JobRequirement jobRequirement = jobRequirementRepository.findById(jobRequirementId)
+                .orElseThrow(() -> new RuntimeException("招聘需求不存在"));
+
+        List<String> optimizedSections = resume.getOptimizedSections() != null
+                ? new ArrayList<>(resume.getOptimizedSections()) : new ArrayList<>();
+        List<ResumeSection> sections = collectSections(resume, jobRequirement);
+        sections.removeIf(section -> optimizedSections.contains(section.key));
 
-        return enhancedResumeRepository.save(optimizedResume);
+        Map<String, Object> results = optimizeSectionsConcurrently(resume.getId(), job.getUserId(), sections);
+        if (!sections.isEmpty() && results.isEmpty()) {
+            // 没有任何章节成功，交给任务队列退避重试
+            throw new RuntimeException("所有章节优化均失败");
+        }
+
+        // 按章节顺序合并，结果与完成先后无关
+        for (ResumeSection section : sections) {
+            if (results.containsKey(section.key)) {
+                section.apply.accept(results.get(section.key));
+                optimizedSections.add(section.key);
+            }
+        }
+        resume.setOptimizedSections(optimizedSections);
+
+        // 计算匹配度
+        double matchScore = calculateAdvancedMatchScore(resume, jobRequirement);
+        resume.setMatchScore(matchScore);
+
+        // 生成优化报告
+        String optimizationReport = generateOptimizationReport(resume, jobRequirement);
+        resume.setOptimizationReport(optimizationReport);
+
+        // 更新状态
+        resume.setOptimizationStatus("completed");
+        resume.setOptimizedAt(LocalDateTime.now());
+
+        // 设置优化指标
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("keywordMatch", matchScore * 0.4);
+        metrics.put("skillRelevance", matchScore * 0.3);
+        metrics.put("experienceMatch", matchScore * 0.2);
+        metrics.put("formatScore", matchScore * 0.1);
+        metrics.put("optimizationTime", System.currentTimeMillis());
+        metrics.put("sectionsOptimized", optimizedSections.size());
+        metrics.put("sectionsSkipped", sections.size() - results.size());
+        resume.setOptimizationMetrics(metrics);
+
+        enhancedResumeRepository.save(resume);
     }
 
     /**
-     * 异步优化简历各个部分
+     * 并发优化各章节，返回截止时间内成功并已持久化的章节结果；返回前取消所有未完成的章节。
+     * 截止后才返回的模型调用（不响应中断）不再持久化，保证数据库与返回结果一致
      */
-    private void optimizeResumeSectionsAsync(EnhancedResume resume, JobRequirement jobRequirement) {
-        new Thread(() -> {
+    Map<String, Object> optimizeSectionsConcurrently(String resumeId, String userId, List<ResumeSection> sections) {
+        SectionResults results = new SectionResults();
+        Map<String, FutureTask<Object>> tasks = new LinkedHashMap<>();
+        for (ResumeSection section : sections) {
+            FutureTask<Object> task = new FutureTask<>(() -> AiUsageContext.callAs(userId, () -> {
+                Object value = section.convert.apply(section.optimizer.get());
+                if (!results.commit(section.key, value, () -> persistSection(resumeId, section, value))) {
+                    logger.info("简历 {} 的章节 {} 在截止时间后完成，结果已丢弃", resumeId, section.key);
+                }
+                return value;
+            }));
+            tasks.put(section.key, task);
             try {
-                // 优化个人信息摘要
-                if (resume.getPersonalInfo() != null && resume.getPersonalInfo().getSummary() != null) {
-                    String optimizedSummary = optimizeSummary(
-                        resume.getPersonalInfo().getSummary(),
-                        jobRequirement.getDescription()
-                    );
-                    resume.getPersonalInfo().setSummary(optimizedSummary);
+                aiExecutionService.executor().execute(task);
+            } catch (AiOverloadedException e) {
+                task.cancel(false);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sectionDeadlineMillis);
+        try {
+            for (Map.Entry<String, FutureTask<Object>> entry : tasks.entrySet()) {
+                try {
+                    long remaining = Math.max(0, deadline - System.nanoTime());
+                    entry.getValue().get(remaining, TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | CancellationException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    logger.warn("简历 {} 的章节 {} 优化失败: {}", resumeId, entry.getKey(), cause.getMessage());
+                } catch (TimeoutException e) {
+                    logger.warn("简历 {} 的章节 {} 超过截止时间 {}ms，已取消", resumeId, entry.getKey(), sectionDeadlineMillis);
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            tasks.values().forEach(task -> task.cancel(true));
+        }
+        return results.close();
+    }
+
+    /**
+     * 单独持久化一个章节的优化结果，任务中断后重试不必重新优化该章节
+     */
+    private void persistSection(String resumeId, ResumeSection section, Object value) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(resumeId)),
+                new Update().set(section.path, value).addToSet("optimizedSections", section.key),
+                EnhancedResume.class);
+    }
+
+    /**
+     * 按固定顺序收集需要优化的章节：摘要、每段工作经验、技能、每个项目
+     */
+    private List<ResumeSection> collectSections(EnhancedResume resume, JobRequirement jobRequirement) {
+        String jobDescription = jobRequirement.getDescription();
+        List<ResumeSection> sections = new ArrayList<>();
+
+        if (resume.getSummary() != null && !resume.getSummary().isBlank()) {
+            sections.add(new ResumeSection("summary", "summary",
+                    () -> optimizeSummary(resume.getSummary(), jobDescription),
+                    text -> text, value -> resume.setSummary((String) value)));
+        }
 
-                // 优化工作经验
-                if (resume.getWorkExperience() != null) {
-                    // 这里需要根据实际的工作经验数据结构来优化
-                    // 暂时提供一个示例
+        if (resume.getWorkExperience() != null && resume.getWorkExperience().getExperiences() != null) {
+            List<EnhancedResume.WorkExperience.ExperienceItem> experiences = resume.getWorkExperience().getExperiences();
+            for (int i = 0; i < experiences.size(); i++) {
+                EnhancedResume.WorkExperience.ExperienceItem item = experiences.get(i);
+                String content = describe(item.getPosition(), item.getCompany(), item.getDescription(), item.getAchievements());
+                if (content.isEmpty()) {
+                    continue;
                 }
+                sections.add(new ResumeSection("experience[" + i + "]", "workExperience.experiences." + i + ".description",
+                        () -> optimizeExperience(content, jobDescription),
+                        text -> text, value -> item.setDescription((String) value)));
+            }
+        }
 
-                // 优化技能
-                if (resume.getSkills() != null) {
-                    // 这里需要根据实际的技能数据结构来优化
-                    // 暂时提供一个示例
+        if (resume.getSkills() != null && resume.getSkills().getTechnicalSkills() != null
+                && !resume.getSkills().getTechnicalSkills().isEmpty()) {
+            EnhancedResume.Skills skills = resume.getSkills();
+            String required = jobRequirement.getSkills() != null ? String.join("、", jobRequirement.getSkills()) : jobDescription;
+            sections.add(new ResumeSection("skills", "skills.technicalSkills",
+                    () -> optimizeSkills(String.join("、", skills.getTechnicalSkills()), required),
+                    AIResumeOptimizationService::parseSkills,
+                    value -> skills.setTechnicalSkills(castList(value))));
+        }
+
+        if (resume.getProjects() != null && resume.getProjects().getProjects() != null) {
+            List<EnhancedResume.Projects.ProjectItem> projects = resume.getProjects().getProjects();
+            for (int i = 0; i < projects.size(); i++) {
+                EnhancedResume.Projects.ProjectItem item = projects.get(i);
+                String content = describe(item.getName(), item.getRole(), item.getDescription(), item.getAchievements());
+                if (content.isEmpty()) {
+                    continue;
                 }
+                sections.add(new ResumeSection("project[" + i + "]", "projects.projects." + i + ".description",
+                        () -> optimizeProject(content, jobDescription),
+                        text -> text, value -> item.setDescription((String) value)));
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * 预估整份简历优化消耗的token：每个章节的提示词都附带职位要求
+     */
+    private long estimateTokens(EnhancedResume resume, JobRequirement jobRequirement) {
+        long tokens = 0;
+        for (String content : sectionContents(resume)) {
+            tokens += AiRateLimiter.estimateTokens(content, jobRequirement.getDescription());
+        }
+        return tokens;
+    }
+
+    private static List<String> sectionContents(EnhancedResume resume) {
+        List<String> contents = new ArrayList<>();
+        if (resume.getSummary() != null && !resume.getSummary().isBlank()) {
+            contents.add(resume.getSummary());
+        }
+        if (resume.getWorkExperience() != null && resume.getWorkExperience().getExperiences() != null) {
+            for (EnhancedResume.WorkExperience.ExperienceItem item : resume.getWorkExperience().getExperiences()) {
+                contents.add(describe(item.getPosition(), item.getCompany(), item.getDescription(), item.getAchievements()));
+            }
+        }
+        if (resume.getSkills() != null && resume.getSkills().getTechnicalSkills() != null) {
+            contents.add(String.join("、", resume.getSkills().getTechnicalSkills()));
+        }
+        if (resume.getProjects() != null && resume.getProjects().getProjects() != null) {
+            for (EnhancedResume.Projects.ProjectItem item : resume.getProjects().getProjects()) {
+                contents.add(describe(item.getName(), item.getRole(), item.getDescription(), item.getAchievements()));
+            }
+        }
+        contents.removeIf(String::isEmpty);
+        return contents;
+    }
+
+    private static String describe(String title, String subtitle, String description, List<String> achievements) {
+        StringBuilder content = new StringBuilder();
+        if (title != null) content.append(title).append(' ');
+        if (subtitle != null) content.append(subtitle);
+        if (description != null) content.append('\n').append(description);
+        if (achievements != null) {
+            achievements.forEach(achievement -> content.append('\n').append("- ").append(achievement));
+        }
+        return content.toString().trim();
+    }
+
+    private static String sectionPrompt(String content, String jobDescription) {
+        if (jobDescription == null || jobDescription.isBlank()) {
+            return content;
+        }
+        return content + "\n\n目标职位要求：\n" + jobDescription;
+    }
 
-                // 计算匹配度
-                double matchScore = calculateAdvancedMatchScore(resume, jobRequirement);
-                resume.setMatchScore(matchScore);
-
-                // 生成优化报告
-                String optimizationReport = generateOptimizationReport(resume, jobRequirement);
-                resume.setOptimizationReport(optimizationReport);
-
-                // 更新状态
-                resume.setOptimizationStatus("completed");
-                resume.setOptimizedAt(LocalDateTime.now());
-
-                // 设置优化指标
-                resume.setOptimizationMetrics(Map.of(
-                        "keywordMatch", matchScore * 0.4,
-                        "skillRelevance", matchScore * 0.3,
-                        "experienceMatch", matchScore * 0.2,
-                        "formatScore", matchScore * 0.1,
-                        "optimizationTime", System.currentTimeMillis()
-                ));
-
-                enhancedResumeRepository.save(resume);
-            } catch (Exception e) {
-                resume.setOptimizationStatus("failed");
-                resume.setOptimizationReport("优化失败: " + e.getMessage());
-                enhancedResumeRepository.save(resume);
+    /**
+     * 把模型返回的技能文本解析为技能列表，解析不出任何技能时视为该章节失败
+     */
+    static List<String> parseSkills(String text) {
+        LinkedHashSet<String> skills = new LinkedHashSet<>();
+        for (String line : text.split("\\r?\\n")) {
+            for (String part : SKILL_SEPARATOR.split(SKILL_BULLET.matcher(line).replaceFirst(""))) {
+                String skill = part.trim();
+                if (!skill.isEmpty() && skill.length() <= MAX_SKILL_LENGTH) {
+                    skills.add(skill);
+                }
             }
-        }).start();
+        }
+        if (skills.isEmpty()) {
+            throw new IllegalStateException("无法解析技能列表");
+        }
+        return new ArrayList<>(skills);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> castList(Object value) {
+        return (List<String>) value;
+    }
+
+    /**
+     * 重试次数用尽后标记优化失败
+     */
+    void markOptimizationFailed(OptimizationJob job) {
+        enhancedResumeRepository.findById(job.getTargetId()).ifPresent(resume -> {
+            resume.setOptimizationStatus("failed");
+            resume.setOptimizationReport("优化失败: " + job.getLastError());
+            enhancedResumeRepository.save(resume);
+        });
     }
 
     /**
@@ -149,6 +425,7 @@ public class AIResumeOptimizationService {
         copy.setIsPublic(false);
 
         // 复制原始数据
+        copy.setSummary(original.getSummary());
         copy.setPersonalInfo(original.getPersonalInfo());
         copy.setWorkExperience(original.getWorkExperience());
         copy.setEducation(original.getEducation());
@@ -269,4 +546,46 @@ public class AIResumeOptimizationService {
             return "1.0";
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 一个待优化的章节：键、持久化路径、优化调用、结果转换和合并方式
+     */
+    static class ResumeSection {
+        private final String key;
+        private final String path;
+        private final Supplier<String> optimizer;
+        private final Function<String, Object> convert;
+        private final Consumer<Object> apply;
+
+        ResumeSection(String key, String path, Supplier<String> optimizer,
+                      Function<String, Object> convert, Consumer<Object> apply) {
+            this.key = key;
+            this.path = path;
+            this.optimizer = optimizer;
+            this.convert = convert;
+            this.apply = apply;
+        }
+    }
+
+    /**
+     * 截止时间内的章节结果：持久化与截止在同一把锁下，截止后完成的章节既不写库也不计入结果
+     */
+    private static class SectionResults {
+        private final Map<String, Object> values = new HashMap<>();
+        private boolean closed;
+
+        synchronized boolean commit(String key, Object value, Runnable persist) {
+            if (closed) {
+                return false;
+            }
+            persist.run();
+            values.put(key, value);
+            return true;
+        }
+
+        synchronized Map<String, Object> close() {
+            closed = true;
+            return new HashMap<>(values);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.cvagent.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 批量处理任务服务
+ * 大批量请求以后台任务方式执行，调用方凭任务ID轮询结果或订阅逐条完成事件
+ */
+@Service
+public class AiBatchJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiBatchJobService.class);
+
+    @Autowired
+    private AiServiceManager aiServiceManager;
+
+    @Value("${ai.batch.deadline-ms:300000}")
+    private long deadlineMillis;
+
+    @Value("${ai.batch.job-retention-minutes:60}")
+    private long retentionMinutes;
+
+    private Cache<String, BatchJob> jobs;
+
+    @PostConstruct
+    public void init() {
+        jobs = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(retentionMinutes))
+                .build();
+    }
+
+    /**
+     * 提交批量任务，立即返回任务句柄
+     */
+    public BatchJob submit(String userId, Map<String, Object> requests) {
+        BatchJob job = new BatchJob(UUID.randomUUID().toString(), userId, new ArrayList<>(requests.keySet()));
+        jobs.put(job.getJobId(), job);
+
+        AiServiceManager.BatchRun run = aiServiceManager.runBatch(requests, job::recordResult);
+        run.completion()
+                .orTimeout(deadlineMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        run.cancel();
+                        logger.warn("批量任务 {} 超过截止时间，已完成 {}/{}", job.getJobId(), job.getCompleted(), job.getTotal());
+                    }
+                    job.finish(error != null);
+                });
+
+        logger.info("用户 {} 提交批量任务 {}，共 {} 个请求", userId, job.getJobId(), job.getTotal());
+        return job;
+    }
+
+    /**
+     * 获取任务，只有提交者可以访问
+     */
+    public Optional<BatchJob> getJob(String jobId, String userId) {
+        BatchJob job = jobs.getIfPresent(jobId);
+        if (job == null || !job.getUserId().equals(userId)) {
+            return Optional.empty();
+        }
+        return Optional.of(job);
+    }
+
+    /**
+     * 批量任务完成事件监听器
+     */
+    public interface BatchJobListener {
+
+        void onItem(String key, String result);
+
+        void onComplete(BatchJob job);
+    }
+
+    /**
+     * 批量任务
+     */
+    public static class BatchJob {
+        private final String jobId;
+        private final String userId;
+        private final List<String> keys;
+        private final Map<String, String> results = new LinkedHashMap<>();
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private LocalDateTime finishedAt;
+        private String status = "RUNNING";
+
+        private BatchJob(String jobId, String userId, List<String> keys) {
+            this.jobId = jobId;
+            this.userId = userId;
+            this.keys = keys;
+        }
+
+        private void recordResult(String key, String result) {
+            List<Subscription> snapshot;
+            synchronized (this) {
+                if (finishedAt != null) {
+                    return;
+                }
+                results.put(key, result);
+                subscriptions.forEach(subscription -> subscription.enqueue(listener -> listener.onItem(key, result)));
+                snapshot = new ArrayList<>(subscriptions);
+            }
+            snapshot.forEach(Subscription::drain);
+        }
+
+        private void finish(boolean deadlineExceeded) {
+            List<Subscription> snapshot;
+            synchronized (this) {
+                if (finishedAt != null) {
+                    return;
+                }
+                // 截止时未完成的请求标记为超时，保留已完成的部分结果
+                keys.forEach(key -> results.putIfAbsent(key, "处理超时"));
+                status = deadlineExceeded ? "PARTIAL" : "COMPLETED";
+                finishedAt = LocalDateTime.now();
+                subscriptions.forEach(subscription -> subscription.enqueue(listener -> listener.onComplete(this)));
+                snapshot = new ArrayList<>(subscriptions);
+                subscriptions.clear();
+            }
+            snapshot.forEach(Subscription::drain);
+        }
+
+        /**
+         * 订阅任务事件，先补发已完成的结果；任务已结束时随后回调onComplete。
+         * 补发与后续事件在同一把锁下排队，监听器按发布顺序收到事件，onComplete总在最后
+         */
+        public void subscribe(BatchJobListener listener) {
+            Subscription subscription = new Subscription(listener);
+            synchronized (this) {
+                results.forEach((key, result) -> subscription.enqueue(l -> l.onItem(key, result)));
+                if (finishedAt != null) {
+                    subscription.enqueue(l -> l.onComplete(this));
+                } else {
+                    subscriptions.add(subscription);
+                }
+            }
+            subscription.drain();
+        }
+
+        public synchronized void unsubscribe(BatchJobListener listener) {
+            subscriptions.removeIf(subscription -> subscription.listener == listener);
+        }
+
+        /**
+         * 任务状态快照
+         */
+        public synchronized Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("jobId", jobId);
+            map.put("status", status);
+            map.put("total", keys.size());
+            map.put("completed", results.size());
+            map.put("results", new LinkedHashMap<>(results));
+            map.put("createdAt", createdAt);
+            map.put("finishedAt", finishedAt);
+            return map;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public int getTotal() {
+            return keys.size();
+        }
+
+        public synchronized int getCompleted() {
+            return results.size();
+        }
+
+        public synchronized String getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * 单个订阅者的事件队列：事件在任务锁内入队，在锁外按入队顺序逐个投递，
+     * 同一时刻只有一个线程投递，慢订阅者不会阻塞任务的结果写入
+     */
+    private static class Subscription {
+        private final BatchJobListener listener;
+        private final Queue<Consumer<BatchJobListener>> pending = new ArrayDeque<>();
+        private boolean draining;
+
+        private Subscription(BatchJobListener listener) {
+            this.listener = listener;
+        }
+
+        private synchronized void enqueue(Consumer<BatchJobListener> event) {
+            pending.add(event);
+        }
+
+        private void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                Consumer<BatchJobListener> event;
+                synchronized (this) {
+                    event = pending.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    event.accept(listener);
+                } catch (RuntimeException e) {
+                    logger.warn("批量任务事件投递失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
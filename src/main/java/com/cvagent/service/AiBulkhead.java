@@ -0,0 +1,143 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiOverloadedException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 单个模型的舱壁隔离
+ * 信号量限制并发调用数，超出部分进入有界等待队列，队列满或等待超时立即拒绝
+ */
+public class AiBulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long maxWaitMillis;
+
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // 调用占用时长的指数滑动平均（毫秒），用于估算Retry-After
+    private final AtomicLong averageHoldMillis = new AtomicLong(1000);
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public AiBulkhead(String name, int maxConcurrent, int maxQueue, long maxWaitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * 在舱壁内执行调用，必要时排队等待
+     */
+    public <T> T call(Supplier<T> supplier) {
+        acquire();
+        long startTime = System.currentTimeMillis();
+        try {
+            return supplier.get();
+        } finally {
+            release(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * 获取许可，排队已满或等待超时时抛出AiOverloadedException
+     */
+    public void acquire() {
+        if (permits.tryAcquire()) {
+            accepted.increment();
+            return;
+        }
+
+        if (waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            throw reject("等待队列已满");
+        }
+
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw reject("排队等待超时");
+            }
+            accepted.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject("排队等待被中断");
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * 立即获取许可，不排队（流式请求使用，避免占用请求线程）
+     */
+    public void acquireNow() {
+        if (!permits.tryAcquire()) {
+            throw reject("并发已满");
+        }
+        accepted.increment();
+    }
+
+    /**
+     * 尝试立即获取许可，失败时不排队也不计入拒绝（对冲请求使用，没有空闲许可就不对冲）
+     */
+    public boolean tryAcquire() {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * 释放许可并更新平均占用时长
+     */
+    public void release(long holdMillis) {
+        permits.release();
+        averageHoldMillis.updateAndGet(previous -> (previous * 7 + holdMillis) / 8);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxQueue", maxQueue);
+        stats.put("active", getActiveCount());
+        stats.put("waiting", getWaitingCount());
+        stats.put("accepted", accepted.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("averageHoldMillis", averageHoldMillis.get());
+        return stats;
+    }
+
+    public int getActiveCount() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public int getCapacity() {
+        return maxConcurrent + maxQueue;
+    }
+
+    private AiOverloadedException reject(String reason) {
+        rejected.increment();
+        // 按排在前面的请求数和平均占用时长估算需要等待的秒数
+        long queued = waiting.get() + 1L;
+        long estimateMillis = averageHoldMillis.get() * queued / Math.max(maxConcurrent, 1);
+        long retryAfter = Math.max(1, (estimateMillis + 999) / 1000);
+        return new AiOverloadedException("AI模型繁忙(" + name + ")：" + reason, retryAfter);
+    }
+}
@@ -0,0 +1,193 @@
+package com.cvagent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 模型调用熔断器
+ * 基于最近windowSize次调用的失败率和慢调用率判断是否熔断；
+ * 熔断openMillis后进入半开状态，放行少量探测请求，全部成功才恢复
+ */
+public class AiCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiCircuitBreaker.class);
+
+    private static final int PERCENTILE_REFRESH = 10;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallMillis;
+    private final long openMillis;
+    private final int halfOpenPermits;
+
+    // 滑动窗口（环形缓冲区）
+    private final long[] durations;
+    private final boolean[] failures;
+    private int position;
+    private int size;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+
+    private long notPermittedCalls;
+    private long openTransitions;
+
+    // 延迟分位数缓存，每记录PERCENTILE_REFRESH次重新计算
+    private long[] sortedDurations = new long[0];
+    private int recordsSinceSort;
+
+    public AiCircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                            double slowCallRateThreshold, long slowCallMillis, long openMillis, int halfOpenPermits) {
+        this.name = name;
+        this.durations = new long[windowSize];
+        this.failures = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+        this.halfOpenPermits = halfOpenPermits;
+    }
+
+    /**
+     * 申请调用许可，每次获得许可后必须调用一次onResult
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                notPermittedCalls++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            halfOpenInFlight = 0;
+            halfOpenSuccesses = 0;
+            logger.info("熔断器 {} 进入半开状态", name);
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenPermits) {
+                notPermittedCalls++;
+                return false;
+            }
+            halfOpenInFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * 记录调用结果，durationMillis为0表示不参与慢调用判断（如流式调用）
+     */
+    public synchronized void onResult(long durationMillis, boolean success) {
+        boolean slow = durationMillis > slowCallMillis;
+
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+            if (!success || slow) {
+                open();
+            } else if (++halfOpenSuccesses >= halfOpenPermits) {
+                close();
+            }
+            return;
+        }
+
+        if (state == State.OPEN) {
+            // 熔断前已放行的请求，结果不再影响状态
+            return;
+        }
+
+        durations[position] = durationMillis;
+        failures[position] = !success;
+        position = (position + 1) % durations.length;
+        size = Math.min(size + 1, durations.length);
+        recordsSinceSort++;
+
+        if (size >= minimumCalls && (failureRate() >= failureRateThreshold || slowCallRate() >= slowCallRateThreshold)) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 窗口内调用延迟的分位数，样本不足minSamples时返回-1
+     */
+    public synchronized long latencyPercentile(double quantile, int minSamples) {
+        if (size < minSamples) {
+            return -1;
+        }
+        if (recordsSinceSort >= PERCENTILE_REFRESH || sortedDurations.length != size) {
+            sortedDurations = Arrays.copyOf(durations, size);
+            Arrays.sort(sortedDurations);
+            recordsSinceSort = 0;
+        }
+        int index = (int) Math.ceil(quantile * sortedDurations.length) - 1;
+        return sortedDurations[Math.max(0, Math.min(index, sortedDurations.length - 1))];
+    }
+
+    /**
+     * 获取熔断器状态
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("state", state.name());
+        stats.put("bufferedCalls", size);
+        stats.put("failureRate", failureRate());
+        stats.put("slowCallRate", slowCallRate());
+        stats.put("notPermittedCalls", notPermittedCalls);
+        stats.put("openTransitions", openTransitions);
+        return stats;
+    }
+
+    private double failureRate() {
+        if (size == 0) {
+            return 0.0;
+        }
+        int failed = 0;
+        for (int i = 0; i < size; i++) {
+            if (failures[i]) {
+                failed++;
+            }
+        }
+        return failed * 100.0 / size;
+    }
+
+    private double slowCallRate() {
+        if (size == 0) {
+            return 0.0;
+        }
+        int slow = 0;
+        for (int i = 0; i < size; i++) {
+            if (durations[i] > slowCallMillis) {
+                slow++;
+            }
+        }
+        return slow * 100.0 / size;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        openTransitions++;
+        logger.warn("熔断器 {} 已打开，失败率: {}%, 慢调用率: {}%", name, failureRate(), slowCallRate());
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        position = 0;
+        size = 0;
+        recordsSinceSort = 0;
+        logger.info("熔断器 {} 已恢复", name);
+    }
+}
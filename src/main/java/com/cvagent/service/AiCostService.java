@@ -0,0 +1,277 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.model.AiUsageRollup;
+import com.cvagent.model.AiUserDailyUsage;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.FacetOperation;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AI调用费用统计服务
+ * 按价格表（每千输入/输出令牌的单价）计算每次调用的费用，并通过聚合管道按用户、服务、模型汇总
+ */
+@Service
+public class AiCostService {
+
+    private static final String SOURCE_LOGS = "logs";
+    private static final String SOURCE_ROLLUPS = "rollups";
+    private static final String SOURCE_DAILY_USAGE = "dailyUsage";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private AiUsageRollupService aiUsageRollupService;
+
+    // 与使用日志的默认保留天数一致，0表示永久保留
+    @Value("${ai.usage-log.retention.default-days:30}")
+    private int logRetentionDays;
+
+    @Value("${ai.pricing.currency:CNY}")
+    private String currency;
+
+    @Value("${ai.pricing.default.input-per-1k:0}")
+    private double defaultInputPricePer1k;
+
+    @Value("${ai.pricing.default.output-per-1k:0}")
+    private double defaultOutputPricePer1k;
+
+    /**
+     * 计算一次调用的费用，模型不在价格表中时使用默认单价
+     */
+    public double calculateCost(String modelName, int inputTokens, int outputTokens) {
+        double inputPrice = priceFor(modelName, "input-per-1k", defaultInputPricePer1k);
+        double outputPrice = priceFor(modelName, "output-per-1k", defaultOutputPricePer1k);
+        double cost = inputTokens / 1000.0 * inputPrice + outputTokens / 1000.0 * outputPrice;
+        return round(cost);
+    }
+
+    /**
+     * 按用户汇总费用，按费用降序取前limit个，totalCost为所有用户的合计。
+     * 起点早于使用日志保留期时改读用户每日用量，按整天统计
+     */
+    public Map<String, Object> getCostByUser(LocalDateTime from, LocalDateTime to, int limit) {
+        if (beyondLogRetention(from)) {
+            return aggregateCost(AiUserDailyUsage.class, "userId", "requests",
+                    dateCriteria(from, to).and("userId").ne(null), from, to, limit, SOURCE_DAILY_USAGE);
+        }
+        return aggregateCost(AiUsageLog.class, "userId", null, rangeCriteria(from, to).and("userId").ne(null),
+                from, to, limit, SOURCE_LOGS);
+    }
+
+    /**
+     * 按服务类型汇总费用，起点早于使用日志保留期时改读分钟/小时汇总
+     */
+    public Map<String, Object> getCostByService(LocalDateTime from, LocalDateTime to) {
+        if (beyondLogRetention(from)) {
+            Map<String, CostRow> rows = new HashMap<>();
+            for (AiUsageRollup rollup : aiUsageRollupService.findRollups(from, to, null)) {
+                rows.computeIfAbsent(rollup.getServiceType(), CostRow::new).add(rollup.getCount(),
+                        rollup.getInputTokens(), rollup.getOutputTokens(), rollup.getTokensUsed(), rollup.getCost());
+            }
+            return toResult("serviceType", from, to, rows.values(), SOURCE_ROLLUPS);
+        }
+        return aggregateCost(AiUsageLog.class, "serviceType", null, rangeCriteria(from, to), from, to, 0, SOURCE_LOGS);
+    }
+
+    /**
+     * 按模型汇总费用。汇总数据不区分模型，超出使用日志保留期的部分无法统计，结果中标记为不完整
+     */
+    public Map<String, Object> getCostByModel(LocalDateTime from, LocalDateTime to) {
+        Map<String, Object> result = aggregateCost(AiUsageLog.class, "modelName", null,
+                rangeCriteria(from, to).and("modelName").ne(null), from, to, 0, SOURCE_LOGS);
+        if (beyondLogRetention(from)) {
+            result.put("partial", true);
+            result.put("availableFrom", LocalDateTime.now().minusDays(logRetentionDays));
+        }
+        return result;
+    }
+
+    /**
+     * 指定用户按服务类型汇总的费用，起点早于使用日志保留期时改读用户每日用量（按服务只记录令牌总数）
+     */
+    public Map<String, Object> getUserCost(String userId, LocalDateTime from, LocalDateTime to) {
+        Map<String, Object> result;
+        if (beyondLogRetention(from)) {
+            Map<String, CostRow> rows = new HashMap<>();
+            for (AiUserDailyUsage day : mongoTemplate.find(Query.query(dateCriteria(from, to).and("userId").is(userId)),
+                    AiUserDailyUsage.class)) {
+                if (day.getServices() != null) {
+                    day.getServices().forEach((service, usage) -> rows.computeIfAbsent(service, CostRow::new)
+                            .add(usage.getRequests(), 0, 0, usage.getTokensUsed(), usage.getCost()));
+                }
+            }
+            result = toResult("serviceType", from, to, rows.values(), SOURCE_DAILY_USAGE);
+        } else {
+            result = aggregateCost(AiUsageLog.class, "serviceType", null, rangeCriteria(from, to).and("userId").is(userId),
+                    from, to, 0, SOURCE_LOGS);
+        }
+        result.put("userId", userId);
+        return result;
+    }
+
+    /**
+     * 分组汇总费用。合计在$limit之前计算，和明细放在同一个$facet中一次返回
+     *
+     * @param countField 请求数字段，为空时按文档数计数
+     */
+    private Map<String, Object> aggregateCost(Class<?> source, String groupField, String countField, Criteria criteria,
+                                              LocalDateTime from, LocalDateTime to, int limit, String sourceName) {
+        GroupOperation group = Aggregation.group(groupField);
+        group = countField == null ? group.count().as("requests") : group.sum(countField).as("requests");
+        group = group.sum("inputTokens").as("inputTokens")
+                .sum("outputTokens").as("outputTokens")
+                .sum("tokensUsed").as("totalTokens")
+                .sum("cost").as("cost");
+
+        List<AggregationOperation> itemOperations = new ArrayList<>();
+        itemOperations.add(Aggregation.sort(Sort.Direction.DESC, "cost"));
+        if (limit > 0) {
+            itemOperations.add(Aggregation.limit(limit));
+        }
+        FacetOperation facet = Aggregation.facet(itemOperations.toArray(new AggregationOperation[0])).as("items")
+                .and(Aggregation.group().sum("cost").as("cost")).as("total");
+
+        Document output = mongoTemplate.aggregate(
+                Aggregation.newAggregation(Aggregation.match(criteria), group, facet), source, Document.class)
+                .getUniqueMappedResult();
+
+        List<CostRow> rows = new ArrayList<>();
+        double totalCost = 0;
+        if (output != null) {
+            for (Document document : output.getList("items", Document.class, List.of())) {
+                CostRow row = new CostRow(document.get("_id"));
+                row.add(numberOf(document.get("requests")).longValue(),
+                        numberOf(document.get("inputTokens")).longValue(),
+                        numberOf(document.get("outputTokens")).longValue(),
+                        numberOf(document.get("totalTokens")).longValue(),
+                        numberOf(document.get("cost")).doubleValue());
+                rows.add(row);
+            }
+            for (Document total : output.getList("total", Document.class, List.of())) {
+                totalCost += numberOf(total.get("cost")).doubleValue();
+            }
+        }
+
+        Map<String, Object> result = toResult(groupField, from, to, rows, sourceName);
+        result.put("totalCost", round(totalCost));
+        return result;
+    }
+
+    /**
+     * 组装结果，明细按费用降序，totalCost为明细合计（调用方已单独计算时会覆盖）
+     */
+    private Map<String, Object> toResult(String groupField, LocalDateTime from, LocalDateTime to,
+                                         Collection<CostRow> costRows, String sourceName) {
+        List<CostRow> sorted = new ArrayList<>(costRows);
+        sorted.sort(Comparator.comparingDouble((CostRow row) -> row.cost).reversed());
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        double totalCost = 0;
+        for (CostRow costRow : sorted) {
+            Map<String, Object> row = new HashMap<>();
+            row.put(groupField, costRow.key);
+            row.put("requests", costRow.requests);
+            row.put("inputTokens", costRow.inputTokens);
+            row.put("outputTokens", costRow.outputTokens);
+            row.put("totalTokens", costRow.totalTokens);
+            row.put("cost", costRow.cost);
+            totalCost += costRow.cost;
+            rows.add(row);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("groupBy", groupField);
+        result.put("from", from);
+        result.put("to", to);
+        result.put("currency", currency);
+        result.put("source", sourceName);
+        result.put("totalCost", round(totalCost));
+        result.put("items", rows);
+        return result;
+    }
+
+    /**
+     * 起点早于使用日志保留期时，原始日志已被TTL索引删除，需改读汇总数据
+     */
+    private boolean beyondLogRetention(LocalDateTime from) {
+        return logRetentionDays > 0 && from.isBefore(LocalDateTime.now().minusDays(logRetentionDays));
+    }
+
+    /**
+     * 每日用量的日期范围：包含起点所在的整天，终点恰为零点时不含当天
+     */
+    private static Criteria dateCriteria(LocalDateTime from, LocalDateTime to) {
+        LocalDate end = to.toLocalTime().equals(LocalTime.MIDNIGHT) ? to.toLocalDate() : to.toLocalDate().plusDays(1);
+        return Criteria.where("date").gte(from.toLocalDate()).lt(end);
+    }
+
+    private static Criteria rangeCriteria(LocalDateTime from, LocalDateTime to) {
+        return Criteria.where("requestTime").gte(from).lt(to);
+    }
+
+    private double priceFor(String modelName, String field, double defaultPrice) {
+        if (modelName == null) {
+            return defaultPrice;
+        }
+        return environment.getProperty("ai.pricing.models." + modelName + "." + field, Double.class, defaultPrice);
+    }
+
+    private static Number numberOf(Object value) {
+        return value instanceof Number number ? number : 0;
+    }
+
+    private static double round(double cost) {
+        return BigDecimal.valueOf(cost).setScale(6, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    /**
+     * 一个分组的用量和费用
+     */
+    private static class CostRow {
+        private final Object key;
+        private long requests;
+        private long inputTokens;
+        private long outputTokens;
+        private long totalTokens;
+        private double cost;
+
+        private CostRow(Object key) {
+            this.key = key;
+        }
+
+        private void add(long requests, long inputTokens, long outputTokens, long totalTokens, double cost) {
+            this.requests += requests;
+            this.inputTokens += inputTokens;
+            this.outputTokens += outputTokens;
+            this.totalTokens += totalTokens;
+            this.cost += cost;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiOverloadedException;
+import io.micrometer.context.ContextSnapshotFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * AI调用执行层
+ * 为每个模型Bean提供独立的舱壁（并发上限+有界等待队列），
+ * 异步任务运行在虚拟线程上（运行时不支持时退回有界平台线程池）
+ */
+@Service
+public class AiExecutionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiExecutionService.class);
+
+    public static final String CHAT_MODEL = "chatLanguageModel";
+    public static final String RESUME_OPTIMIZATION_MODEL = "resumeOptimizationModel";
+    public static final String CREATIVE_WRITING_MODEL = "creativeWritingModel";
+
+    private static final List<String> MODELS = List.of(CHAT_MODEL, RESUME_OPTIMIZATION_MODEL, CREATIVE_WRITING_MODEL);
+
+    private static final ContextSnapshotFactory CONTEXT_SNAPSHOTS = ContextSnapshotFactory.builder().build();
+
+    @Autowired
+    private Environment environment;
+
+    @Value("${ai.execution.virtual-threads:true}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${ai.execution.default-max-concurrent:10}")
+    private int defaultMaxConcurrent;
+
+    @Value("${ai.execution.default-max-queue:50}")
+    private int defaultMaxQueue;
+
+    @Value("${ai.execution.max-wait-ms:30000}")
+    private long maxWaitMillis;
+
+    private final Map<String, AiBulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    private ExecutorService executorService;
+
+    private boolean usingVirtualThreads;
+
+    @PostConstruct
+    public void init() {
+        for (String model : MODELS) {
+            bulkheads.put(model, createBulkhead(model));
+        }
+
+        executorService = virtualThreadsEnabled ? newVirtualThreadExecutor() : null;
+        usingVirtualThreads = executorService != null;
+        if (!usingVirtualThreads) {
+            // 舱壁已经限制了并发，平台线程池只需容纳所有舱壁的并发和排队总量
+            int capacity = bulkheads.values().stream().mapToInt(AiBulkhead::getCapacity).sum();
+            AtomicInteger threadNumber = new AtomicInteger();
+            executorService = new ThreadPoolExecutor(0, capacity, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "ai-exec-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        logger.info("AI执行层初始化完成，虚拟线程: {}, 舱壁: {}", usingVirtualThreads, bulkheads.keySet());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * 在指定模型的舱壁内同步执行
+     */
+    public <T> T call(String model, Supplier<T> supplier) {
+        return bulkhead(model).call(supplier);
+    }
+
+    /**
+     * 异步任务执行器，提交被拒绝时转换为AiOverloadedException。
+     * 任务在提交线程的observation下执行，异步调用的span仍挂在发起请求的链路上
+     */
+    public Executor executor() {
+        return task -> {
+            try {
+                executorService.execute(CONTEXT_SNAPSHOTS.captureAll().wrap(task));
+            } catch (RejectedExecutionException e) {
+                throw new AiOverloadedException("AI执行线程已满", 1);
+            }
+        };
+    }
+
+    /**
+     * 获取指定模型的舱壁
+     */
+    public AiBulkhead bulkhead(String model) {
+        AiBulkhead bulkhead = bulkheads.get(model);
+        if (bulkhead == null) {
+            throw new IllegalArgumentException("未知的AI模型: " + model);
+        }
+        return bulkhead;
+    }
+
+    /**
+     * 获取执行层状态
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("virtualThreads", usingVirtualThreads);
+        stats.put("activeCalls", bulkheads.values().stream().mapToInt(AiBulkhead::getActiveCount).sum());
+        stats.put("queuedCalls", bulkheads.values().stream().mapToInt(AiBulkhead::getWaitingCount).sum());
+
+        Map<String, Object> bulkheadStats = new HashMap<>();
+        bulkheads.forEach((model, bulkhead) -> bulkheadStats.put(model, bulkhead.getStatistics()));
+        stats.put("bulkheads", bulkheadStats);
+        return stats;
+    }
+
+    private AiBulkhead createBulkhead(String model) {
+        String prefix = "ai.execution.bulkheads." + model + ".";
+        int maxConcurrent = environment.getProperty(prefix + "max-concurrent", Integer.class, defaultMaxConcurrent);
+        int maxQueue = environment.getProperty(prefix + "max-queue", Integer.class, defaultMaxQueue);
+        long maxWait = environment.getProperty(prefix + "max-wait-ms", Long.class, maxWaitMillis);
+        return new AiBulkhead(model, maxConcurrent, maxQueue, maxWait);
+    }
+
+    /**
+     * 项目以Java 17编译，虚拟线程（Java 21+）通过反射按需启用
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.info("当前运行时不支持虚拟线程，使用有界平台线程池");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.cvagent.service;
+
+import com.cvagent.model.OptimizationRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AI降级应答服务
+ * 降级链上的模型全部不可用时，依次尝试过期的缓存响应和基于优化规则的应答
+ */
+@Service
+public class AiFallbackService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiFallbackService.class);
+
+    private static final int MAX_RULE_SUGGESTIONS = 5;
+
+    @Autowired
+    private AiResponseCacheService responseCacheService;
+
+    // 规则引擎经AiServiceManager间接依赖本服务，延迟注入避免循环依赖
+    @Lazy
+    @Autowired
+    private RuleEngineService ruleEngineService;
+
+    @Value("${ai.resilience.rule-fallback-enabled:true}")
+    private boolean ruleFallbackEnabled;
+
+    private final LongAdder staleCacheAnswers = new LongAdder();
+    private final LongAdder ruleAnswers = new LongAdder();
+    private final LongAdder unanswered = new LongAdder();
+
+    /**
+     * 获取降级应答，没有可用的应答时返回空
+     */
+    public Optional<String> fallback(String serviceType, String cacheKey, String content) {
+        Optional<String> stale = responseCacheService.getStale(serviceType, cacheKey);
+        if (stale.isPresent()) {
+            staleCacheAnswers.increment();
+            logger.warn("AI模型不可用，使用过期缓存应答: {}", serviceType);
+            return stale;
+        }
+
+        if (ruleFallbackEnabled && isResumeService(serviceType)) {
+            Optional<String> ruleAnswer = ruleBasedAnswer(content);
+            if (ruleAnswer.isPresent()) {
+                ruleAnswers.increment();
+                logger.warn("AI模型不可用，使用规则应答: {}", serviceType);
+                return ruleAnswer;
+            }
+        }
+
+        unanswered.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * 获取降级统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("staleCacheAnswers", staleCacheAnswers.sum());
+        stats.put("ruleAnswers", ruleAnswers.sum());
+        stats.put("unanswered", unanswered.sum());
+        return stats;
+    }
+
+    private static boolean isResumeService(String serviceType) {
+        return "resume_optimization".equals(serviceType) || "resume_section_improvement".equals(serviceType);
+    }
+
+    /**
+     * 用当前规则快照匹配内容，按优先级汇总命中规则的建议；
+     * 与规则引擎共用预编译的匹配器和匹配步数预算，模型故障期间的降级路径也不会被病态规则拖住
+     */
+    private Optional<String> ruleBasedAnswer(String content) {
+        if (content == null || content.isBlank()) {
+            return Optional.empty();
+        }
+
+        Set<String> suggestions = new LinkedHashSet<>();
+        try {
+            for (OptimizationRule rule : ruleEngineService.findMatchingRules(content)) {
+                if (suggestions.size() >= MAX_RULE_SUGGESTIONS) {
+                    break;
+                }
+                if (rule.getSuggestion() != null) {
+                    suggestions.add(rule.getSuggestion());
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("规则匹配失败: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        if (suggestions.isEmpty()) {
+            return Optional.empty();
+        }
+
+        StringBuilder answer = new StringBuilder("AI服务暂时繁忙，以下是基于优化规则的建议：\n");
+        int index = 1;
+        for (String suggestion : suggestions) {
+            answer.append(index++).append(". ").append(suggestion).append('\n');
+        }
+        return Optional.of(answer.toString().trim());
+    }
+}
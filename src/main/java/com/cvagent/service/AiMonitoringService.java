@@ -1,20 +1,35 @@
 package com.cvagent.service;
 
 import com.cvagent.model.AiUsageLog;
-import com.cvagent.repository.AiUsageLogRepository;
+import com.cvagent.model.AiUsageRollup;
+import com.cvagent.service.ai.LatencyHistogram;
+import com.cvagent.service.ai.SlidingLatencyWindow;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * AI服务监控和统计
@@ -26,12 +41,39 @@ public class AiMonitoringService {
     private static final Logger logger = LoggerFactory.getLogger(AiMonitoringService.class);
 
     @Autowired
-    private AiUsageLogRepository aiUsageLogRepository;
+    private AiCostService aiCostService;
 
-    // 实时统计
-    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
-    private final Map<String, AtomicLong> totalResponseTime = new ConcurrentHashMap<>();
-    private final Map<String, AtomicLong> errorCounts = new ConcurrentHashMap<>();
+    @Autowired
+    private AiUsageLogWriter aiUsageLogWriter;
+
+    @Autowired
+    private AiUsageRollupService aiUsageRollupService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private Environment environment;
+
+    // 日志默认保留天数，可按服务类型覆盖（ai.usage-log.retention.services.<服务类型>），0表示永久保留
+    @Value("${ai.usage-log.retention.default-days:30}")
+    private int defaultRetentionDays;
+
+    private final Map<String, Integer> retentionDays = new ConcurrentHashMap<>();
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // 延迟统计的滑动窗口
+    private static final String[] WINDOW_NAMES = {"1m", "5m", "1h"};
+    private static final long[] WINDOW_MILLIS = {60_000L, 300_000L, 3_600_000L};
+
+    // 上报的分位数，max单独上报
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    // 实时统计，未预置的服务类型首次出现时创建
+    private final Map<String, ServiceStats> serviceStats = new ConcurrentHashMap<>();
 
     // 启动时间
     private final LocalDateTime serviceStartTime = LocalDateTime.now();
@@ -47,42 +89,92 @@ public class AiMonitoringService {
     private void initializeCounters() {
         String[] services = {
                 "chat", "resume_optimization", "cover_letter_generation",
-                "resume_section_improvement", "project_description_generation",
+                "resume_section_improvement", "project_description_generation", "rule_suggestions",
                 "skill_matching_analysis", "interview_questions_prediction"
         };
 
         for (String service : services) {
-            requestCounts.put(service, new AtomicLong(0));
-            totalResponseTime.put(service, new AtomicLong(0));
-            errorCounts.put(service, new AtomicLong(0));
+            serviceStats.put(service, new ServiceStats());
+        }
+    }
+
+    /**
+     * 把预置服务的指标注册到Micrometer，之后出现的服务在创建时注册
+     */
+    @PostConstruct
+    public void registerMeters() {
+        serviceStats.forEach(this::registerMeters);
+    }
+
+    private ServiceStats statsFor(String serviceType) {
+        return serviceStats.computeIfAbsent(serviceType, service -> {
+            ServiceStats stats = new ServiceStats();
+            registerMeters(service, stats);
+            return stats;
+        });
+    }
+
+    private void registerMeters(String service, ServiceStats stats) {
+        if (meterRegistry == null) {
+            return;
+        }
+        FunctionCounter.builder("ai.requests", stats.requests, LongAdder::sum)
+                .tag("service", service)
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.request.errors", stats.errors, LongAdder::sum)
+                .tag("service", service)
+                .register(meterRegistry);
+        for (int w = 0; w < WINDOW_NAMES.length; w++) {
+            long windowMillis = WINDOW_MILLIS[w];
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                double percentile = PERCENTILES[p];
+                Gauge.builder("ai.request.latency", stats,
+                                s -> s.window(System.currentTimeMillis(), windowMillis).percentile(percentile))
+                        .tags("service", service, "window", WINDOW_NAMES[w], "quantile", PERCENTILE_NAMES[p])
+                        .baseUnit("milliseconds")
+                        .register(meterRegistry);
+            }
+            Gauge.builder("ai.request.latency", stats,
+                            s -> s.window(System.currentTimeMillis(), windowMillis).getMax())
+                    .tags("service", service, "window", WINDOW_NAMES[w], "quantile", "max")
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
         }
     }
 
     /**
      * 记录AI请求
      */
-    @Async
     public void recordRequest(String serviceType, long responseTime, boolean success, String errorMessage) {
+        AiUsageLog log = new AiUsageLog();
+        log.setServiceType(serviceType);
+        log.setResponseTime(responseTime);
+        log.setSuccess(success);
+        log.setErrorMessage(errorMessage);
+        recordRequest(log);
+    }
+
+    /**
+     * 记录AI请求（含用户、模型和令牌用量），有令牌用量时按价格表计算费用
+     * 只更新内存计数并把日志交给批量写入器，不在调用线程上访问数据库
+     */
+    public void recordRequest(AiUsageLog log) {
+        String serviceType = log.getServiceType();
         try {
             // 更新实时统计
-            requestCounts.getOrDefault(serviceType, new AtomicLong(0)).incrementAndGet();
-            totalResponseTime.getOrDefault(serviceType, new AtomicLong(0)).addAndGet(responseTime);
+            statsFor(serviceType).record(System.currentTimeMillis(), log.getResponseTime(), log.isSuccess());
 
-            if (!success) {
-                errorCounts.getOrDefault(serviceType, new AtomicLong(0)).incrementAndGet();
+            if (log.getCost() == null && log.getInputTokens() != null) {
+                log.setCost(aiCostService.calculateCost(log.getModelName(),
+                        log.getInputTokens(), log.getOutputTokens() != null ? log.getOutputTokens() : 0));
             }
 
-            // 记录到数据库
-            AiUsageLog log = new AiUsageLog();
-            log.setServiceType(serviceType);
-            log.setResponseTime(responseTime);
-            log.setSuccess(success);
-            log.setErrorMessage(errorMessage);
             log.setRequestTime(LocalDateTime.now());
+            log.setExpireAt(expireAt(serviceType, log.getRequestTime()));
+            aiUsageLogWriter.submit(log);
 
-            aiUsageLogRepository.save(log);
-
-            logger.debug("记录AI请求: {}, 耗时: {}ms, 成功: {}", serviceType, responseTime, success);
+            logger.debug("记录AI请求: {}, 耗时: {}ms, 成功: {}, 令牌: {}", serviceType, log.getResponseTime(),
+                    log.isSuccess(), log.getTokensUsed());
         } catch (Exception e) {
             logger.error("记录AI请求失败: {}", serviceType, e);
         }
@@ -91,7 +183,6 @@ public class AiMonitoringService {
     /**
      * 记录提示词请求
      */
-    @Async
     public void recordPromptRequest(String templateName, long responseTime, boolean success) {
         try {
             AiUsageLog log = new AiUsageLog();
@@ -99,8 +190,9 @@ public class AiMonitoringService {
             log.setResponseTime(responseTime);
             log.setSuccess(success);
             log.setRequestTime(LocalDateTime.now());
+            log.setExpireAt(expireAt("prompt_template", log.getRequestTime()));
 
-            aiUsageLogRepository.save(log);
+            aiUsageLogWriter.submit(log);
         } catch (Exception e) {
             logger.error("记录提示词请求失败: {}", templateName, e);
         }
@@ -113,26 +205,27 @@ public class AiMonitoringService {
         Map<String, Object> stats = new HashMap<>();
 
         // 总体统计
-        stats.put("totalRequests", requestCounts.values().stream().mapToLong(AtomicLong::get).sum());
-        stats.put("totalErrors", errorCounts.values().stream().mapToLong(AtomicLong::get).sum());
+        stats.put("totalRequests", serviceStats.values().stream().mapToLong(s -> s.requests.sum()).sum());
+        stats.put("totalErrors", serviceStats.values().stream().mapToLong(s -> s.errors.sum()).sum());
         stats.put("serviceUptime", java.time.Duration.between(serviceStartTime, LocalDateTime.now()).getSeconds());
 
         // 各服务统计
-        Map<String, Map<String, Object>> serviceStats = new HashMap<>();
-        requestCounts.forEach((service, count) -> {
-            Map<String, Object> serviceStat = new HashMap<>();
-            serviceStat.put("requestCount", count.get());
-            serviceStat.put("errorCount", errorCounts.getOrDefault(service, new AtomicLong(0)).get());
-
-            long totalTime = totalResponseTime.getOrDefault(service, new AtomicLong(0)).get();
-            long reqCount = count.get();
-            serviceStat.put("averageResponseTime", reqCount > 0 ? totalTime / reqCount : 0);
-            serviceStat.put("successRate", reqCount > 0 ?
-                    (reqCount - errorCounts.getOrDefault(service, new AtomicLong(0)).get()) * 100.0 / reqCount : 0.0);
-
-            serviceStats.put(service, serviceStat);
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Object>> serviceStatistics = new HashMap<>();
+        serviceStats.forEach((service, serviceStat) -> {
+            Map<String, Object> statistics = serviceStat.toMap();
+
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("overall", latencyToMap(serviceStat.overall.snapshot()));
+            for (int w = 0; w < WINDOW_NAMES.length; w++) {
+                latency.put(WINDOW_NAMES[w], latencyToMap(serviceStat.window(now, WINDOW_MILLIS[w])));
+            }
+            statistics.put("latency", latency);
+
+            serviceStatistics.put(service, statistics);
         });
-        stats.put("serviceStats", serviceStats);
+        stats.put("serviceStats", serviceStatistics);
+        stats.put("usageLogWriter", aiUsageLogWriter.getStatistics());
 
         return stats;
     }
@@ -141,122 +234,183 @@ public class AiMonitoringService {
      * 获取最近的请求日志
      */
     public List<AiUsageLog> getRecentLogs(int limit) {
-        return aiUsageLogRepository.findAll(
-                org.springframework.data.domain.PageRequest.of(0, limit, Sort.by("requestTime").descending())
-        ).getContent();
+        return findLogs(null, null, null, null, null, limit, null).getLogs();
     }
 
     /**
      * 获取错误日志
      */
     public List<AiUsageLog> getErrorLogs(int limit) {
-        List<AiUsageLog> errorLogs = aiUsageLogRepository.findBySuccessFalse();
-        return errorLogs.stream()
-                .sorted((a, b) -> b.getRequestTime().compareTo(a.getRequestTime()))
-                .limit(limit)
-                .collect(java.util.stream.Collectors.toList());
+        return findLogs(false, null, null, null, null, limit, null).getLogs();
     }
 
     /**
-     * 获取服务健康状态
+     * 查询日志，按 (requestTime, _id) 倒序以游标分页，条件均可为空
+     * 只返回列表需要的字段，不含请求和响应摘要
+     *
+     * @param cursor 上一页返回的游标，为空时从最新的日志开始
+     * @throws IllegalArgumentException 游标无法解析时
+     */
+    public LogPage findLogs(Boolean success, String serviceType, String userId,
+                            LocalDateTime from, LocalDateTime to, int limit, String cursor) {
+        limit = Math.max(limit, 1);
+        List<Criteria> criteria = new ArrayList<>();
+        if (success != null) {
+            criteria.add(Criteria.where("success").is(success));
+        }
+        if (serviceType != null && !serviceType.isEmpty()) {
+            criteria.add(Criteria.where("serviceType").is(serviceType));
+        }
+        if (userId != null && !userId.isEmpty()) {
+            criteria.add(Criteria.where("userId").is(userId));
+        }
+        if (from != null) {
+            criteria.add(Criteria.where("requestTime").gte(from));
+        }
+        if (to != null) {
+            criteria.add(Criteria.where("requestTime").lt(to));
+        }
+        if (cursor != null && !cursor.isEmpty()) {
+            LogCursor position = LogCursor.decode(cursor);
+            criteria.add(new Criteria().orOperator(
+                    Criteria.where("requestTime").lt(position.requestTime),
+                    Criteria.where("requestTime").is(position.requestTime).and("_id").lt(position.id)));
+        }
+
+        Query query = new Query();
+        if (!criteria.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(criteria));
+        }
+        query.with(Sort.by(Sort.Direction.DESC, "requestTime", "_id")).limit(limit + 1);
+        query.fields().include("serviceType", "responseTime", "success", "errorMessage", "requestTime",
+                "userId", "modelName", "tokensUsed", "inputTokens", "outputTokens", "cost", "traceId");
+
+        List<AiUsageLog> logs = mongoTemplate.find(query, AiUsageLog.class);
+        String nextCursor = null;
+        if (logs.size() > limit) {
+            logs = new ArrayList<>(logs.subList(0, limit));
+            AiUsageLog last = logs.get(limit - 1);
+            nextCursor = new LogCursor(last.getRequestTime(), new ObjectId(last.getId())).encode();
+        }
+        return new LogPage(logs, nextCursor);
+    }
+
+    /**
+     * 获取服务健康状态，读取最近5分钟的分钟汇总
      */
     public Map<String, Object> getHealthStatus() {
         Map<String, Object> health = new HashMap<>();
 
         // 检查最近的成功率
-        LocalDateTime fiveMinutesAgo = LocalDateTime.now().minusMinutes(5);
-        List<AiUsageLog> recentLogs = aiUsageLogRepository.findByRequestTimeAfter(fiveMinutesAgo);
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Object> recent = aiUsageRollupService.summarize(
+                aiUsageRollupService.findRollups(now.minusMinutes(5), now, null));
+        long recentTotal = (Long) recent.get("requests");
 
-        if (recentLogs.isEmpty()) {
+        if (recentTotal == 0) {
             health.put("status", "UNKNOWN");
             health.put("message", "最近5分钟没有请求");
             return health;
         }
 
-        long recentTotal = recentLogs.size();
-        long recentErrors = recentLogs.stream().filter(log -> !log.isSuccess()).count();
-        double recentSuccessRate = (recentTotal - recentErrors) * 100.0 / recentTotal;
+        long recentErrors = (Long) recent.get("errors");
+        double recentSuccessRate = (Double) recent.get("successRate");
 
         health.put("status", recentSuccessRate >= 95.0 ? "HEALTHY" :
                           recentSuccessRate >= 80.0 ? "DEGRADED" : "UNHEALTHY");
         health.put("successRate", String.format("%.2f%%", recentSuccessRate));
         health.put("recentRequests", recentTotal);
         health.put("recentErrors", recentErrors);
-        health.put("checkedAt", LocalDateTime.now());
+        health.put("p99ResponseTime", recent.get("p99"));
+        health.put("checkedAt", now);
 
         return health;
     }
 
     /**
-     * 获取性能报告
+     * 获取过去24小时的性能报告
      */
     public Map<String, Object> getPerformanceReport() {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Object> report = getPerformanceReport(now.minusHours(24), now, null);
+        report.put("reportPeriod", "过去24小时");
+        return report;
+    }
+
+    /**
+     * 获取时间范围内的性能报告，包括总体和各服务的请求量、成功率、延迟分位数和按小时的请求量；
+     * serviceType为空时统计所有服务
+     */
+    public Map<String, Object> getPerformanceReport(LocalDateTime from, LocalDateTime to, String serviceType) {
         Map<String, Object> report = new HashMap<>();
 
-        // 获取过去24小时的数据
-        LocalDateTime twentyFourHoursAgo = LocalDateTime.now().minusHours(24);
-        List<AiUsageLog> dayLogs = aiUsageLogRepository.findByRequestTimeAfter(twentyFourHoursAgo);
+        List<AiUsageRollup> rollups = aiUsageRollupService.findRollups(from, to, serviceType);
+        Map<String, Object> summary = aiUsageRollupService.summarize(rollups);
+        long totalRequests = (Long) summary.get("requests");
 
-        if (dayLogs.isEmpty()) {
-            report.put("message", "过去24小时没有数据");
+        if (totalRequests == 0) {
+            report.put("message", "所选时间范围内没有数据");
             return report;
         }
 
         // 计算性能指标
-        long totalRequests = dayLogs.size();
-        long totalErrors = dayLogs.stream().filter(log -> !log.isSuccess()).count();
-        long totalTime = dayLogs.stream().mapToLong(AiUsageLog::getResponseTime).sum();
-        double averageResponseTime = totalTime / (double) totalRequests;
-        double successRate = (totalRequests - totalErrors) * 100.0 / totalRequests;
-
         report.put("totalRequests", totalRequests);
-        report.put("totalErrors", totalErrors);
-        report.put("averageResponseTime", String.format("%.2fms", averageResponseTime));
-        report.put("successRate", String.format("%.2f%%", successRate));
-        report.put("reportPeriod", "过去24小时");
+        report.put("totalErrors", summary.get("errors"));
+        report.put("averageResponseTime", String.format("%dms", (Long) summary.get("averageResponseTime")));
+        report.put("successRate", String.format("%.2f%%", (Double) summary.get("successRate")));
+        report.put("summary", summary);
+        report.put("from", from);
+        report.put("to", to);
+        report.put("reportPeriod", from + " ~ " + to);
         report.put("generatedAt", LocalDateTime.now());
 
-        // 按小时统计请求量
-        Map<Integer, Long> hourlyRequests = new HashMap<>();
-        for (int i = 0; i < 24; i++) {
-            hourlyRequests.put(i, 0L);
-        }
+        // 各服务统计
+        Map<String, List<AiUsageRollup>> byService = rollups.stream()
+                .collect(java.util.stream.Collectors.groupingBy(AiUsageRollup::getServiceType));
+        Map<String, Object> services = new HashMap<>();
+        byService.forEach((service, serviceRollups) ->
+                services.put(service, aiUsageRollupService.summarize(serviceRollups)));
+        report.put("services", services);
 
-        dayLogs.forEach(log -> {
-            int hour = log.getRequestTime().getHour();
-            hourlyRequests.put(hour, hourlyRequests.get(hour) + 1);
+        // 按小时统计请求量
+        Map<String, Long> hourlyRequests = new LinkedHashMap<>();
+        Map<String, Long> hourlyErrors = new LinkedHashMap<>();
+        aiUsageRollupService.hourlyCounts(rollups).forEach((hour, counts) -> {
+            hourlyRequests.put(hour.toString(), counts[0]);
+            hourlyErrors.put(hour.toString(), counts[1]);
         });
-
         report.put("hourlyRequests", hourlyRequests);
+        report.put("hourlyErrors", hourlyErrors);
 
         return report;
     }
 
     /**
-     * 清理旧日志
+     * 按保留天数计算日志的过期时间，保留天数为0时返回null（永久保留）
      */
-    @Async
-    public void cleanupOldLogs(int daysToKeep) {
-        try {
-            LocalDateTime cutoffDate = LocalDateTime.now().minusDays(daysToKeep);
-            List<AiUsageLog> oldLogs = aiUsageLogRepository.findByRequestTimeBefore(cutoffDate);
+    LocalDateTime expireAt(String retentionKey, LocalDateTime requestTime) {
+        int days = retentionDays.computeIfAbsent(retentionKey == null ? "" : retentionKey, key ->
+                environment.getProperty("ai.usage-log.retention.services." + key, Integer.class, defaultRetentionDays));
+        return days > 0 ? requestTime.plusDays(days) : null;
+    }
 
-            if (!oldLogs.isEmpty()) {
-                aiUsageLogRepository.deleteAll(oldLogs);
-                logger.info("清理了 {} 条旧日志，保留 {} 天", oldLogs.size(), daysToKeep);
-            }
-        } catch (Exception e) {
-            logger.error("清理旧日志失败", e);
-        }
+    /**
+     * 清理旧日志
+     * 日常保留由TTL索引完成，这里用于清理没有过期时间的历史日志或临时缩短保留期，由服务端一次deleteMany完成
+     */
+    public long cleanupOldLogs(int daysToKeep) {
+        LocalDateTime cutoffDate = LocalDateTime.now().minusDays(daysToKeep);
+        long deleted = mongoTemplate.remove(Query.query(Criteria.where("requestTime").lt(cutoffDate)),
+                AiUsageLog.class).getDeletedCount();
+        logger.info("清理了 {} 条旧日志，保留 {} 天", deleted, daysToKeep);
+        return deleted;
     }
 
     /**
      * 重置统计数据
      */
     public void resetStatistics() {
-        requestCounts.forEach((service, counter) -> counter.set(0));
-        totalResponseTime.forEach((service, counter) -> counter.set(0));
-        errorCounts.forEach((service, counter) -> counter.set(0));
+        serviceStats.values().forEach(ServiceStats::reset);
 
         logger.info("AI服务统计数据已重置");
     }
@@ -265,24 +419,124 @@ public class AiMonitoringService {
      * 获取服务排行榜
      */
     public List<Map<String, Object>> getServiceRanking() {
-        return requestCounts.entrySet().stream()
+        return serviceStats.entrySet().stream()
                 .map(entry -> {
-                    Map<String, Object> ranking = new HashMap<>();
-                    String service = entry.getKey();
-                    long count = entry.getValue().get();
-                    long errors = errorCounts.getOrDefault(service, new AtomicLong(0)).get();
-                    long totalTime = totalResponseTime.getOrDefault(service, new AtomicLong(0)).get();
-
-                    ranking.put("service", service);
-                    ranking.put("requestCount", count);
-                    ranking.put("errorCount", errors);
-                    ranking.put("averageResponseTime", count > 0 ? totalTime / count : 0);
-                    ranking.put("successRate", count > 0 ? (count - errors) * 100.0 / count : 0.0);
-
+                    Map<String, Object> ranking = entry.getValue().toMap();
+                    ranking.put("service", entry.getKey());
                     return ranking;
                 })
                 .sorted((a, b) -> ((Long) b.get("requestCount")).compareTo((Long) a.get("requestCount")))
                 .limit(10)
                 .collect(java.util.stream.Collectors.toList());
     }
-}
\ No newline at end of file
+
+    private static Map<String, Object> latencyToMap(LatencyHistogram.Snapshot snapshot) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", snapshot.getCount());
+        latency.put("mean", Math.round(snapshot.getMean()));
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            latency.put(PERCENTILE_NAMES[p], snapshot.percentile(PERCENTILES[p]));
+        }
+        latency.put("max", snapshot.getMax());
+        return latency;
+    }
+
+    /**
+     * 单个服务的计数和延迟分布
+     * 5分钟以内的窗口按10秒切片，1小时窗口按1分钟切片
+     */
+    private static class ServiceStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalResponseTime = new LongAdder();
+        private final LatencyHistogram overall = new LatencyHistogram();
+        private final SlidingLatencyWindow recent = new SlidingLatencyWindow(10_000L, 300_000L);
+        private final SlidingLatencyWindow hourly = new SlidingLatencyWindow(60_000L, 3_600_000L);
+
+        void record(long nowMillis, long responseTime, boolean success) {
+            requests.increment();
+            totalResponseTime.add(responseTime);
+            if (!success) {
+                errors.increment();
+            }
+            overall.record(responseTime);
+            recent.record(nowMillis, responseTime);
+            hourly.record(nowMillis, responseTime);
+        }
+
+        LatencyHistogram.Snapshot window(long nowMillis, long windowMillis) {
+            return windowMillis <= 300_000L ? recent.snapshot(nowMillis, windowMillis)
+                    : hourly.snapshot(nowMillis, windowMillis);
+        }
+
+        Map<String, Object> toMap() {
+            long count = requests.sum();
+            long errorCount = errors.sum();
+            Map<String, Object> map = new HashMap<>();
+            map.put("requestCount", count);
+            map.put("errorCount", errorCount);
+            map.put("averageResponseTime", count > 0 ? totalResponseTime.sum() / count : 0);
+            map.put("successRate", count > 0 ? (count - errorCount) * 100.0 / count : 0.0);
+            return map;
+        }
+
+        void reset() {
+            requests.reset();
+            errors.reset();
+            totalResponseTime.reset();
+            overall.reset();
+            recent.reset();
+            hourly.reset();
+        }
+    }
+
+    /**
+     * 一页日志和下一页的游标，没有更多日志时游标为空
+     */
+    public static class LogPage {
+        private final List<AiUsageLog> logs;
+        private final String nextCursor;
+
+        public LogPage(List<AiUsageLog> logs, String nextCursor) {
+            this.logs = logs;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<AiUsageLog> getLogs() {
+            return logs;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * 分页位置 (requestTime, _id)，编码为不透明的URL安全字符串
+     */
+    private static class LogCursor {
+        private final LocalDateTime requestTime;
+        private final ObjectId id;
+
+        LogCursor(LocalDateTime requestTime, ObjectId id) {
+            this.requestTime = requestTime;
+            this.id = id;
+        }
+
+        String encode() {
+            String raw = requestTime + "|" + id.toHexString();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static LogCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                return new LogCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                        new ObjectId(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的分页游标");
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiRateLimitException;
+import com.cvagent.service.ai.PromptTokenEstimator;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AI调用限流器
+ * 按模型和用户分别维护令牌桶，按估算的提示词令牌数扣减；另有按用户的每日令牌配额。
+ * 热路径只访问内存中的令牌桶，每日用量定期与用户每日用量文档对账
+ */
+@Service
+public class AiRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiRateLimiter.class);
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private AiUserUsageService aiUserUsageService;
+
+    @Value("${ai.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.rate-limit.stripes:8}")
+    private int stripes;
+
+    @Value("${ai.rate-limit.default-model-capacity:200000}")
+    private long defaultModelCapacity;
+
+    @Value("${ai.rate-limit.default-model-refill-per-second:2000}")
+    private long defaultModelRefillPerSecond;
+
+    @Value("${ai.rate-limit.user.capacity:20000}")
+    private long userCapacity;
+
+    @Value("${ai.rate-limit.user.refill-per-second:100}")
+    private long userRefillPerSecond;
+
+    @Value("${ai.rate-limit.daily-token-quota:500000}")
+    private long dailyTokenQuota;
+
+    private final Map<String, StripedTokenBucket> modelBuckets = new ConcurrentHashMap<>();
+
+    private final Cache<String, TokenBucket> userBuckets = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
+    private final Map<String, DailyUsage> dailyUsage = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> rejections = new ConcurrentHashMap<>();
+
+    /**
+     * 用户准入：先检查每日配额，再扣减用户令牌桶，通过后计入当日用量
+     */
+    public void acquireUser(String userId, long tokens) {
+        if (!enabled || userId == null) {
+            return;
+        }
+
+        DailyUsage usage = dailyUsageFor(userId);
+        if (usage.current() + tokens > dailyTokenQuota) {
+            throw reject(AiRateLimitException.DAILY_QUOTA, "今日AI令牌配额已用完", secondsUntilTomorrow());
+        }
+
+        TokenBucket bucket = userBuckets.get(userId, id -> new TokenBucket(userCapacity, userRefillPerSecond));
+        long waitNanos = bucket.tryAcquire(tokens);
+        if (waitNanos > 0) {
+            throw reject(AiRateLimitException.USER_RATE, "请求过于频繁，请稍后重试", toRetryAfterSeconds(waitNanos));
+        }
+        usage.local.addAndGet(tokens);
+    }
+
+    /**
+     * 退还acquireUser扣减的令牌，用于预扣配额后没有实际执行的请求（如重复提交的后台任务）
+     */
+    public void refundUser(String userId, long tokens) {
+        if (!enabled || userId == null) {
+            return;
+        }
+
+        dailyUsageFor(userId).local.updateAndGet(value -> Math.max(0, value - tokens));
+        TokenBucket bucket = userBuckets.getIfPresent(userId);
+        if (bucket != null) {
+            bucket.refund(tokens);
+        }
+    }
+
+    /**
+     * 模型准入：只在真正调用模型前扣减（缓存命中和合并的请求不消耗模型令牌）
+     */
+    public void acquireModel(String model, long tokens) {
+        if (!enabled) {
+            return;
+        }
+
+        long waitNanos = modelBuckets.computeIfAbsent(model, this::createModelBucket).tryAcquire(tokens);
+        if (waitNanos > 0) {
+            throw reject(AiRateLimitException.MODEL_RATE, "AI模型调用频率已达上限，请稍后重试", toRetryAfterSeconds(waitNanos));
+        }
+    }
+
+    /**
+     * 估算文本的令牌数，用于令牌桶扣减
+     */
+    public static long estimateTokens(String... inputs) {
+        long tokens = 0;
+        for (String input : inputs) {
+            tokens += PromptTokenEstimator.estimate(input);
+        }
+        return Math.max(1, tokens);
+    }
+
+    /**
+     * 定期与用户每日用量对账：当日用量取数据库汇总加上本节点此后准入的估算值，
+     * 从而把其他节点产生的用量纳入配额。查询前已计入的本地估算由数据库汇总替代，查询期间新准入的保留
+     */
+    @Scheduled(fixedDelayString = "${ai.rate-limit.reconcile-interval-ms:60000}")
+    public void reconcileDailyUsage() {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDate today = LocalDate.now();
+        try {
+            Map<String, Long> charged = new HashMap<>();
+            dailyUsage.forEach((userId, usage) -> charged.put(userId, usage.local.get()));
+            aiUserUsageService.getTokensUsedOn(today).forEach((userId, tokens) ->
+                    dailyUsageFor(userId).reconcile(tokens, charged.getOrDefault(userId, 0L)));
+            dailyUsage.values().removeIf(usage -> !usage.day.equals(today));
+        } catch (Exception e) {
+            logger.warn("AI令牌用量对账失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 获取限流统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("dailyTokenQuota", dailyTokenQuota);
+        stats.put("trackedUsers", userBuckets.estimatedSize());
+
+        Map<String, Long> rejected = new HashMap<>();
+        rejections.forEach((type, count) -> rejected.put(type, count.sum()));
+        stats.put("rejections", rejected);
+
+        Map<String, Object> models = new HashMap<>();
+        modelBuckets.forEach((model, bucket) -> models.put(model, Map.of(
+                "capacity", bucket.capacity(),
+                "available", bucket.available()
+        )));
+        stats.put("models", models);
+        return stats;
+    }
+
+    /**
+     * 获取用户当日令牌用量
+     */
+    public Map<String, Object> getUserUsage(String userId) {
+        long used = dailyUsageFor(userId).current();
+        Map<String, Object> usage = new HashMap<>();
+        usage.put("userId", userId);
+        usage.put("tokensUsedToday", used);
+        usage.put("dailyTokenQuota", dailyTokenQuota);
+        usage.put("remaining", Math.max(0, dailyTokenQuota - used));
+        return usage;
+    }
+
+    private AiRateLimitException reject(String limitType, String message, long retryAfterSeconds) {
+        rejections.computeIfAbsent(limitType, type -> new LongAdder()).increment();
+        return new AiRateLimitException(message, limitType, retryAfterSeconds);
+    }
+
+    private StripedTokenBucket createModelBucket(String model) {
+        String prefix = "ai.rate-limit.models." + model + ".";
+        long capacity = environment.getProperty(prefix + "capacity", Long.class, defaultModelCapacity);
+        long refill = environment.getProperty(prefix + "refill-per-second", Long.class, defaultModelRefillPerSecond);
+        return new StripedTokenBucket(capacity, refill, Math.max(1, stripes));
+    }
+
+    private DailyUsage dailyUsageFor(String userId) {
+        LocalDate today = LocalDate.now();
+        DailyUsage usage = dailyUsage.computeIfAbsent(userId, id -> new DailyUsage(today));
+        if (!usage.day.equals(today)) {
+            DailyUsage fresh = new DailyUsage(today);
+            usage = dailyUsage.merge(userId, fresh, (old, ignored) -> old.day.equals(today) ? old : fresh);
+        }
+        return usage;
+    }
+
+    private static long secondsUntilTomorrow() {
+        LocalDateTime now = LocalDateTime.now();
+        return Math.max(1, Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay()).getSeconds());
+    }
+
+    private static long toRetryAfterSeconds(long waitNanos) {
+        return Math.max(1, (long) Math.ceil(waitNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * 用户当日用量：reconciled为最近一次对账得到的数据库汇总，local为本节点在该次对账之后准入的估算值
+     */
+    private static class DailyUsage {
+        private final LocalDate day;
+        private final AtomicLong local = new AtomicLong();
+        private volatile long reconciled;
+
+        private DailyUsage(LocalDate day) {
+            this.day = day;
+        }
+
+        private long current() {
+            return reconciled + local.get();
+        }
+
+        private void reconcile(long total, long chargedBeforeQuery) {
+            reconciled = total;
+            local.updateAndGet(value -> Math.max(0, value - chargedBeforeQuery));
+        }
+    }
+
+    /**
+     * 令牌桶，按纳秒精度连续补充
+     */
+    static class TokenBucket {
+        private final long capacity;
+        private final double tokensPerNano;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(long capacity, long refillPerSecond) {
+            this.capacity = capacity;
+            this.tokensPerNano = refillPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * 尝试扣减令牌，成功返回0，否则返回还需等待的纳秒数。
+         * 超过桶容量的请求按桶容量扣减，避免大请求永远无法通过
+         */
+        synchronized long tryAcquire(long requested) {
+            refill();
+            double cost = Math.min(requested, capacity);
+            if (tokens >= cost) {
+                tokens -= cost;
+                return 0;
+            }
+            return tokensPerNano > 0 ? (long) Math.ceil((cost - tokens) / tokensPerNano) : Long.MAX_VALUE;
+        }
+
+        /**
+         * 取出至多max个令牌，返回实际取出的数量
+         */
+        synchronized double take(double max) {
+            refill();
+            double taken = Math.min(max, tokens);
+            tokens -= taken;
+            return taken;
+        }
+
+        synchronized void refund(double amount) {
+            tokens = Math.min(capacity, tokens + amount);
+        }
+
+        synchronized long available() {
+            refill();
+            return (long) tokens;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * 分段令牌桶：总容量和补充速率平均分到多个分段，并发请求随机落在不同分段上以减少锁竞争，
+     * 所选分段不足时依次尝试其余分段。超过单个分段容量的请求从各分段凑齐，按总容量扣减
+     */
+    static class StripedTokenBucket {
+        private final TokenBucket[] buckets;
+        private final long capacity;
+        private final long stripeCapacity;
+        private final double tokensPerNano;
+
+        StripedTokenBucket(long capacity, long refillPerSecond, int stripes) {
+            this.capacity = capacity;
+            this.stripeCapacity = Math.max(1, capacity / stripes);
+            long stripeRefill = Math.max(1, refillPerSecond / stripes);
+            this.tokensPerNano = stripeRefill * stripes / (double) TimeUnit.SECONDS.toNanos(1);
+            this.buckets = new TokenBucket[stripes];
+            for (int i = 0; i < stripes; i++) {
+                buckets[i] = new TokenBucket(stripeCapacity, stripeRefill);
+            }
+        }
+
+        long tryAcquire(long tokens) {
+            if (tokens > stripeCapacity) {
+                return tryAcquireAcrossStripes(Math.min(tokens, stripeCapacity * buckets.length));
+            }
+
+            int start = ThreadLocalRandom.current().nextInt(buckets.length);
+            long minWait = Long.MAX_VALUE;
+            for (int i = 0; i < buckets.length; i++) {
+                long wait = buckets[(start + i) % buckets.length].tryAcquire(tokens);
+                if (wait == 0) {
+                    return 0;
+                }
+                minWait = Math.min(minWait, wait);
+            }
+            return minWait;
+        }
+
+        /**
+         * 依次从各分段取令牌，凑不齐时退回已取的部分，按全部分段的补充速率估算等待时间
+         */
+        private long tryAcquireAcrossStripes(long tokens) {
+            double[] taken = new double[buckets.length];
+            double remaining = tokens;
+            for (int i = 0; i < buckets.length && remaining > 0; i++) {
+                taken[i] = buckets[i].take(remaining);
+                remaining -= taken[i];
+            }
+            if (remaining <= 0) {
+                return 0;
+            }
+
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i].refund(taken[i]);
+            }
+            return (long) Math.ceil(remaining / tokensPerNano);
+        }
+
+        long capacity() {
+            return capacity;
+        }
+
+        long available() {
+            long total = 0;
+            for (TokenBucket bucket : buckets) {
+                total += bucket.available();
+            }
+            return total;
+        }
+    }
+}
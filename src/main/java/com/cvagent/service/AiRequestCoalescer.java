@@ -0,0 +1,191 @@
+package com.cvagent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * AI请求合并器（single-flight）
+ * 相同指纹的并发请求共享同一次模型调用，某个等待者取消不会影响其他等待者，
+ * 只有当所有等待者都离开时才放弃这次调用
+ */
+@Service
+public class AiRequestCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiRequestCoalescer.class);
+
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder cancelledWaiters = new LongAdder();
+    private final LongAdder abandonedFlights = new LongAdder();
+
+    /**
+     * 同步执行：没有相同请求在途时由当前线程执行，否则等待在途请求的结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String fingerprint, Supplier<T> call) {
+        Flight flight = new Flight(fingerprint);
+        Flight existing = inFlight.putIfAbsent(fingerprint, flight);
+
+        if (existing == null) {
+            executions.increment();
+            flight.waiters.incrementAndGet();
+            flight.leader = Thread.currentThread();
+            try {
+                T result = call.get();
+                flight.future.complete(result);
+                return result;
+            } catch (Throwable t) {
+                // Error也要通知等待者，否则无超时等待的线程会永远阻塞
+                flight.future.completeExceptionally(t);
+                throw t;
+            } finally {
+                flight.leader = null;
+                inFlight.remove(fingerprint, flight);
+            }
+        }
+
+        // 当前线程正是该请求的执行者（异步入口内部再次进入），直接执行
+        if (existing.leader == Thread.currentThread()) {
+            return call.get();
+        }
+
+        coalesced.increment();
+        logger.debug("合并在途AI请求: {}", fingerprint);
+        CompletableFuture<Object> waiter = existing.join();
+        try {
+            return (T) waiter.get();
+        } catch (InterruptedException e) {
+            waiter.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("等待AI请求结果时被中断");
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * 异步执行：返回的Future属于调用方自己，取消它只会让该调用方离开
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(String fingerprint, Supplier<T> call, Executor executor) {
+        Flight flight = new Flight(fingerprint);
+        Flight existing = inFlight.putIfAbsent(fingerprint, flight);
+
+        if (existing != null) {
+            coalesced.increment();
+            logger.debug("合并在途AI请求: {}", fingerprint);
+            return (CompletableFuture<T>) existing.join();
+        }
+
+        executions.increment();
+        CompletableFuture<Object> waiter = flight.join();
+        try {
+            executor.execute(() -> {
+                // 所有等待者在任务开始前都已离开
+                if (flight.future.isDone()) {
+                    return;
+                }
+                flight.leader = Thread.currentThread();
+                try {
+                    flight.future.complete(call.get());
+                } catch (Throwable t) {
+                    flight.future.completeExceptionally(t);
+                } finally {
+                    flight.leader = null;
+                    inFlight.remove(fingerprint, flight);
+                }
+            });
+        } catch (RuntimeException e) {
+            flight.future.completeExceptionally(e);
+            inFlight.remove(fingerprint, flight);
+        }
+        return (CompletableFuture<T>) waiter;
+    }
+
+    /**
+     * 获取合并统计
+     */
+    public Map<String, Object> getStatistics() {
+        long executionCount = executions.sum();
+        long coalescedCount = coalesced.sum();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("executions", executionCount);
+        stats.put("coalesced", coalescedCount);
+        stats.put("coalesceRate", executionCount + coalescedCount > 0 ?
+                coalescedCount * 100.0 / (executionCount + coalescedCount) : 0.0);
+        stats.put("cancelledWaiters", cancelledWaiters.sum());
+        stats.put("abandonedFlights", abandonedFlights.sum());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new CompletionException(cause);
+    }
+
+    /**
+     * 一次在途的模型调用
+     */
+    private class Flight {
+        private final String fingerprint;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+        private volatile Thread leader;
+
+        private Flight(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * 新增一个等待者，返回其专属的结果视图
+         */
+        private CompletableFuture<Object> join() {
+            waiters.incrementAndGet();
+            CompletableFuture<Object> view = new CompletableFuture<>();
+            future.whenComplete((result, error) -> {
+                if (error != null) {
+                    view.completeExceptionally(error);
+                } else {
+                    view.complete(result);
+                }
+            });
+            view.whenComplete((result, error) -> {
+                if (view.isCancelled()) {
+                    leave();
+                }
+            });
+            return view;
+        }
+
+        private void leave() {
+            cancelledWaiters.increment();
+            if (waiters.decrementAndGet() == 0 && future.cancel(false)) {
+                abandonedFlights.increment();
+                inFlight.remove(fingerprint, this);
+                logger.debug("所有等待者已取消，放弃AI请求: {}", fingerprint);
+            }
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiResponseCacheEntry;
+import com.cvagent.repository.AiResponseCacheRepository;
+import com.cvagent.service.ai.AiResponseMetadata;
+import com.cvagent.service.ai.MinHashSignature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * AI响应缓存服务
+ * 一级缓存为进程内Caffeine，二级缓存为带TTL的MongoDB集合，
+ * 缓存键为（服务类型、模型名称、温度、规范化输入）的内容哈希。
+ * 启用近似匹配的服务在精确未命中时，按主要输入的MinHash签名经LSH分桶查找相似度不低于阈值的已缓存应答，
+ * 近似匹配只在同一用户的应答之间进行
+ */
+@Service
+public class AiResponseCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiResponseCacheService.class);
+
+    private static final char FIELD_SEPARATOR = '\u001F';
+
+    @Autowired
+    private AiResponseCacheRepository cacheRepository;
+
+    @Autowired
+    private Environment environment;
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${ai.cache.l1-expire-minutes:30}")
+    private long l1ExpireMinutes;
+
+    @Value("${ai.cache.default-max-size:500}")
+    private long defaultMaxSize;
+
+    @Value("${ai.cache.similarity.enabled:true}")
+    private boolean similarityEnabled;
+
+    @Value("${ai.cache.similarity.threshold:0.9}")
+    private double similarityThreshold;
+
+    @Value("${ai.cache.similarity.services:resume_optimization,resume_section_improvement}")
+    private List<String> similarityServices;
+
+    // 每种服务类型一个一级缓存，容量可通过 ai.cache.max-size.<serviceType> 单独配置
+    private final Map<String, Cache<String, AiResponseCacheEntry>> localCaches = new ConcurrentHashMap<>();
+
+    private final Map<String, SimilarityIndex> similarityIndexes = new ConcurrentHashMap<>();
+
+    private final Map<String, CacheStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 计算缓存键
+     */
+    public String buildKey(String serviceType, String modelName, double temperature, String... inputs) {
+        StringBuilder material = new StringBuilder();
+        material.append(serviceType).append(FIELD_SEPARATOR)
+                .append(modelName).append(FIELD_SEPARATOR)
+                .append(temperature);
+        for (String input : inputs) {
+            material.append(FIELD_SEPARATOR).append(normalize(input));
+        }
+        return sha256(material.toString());
+    }
+
+    /**
+     * 读取缓存，未命中时调用loader生成并写入缓存
+     */
+    public String getOrCompute(String serviceType, String modelName, String key, Supplier<String> loader) {
+        return getOrCompute(serviceType, modelName, key, null, null, loader);
+    }
+
+    /**
+     * 读取缓存，精确未命中时按inputs近似匹配，仍未命中时调用loader生成并写入缓存。
+     * 近似匹配只比较第一个输入，其余输入（职位描述、章节类型等）规范化后须完全一致；
+     * 规范化会屏蔽联系方式，为避免把其他用户的个人信息返回给当前用户，近似匹配限定在userId自己的应答内，
+     * userId为空时不做近似匹配。命中方式和相似度写入响应元数据
+     */
+    public String getOrCompute(String serviceType, String modelName, String key, String userId, String[] inputs,
+                               Supplier<String> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        Optional<String> cached = lookup(serviceType, key, false);
+        if (cached.isPresent()) {
+            AiResponseMetadata.put("cache", "exact");
+            return cached.get();
+        }
+
+        SimilarityKey similarityKey = similarityKeyFor(serviceType, modelName, userId, inputs);
+        if (similarityKey != null) {
+            Optional<SimilarMatch> match = findSimilar(serviceType, similarityKey);
+            if (match.isPresent()) {
+                CacheStats serviceStats = statsFor(serviceType);
+                serviceStats.similarHits.increment();
+                serviceStats.latencySaved.add(match.get().entry.getGenerationTime());
+                AiResponseMetadata.put("cache", "similar");
+                AiResponseMetadata.put("similarity", Math.round(match.get().similarity * 1000) / 1000.0);
+                logger.debug("AI响应近似命中: {}, 相似度 {}", serviceType, match.get().similarity);
+                return match.get().entry.getResponse();
+            }
+        }
+        statsFor(serviceType).misses.increment();
+        AiResponseMetadata.put("cache", "miss");
+
+        long startTime = System.currentTimeMillis();
+        String response = loader.get();
+        put(serviceType, modelName, key, response, System.currentTimeMillis() - startTime, similarityKey);
+        return response;
+    }
+
+    /**
+     * 查询缓存（先一级后二级，二级命中时回填一级）
+     */
+    public Optional<String> get(String serviceType, String key) {
+        return lookup(serviceType, key, true);
+    }
+
+    private Optional<String> lookup(String serviceType, String key, boolean countMiss) {
+        CacheStats serviceStats = statsFor(serviceType);
+        Cache<String, AiResponseCacheEntry> localCache = localCacheFor(serviceType);
+
+        AiResponseCacheEntry entry = localCache.getIfPresent(key);
+        if (entry != null && !entry.isExpired()) {
+            serviceStats.l1Hits.increment();
+            serviceStats.latencySaved.add(entry.getGenerationTime());
+            return Optional.of(entry.getResponse());
+        }
+
+        try {
+            Optional<AiResponseCacheEntry> stored = cacheRepository.findById(key);
+            if (stored.isPresent() && !stored.get().isExpired()) {
+                localCache.put(key, stored.get());
+                serviceStats.l2Hits.increment();
+                serviceStats.latencySaved.add(stored.get().getGenerationTime());
+                return Optional.of(stored.get().getResponse());
+            }
+        } catch (Exception e) {
+            logger.warn("读取AI响应二级缓存失败: {}", e.getMessage());
+        }
+
+        if (countMiss) {
+            serviceStats.misses.increment();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 查询缓存但不检查过期时间，用于模型全部不可用时的降级应答
+     */
+    public Optional<String> getStale(String serviceType, String key) {
+        AiResponseCacheEntry entry = localCacheFor(serviceType).getIfPresent(key);
+        if (entry != null) {
+            return Optional.of(entry.getResponse());
+        }
+        try {
+            return cacheRepository.findById(key).map(AiResponseCacheEntry::getResponse);
+        } catch (Exception e) {
+            logger.warn("读取AI响应二级缓存失败: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 写入缓存
+     */
+    public void put(String serviceType, String modelName, String key, String response, long generationTime) {
+        put(serviceType, modelName, key, response, generationTime, null);
+    }
+
+    private void put(String serviceType, String modelName, String key, String response, long generationTime,
+                     SimilarityKey similarityKey) {
+        if (response == null || response.isBlank()) {
+            return;
+        }
+
+        AiResponseCacheEntry entry = new AiResponseCacheEntry(key, serviceType, modelName, response,
+                generationTime, LocalDateTime.now().plusHours(ttlHours));
+        if (similarityKey != null) {
+            entry.setLshBands(similarityKey.bands);
+            entry.setMinHash(similarityKey.signature.toValues());
+            similarityIndexFor(serviceType).add(key, similarityKey.bands, similarityKey.signature);
+        }
+        localCacheFor(serviceType).put(key, entry);
+
+        try {
+            cacheRepository.save(entry);
+        } catch (Exception e) {
+            logger.warn("写入AI响应二级缓存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 清除指定服务类型的缓存，serviceType为空时清除全部
+     */
+    public void evict(String serviceType) {
+        if (serviceType == null) {
+            localCaches.values().forEach(Cache::invalidateAll);
+            similarityIndexes.values().forEach(SimilarityIndex::clear);
+            cacheRepository.deleteAll();
+            logger.info("已清除全部AI响应缓存");
+            return;
+        }
+
+        Cache<String, AiResponseCacheEntry> localCache = localCaches.get(serviceType);
+        if (localCache != null) {
+            localCache.invalidateAll();
+        }
+        SimilarityIndex similarityIndex = similarityIndexes.get(serviceType);
+        if (similarityIndex != null) {
+            similarityIndex.clear();
+        }
+        long deleted = cacheRepository.deleteByServiceType(serviceType);
+        logger.info("已清除AI响应缓存: {}, 二级缓存删除 {} 条", serviceType, deleted);
+    }
+
+    /**
+     * 获取缓存统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("ttlHours", ttlHours);
+        result.put("similarityEnabled", similarityEnabled);
+        result.put("similarityThreshold", similarityThreshold);
+
+        Map<String, Map<String, Object>> serviceStats = new HashMap<>();
+        stats.forEach((serviceType, serviceStat) -> {
+            long l1Hits = serviceStat.l1Hits.sum();
+            long l2Hits = serviceStat.l2Hits.sum();
+            long similarHits = serviceStat.similarHits.sum();
+            long misses = serviceStat.misses.sum();
+            long lookups = l1Hits + l2Hits + similarHits + misses;
+
+            Map<String, Object> stat = new HashMap<>();
+            stat.put("l1Hits", l1Hits);
+            stat.put("l2Hits", l2Hits);
+            stat.put("similarHits", similarHits);
+            stat.put("misses", misses);
+            stat.put("hitRate", lookups > 0 ? (l1Hits + l2Hits + similarHits) * 100.0 / lookups : 0.0);
+            stat.put("latencySavedMs", serviceStat.latencySaved.sum());
+            Cache<String, AiResponseCacheEntry> localCache = localCaches.get(serviceType);
+            stat.put("l1Size", localCache != null ? localCache.estimatedSize() : 0);
+            stat.put("l1MaxSize", maxSizeFor(serviceType));
+            serviceStats.put(serviceType, stat);
+        });
+        result.put("serviceStats", serviceStats);
+
+        return result;
+    }
+
+    /**
+     * 规范化输入：统一换行、合并连续空白并去除首尾空白
+     */
+    static String normalize(String input) {
+        if (input == null) {
+            return "";
+        }
+        return input.replace("\r\n", "\n").replaceAll("[ \\t\\x0B\\f]+", " ")
+                .replaceAll(" *\n *", "\n").replaceAll("\n{3,}", "\n\n").trim();
+    }
+
+    /**
+     * 计算近似匹配键：未启用近似匹配、没有请求用户或主要输入过短时返回null。
+     * 用户ID参与分桶键，本地索引和二级缓存中的候选都只来自同一用户
+     */
+    private SimilarityKey similarityKeyFor(String serviceType, String modelName, String userId, String[] inputs) {
+        if (!similarityEnabled || userId == null || inputs == null || inputs.length == 0
+                || !similarityServices.contains(serviceType)) {
+            return null;
+        }
+        MinHashSignature signature = MinHashSignature.of(inputs[0]);
+        if (signature == null) {
+            return null;
+        }
+
+        StringBuilder scope = new StringBuilder(userId).append(FIELD_SEPARATOR).append(modelName);
+        for (int i = 1; i < inputs.length; i++) {
+            scope.append(FIELD_SEPARATOR).append(normalize(inputs[i]));
+        }
+        return new SimilarityKey(signature.bandKeys(scope.toString()), signature);
+    }
+
+    /**
+     * 先在本地索引中查找候选，没有足够相似的候选时再按分桶键查询二级缓存
+     */
+    private Optional<SimilarMatch> findSimilar(String serviceType, SimilarityKey similarityKey) {
+        SimilarityIndex index = similarityIndexFor(serviceType);
+        String bestKey = null;
+        double best = 0;
+        for (String candidate : index.candidates(similarityKey.bands)) {
+            IndexedSignature indexed = index.signatures.getIfPresent(candidate);
+            if (indexed == null) {
+                continue;
+            }
+            double similarity = similarityKey.signature.similarity(indexed.signature);
+            if (similarity > best) {
+                best = similarity;
+                bestKey = candidate;
+            }
+        }
+        try {
+            if (bestKey != null && best >= similarityThreshold) {
+                AiResponseCacheEntry entry = localCacheFor(serviceType).getIfPresent(bestKey);
+                if (entry == null) {
+                    entry = cacheRepository.findById(bestKey).orElse(null);
+                }
+                if (entry != null && !entry.isExpired()) {
+                    return Optional.of(new SimilarMatch(entry, best));
+                }
+            }
+
+            AiResponseCacheEntry bestEntry = null;
+            best = 0;
+            for (AiResponseCacheEntry entry
+                    : cacheRepository.findTop20ByServiceTypeAndLshBandsIn(serviceType, similarityKey.bands)) {
+                MinHashSignature stored = MinHashSignature.fromValues(entry.getMinHash());
+                if (stored == null || entry.isExpired()) {
+                    continue;
+                }
+                index.add(entry.getId(), entry.getLshBands(), stored);
+                double similarity = similarityKey.signature.similarity(stored);
+                if (similarity > best) {
+                    best = similarity;
+                    bestEntry = entry;
+                }
+            }
+            if (bestEntry != null && best >= similarityThreshold) {
+                localCacheFor(serviceType).put(bestEntry.getId(), bestEntry);
+                return Optional.of(new SimilarMatch(bestEntry, best));
+            }
+        } catch (Exception e) {
+            logger.warn("查询AI响应近似缓存失败: {}", e.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    private SimilarityIndex similarityIndexFor(String serviceType) {
+        return similarityIndexes.computeIfAbsent(serviceType,
+                type -> new SimilarityIndex(maxSizeFor(type), Duration.ofHours(ttlHours)));
+    }
+
+    private Cache<String, AiResponseCacheEntry> localCacheFor(String serviceType) {
+        return localCaches.computeIfAbsent(serviceType, type -> Caffeine.newBuilder()
+                .maximumSize(maxSizeFor(type))
+                .expireAfterWrite(Duration.ofMinutes(l1ExpireMinutes))
+                .build());
+    }
+
+    private long maxSizeFor(String serviceType) {
+        return environment.getProperty("ai.cache.max-size." + serviceType, Long.class, defaultMaxSize);
+    }
+
+    private CacheStats statsFor(String serviceType) {
+        return stats.computeIfAbsent(serviceType, type -> new CacheStats());
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    /**
+     * 单个服务类型的缓存统计
+     */
+    private static class CacheStats {
+        private final LongAdder l1Hits = new LongAdder();
+        private final LongAdder l2Hits = new LongAdder();
+        private final LongAdder similarHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder latencySaved = new LongAdder();
+    }
+
+    /**
+     * 单个服务类型的近似匹配索引：条目签名和LSH分桶到缓存键的倒排表，条目淘汰时同步移出分桶
+     */
+    private static class SimilarityIndex {
+        private final Map<String, Set<String>> buckets = new ConcurrentHashMap<>();
+        private final Cache<String, IndexedSignature> signatures;
+
+        private SimilarityIndex(long maxSize, Duration ttl) {
+            signatures = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(ttl)
+                    .executor(Runnable::run)
+                    .<String, IndexedSignature>removalListener((key, indexed, cause) -> {
+                        if (key != null && indexed != null && cause.wasEvicted()) {
+                            indexed.bands.forEach(band -> buckets.computeIfPresent(band,
+                                    (ignored, keys) -> keys.remove(key) && keys.isEmpty() ? null : keys));
+                        }
+                    })
+                    .build();
+        }
+
+        private void add(String key, List<String> bands, MinHashSignature signature) {
+            if (bands == null) {
+                return;
+            }
+            signatures.put(key, new IndexedSignature(bands, signature));
+            bands.forEach(band -> buckets.computeIfAbsent(band, ignored -> ConcurrentHashMap.newKeySet()).add(key));
+        }
+
+        private Set<String> candidates(List<String> bands) {
+            Set<String> candidates = new HashSet<>();
+            for (String band : bands) {
+                Set<String> keys = buckets.get(band);
+                if (keys != null) {
+                    candidates.addAll(keys);
+                }
+            }
+            return candidates;
+        }
+
+        private void clear() {
+            signatures.invalidateAll();
+            buckets.clear();
+        }
+    }
+
+    private static class IndexedSignature {
+        private final List<String> bands;
+        private final MinHashSignature signature;
+
+        private IndexedSignature(List<String> bands, MinHashSignature signature) {
+            this.bands = bands;
+            this.signature = signature;
+        }
+    }
+
+    private static class SimilarityKey {
+        private final List<String> bands;
+        private final MinHashSignature signature;
+
+        private SimilarityKey(List<String> bands, MinHashSignature signature) {
+            this.bands = bands;
+            this.signature = signature;
+        }
+    }
+
+    private static class SimilarMatch {
+        private final AiResponseCacheEntry entry;
+        private final double similarity;
+
+        private SimilarMatch(AiResponseCacheEntry entry, double similarity) {
+            this.entry = entry;
+            this.similarity = similarity;
+        }
+    }
+}
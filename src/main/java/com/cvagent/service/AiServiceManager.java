@@ -1,19 +1,52 @@
 package com.cvagent.service;
 
+import com.cvagent.config.AiServiceConfig;
+import com.cvagent.exception.AiModelUnavailableException;
+import com.cvagent.exception.AiOverloadedException;
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.security.UserPrincipal;
+import com.cvagent.service.ai.AiStreamHandle;
+import com.cvagent.service.ai.AiStreamListener;
+import com.cvagent.service.ai.AiUsageContext;
 import com.cvagent.service.ai.ChatAssistant;
 import com.cvagent.service.ai.CreativeWritingAssistant;
+import com.cvagent.service.ai.ResilientChatModel;
+import com.cvagent.service.ai.ResilientStreamingChatModel;
 import com.cvagent.service.ai.ResumeOptimizationAssistant;
+import com.cvagent.service.ai.StreamingCreativeWritingAssistant;
+import com.cvagent.service.ai.StreamingResumeOptimizationAssistant;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.service.TokenStream;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * AI服务管理器
@@ -24,6 +57,8 @@ public class AiServiceManager {
 
     private static final Logger logger = LoggerFactory.getLogger(AiServiceManager.class);
 
+    private static final int SUMMARY_LENGTH = 200;
+
     @Autowired
     private ChatAssistant chatAssistant;
 
@@ -33,190 +68,647 @@ public class AiServiceManager {
     @Autowired
     private CreativeWritingAssistant creativeWritingAssistant;
 
+    @Autowired
+    private StreamingResumeOptimizationAssistant streamingResumeOptimizationAssistant;
+
+    @Autowired
+    private StreamingCreativeWritingAssistant streamingCreativeWritingAssistant;
+
     @Autowired
     private PromptTemplateService promptTemplateService;
 
     @Autowired
     private AiMonitoringService aiMonitoringService;
 
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
+    @Autowired
+    private AiResponseCacheService responseCacheService;
 
-    /**
-     * 基础聊天功能
-     */
-    @Cacheable(value = "chatCache", key = "#message.hashCode()")
-    public String chat(String message) {
-        long startTime = System.currentTimeMillis();
-        try {
-            String response = chatAssistant.chat(message);
-            long duration = System.currentTimeMillis() - startTime;
+    @Autowired
+    private AiRequestCoalescer requestCoalescer;
 
-            // 记录监控数据
-            aiMonitoringService.recordRequest("chat", duration, true, null);
+    @Autowired
+    private AiExecutionService aiExecutionService;
 
-            logger.info("聊天请求完成，耗时: {}ms", duration);
-            return response;
-        } catch (Exception e) {
-            long duration = System.currentTimeMillis() - startTime;
-            aiMonitoringService.recordRequest("chat", duration, false, e.getMessage());
+    @Autowired
+    private AiRateLimiter rateLimiter;
 
-            logger.error("聊天请求失败: {}", e.getMessage(), e);
-            throw new RuntimeException("AI聊天服务暂时不可用", e);
-        }
+    @Autowired
+    private AiFallbackService fallbackService;
+
+    @Autowired
+    private PromptBudgetService promptBudgetService;
+
+    @Autowired
+    private OptimizationJobQueue optimizationJobQueue;
+
+    @Autowired
+    private List<ResilientChatModel> resilientModels;
+
+    @Autowired
+    private List<ResilientStreamingChatModel> resilientStreamingModels;
+
+    // 每次调用一个span，traceId记入使用日志；未启用追踪时不记录
+    @Autowired(required = false)
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+    @Autowired(required = false)
+    private Tracer tracer;
+
+    @Value("${openai.model}")
+    private String chatModelName;
+
+    @Value("${ai.batch.max-parallelism:8}")
+    private int batchParallelism;
+
+    @Value("${ai.batch.item-timeout-ms:90000}")
+    private long batchItemTimeoutMillis;
+
+    @Value("${ai.batch.deadline-ms:300000}")
+    private long batchDeadlineMillis;
+
+    /**
+     * 基础聊天功能（对话类请求不做响应缓存）
+     */
+    public String chat(String message) {
+        String budgeted = promptBudgetService.compact("chat", message);
+        return invoke("chat", "聊天请求", "AI聊天服务暂时不可用", false,
+                () -> chatAssistant.chat(budgeted), budgeted);
     }
 
     /**
      * 简历优化
      */
     public String optimizeResume(String resumeContent, String jobDescription) {
-        long startTime = System.currentTimeMillis();
-        try {
-            // 获取简历优化提示词
-            String prompt = promptTemplateService.getPrompt("resume-optimization",
-                    Map.of("resumeContent", resumeContent, "jobDescription", jobDescription));
+        String[] parts = promptBudgetService.fit("resume_optimization", resumeContent, jobDescription);
+        return invoke("resume_optimization", "简历优化", "简历优化服务暂时不可用", true,
+                () -> resumeOptimizationAssistant.optimizeResume(parts[0], parts[1]),
+                parts);
+    }
 
-            String response = resumeOptimizationAssistant.optimizeResume(resumeContent, jobDescription);
-            long duration = System.currentTimeMillis() - startTime;
+    /**
+     * 生成求职信
+     */
+    public String generateCoverLetter(String resumeContent, String jobDescription, String companyInfo) {
+        String[] parts = promptBudgetService.fit("cover_letter_generation", resumeContent, jobDescription, companyInfo);
+        return invoke("cover_letter_generation", "求职信生成", "求职信生成服务暂时不可用", true,
+                () -> creativeWritingAssistant.generateCoverLetter(parts[0], parts[1], parts[2]),
+                parts);
+    }
 
-            aiMonitoringService.recordRequest("resume_optimization", duration, true, null);
+    /**
+     * 改进简历章节
+     */
+    public String improveResumeSection(String sectionContent, String sectionType) {
+        String budgeted = promptBudgetService.compact("resume_section_improvement", sectionContent);
+        return invoke("resume_section_improvement", "简历章节改进", "简历章节改进服务暂时不可用", true,
+                () -> resumeOptimizationAssistant.improveResumeSection(budgeted, sectionType),
+                budgeted, sectionType);
+    }
 
-            logger.info("简历优化完成，耗时: {}ms", duration);
-            return response;
-        } catch (Exception e) {
-            long duration = System.currentTimeMillis() - startTime;
-            aiMonitoringService.recordRequest("resume_optimization", duration, false, e.getMessage());
+    /**
+     * 按命中的优化规则生成建议，提示词由规则引擎组装。使用独立的预算（rule_suggestions），
+     * 不去重复行，避免删掉各规则共有的字段行
+     */
+    public String generateRuleSuggestions(String prompt) {
+        String budgeted = promptBudgetService.compact("rule_suggestions", prompt);
+        return invoke("rule_suggestions", "规则建议生成", "规则建议生成服务暂时不可用", true,
+                () -> resumeOptimizationAssistant.generateRuleSuggestions(budgeted),
+                budgeted);
+    }
 
-            logger.error("简历优化失败: {}", e.getMessage(), e);
-            throw new RuntimeException("简历优化服务暂时不可用", e);
-        }
+    /**
+     * 生成项目描述
+     */
+    public String generateProjectDescription(String projectInfo) {
+        String budgeted = promptBudgetService.compact("project_description_generation", projectInfo);
+        return invoke("project_description_generation", "项目描述生成", "项目描述生成服务暂时不可用", true,
+                () -> creativeWritingAssistant.generateProjectDescription(budgeted),
+                budgeted);
     }
 
     /**
-     * 生成求职信
+     * 执行一次AI调用：用户限流 -> 响应缓存 -> 请求合并 -> 模型限流 -> 模型舱壁 -> 模型降级链
+     * 过载和限流异常原样抛出以便返回429；降级链上的模型全部不可用时尝试降级应答；其余异常包装为服务不可用
      */
-    public String generateCoverLetter(String resumeContent, String jobDescription, String companyInfo) {
+    private String invoke(String serviceType, String label, String unavailableMessage, boolean cacheable,
+                          Supplier<String> call, String... inputs) {
+        return Observation.createNotStarted("ai.service", observationRegistry)
+                .lowCardinalityKeyValue("ai.service.type", serviceType)
+                .observe(() -> invokeObserved(serviceType, label, unavailableMessage, cacheable, call, inputs));
+    }
+
+    private String invokeObserved(String serviceType, String label, String unavailableMessage, boolean cacheable,
+                                  Supplier<String> call, String... inputs) {
         long startTime = System.currentTimeMillis();
+        String cacheKey = fingerprint(serviceType, inputs);
+        String userId = usageUserId();
+        String traceId = currentTraceId();
+        AiUsageContext.Capture usage = AiUsageContext.start();
         try {
-            String response = creativeWritingAssistant.generateCoverLetter(resumeContent, jobDescription, companyInfo);
+            long estimatedTokens = AiRateLimiter.estimateTokens(inputs);
+            rateLimiter.acquireUser(currentUserId(), estimatedTokens);
+
+            String model = modelBeanFor(serviceType);
+            Supplier<String> guarded = () -> requestCoalescer.execute(cacheKey, () -> {
+                rateLimiter.acquireModel(model, estimatedTokens);
+                return aiExecutionService.call(model, call);
+            });
+            String response = cacheable
+                    ? responseCacheService.getOrCompute(serviceType, modelNameFor(serviceType), cacheKey, userId, inputs,
+                            guarded)
+                    : guarded.get();
             long duration = System.currentTimeMillis() - startTime;
 
-            aiMonitoringService.recordRequest("cover_letter_generation", duration, true, null);
+            // 记录监控数据
+            recordUsage(serviceType, duration, true, null, userId, traceId,
+                    usage.getModelName(), usage.getTokenUsage(), inputs[0], response);
 
-            logger.info("求职信生成完成，耗时: {}ms", duration);
+            logger.info("{}完成，耗时: {}ms", label, duration);
             return response;
+        } catch (AiOverloadedException e) {
+            long duration = System.currentTimeMillis() - startTime;
+            recordUsage(serviceType, duration, false, e.getMessage(), userId, traceId, null, null, inputs[0], null);
+
+            logger.warn("{}被拒绝: {}", label, e.getMessage());
+            throw e;
+        } catch (AiModelUnavailableException e) {
+            long duration = System.currentTimeMillis() - startTime;
+            Optional<String> fallback = cacheable
+                    ? fallbackService.fallback(serviceType, cacheKey, inputs[0])
+                    : Optional.empty();
+            recordUsage(serviceType, duration, fallback.isPresent(), e.getMessage(), userId, traceId,
+                    null, null, inputs[0], fallback.orElse(null));
+
+            if (fallback.isPresent()) {
+                logger.warn("{}使用降级应答，耗时: {}ms", label, duration);
+                return fallback.get();
+            }
+            logger.error("{}失败，模型均不可用: {}", label, e.getMessage());
+            throw new RuntimeException(unavailableMessage, e);
         } catch (Exception e) {
             long duration = System.currentTimeMillis() - startTime;
-            aiMonitoringService.recordRequest("cover_letter_generation", duration, false, e.getMessage());
+            recordUsage(serviceType, duration, false, e.getMessage(), userId, traceId, null, null, inputs[0], null);
 
-            logger.error("求职信生成失败: {}", e.getMessage(), e);
-            throw new RuntimeException("求职信生成服务暂时不可用", e);
+            logger.error("{}失败: {}", label, e.getMessage(), e);
+            throw new RuntimeException(unavailableMessage, e);
+        } finally {
+            usage.close();
         }
     }
 
     /**
-     * 改进简历章节
+     * 流式聊天
      */
-    public String improveResumeSection(String sectionContent, String sectionType) {
-        long startTime = System.currentTimeMillis();
-        try {
-            String response = resumeOptimizationAssistant.improveResumeSection(sectionContent, sectionType);
-            long duration = System.currentTimeMillis() - startTime;
+    public AiStreamHandle streamChat(String message, AiStreamListener listener) {
+        String budgeted = promptBudgetService.compact("chat", message);
+        return stream("chat", false, () -> budgeted, null, AiRateLimiter.estimateTokens(budgeted),
+                chatAssistant::chatStream, listener);
+    }
 
-            aiMonitoringService.recordRequest("resume_section_improvement", duration, true, null);
+    /**
+     * 流式简历优化
+     */
+    public AiStreamHandle streamOptimizeResume(String resumeContent, String jobDescription, AiStreamListener listener) {
+        String[] parts = promptBudgetService.fit("resume_optimization", resumeContent, jobDescription);
+        return stream("resume_optimization", true, () -> promptTemplateService.getPrompt("resume-optimization", Map.of(
+                        "resumeContent", parts[0],
+                        "jobDescription", nullToEmpty(parts[1]))),
+                parts[0], AiRateLimiter.estimateTokens(parts),
+                streamingResumeOptimizationAssistant::optimizeResume, listener);
+    }
 
-            logger.info("简历章节改进完成，耗时: {}ms", duration);
-            return response;
-        } catch (Exception e) {
-            long duration = System.currentTimeMillis() - startTime;
-            aiMonitoringService.recordRequest("resume_section_improvement", duration, false, e.getMessage());
+    /**
+     * 流式改进简历章节
+     */
+    public AiStreamHandle streamImproveResumeSection(String sectionContent, String sectionType, AiStreamListener listener) {
+        String budgeted = promptBudgetService.compact("resume_section_improvement", sectionContent);
+        return stream("resume_section_improvement", true, () -> promptTemplateService.getPrompt("resume-section-improvement",
+                        Map.of("sectionContent", budgeted, "sectionType", sectionType)),
+                budgeted, AiRateLimiter.estimateTokens(budgeted, sectionType),
+                streamingResumeOptimizationAssistant::improveResumeSection, listener);
+    }
+
+    /**
+     * 流式生成求职信
+     */
+    public AiStreamHandle streamGenerateCoverLetter(String resumeContent, String jobDescription, String companyInfo,
+                                          AiStreamListener listener) {
+        String[] parts = promptBudgetService.fit("cover_letter_generation", resumeContent, jobDescription, companyInfo);
+        return stream("cover_letter_generation", true, () -> promptTemplateService.getPrompt("cover-letter-generation", Map.of(
+                        "resumeContent", parts[0],
+                        "jobDescription", parts[1],
+                        "companyInfo", nullToEmpty(parts[2]))),
+                parts[0], AiRateLimiter.estimateTokens(parts),
+                streamingCreativeWritingAssistant::generateCoverLetter, listener);
+    }
 
-            logger.error("简历章节改进失败: {}", e.getMessage(), e);
-            throw new RuntimeException("简历章节改进服务暂时不可用", e);
+    /**
+     * 执行流式请求：缓存命中时一次性返回，否则逐段转发模型输出，完成后写入缓存并记录监控
+     * 流式助手接收渲染好的提示词，与按原始参数调用的阻塞助手提示词不同，缓存键按实际发送的提示词计算，
+     * 两条路径互不命中，模板更新后旧缓存也不再命中；fallbackContent为模型全部不可用时用于规则应答的内容。
+     * 返回的句柄在客户端断开时取消请求
+     */
+    private AiStreamHandle stream(String serviceType, boolean cacheable, Supplier<String> promptSupplier, String fallbackContent,
+                        long estimatedTokens, Function<String, TokenStream> streamFactory, AiStreamListener listener) {
+        Observation observation = Observation.createNotStarted("ai.service.stream", observationRegistry)
+                .lowCardinalityKeyValue("ai.service.type", serviceType)
+                .start();
+        try (Observation.Scope scope = observation.openScope()) {
+            return startStream(serviceType, cacheable, promptSupplier, fallbackContent, estimatedTokens, streamFactory,
+                    new ObservedStreamListener(observation, listener));
         }
     }
 
     /**
-     * 生成项目描述
+     * 流式请求的每条结束路径都会回调onComplete或onError，span在回调时结束。
+     * 取消时立即释放舱壁许可并回调onError(CancellationException)；流式助手不支持中止底层调用，
+     * 模型此后的输出被丢弃，结束时仍写入缓存并记录实际用量
      */
-    public String generateProjectDescription(String projectInfo) {
+    private AiStreamHandle startStream(String serviceType, boolean cacheable, Supplier<String> promptSupplier,
+                             String fallbackContent, long estimatedTokens, Function<String, TokenStream> streamFactory,
+                             AiStreamListener listener) {
         long startTime = System.currentTimeMillis();
+        String userId = usageUserId();
+        String traceId = currentTraceId();
+
         try {
-            String response = creativeWritingAssistant.generateProjectDescription(projectInfo);
-            long duration = System.currentTimeMillis() - startTime;
+            rateLimiter.acquireUser(currentUserId(), estimatedTokens);
+        } catch (AiOverloadedException e) {
+            recordUsage(serviceType, 0, false, e.getMessage(), userId, traceId, null, null, fallbackContent, null);
+            logger.warn("流式请求被限流: {}, {}", serviceType, e.getMessage());
+            listener.onError(e);
+            return AiStreamHandle.NONE;
+        }
 
-            aiMonitoringService.recordRequest("project_description_generation", duration, true, null);
+        String prompt;
+        try {
+            prompt = promptSupplier.get();
+        } catch (RuntimeException e) {
+            recordUsage(serviceType, System.currentTimeMillis() - startTime, false, e.getMessage(), userId, traceId,
+                    null, null, fallbackContent, null);
+            logger.error("流式请求提示词渲染失败: {}, {}", serviceType, e.getMessage(), e);
+            listener.onError(e);
+            return AiStreamHandle.NONE;
+        }
 
-            logger.info("项目描述生成完成，耗时: {}ms", duration);
-            return response;
+        String cacheKey = cacheable ? fingerprint(serviceType, prompt) : null;
+        if (cacheKey != null) {
+            Optional<String> cached = responseCacheService.get(serviceType, cacheKey);
+            if (cached.isPresent()) {
+                recordUsage(serviceType, System.currentTimeMillis() - startTime, true, null, userId, traceId,
+                        null, null, fallbackContent, cached.get());
+                listener.onToken(cached.get());
+                listener.onComplete(cached.get());
+                return AiStreamHandle.NONE;
+            }
+        }
+
+        AiBulkhead bulkhead = aiExecutionService.bulkhead(modelBeanFor(serviceType));
+        try {
+            rateLimiter.acquireModel(modelBeanFor(serviceType), estimatedTokens);
+            bulkhead.acquireNow();
+        } catch (AiOverloadedException e) {
+            recordUsage(serviceType, 0, false, e.getMessage(), userId, traceId, null, null, fallbackContent, null);
+            logger.warn("流式请求被拒绝: {}, {}", serviceType, e.getMessage());
+            listener.onError(e);
+            return AiStreamHandle.NONE;
+        }
+
+        ActiveStream active = new ActiveStream(serviceType, bulkhead, startTime, listener);
+        try {
+            streamFactory.apply(prompt)
+                    .onPartialResponse(token -> {
+                        if (!active.isCancelled()) {
+                            listener.onToken(token);
+                        }
+                    })
+                    .onCompleteResponse(chatResponse -> {
+                        long duration = System.currentTimeMillis() - startTime;
+                        boolean delivered = active.finish();
+                        String response = chatResponse.aiMessage().text();
+                        if (cacheKey != null) {
+                            responseCacheService.put(serviceType, modelNameFor(serviceType), cacheKey, response, duration);
+                        }
+                        recordUsage(serviceType, duration, true, null, userId, traceId, chatResponse.modelName(),
+                                chatResponse.tokenUsage(), fallbackContent, response);
+                        logger.info("流式请求完成: {}, 耗时: {}ms", serviceType, duration);
+                        if (delivered) {
+                            listener.onComplete(response);
+                        }
+                    })
+                    .onError(error -> {
+                        long duration = System.currentTimeMillis() - startTime;
+                        if (!active.finish()) {
+                            // 已取消，只记录失败
+                            recordUsage(serviceType, duration, false, error.getMessage(), userId, traceId,
+                                    null, null, fallbackContent, null);
+                            return;
+                        }
+                        if (error instanceof AiModelUnavailableException && cacheKey != null) {
+                            Optional<String> fallback = fallbackService.fallback(serviceType, cacheKey, fallbackContent);
+                            if (fallback.isPresent()) {
+                                recordUsage(serviceType, duration, true, error.getMessage(), userId, traceId,
+                                        null, null, fallbackContent, fallback.get());
+                                listener.onToken(fallback.get());
+                                listener.onComplete(fallback.get());
+                                return;
+                            }
+                        }
+                        recordUsage(serviceType, duration, false, error.getMessage(), userId, traceId,
+                                null, null, fallbackContent, null);
+                        logger.error("流式请求失败: {}, {}", serviceType, error.getMessage(), error);
+                        listener.onError(error);
+                    })
+                    .start();
         } catch (Exception e) {
             long duration = System.currentTimeMillis() - startTime;
-            aiMonitoringService.recordRequest("project_description_generation", duration, false, e.getMessage());
+            if (active.finish()) {
+                recordUsage(serviceType, duration, false, e.getMessage(), userId, traceId, null, null,
+                        fallbackContent, null);
+                logger.error("流式请求启动失败: {}, {}", serviceType, e.getMessage(), e);
+                listener.onError(e);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * 记录一次AI调用的用户、实际响应的模型和令牌用量，费用由监控服务按价格表计算
+     */
+    private void recordUsage(String serviceType, long duration, boolean success, String errorMessage, String userId,
+                             String traceId, String modelName, TokenUsage tokenUsage, String request,
+                             String response) {
+        AiUsageLog log = new AiUsageLog();
+        log.setServiceType(serviceType);
+        log.setResponseTime(duration);
+        log.setSuccess(success);
+        log.setErrorMessage(errorMessage);
+        log.setUserId(userId);
+        log.setTraceId(traceId);
+        log.setRequestSummary(summarize(request));
+        log.setResponseSummary(summarize(response));
+        if (tokenUsage != null) {
+            log.setModelName(modelName != null ? modelName : modelNameFor(serviceType));
+            log.setInputTokens(tokenUsage.inputTokenCount());
+            log.setOutputTokens(tokenUsage.outputTokenCount());
+            log.setTokensUsed(tokenUsage.totalTokenCount());
+        }
+        aiMonitoringService.recordRequest(log);
+    }
+
+    /**
+     * 当前线程所在链路的traceId，未启用追踪时为空
+     */
+    private String currentTraceId() {
+        Span span = tracer != null ? tracer.currentSpan() : null;
+        return span != null ? span.context().traceId() : null;
+    }
 
-            logger.error("项目描述生成失败: {}", e.getMessage(), e);
-            throw new RuntimeException("项目描述生成服务暂时不可用", e);
+    private static String summarize(String text) {
+        if (text == null) {
+            return null;
         }
+        return text.length() > SUMMARY_LENGTH ? text.substring(0, SUMMARY_LENGTH) + "..." : text;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
     }
 
     /**
      * 异步聊天
      */
     public CompletableFuture<String> chatAsync(String message) {
-        return CompletableFuture.supplyAsync(() -> chat(message), executorService);
+        String userId = currentUserId();
+        rateLimiter.acquireUser(userId, AiRateLimiter.estimateTokens(message));
+        return requestCoalescer.executeAsync(fingerprint("chat", message),
+                () -> AiUsageContext.callAs(userId, () -> chat(message)), aiExecutionService.executor());
     }
 
     /**
      * 异步简历优化
      */
     public CompletableFuture<String> optimizeResumeAsync(String resumeContent, String jobDescription) {
-        return CompletableFuture.supplyAsync(() -> optimizeResume(resumeContent, jobDescription), executorService);
+        String userId = currentUserId();
+        rateLimiter.acquireUser(userId, AiRateLimiter.estimateTokens(resumeContent, jobDescription));
+        return requestCoalescer.executeAsync(fingerprint("resume_optimization", resumeContent, jobDescription),
+                () -> AiUsageContext.callAs(userId, () -> optimizeResume(resumeContent, jobDescription)),
+                aiExecutionService.executor());
     }
 
     /**
      * 异步求职信生成
      */
     public CompletableFuture<String> generateCoverLetterAsync(String resumeContent, String jobDescription, String companyInfo) {
-        return CompletableFuture.supplyAsync(() -> generateCoverLetter(resumeContent, jobDescription, companyInfo), executorService);
+        String userId = currentUserId();
+        rateLimiter.acquireUser(userId, AiRateLimiter.estimateTokens(resumeContent, jobDescription, companyInfo));
+        return requestCoalescer.executeAsync(
+                fingerprint("cover_letter_generation", resumeContent, jobDescription, companyInfo),
+                () -> AiUsageContext.callAs(userId, () -> generateCoverLetter(resumeContent, jobDescription, companyInfo)),
+                aiExecutionService.executor());
     }
 
     /**
-     * 批量处理
+     * 批量处理：各请求并发执行，超过全局截止时间仍未完成的请求标记为超时，已完成的结果照常返回
      */
     public Map<String, String> batchProcess(Map<String, Object> requests) {
-        Map<String, String> results = new HashMap<>();
-
-        requests.forEach((key, value) -> {
-            try {
-                if (value instanceof Map) {
-                    Map<String, String> params = (Map<String, String>) value;
-                    String type = params.get("type");
-
-                    switch (type) {
-                        case "chat":
-                            results.put(key, chat(params.get("message")));
-                            break;
-                        case "optimize_resume":
-                            results.put(key, optimizeResume(params.get("resumeContent"), params.get("jobDescription")));
-                            break;
-                        case "generate_cover_letter":
-                            results.put(key, generateCoverLetter(
-                                params.get("resumeContent"),
-                                params.get("jobDescription"),
-                                params.get("companyInfo")
-                            ));
-                            break;
-                        default:
-                            results.put(key, "不支持的处理类型: " + type);
-                    }
-                } else {
-                    results.put(key, "无效的请求格式");
+        Map<String, String> completed = new ConcurrentHashMap<>();
+        BatchRun run = runBatch(requests, completed::put);
+
+        try {
+            run.completion().get(batchDeadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            run.cancel();
+            logger.warn("批量处理超过截止时间 {}ms，已完成 {}/{}", batchDeadlineMillis, completed.size(), requests.size());
+        } catch (InterruptedException e) {
+            run.cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("批量处理失败: {}", e.getMessage(), e);
+        }
+
+        // 按请求顺序返回，未完成的请求标记为超时
+        Map<String, String> results = new LinkedHashMap<>();
+        requests.keySet().forEach(key -> results.put(key, completed.getOrDefault(key, "处理超时")));
+        return results;
+    }
+
+    /**
+     * 启动批量处理，最多同时执行batchParallelism个请求，每个请求完成（含失败、超时）时回调onItemComplete
+     */
+    public BatchRun runBatch(Map<String, Object> requests, BiConsumer<String, String> onItemComplete) {
+        String userId = currentUserId();
+        rateLimiter.acquireUser(userId, estimateBatchTokens(requests));
+
+        BatchRun run = new BatchRun(new ArrayList<>(requests.entrySet()), onItemComplete, userId);
+        if (run.items.isEmpty()) {
+            run.done.complete(null);
+        }
+        launchBatchItems(run);
+        return run;
+    }
+
+    /**
+     * 在并发上限内启动后续请求。同一时刻只有一个线程执行启动循环，其他线程（包括提交被拒绝时
+     * 同步完成的回调）只登记一次重新检查，由正在循环的线程接着处理，调用栈深度与请求数无关
+     */
+    private void launchBatchItems(BatchRun run) {
+        if (run.scheduling.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!run.cancelled && run.running.get() < batchParallelism) {
+                int index = run.next.getAndIncrement();
+                if (index >= run.items.size()) {
+                    break;
                 }
-            } catch (Exception e) {
-                results.put(key, "处理失败: " + e.getMessage());
-                logger.error("批量处理失败，key: {}", key, e);
+                run.running.incrementAndGet();
+                startBatchItem(run, run.items.get(index));
             }
+            missed = run.scheduling.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * 执行单个请求。超时只提前回报结果：模型调用无法从外部中断，
+     * 并发名额要等请求实际结束才归还，避免超时的请求继续占用舱壁时又启动新的请求
+     */
+    private void startBatchItem(BatchRun run, Map.Entry<String, Object> item) {
+        CompletableFuture<String> task;
+        try {
+            task = CompletableFuture.supplyAsync(
+                    () -> AiUsageContext.callAs(run.userId, () -> processBatchItem(item.getValue())),
+                    aiExecutionService.executor());
+        } catch (AiOverloadedException e) {
+            task = CompletableFuture.failedFuture(e);
+        }
+
+        task.copy()
+                .orTimeout(batchItemTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        result = cause instanceof TimeoutException ? "处理超时" : "处理失败: " + cause.getMessage();
+                        logger.error("批量处理失败，key: {}", item.getKey(), cause);
+                    }
+                    run.complete(item.getKey(), result);
+                });
+        task.whenComplete((result, error) -> {
+            run.running.decrementAndGet();
+            launchBatchItems(run);
         });
+    }
 
-        return results;
+    @SuppressWarnings("unchecked")
+    private static long estimateBatchTokens(Map<String, Object> requests) {
+        long tokens = 0;
+        for (Object value : requests.values()) {
+            if (value instanceof Map) {
+                tokens += AiRateLimiter.estimateTokens(((Map<String, Object>) value).values().stream()
+                        .map(v -> v instanceof String ? (String) v : null)
+                        .toArray(String[]::new));
+            }
+        }
+        return tokens;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String processBatchItem(Object value) {
+        if (!(value instanceof Map)) {
+            return "无效的请求格式";
+        }
+
+        Map<String, String> params = (Map<String, String>) value;
+        String type = params.get("type");
+        if (type == null) {
+            return "不支持的处理类型: null";
+        }
+
+        switch (type) {
+            case "chat":
+                return chat(params.get("message"));
+            case "optimize_resume":
+                return optimizeResume(params.get("resumeContent"), params.get("jobDescription"));
+            case "generate_cover_letter":
+                return generateCoverLetter(
+                    params.get("resumeContent"),
+                    params.get("jobDescription"),
+                    params.get("companyInfo")
+                );
+            default:
+                return "不支持的处理类型: " + type;
+        }
+    }
+
+    /**
+     * 计算请求指纹（服务类型、模型、温度和规范化输入），用于响应缓存和请求合并
+     */
+    private String fingerprint(String serviceType, String... inputs) {
+        return responseCacheService.buildKey(serviceType, modelNameFor(serviceType), temperatureFor(serviceType), inputs);
+    }
+
+    /**
+     * 当前请求的用户ID。异步入口在调用线程上完成用户准入，
+     * 执行线程上没有安全上下文，内部再次进入时不会重复扣减
+     */
+    private static String currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserPrincipal principal) {
+            return principal.getId();
+        }
+        return null;
+    }
+
+    /**
+     * 用量记录中的用户ID：优先取安全上下文，异步执行线程上取发起请求时传入的用户
+     */
+    private static String usageUserId() {
+        String userId = currentUserId();
+        return userId != null ? userId : AiUsageContext.delegatedUser();
+    }
+
+    private String modelNameFor(String serviceType) {
+        switch (serviceType) {
+            case "resume_optimization":
+            case "resume_section_improvement":
+            case "rule_suggestions":
+                return AiServiceConfig.RESUME_OPTIMIZATION_MODEL_NAME;
+            case "cover_letter_generation":
+            case "project_description_generation":
+                return AiServiceConfig.CREATIVE_WRITING_MODEL_NAME;
+            default:
+                return chatModelName;
+        }
+    }
+
+    private String modelBeanFor(String serviceType) {
+        switch (serviceType) {
+            case "resume_optimization":
+            case "resume_section_improvement":
+            case "rule_suggestions":
+                return AiExecutionService.RESUME_OPTIMIZATION_MODEL;
+            case "cover_letter_generation":
+            case "project_description_generation":
+                return AiExecutionService.CREATIVE_WRITING_MODEL;
+            default:
+                return AiExecutionService.CHAT_MODEL;
+        }
+    }
+
+    private double temperatureFor(String serviceType) {
+        switch (serviceType) {
+            case "resume_optimization":
+            case "resume_section_improvement":
+            case "rule_suggestions":
+                return AiServiceConfig.RESUME_OPTIMIZATION_TEMPERATURE;
+            case "cover_letter_generation":
+            case "project_description_generation":
+                return AiServiceConfig.CREATIVE_WRITING_TEMPERATURE;
+            default:
+                return AiServiceConfig.CHAT_TEMPERATURE;
+        }
     }
 
     /**
@@ -228,9 +720,142 @@ public class AiServiceManager {
         status.put("resumeOptimizationAvailable", true);
         status.put("creativeWritingAvailable", true);
         status.put("codeReviewAvailable", true);
-        status.put("activeThreads", ((java.util.concurrent.ThreadPoolExecutor) executorService).getActiveCount());
-        status.put("queueSize", ((java.util.concurrent.ThreadPoolExecutor) executorService).getQueue().size());
+        Map<String, Object> execution = aiExecutionService.getStatistics();
+        status.put("activeThreads", execution.get("activeCalls"));
+        status.put("queueSize", execution.get("queuedCalls"));
+        status.put("execution", execution);
+        status.put("requestCoalescing", requestCoalescer.getStatistics());
+        status.put("rateLimit", rateLimiter.getStatistics());
+        status.put("promptBudget", promptBudgetService.getStatistics());
+        status.put("optimizationJobs", optimizationJobQueue.getStatistics());
+
+        Map<String, Object> resilience = new HashMap<>();
+        resilientModels.forEach(model -> resilience.put(model.getName(), model.getStatistics()));
+        resilientStreamingModels.forEach(model -> resilience.put(model.getName(), model.getStatistics()));
+        resilience.put("fallbackAnswers", fallbackService.getStatistics());
+        status.put("resilience", resilience);
 
         return status;
     }
+
+    /**
+     * 流式请求结束（完成或出错）时结束对应的span
+     */
+    /**
+     * 进行中的流式请求：结束与取消竞争同一个标记，许可只释放一次，监听器只收到一次结束回调
+     */
+    private static class ActiveStream implements AiStreamHandle {
+        private final String serviceType;
+        private final AiBulkhead bulkhead;
+        private final long startTime;
+        private final AiStreamListener listener;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean cancelled;
+
+        private ActiveStream(String serviceType, AiBulkhead bulkhead, long startTime, AiStreamListener listener) {
+            this.serviceType = serviceType;
+            this.bulkhead = bulkhead;
+            this.startTime = startTime;
+            this.listener = listener;
+        }
+
+        /**
+         * 结束请求并释放许可，已经结束或被取消时返回false
+         */
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            bulkhead.release(System.currentTimeMillis() - startTime);
+            return true;
+        }
+
+        private boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            if (finish()) {
+                logger.info("流式请求已取消: {}", serviceType);
+                listener.onError(new CancellationException("客户端已断开"));
+            }
+        }
+    }
+
+    private static class ObservedStreamListener implements AiStreamListener {
+        private final Observation observation;
+        private final AiStreamListener delegate;
+
+        private ObservedStreamListener(Observation observation, AiStreamListener delegate) {
+            this.observation = observation;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onToken(String token) {
+            delegate.onToken(token);
+        }
+
+        @Override
+        public void onComplete(String response) {
+            observation.stop();
+            delegate.onComplete(response);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            observation.error(error);
+            observation.stop();
+            delegate.onError(error);
+        }
+    }
+
+    /**
+     * 一次批量处理的运行状态
+     */
+    public static class BatchRun {
+        private final List<Map.Entry<String, Object>> items;
+        private final BiConsumer<String, String> onItemComplete;
+        private final String userId;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger scheduling = new AtomicInteger();
+        private final AtomicInteger finished = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile boolean cancelled;
+
+        private BatchRun(List<Map.Entry<String, Object>> items, BiConsumer<String, String> onItemComplete,
+                         String userId) {
+            this.items = items;
+            this.onItemComplete = onItemComplete;
+            this.userId = userId;
+        }
+
+        private void complete(String key, String result) {
+            if (!cancelled) {
+                onItemComplete.accept(key, result);
+            }
+            if (finished.incrementAndGet() == items.size()) {
+                done.complete(null);
+            }
+        }
+
+        /**
+         * 停止启动新的请求，已在执行的请求结果不再回调
+         */
+        public void cancel() {
+            cancelled = true;
+            done.complete(null);
+        }
+
+        public CompletableFuture<Void> completion() {
+            return done;
+        }
+
+        public int getTotal() {
+            return items.size();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,276 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.InsertManyOptions;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AI使用日志批量写入器
+ * 请求线程只把日志放入有界的多生产者单消费者环形缓冲区，由单个写线程每隔固定时间或攒够一批后
+ * 以insertMany写入MongoDB，并同时累加到按时间桶的汇总和用户每日用量；缓冲区满时直接丢弃并计数，
+ * 监控写入永远不会给用户请求增加数据库延迟。关闭时写线程会把缓冲区中剩余的日志写完
+ */
+@Service
+public class AiUsageLogWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiUsageLogWriter.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private AiUsageRollupService aiUsageRollupService;
+
+    @Autowired
+    private AiUserUsageService aiUserUsageService;
+
+    @Value("${ai.usage-log.buffer-capacity:8192}")
+    private int bufferCapacity;
+
+    @Value("${ai.usage-log.batch-size:500}")
+    private int batchSize;
+
+    @Value("${ai.usage-log.flush-interval-ms:200}")
+    private long flushIntervalMillis;
+
+    @Value("${ai.usage-log.write-concern:W1}")
+    private String writeConcernName;
+
+    @Value("${ai.usage-log.shutdown-timeout-ms:5000}")
+    private long shutdownTimeoutMillis;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rollupFailed = new LongAdder();
+
+    private MpscRingBuffer<AiUsageLog> buffer;
+
+    private WriteConcern writeConcern;
+
+    private Thread writerThread;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        buffer = new MpscRingBuffer<>(bufferCapacity);
+        writeConcern = WriteConcern.valueOf(writeConcernName);
+        if (writeConcern == null) {
+            logger.warn("未知的写关注级别 {}，使用W1", writeConcernName);
+            writeConcern = WriteConcern.W1;
+        }
+
+        running = true;
+        writerThread = new Thread(this::runWriter, "ai-usage-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            logger.warn("AI使用日志写线程未能在 {}ms 内写完，剩余 {} 条", shutdownTimeoutMillis, buffer.size());
+        }
+    }
+
+    /**
+     * 提交一条日志，缓冲区满时丢弃并返回false
+     */
+    public boolean submit(AiUsageLog log) {
+        if (!buffer.offer(log)) {
+            dropped.increment();
+            return false;
+        }
+        if (buffer.size() >= batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    /**
+     * 获取写入统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("buffered", buffer.size());
+        statistics.put("capacity", buffer.capacity());
+        statistics.put("written", written.sum());
+        statistics.put("dropped", dropped.sum());
+        statistics.put("failed", failed.sum());
+        statistics.put("batches", batches.sum());
+        statistics.put("rollupFailed", rollupFailed.sum());
+        statistics.put("writeConcern", writeConcernName);
+        return statistics;
+    }
+
+    private void runWriter() {
+        List<AiUsageLog> batch = new ArrayList<>(batchSize);
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        long lastFlush = System.nanoTime();
+        long reportedDrops = 0;
+
+        while (running) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            long elapsed = System.nanoTime() - lastFlush;
+            if (batch.size() >= batchSize || (!batch.isEmpty() && elapsed >= flushIntervalNanos)) {
+                flush(batch);
+                lastFlush = System.nanoTime();
+            } else if (batch.isEmpty() || elapsed < flushIntervalNanos) {
+                LockSupport.parkNanos(this, batch.isEmpty() ? flushIntervalNanos : flushIntervalNanos - elapsed);
+            }
+
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                logger.warn("AI使用日志缓冲区已满，累计丢弃 {} 条", drops);
+                reportedDrops = drops;
+            }
+        }
+
+        // 关闭时写完剩余日志
+        do {
+            buffer.drainTo(batch, batchSize - batch.size());
+            flush(batch);
+        } while (buffer.size() > 0);
+    }
+
+    private void flush(List<AiUsageLog> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            List<Document> documents = new ArrayList<>(batch.size());
+            for (AiUsageLog log : batch) {
+                Document document = new Document();
+                mongoTemplate.getConverter().write(log, document);
+                documents.add(document);
+            }
+            mongoTemplate.getCollection(mongoTemplate.getCollectionName(AiUsageLog.class))
+                    .withWriteConcern(writeConcern)
+                    .insertMany(documents, new InsertManyOptions().ordered(false));
+            written.add(batch.size());
+            batches.increment();
+        } catch (Exception e) {
+            failed.add(batch.size());
+            logger.error("批量写入 {} 条AI使用日志失败: {}", batch.size(), e.getMessage());
+        }
+
+        // 原始日志写入失败时汇总仍然累加，报表和用量的请求数不受影响
+        try {
+            aiUsageRollupService.record(batch);
+        } catch (Exception e) {
+            rollupFailed.add(batch.size());
+            logger.error("累加 {} 条AI使用日志到汇总失败: {}", batch.size(), e.getMessage());
+        }
+        try {
+            aiUserUsageService.record(batch);
+        } catch (Exception e) {
+            rollupFailed.add(batch.size());
+            logger.error("累加 {} 条AI使用日志到用户每日用量失败: {}", batch.size(), e.getMessage());
+        }
+        batch.clear();
+    }
+
+    /**
+     * 有界多生产者单消费者环形缓冲区
+     * 每个槽位有一个序号：等于写入位置时可写，等于写入位置+1时可读，读出后推进一圈留给下一轮写入
+     */
+    static final class MpscRingBuffer<E> {
+        private final int capacity;
+        private final int mask;
+        private final AtomicReferenceArray<E> elements;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        MpscRingBuffer(int requestedCapacity) {
+            capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+            mask = capacity - 1;
+            elements = new AtomicReferenceArray<>(capacity);
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(E element) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        elements.lazySet(index, element);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (difference < 0) {
+                    return false;
+                }
+                // 其他生产者已占用该位置，重新读取tail
+            }
+        }
+
+        /**
+         * 只能由消费者线程调用
+         */
+        E poll() {
+            long position = head;
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            E element = elements.get(index);
+            elements.lazySet(index, null);
+            sequences.set(index, position + capacity);
+            head = position + 1;
+            return element;
+        }
+
+        int drainTo(List<E> sink, int limit) {
+            int drained = 0;
+            E element;
+            while (drained < limit && (element = poll()) != null) {
+                sink.add(element);
+                drained++;
+            }
+            return drained;
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head);
+        }
+
+        int capacity() {
+            return capacity;
+        }
+    }
+}
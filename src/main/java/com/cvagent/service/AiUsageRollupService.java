@@ -0,0 +1,225 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.model.AiUsageRollup;
+import com.cvagent.service.ai.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AI使用时间桶汇总
+ * 批量写入日志时按服务、分钟和小时预聚合，一次无序批量$inc更新写入；
+ * 查询时整小时部分读小时汇总，首尾不足一小时的部分读分钟汇总，一天的报表只需读取几百个文档。
+ * 原始日志过期后汇总继续保留，分钟和小时汇总各自按配置的天数过期
+ */
+@Service
+public class AiUsageRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiUsageRollupService.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // 保留天数，0表示永久保留
+    @Value("${ai.usage-log.retention.minute-rollup-days:30}")
+    private int minuteRollupRetentionDays;
+
+    @Value("${ai.usage-log.retention.hour-rollup-days:730}")
+    private int hourRollupRetentionDays;
+
+    /**
+     * 把一批日志累加到对应的分钟和小时汇总
+     */
+    public void record(List<AiUsageLog> logs) {
+        if (logs.isEmpty()) {
+            return;
+        }
+
+        Map<String, Accumulator> accumulators = new HashMap<>();
+        for (AiUsageLog log : logs) {
+            LocalDateTime requestTime = log.getRequestTime() != null ? log.getRequestTime() : LocalDateTime.now();
+            accumulate(accumulators, AiUsageRollup.GRANULARITY_MINUTE, log, requestTime.truncatedTo(ChronoUnit.MINUTES));
+            accumulate(accumulators, AiUsageRollup.GRANULARITY_HOUR, log, requestTime.truncatedTo(ChronoUnit.HOURS));
+        }
+
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, AiUsageRollup.class);
+        accumulators.forEach((id, accumulator) -> {
+            Update update = accumulator.toUpdate();
+            int retentionDays = AiUsageRollup.GRANULARITY_MINUTE.equals(accumulator.granularity)
+                    ? minuteRollupRetentionDays : hourRollupRetentionDays;
+            if (retentionDays > 0) {
+                update.setOnInsert("expireAt", accumulator.bucketStart.plusDays(retentionDays));
+            }
+            operations.upsert(Query.query(Criteria.where("_id").is(id)), update);
+        });
+        operations.execute();
+
+        logger.debug("累加 {} 条AI使用日志到 {} 个汇总文档", logs.size(), accumulators.size());
+    }
+
+    /**
+     * 读取时间范围内的汇总；serviceType为空时返回所有服务
+     */
+    public List<AiUsageRollup> findRollups(LocalDateTime from, LocalDateTime to, String serviceType) {
+        LocalDateTime firstHour = from.truncatedTo(ChronoUnit.HOURS);
+        if (firstHour.isBefore(from)) {
+            firstHour = firstHour.plusHours(1);
+        }
+        LocalDateTime lastHour = to.truncatedTo(ChronoUnit.HOURS);
+
+        List<AiUsageRollup> rollups = new ArrayList<>();
+        if (firstHour.isBefore(lastHour)) {
+            rollups.addAll(find(AiUsageRollup.GRANULARITY_MINUTE, from, firstHour, serviceType));
+            rollups.addAll(find(AiUsageRollup.GRANULARITY_HOUR, firstHour, lastHour, serviceType));
+            rollups.addAll(find(AiUsageRollup.GRANULARITY_MINUTE, lastHour, to, serviceType));
+        } else {
+            rollups.addAll(find(AiUsageRollup.GRANULARITY_MINUTE, from, to, serviceType));
+        }
+        return rollups;
+    }
+
+    /**
+     * 汇总一组时间桶：请求数、错误数、成功率、平均延迟和分位数、令牌和费用
+     */
+    public Map<String, Object> summarize(List<AiUsageRollup> rollups) {
+        LatencyHistogram.Snapshot latency = new LatencyHistogram.Snapshot();
+        long count = 0;
+        long errors = 0;
+        long inputTokens = 0;
+        long outputTokens = 0;
+        long tokensUsed = 0;
+        double cost = 0;
+        for (AiUsageRollup rollup : rollups) {
+            count += rollup.getCount();
+            errors += rollup.getErrors();
+            inputTokens += rollup.getInputTokens();
+            outputTokens += rollup.getOutputTokens();
+            tokensUsed += rollup.getTokensUsed();
+            cost += rollup.getCost();
+            latency.addTotals(rollup.getLatencySum(), rollup.getLatencyMax());
+            if (rollup.getLatencyBuckets() != null) {
+                rollup.getLatencyBuckets().forEach((index, bucketCount) ->
+                        latency.addBucket(Integer.parseInt(index), bucketCount));
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", count);
+        summary.put("errors", errors);
+        summary.put("successRate", count > 0 ? (count - errors) * 100.0 / count : 0.0);
+        summary.put("averageResponseTime", Math.round(latency.getMean()));
+        summary.put("p50", latency.percentile(50));
+        summary.put("p90", latency.percentile(90));
+        summary.put("p99", latency.percentile(99));
+        summary.put("maxResponseTime", latency.getMax());
+        summary.put("inputTokens", inputTokens);
+        summary.put("outputTokens", outputTokens);
+        summary.put("tokensUsed", tokensUsed);
+        summary.put("cost", cost);
+        return summary;
+    }
+
+    /**
+     * 按小时的请求数和错误数，键为小时起点
+     */
+    public Map<LocalDateTime, long[]> hourlyCounts(List<AiUsageRollup> rollups) {
+        Map<LocalDateTime, long[]> hourly = new TreeMap<>();
+        for (AiUsageRollup rollup : rollups) {
+            long[] counts = hourly.computeIfAbsent(rollup.getBucketStart().truncatedTo(ChronoUnit.HOURS),
+                    hour -> new long[2]);
+            counts[0] += rollup.getCount();
+            counts[1] += rollup.getErrors();
+        }
+        return hourly;
+    }
+
+    private List<AiUsageRollup> find(String granularity, LocalDateTime from, LocalDateTime to, String serviceType) {
+        Criteria criteria = Criteria.where("granularity").is(granularity)
+                .and("bucketStart").gte(from.truncatedTo(ChronoUnit.MINUTES)).lt(to);
+        if (serviceType != null && !serviceType.isEmpty()) {
+            criteria = criteria.and("serviceType").is(serviceType);
+        }
+        return mongoTemplate.find(Query.query(criteria), AiUsageRollup.class);
+    }
+
+    private static void accumulate(Map<String, Accumulator> accumulators, String granularity,
+                                   AiUsageLog log, LocalDateTime bucketStart) {
+        String serviceType = log.getServiceType() != null ? log.getServiceType() : "unknown";
+        accumulators.computeIfAbsent(AiUsageRollup.idOf(granularity, serviceType, bucketStart),
+                        id -> new Accumulator(granularity, serviceType, bucketStart))
+                .add(log);
+    }
+
+    /**
+     * 一个汇总文档在本批日志中的增量
+     */
+    private static class Accumulator {
+        private final String granularity;
+        private final String serviceType;
+        private final LocalDateTime bucketStart;
+        private final Map<Integer, Long> latencyBuckets = new HashMap<>();
+        private long count;
+        private long errors;
+        private long latencySum;
+        private long latencyMax;
+        private long inputTokens;
+        private long outputTokens;
+        private long tokensUsed;
+        private double cost;
+
+        Accumulator(String granularity, String serviceType, LocalDateTime bucketStart) {
+            this.granularity = granularity;
+            this.serviceType = serviceType;
+            this.bucketStart = bucketStart;
+        }
+
+        void add(AiUsageLog log) {
+            long responseTime = Math.max(0, log.getResponseTime());
+            count++;
+            if (!log.isSuccess()) {
+                errors++;
+            }
+            latencySum += responseTime;
+            latencyMax = Math.max(latencyMax, responseTime);
+            latencyBuckets.merge(LatencyHistogram.bucketIndex(responseTime), 1L, Long::sum);
+            inputTokens += log.getInputTokens() != null ? log.getInputTokens() : 0;
+            outputTokens += log.getOutputTokens() != null ? log.getOutputTokens() : 0;
+            tokensUsed += log.getTokensUsed() != null ? log.getTokensUsed() : 0;
+            cost += log.getCost() != null ? log.getCost() : 0;
+        }
+
+        Update toUpdate() {
+            Update update = new Update()
+                    .setOnInsert("granularity", granularity)
+                    .setOnInsert("serviceType", serviceType)
+                    .setOnInsert("bucketStart", bucketStart)
+                    .inc("count", count)
+                    .inc("errors", errors)
+                    .inc("latencySum", latencySum)
+                    .max("latencyMax", latencyMax)
+                    .inc("inputTokens", inputTokens)
+                    .inc("outputTokens", outputTokens)
+                    .inc("tokensUsed", tokensUsed)
+                    .inc("cost", cost);
+            latencyBuckets.forEach((index, bucketCount) -> update.inc("latencyBuckets." + index, bucketCount));
+            return update;
+        }
+    }
+}
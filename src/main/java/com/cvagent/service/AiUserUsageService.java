@@ -0,0 +1,248 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.model.AiUserDailyUsage;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 用户每日AI用量
+ * 批量写入日志时按用户和日期预聚合，一次无序批量$inc更新写入；
+ * 用量查询、排行和配额对账只读每日用量文档，代价与日志历史的长度无关
+ */
+@Service
+public class AiUserUsageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiUserUsageService.class);
+
+    private static final Set<String> SORT_FIELDS = Set.of("requests", "errors", "tokensUsed", "cost");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // 保留天数，0表示永久保留
+    @Value("${ai.usage-log.retention.user-usage-days:400}")
+    private int retentionDays;
+
+    /**
+     * 把一批日志累加到对应用户的每日用量，没有用户ID的日志忽略
+     */
+    public void record(List<AiUsageLog> logs) {
+        Map<String, Accumulator> accumulators = new HashMap<>();
+        for (AiUsageLog log : logs) {
+            if (log.getUserId() == null || log.getRequestTime() == null) {
+                continue;
+            }
+            LocalDate date = log.getRequestTime().toLocalDate();
+            accumulators.computeIfAbsent(AiUserDailyUsage.idOf(log.getUserId(), date),
+                    id -> new Accumulator(log.getUserId(), date)).add(log);
+        }
+        if (accumulators.isEmpty()) {
+            return;
+        }
+
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, AiUserDailyUsage.class);
+        accumulators.forEach((id, accumulator) -> {
+            Update update = accumulator.toUpdate();
+            if (retentionDays > 0) {
+                update.setOnInsert("expireAt", accumulator.date.plusDays(retentionDays).atStartOfDay());
+            }
+            operations.upsert(Query.query(Criteria.where("_id").is(id)), update);
+        });
+        operations.execute();
+
+        logger.debug("累加AI使用日志到 {} 个用户每日用量文档", accumulators.size());
+    }
+
+    /**
+     * 用户在日期范围内（含两端）的用量：总计、按服务类型和按天
+     */
+    public Map<String, Object> getUserUsage(String userId, LocalDate from, LocalDate to) {
+        Query query = Query.query(Criteria.where("userId").is(userId).and("date").gte(from).lte(to))
+                .with(Sort.by(Sort.Direction.ASC, "date"));
+        List<AiUserDailyUsage> days = mongoTemplate.find(query, AiUserDailyUsage.class);
+
+        AiUserDailyUsage.ServiceUsage total = new AiUserDailyUsage.ServiceUsage();
+        Map<String, AiUserDailyUsage.ServiceUsage> services = new HashMap<>();
+        List<Map<String, Object>> daily = new ArrayList<>();
+        for (AiUserDailyUsage day : days) {
+            add(total, day.getRequests(), day.getErrors(), day.getTokensUsed(), day.getLatencySum(), day.getCost());
+            if (day.getServices() != null) {
+                day.getServices().forEach((service, usage) -> add(
+                        services.computeIfAbsent(service, key -> new AiUserDailyUsage.ServiceUsage()),
+                        usage.getRequests(), usage.getErrors(), usage.getTokensUsed(), usage.getLatencySum(),
+                        usage.getCost()));
+            }
+
+            Map<String, Object> dayUsage = toMap(day.getRequests(), day.getErrors(), day.getTokensUsed(),
+                    day.getLatencySum(), day.getCost());
+            dayUsage.put("date", day.getDate());
+            daily.add(dayUsage);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("userId", userId);
+        result.put("from", from);
+        result.put("to", to);
+        result.put("total", toMap(total.getRequests(), total.getErrors(), total.getTokensUsed(),
+                total.getLatencySum(), total.getCost()));
+        Map<String, Object> byService = new HashMap<>();
+        services.forEach((service, usage) -> byService.put(service, toMap(usage.getRequests(), usage.getErrors(),
+                usage.getTokensUsed(), usage.getLatencySum(), usage.getCost())));
+        result.put("services", byService);
+        result.put("daily", daily);
+        return result;
+    }
+
+    /**
+     * 日期范围内（含两端）用量最大的用户
+     *
+     * @param sortBy requests、errors、tokensUsed或cost
+     * @throws IllegalArgumentException 排序字段不支持时
+     */
+    public List<Map<String, Object>> getTopUsers(LocalDate from, LocalDate to, String sortBy, int limit) {
+        if (!SORT_FIELDS.contains(sortBy)) {
+            throw new IllegalArgumentException("不支持的排序字段: " + sortBy);
+        }
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("date").gte(from).lte(to)),
+                Aggregation.group("userId")
+                        .sum("requests").as("requests")
+                        .sum("errors").as("errors")
+                        .sum("tokensUsed").as("tokensUsed")
+                        .sum("latencySum").as("latencySum")
+                        .sum("cost").as("cost"),
+                Aggregation.sort(Sort.Direction.DESC, sortBy),
+                Aggregation.limit(limit)
+        );
+
+        List<Map<String, Object>> ranking = new ArrayList<>();
+        for (Document row : mongoTemplate.aggregate(aggregation, AiUserDailyUsage.class, Document.class)) {
+            Map<String, Object> user = toMap(number(row, "requests"), number(row, "errors"),
+                    number(row, "tokensUsed"), number(row, "latencySum"),
+                    row.get("cost") instanceof Number cost ? cost.doubleValue() : 0.0);
+            user.put("userId", row.getString("_id"));
+            ranking.add(user);
+        }
+        return ranking;
+    }
+
+    /**
+     * 指定日期各用户的令牌用量
+     */
+    public Map<String, Long> getTokensUsedOn(LocalDate date) {
+        Query query = Query.query(Criteria.where("date").is(date));
+        query.fields().include("userId", "tokensUsed");
+
+        Map<String, Long> tokens = new HashMap<>();
+        for (AiUserDailyUsage usage : mongoTemplate.find(query, AiUserDailyUsage.class)) {
+            tokens.put(usage.getUserId(), usage.getTokensUsed());
+        }
+        return tokens;
+    }
+
+    private static void add(AiUserDailyUsage.ServiceUsage target, long requests, long errors, long tokensUsed,
+                            long latencySum, double cost) {
+        target.setRequests(target.getRequests() + requests);
+        target.setErrors(target.getErrors() + errors);
+        target.setTokensUsed(target.getTokensUsed() + tokensUsed);
+        target.setLatencySum(target.getLatencySum() + latencySum);
+        target.setCost(target.getCost() + cost);
+    }
+
+    private static Map<String, Object> toMap(long requests, long errors, long tokensUsed, long latencySum,
+                                             double cost) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("requests", requests);
+        map.put("errors", errors);
+        map.put("tokensUsed", tokensUsed);
+        map.put("averageResponseTime", requests > 0 ? latencySum / requests : 0);
+        map.put("cost", cost);
+        return map;
+    }
+
+    private static long number(Document row, String field) {
+        Object value = row.get(field);
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    /**
+     * 一个用户每日用量文档在本批日志中的增量
+     */
+    private static class Accumulator {
+        private final String userId;
+        private final LocalDate date;
+        private final AiUserDailyUsage.ServiceUsage total = new AiUserDailyUsage.ServiceUsage();
+        private final Map<String, AiUserDailyUsage.ServiceUsage> services = new HashMap<>();
+        private long inputTokens;
+        private long outputTokens;
+
+        Accumulator(String userId, LocalDate date) {
+            this.userId = userId;
+            this.date = date;
+        }
+
+        void add(AiUsageLog log) {
+            long errors = log.isSuccess() ? 0 : 1;
+            long tokensUsed = log.getTokensUsed() != null ? log.getTokensUsed() : 0;
+            long latency = Math.max(0, log.getResponseTime());
+            double cost = log.getCost() != null ? log.getCost() : 0;
+
+            AiUserDailyUsage.ServiceUsage service = services.computeIfAbsent(serviceKey(log.getServiceType()),
+                    key -> new AiUserDailyUsage.ServiceUsage());
+            AiUserUsageService.add(total, 1, errors, tokensUsed, latency, cost);
+            AiUserUsageService.add(service, 1, errors, tokensUsed, latency, cost);
+            inputTokens += log.getInputTokens() != null ? log.getInputTokens() : 0;
+            outputTokens += log.getOutputTokens() != null ? log.getOutputTokens() : 0;
+        }
+
+        Update toUpdate() {
+            Update update = new Update()
+                    .setOnInsert("userId", userId)
+                    .setOnInsert("date", date)
+                    .inc("requests", total.getRequests())
+                    .inc("errors", total.getErrors())
+                    .inc("inputTokens", inputTokens)
+                    .inc("outputTokens", outputTokens)
+                    .inc("tokensUsed", total.getTokensUsed())
+                    .inc("latencySum", total.getLatencySum())
+                    .inc("cost", total.getCost());
+            services.forEach((service, usage) -> {
+                String prefix = "services." + service + ".";
+                update.inc(prefix + "requests", usage.getRequests())
+                        .inc(prefix + "errors", usage.getErrors())
+                        .inc(prefix + "tokensUsed", usage.getTokensUsed())
+                        .inc(prefix + "latencySum", usage.getLatencySum())
+                        .inc(prefix + "cost", usage.getCost());
+            });
+            return update;
+        }
+
+        /**
+         * 服务类型作为字段名使用，去掉字段路径中有特殊含义的字符
+         */
+        private static String serviceKey(String serviceType) {
+            return serviceType == null ? "unknown" : serviceType.replace('.', '_').replace('$', '_');
+        }
+    }
+}
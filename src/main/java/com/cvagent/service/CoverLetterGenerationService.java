@@ -4,10 +4,13 @@ import com.cvagent.model.CoverLetter;
 import com.cvagent.model.CoverLetterTemplate;
 import com.cvagent.model.EnhancedResume;
 import com.cvagent.model.JobRequirement;
+import com.cvagent.model.OptimizationJob;
 import com.cvagent.repository.CoverLetterRepository;
 import com.cvagent.repository.CoverLetterTemplateRepository;
 import com.cvagent.repository.EnhancedResumeRepository;
 import com.cvagent.repository.JobRequirementRepository;
+import com.cvagent.service.ai.AiUsageContext;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -26,6 +29,8 @@ import java.util.Optional;
 @Transactional
 public class CoverLetterGenerationService {
 
+    static final String PERSONALIZATION_JOB_TYPE = "cover_letter_personalization";
+
     @Autowired
     private CoverLetterRepository coverLetterRepository;
 
@@ -41,6 +46,31 @@ public class CoverLetterGenerationService {
     @Autowired
     private AiServiceManager aiServiceManager;
 
+    @Autowired
+    private OptimizationJobQueue optimizationJobQueue;
+
+    @Autowired
+    private AiRateLimiter rateLimiter;
+
+    @PostConstruct
+    public void registerJobHandler() {
+        optimizationJobQueue.registerHandler(PERSONALIZATION_JOB_TYPE, new OptimizationJobQueue.JobHandler() {
+            @Override
+            public void handle(OptimizationJob job) {
+                // 队列线程没有安全上下文，AI调用记在提交任务的用户名下
+                AiUsageContext.callAs(job.getUserId(), () -> {
+                    runPersonalizationJob(job);
+                    return null;
+                });
+            }
+
+            @Override
+            public void onFailure(OptimizationJob job) {
+                markPersonalizationFailed(job);
+            }
+        });
+    }
+
     /**
      * 基于模板生成基础求职信
      */
@@ -95,6 +125,11 @@ public class CoverLetterGenerationService {
         CoverLetterTemplate template = coverLetterTemplateRepository.findById(templateId)
                 .orElseThrow(() -> new RuntimeException("模板不存在"));
 
+        // 后台任务不经过用户限流，提交时按预估token扣减用户配额，被拒绝时不留下processing记录
+        long estimatedTokens = AiRateLimiter.estimateTokens(extractResumeContent(resume),
+                jobRequirement.getDescription(), jobRequirement.getCompany());
+        rateLimiter.acquireUser(userId, estimatedTokens);
+
         // 创建求职信
         CoverLetter coverLetter = new CoverLetter();
         coverLetter.setUserId(userId);
@@ -121,8 +156,16 @@ public class CoverLetterGenerationService {
         // 保存到数据库
         coverLetter = coverLetterRepository.save(coverLetter);
 
-        // 异步生成个性化内容
-        generatePersonalizedContentAsync(coverLetter, resume, jobRequirement, template, customData);
+        // 提交后台任务生成个性化内容，调用方通过optimizationStatus轮询
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("resumeId", resumeId);
+        payload.put("jobRequirementId", jobRequirementId);
+        payload.put("templateId", templateId);
+        payload.put("customData", customData != null ? customData : Map.of());
+        if (optimizationJobQueue.submit(PERSONALIZATION_JOB_TYPE, coverLetter.getId(), userId, payload).isEmpty()) {
+            // 已有进行中的任务，本次提交不会执行
+            rateLimiter.refundUser(userId, estimatedTokens);
+        }
 
         return coverLetter;
     }
@@ -288,43 +331,60 @@ public class CoverLetterGenerationService {
     }
 
     /**
-     * 异步生成个性化内容
+     * 执行个性化内容生成任务，已完成的求职信直接跳过
      */
-    private void generatePersonalizedContentAsync(CoverLetter coverLetter, EnhancedResume resume,
-                                                  JobRequirement jobRequirement, CoverLetterTemplate template,
-                                                  Map<String, Object> customData) {
-        try {
-            // 构建AI提示
-            String prompt = buildPersonalizationPrompt(resume, jobRequirement, template, customData);
-
-            // 调用AI服务生成内容
-            String aiContent = aiServiceManager.generateCoverLetter(
-                extractResumeContent(resume),
-                jobRequirement.getDescription(),
-                jobRequirement.getCompany()
-            );
-
-            // 解析AI生成的内容
-            CoverLetter.CoverLetterContent content = parseAIGeneratedContent(aiContent);
-            coverLetter.setContent(content);
+    @SuppressWarnings("unchecked")
+    void runPersonalizationJob(OptimizationJob job) {
+        CoverLetter coverLetter = coverLetterRepository.findById(job.getTargetId()).orElse(null);
+        if (coverLetter == null || "completed".equals(coverLetter.getOptimizationStatus())) {
+            return;
+        }
 
-            // 计算匹配度和质量分数
-            double matchScore = calculateMatchScore(resume, jobRequirement);
-            coverLetter.setMatchScore(matchScore);
+        Map<String, Object> payload = job.getPayload();
+        EnhancedResume resume = enhancedResumeRepository.findById((String) payload.get("resumeId"))
+                .orElseThrow(() -> new RuntimeException("简历不存在"));
+        JobRequirement jobRequirement = jobRequirementRepository.findById((String) payload.get("jobRequirementId"))
+                .orElseThrow(() -> new RuntimeException("招聘需求不存在"));
+        CoverLetterTemplate template = coverLetterTemplateRepository.findById((String) payload.get("templateId"))
+                .orElseThrow(() -> new RuntimeException("模板不存在"));
+        Map<String, Object> customData = (Map<String, Object>) payload.getOrDefault("customData", Map.of());
 
-            calculateQualityScores(coverLetter, resume, jobRequirement);
+        // 构建AI提示
+        String prompt = buildPersonalizationPrompt(resume, jobRequirement, template, customData);
 
-            // 更新状态
-            coverLetter.setOptimizationStatus("completed");
-            coverLetter.setStatus("ready");
-            coverLetter.markAsOptimized();
+        // 调用AI服务生成内容，失败时由任务队列退避重试
+        String aiContent = aiServiceManager.generateCoverLetter(
+            extractResumeContent(resume),
+            jobRequirement.getDescription(),
+            jobRequirement.getCompany()
+        );
 
-            coverLetterRepository.save(coverLetter);
+        // 解析AI生成的内容
+        CoverLetter.CoverLetterContent content = parseAIGeneratedContent(aiContent);
+        coverLetter.setContent(content);
 
-        } catch (Exception e) {
+        // 计算匹配度和质量分数
+        double matchScore = calculateMatchScore(resume, jobRequirement);
+        coverLetter.setMatchScore(matchScore);
+
+        calculateQualityScores(coverLetter, resume, jobRequirement);
+
+        // 更新状态
+        coverLetter.setOptimizationStatus("completed");
+        coverLetter.setStatus("ready");
+        coverLetter.markAsOptimized();
+
+        coverLetterRepository.save(coverLetter);
+    }
+
+    /**
+     * 重试次数用尽后标记生成失败
+     */
+    void markPersonalizationFailed(OptimizationJob job) {
+        coverLetterRepository.findById(job.getTargetId()).ifPresent(coverLetter -> {
             coverLetter.setOptimizationStatus("failed");
             coverLetterRepository.save(coverLetter);
-        }
+        });
     }
 
     /**
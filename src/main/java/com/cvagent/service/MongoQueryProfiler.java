@@ -0,0 +1,559 @@
+package com.cvagent.service;
+
+import com.cvagent.service.ai.LatencyHistogram;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Mongo命令延迟分析
+ * 作为驱动的CommandListener，按集合、命令和查询形状（过滤条件中的值替换为?）统计延迟分布；
+ * 超过阈值的命令保留最近的若干条，开启explain时对慢查询形状在后台执行一次queryPlanner级别的explain，
+ * 标记全集合扫描（COLLSCAN）和实际使用的索引，用于决定优先补哪些索引、改写哪些查询
+ */
+@Service
+public class MongoQueryProfiler implements CommandListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoQueryProfiler.class);
+
+    private static final Set<String> PROFILED_COMMANDS = Set.of(
+            "find", "aggregate", "count", "distinct", "update", "delete", "findAndModify", "insert", "getMore");
+
+    private static final Set<String> EXPLAINABLE_COMMANDS = Set.of(
+            "find", "aggregate", "count", "distinct", "update", "delete", "findAndModify");
+
+    // 会话、事务和读写关注等字段不属于查询本身，explain时去掉
+    private static final Set<String> ENVELOPE_FIELDS = Set.of(
+            "lsid", "txnNumber", "autocommit", "startTransaction", "readConcern", "writeConcern");
+
+    private static final Set<String> SORT_FIELDS = Set.of("totalTime", "p99", "count", "slow");
+
+    private static final BsonString REDACTED = new BsonString("?");
+
+    private static final int MAX_SHAPE_LENGTH = 1000;
+
+    // 正在执行的命令上限，驱动异常时未收到结束事件的命令不会无限堆积
+    private static final int MAX_PENDING = 10_000;
+
+    // 延迟打开explain时不取MongoTemplate，避免与MongoClient的创建形成循环依赖
+    @Autowired
+    private ObjectProvider<MongoTemplate> mongoTemplates;
+
+    @Value("${mongo.profiler.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mongo.profiler.slow-threshold-ms:100}")
+    private long slowThresholdMillis;
+
+    @Value("${mongo.profiler.max-shapes:1000}")
+    private int maxShapes;
+
+    @Value("${mongo.profiler.max-slow-queries:200}")
+    private int maxSlowQueries;
+
+    @Value("${mongo.profiler.explain.enabled:false}")
+    private boolean explainEnabled;
+
+    // 同一形状两次explain之间的最短间隔
+    @Value("${mongo.profiler.explain.interval-ms:600000}")
+    private long explainIntervalMillis;
+
+    private final Map<Integer, PendingCommand> pending = new ConcurrentHashMap<>();
+
+    private final Map<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder slowCommands = new LongAdder();
+    private final LongAdder shapesDropped = new LongAdder();
+    private final LongAdder explains = new LongAdder();
+    private final LongAdder explainFailures = new LongAdder();
+
+    // explain在单个后台线程上执行，排队满时直接丢弃，下次慢查询再尝试
+    private final ExecutorService explainExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(16), runnable -> {
+                Thread thread = new Thread(runnable, "mongo-explain");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    @PreDestroy
+    public void shutdown() {
+        explainExecutor.shutdownNow();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String commandName = event.getCommandName();
+        if (!enabled || !PROFILED_COMMANDS.contains(commandName) || "admin".equals(event.getDatabaseName())
+                || pending.size() >= MAX_PENDING) {
+            return;
+        }
+
+        // 命令文档只在事件回调内有效，形状和explain用的副本需要在这里生成
+        BsonDocument command = event.getCommand();
+        BsonDocument explainCommand = explainEnabled && EXPLAINABLE_COMMANDS.contains(commandName)
+                ? explainCommand(command) : null;
+        pending.put(event.getRequestId(), new PendingCommand(event.getDatabaseName(),
+                collectionOf(commandName, command), commandName, shapeOf(commandName, command), explainCommand));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        PendingCommand command = pending.remove(event.getRequestId());
+        if (command != null) {
+            record(command, event.getElapsedTime(TimeUnit.MICROSECONDS), null);
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        PendingCommand command = pending.remove(event.getRequestId());
+        if (command != null) {
+            record(command, event.getElapsedTime(TimeUnit.MICROSECONDS),
+                    String.valueOf(event.getThrowable().getMessage()));
+        }
+    }
+
+    private void record(PendingCommand command, long micros, String error) {
+        commands.increment();
+
+        ShapeStats stats = statsFor(command);
+        boolean slow = micros >= slowThresholdMillis * 1000;
+        if (stats != null) {
+            stats.record(micros, error == null, slow);
+        }
+        if (!slow) {
+            return;
+        }
+
+        slowCommands.increment();
+        synchronized (slowQueries) {
+            slowQueries.addFirst(new SlowQuery(command, stats, micros, error));
+            while (slowQueries.size() > maxSlowQueries) {
+                slowQueries.removeLast();
+            }
+        }
+        if (command.explainCommand != null && stats != null && stats.claimExplain(explainIntervalMillis)) {
+            explainExecutor.execute(() -> explain(command, stats));
+        }
+    }
+
+    /**
+     * 形状对应的统计，形状数达到上限后新形状不再统计
+     */
+    private ShapeStats statsFor(PendingCommand command) {
+        String key = command.collection + "|" + command.commandName + "|" + command.shape;
+        ShapeStats stats = shapes.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        if (shapes.size() >= maxShapes) {
+            shapesDropped.increment();
+            return null;
+        }
+        return shapes.computeIfAbsent(key, k -> new ShapeStats(command));
+    }
+
+    /**
+     * 以queryPlanner级别explain慢查询，只读取执行计划，不实际执行查询
+     */
+    private void explain(PendingCommand command, ShapeStats stats) {
+        MongoTemplate mongoTemplate = mongoTemplates.getIfAvailable();
+        if (mongoTemplate == null) {
+            return;
+        }
+        try {
+            Document result = mongoTemplate.getMongoDatabaseFactory().getMongoDatabase(command.database)
+                    .runCommand(new Document("explain", command.explainCommand).append("verbosity", "queryPlanner"));
+            Set<String> stages = new LinkedHashSet<>();
+            Set<String> indexes = new LinkedHashSet<>();
+            collectWinningPlans(result, false, stages, indexes);
+            stats.setPlan(stages, indexes);
+            explains.increment();
+
+            if (stages.contains("COLLSCAN")) {
+                logger.warn("慢查询全集合扫描: {}.{} {}", command.collection, command.commandName, command.shape);
+            }
+        } catch (Exception e) {
+            explainFailures.increment();
+            logger.debug("explain失败: {}.{}, {}", command.collection, command.commandName, e.getMessage());
+        }
+    }
+
+    /**
+     * 收集winningPlan下的所有阶段和索引名，rejectedPlans不计入
+     */
+    @SuppressWarnings("unchecked")
+    private static void collectWinningPlans(Object node, boolean inWinningPlan, Set<String> stages, Set<String> indexes) {
+        if (node instanceof Map<?, ?> map) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) map).entrySet()) {
+                String key = entry.getKey();
+                if ("rejectedPlans".equals(key)) {
+                    continue;
+                }
+                if (inWinningPlan && "stage".equals(key) && entry.getValue() instanceof String stage) {
+                    stages.add(stage);
+                } else if (inWinningPlan && "indexName".equals(key) && entry.getValue() instanceof String index) {
+                    indexes.add(index);
+                } else {
+                    collectWinningPlans(entry.getValue(), inWinningPlan || "winningPlan".equals(key), stages, indexes);
+                }
+            }
+        } else if (node instanceof List<?> list) {
+            list.forEach(item -> collectWinningPlans(item, inWinningPlan, stages, indexes));
+        }
+    }
+
+    /**
+     * 按形状汇总的延迟和最近的慢查询
+     *
+     * @param collection 只返回该集合，为空时返回全部
+     * @param sortBy     totalTime、p99、count或slow
+     * @throws IllegalArgumentException 排序字段不支持时
+     */
+    public Map<String, Object> getReport(String collection, String sortBy, int limit) {
+        if (!SORT_FIELDS.contains(sortBy)) {
+            throw new IllegalArgumentException("不支持的排序字段: " + sortBy);
+        }
+
+        List<Map<String, Object>> shapeViews = new ArrayList<>();
+        for (ShapeStats stats : shapes.values()) {
+            if (collection == null || collection.isEmpty() || collection.equals(stats.collection)) {
+                shapeViews.add(stats.toMap());
+            }
+        }
+        ToDoubleFunction<Map<String, Object>> sortKey = switch (sortBy) {
+            case "p99" -> view -> ((Number) view.get("p99Millis")).doubleValue();
+            case "count" -> view -> ((Number) view.get("count")).doubleValue();
+            case "slow" -> view -> ((Number) view.get("slowCount")).doubleValue();
+            default -> view -> ((Number) view.get("totalMillis")).doubleValue();
+        };
+        shapeViews.sort(Comparator.comparingDouble(sortKey).reversed());
+
+        List<Map<String, Object>> slowViews = new ArrayList<>();
+        synchronized (slowQueries) {
+            for (SlowQuery slow : slowQueries) {
+                if (slowViews.size() >= limit) {
+                    break;
+                }
+                if (collection == null || collection.isEmpty() || collection.equals(slow.command.collection)) {
+                    slowViews.add(slow.toMap());
+                }
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("slowThresholdMillis", slowThresholdMillis);
+        report.put("explainEnabled", explainEnabled);
+        report.put("shapes", shapeViews.subList(0, Math.min(limit, shapeViews.size())));
+        report.put("slowQueries", slowViews);
+        report.put("statistics", getStatistics());
+        return report;
+    }
+
+    /**
+     * 清空统计，例如补建索引后重新观察
+     */
+    public void reset() {
+        shapes.clear();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("commands", commands.sum());
+        stats.put("slowCommands", slowCommands.sum());
+        stats.put("trackedShapes", shapes.size());
+        stats.put("shapesDropped", shapesDropped.sum());
+        stats.put("explains", explains.sum());
+        stats.put("explainFailures", explainFailures.sum());
+        return stats;
+    }
+
+    private static String collectionOf(String commandName, BsonDocument command) {
+        BsonValue target = "getMore".equals(commandName) ? command.get("collection") : command.get(commandName);
+        return target != null && target.isString() ? target.asString().getValue() : "(database)";
+    }
+
+    /**
+     * 查询形状：保留字段名、操作符和排序方向，其余值替换为?
+     */
+    static String shapeOf(String commandName, BsonDocument command) {
+        BsonDocument shape = new BsonDocument();
+        switch (commandName) {
+            case "find" -> {
+                putRedacted(shape, "filter", command.get("filter"));
+                putKept(shape, "sort", command.get("sort"));
+            }
+            case "aggregate" -> {
+                BsonValue pipeline = command.get("pipeline");
+                if (pipeline != null && pipeline.isArray()) {
+                    BsonArray stages = new BsonArray();
+                    for (BsonValue stage : pipeline.asArray()) {
+                        boolean sortStage = stage.isDocument() && stage.asDocument().containsKey("$sort");
+                        stages.add(sortStage ? stage : redact(stage));
+                    }
+                    shape.put("pipeline", stages);
+                }
+            }
+            case "count", "distinct" -> {
+                putKept(shape, "key", command.get("key"));
+                putRedacted(shape, "query", command.get("query"));
+            }
+            case "findAndModify" -> {
+                putRedacted(shape, "query", command.get("query"));
+                putKept(shape, "sort", command.get("sort"));
+            }
+            // 批量写入中各语句通常形状相同，以第一条为代表
+            case "update" -> putRedacted(shape, "q", firstStatement(command, "updates", "q"));
+            case "delete" -> putRedacted(shape, "q", firstStatement(command, "deletes", "q"));
+            default -> {
+                // insert和getMore没有过滤条件
+            }
+        }
+
+        String json = shape.toJson();
+        return json.length() > MAX_SHAPE_LENGTH ? json.substring(0, MAX_SHAPE_LENGTH) + "..." : json;
+    }
+
+    private static BsonValue firstStatement(BsonDocument command, String field, String key) {
+        BsonValue statements = command.get(field);
+        if (statements == null || !statements.isArray() || statements.asArray().isEmpty()
+                || !statements.asArray().get(0).isDocument()) {
+            return null;
+        }
+        return statements.asArray().get(0).asDocument().get(key);
+    }
+
+    private static void putRedacted(BsonDocument shape, String key, BsonValue value) {
+        if (value != null) {
+            shape.put(key, redact(value));
+        }
+    }
+
+    private static void putKept(BsonDocument shape, String key, BsonValue value) {
+        if (value != null) {
+            shape.put(key, value);
+        }
+    }
+
+    /**
+     * 字段名和$开头的字符串（操作符、字段引用）保留，正则替换为{$regex: ?}，其余标量替换为?；
+     * 全部是标量的数组（如$in的取值列表）折叠为[?]，使取值个数不同的查询归为同一形状
+     */
+    static BsonValue redact(BsonValue value) {
+        if (value.isDocument()) {
+            BsonDocument redacted = new BsonDocument();
+            value.asDocument().forEach((key, child) -> redacted.put(key, redact(child)));
+            return redacted;
+        }
+        if (value.isArray()) {
+            BsonArray array = value.asArray();
+            if (array.stream().noneMatch(item -> item.isDocument() || item.isArray())) {
+                return new BsonArray(List.of(REDACTED));
+            }
+            BsonArray redacted = new BsonArray();
+            array.forEach(item -> redacted.add(redact(item)));
+            return redacted;
+        }
+        if (value.isString() && value.asString().getValue().startsWith("$")) {
+            return value;
+        }
+        if (value.isRegularExpression()) {
+            // 只有前缀锚定的正则能利用索引，保留锚定信息
+            return new BsonDocument("$regex",
+                    value.asRegularExpression().getPattern().startsWith("^") ? new BsonString("^?") : REDACTED);
+        }
+        return REDACTED;
+    }
+
+    /**
+     * 命令的完整副本（驱动的命令文档引用网络缓冲区），去掉驱动附加的$字段和会话等字段
+     */
+    private static BsonDocument explainCommand(BsonDocument command) {
+        BsonDocument copy = command.clone();
+        for (String key : new ArrayList<>(copy.keySet())) {
+            if (key.startsWith("$") || ENVELOPE_FIELDS.contains(key)) {
+                copy.remove(key);
+            }
+        }
+        return copy;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    /**
+     * 已发出、尚未收到结果的命令
+     */
+    private static class PendingCommand {
+        private final String database;
+        private final String collection;
+        private final String commandName;
+        private final String shape;
+        private final BsonDocument explainCommand;
+        private final LocalDateTime startedAt = LocalDateTime.now();
+
+        PendingCommand(String database, String collection, String commandName, String shape,
+                       BsonDocument explainCommand) {
+            this.database = database;
+            this.collection = collection;
+            this.commandName = commandName;
+            this.shape = shape;
+            this.explainCommand = explainCommand;
+        }
+    }
+
+    /**
+     * 一种查询形状的延迟统计和最近一次explain的执行计划
+     */
+    private static class ShapeStats {
+        private final String collection;
+        private final String commandName;
+        private final String shape;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicLong lastExplainAt = new AtomicLong();
+        private volatile List<String> planStages;
+        private volatile List<String> planIndexes;
+        private volatile LocalDateTime explainedAt;
+
+        ShapeStats(PendingCommand command) {
+            this.collection = command.collection;
+            this.commandName = command.commandName;
+            this.shape = command.shape;
+        }
+
+        void record(long micros, boolean success, boolean isSlow) {
+            histogram.record(micros / 1000);
+            totalMicros.add(micros);
+            if (!success) {
+                errors.increment();
+            }
+            if (isSlow) {
+                slow.increment();
+            }
+        }
+
+        /**
+         * 距上次explain超过间隔时由调用方执行本次explain，并发的慢查询只有一个能成功
+         */
+        boolean claimExplain(long intervalMillis) {
+            long now = System.currentTimeMillis();
+            long last = lastExplainAt.get();
+            return (last == 0 || now - last >= intervalMillis) && lastExplainAt.compareAndSet(last, now);
+        }
+
+        void setPlan(Set<String> stages, Set<String> indexes) {
+            this.planStages = List.copyOf(stages);
+            this.planIndexes = List.copyOf(indexes);
+            this.explainedAt = LocalDateTime.now();
+        }
+
+        Map<String, Object> planMap() {
+            if (explainedAt == null) {
+                return null;
+            }
+            Map<String, Object> plan = new LinkedHashMap<>();
+            plan.put("collectionScan", planStages.contains("COLLSCAN"));
+            plan.put("stages", planStages);
+            plan.put("indexes", planIndexes);
+            plan.put("explainedAt", explainedAt);
+            return plan;
+        }
+
+        Map<String, Object> toMap() {
+            LatencyHistogram.Snapshot latency = histogram.snapshot();
+            long count = latency.getCount();
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("collection", collection);
+            view.put("command", commandName);
+            view.put("shape", shape);
+            view.put("count", count);
+            view.put("errors", errors.sum());
+            view.put("slowCount", slow.sum());
+            view.put("totalMillis", millis(totalMicros.sum()));
+            view.put("meanMillis", count > 0 ? millis(totalMicros.sum()) / count : 0.0);
+            view.put("p50Millis", latency.percentile(50));
+            view.put("p95Millis", latency.percentile(95));
+            view.put("p99Millis", latency.percentile(99));
+            view.put("maxMillis", latency.getMax());
+            view.put("plan", planMap());
+            return view;
+        }
+    }
+
+    /**
+     * 一条超过阈值的命令
+     */
+    private static class SlowQuery {
+        private final PendingCommand command;
+        private final ShapeStats stats;
+        private final long micros;
+        private final String error;
+
+        SlowQuery(PendingCommand command, ShapeStats stats, long micros, String error) {
+            this.command = command;
+            this.stats = stats;
+            this.micros = micros;
+            this.error = error;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("startedAt", command.startedAt);
+            view.put("database", command.database);
+            view.put("collection", command.collection);
+            view.put("command", command.commandName);
+            view.put("shape", command.shape);
+            view.put("durationMillis", millis(micros));
+            view.put("success", error == null);
+            if (error != null) {
+                view.put("error", error);
+            }
+            view.put("plan", stats != null ? stats.planMap() : null);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.cvagent.service;
+
+import com.cvagent.model.OptimizationJob;
+import com.mongodb.client.result.UpdateResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 持久化优化任务队列
+ * 任务保存在MongoDB中，各节点定期以租约方式领取并交给固定大小的工作线程池执行；
+ * 执行中的任务定期续租，节点宕机后租约过期的任务由其他节点重新领取。
+ * 失败的任务按指数退避重试，完成和失败都以领取令牌为条件写入，过期领取者的结果会被丢弃
+ */
+@Service
+public class OptimizationJobQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OptimizationJobQueue.class);
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${ai.jobs.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.jobs.workers:4}")
+    private int workers;
+
+    @Value("${ai.jobs.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${ai.jobs.lease-ms:120000}")
+    private long leaseMillis;
+
+    @Value("${ai.jobs.backoff-base-ms:5000}")
+    private long backoffBaseMillis;
+
+    @Value("${ai.jobs.backoff-max-ms:300000}")
+    private long backoffMaxMillis;
+
+    @Value("${ai.jobs.node-id:}")
+    private String nodeId;
+
+    private final Map<String, JobHandler> handlers = new ConcurrentHashMap<>();
+
+    // 本节点正在执行的任务：任务ID -> 领取令牌
+    private final Map<String, String> running = new ConcurrentHashMap<>();
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder leaseLost = new LongAdder();
+
+    private Semaphore slots;
+
+    private ExecutorService executorService;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId == null || nodeId.isBlank()) {
+            // 形如 pid@hostname
+            nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        slots = new Semaphore(workers);
+        // 领取前先占用名额，线程池的队列不会积压超过workers个任务
+        AtomicInteger threadNumber = new AtomicInteger();
+        executorService = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "optimization-job-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        logger.info("优化任务队列已启动: 节点 {}, 工作线程 {}", nodeId, workers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+        // 把本节点未完成的任务交还队列，其他节点无需等待租约过期
+        for (Map.Entry<String, String> entry : running.entrySet()) {
+            try {
+                mongoTemplate.updateFirst(leased(entry.getKey(), entry.getValue()),
+                        new Update().set("status", OptimizationJob.STATUS_PENDING)
+                                .set("nextAttemptAt", LocalDateTime.now())
+                                .set("updatedAt", LocalDateTime.now())
+                                .inc("attempts", -1)
+                                .unset("leaseOwner")
+                                .unset("leaseExpiresAt"),
+                        OptimizationJob.class);
+            } catch (RuntimeException e) {
+                logger.warn("交还优化任务 {} 失败: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 注册任务处理器，本节点只领取已注册类型的任务
+     */
+    public void registerHandler(String type, JobHandler handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * 提交任务，返回新建的任务；同一目标已有未结束的任务时不再新建，返回空，
+     * 调用方据此退还提交时预扣的配额
+     */
+    public Optional<OptimizationJob> submit(String type, String targetId, String userId, Map<String, Object> payload) {
+        OptimizationJob job = new OptimizationJob(type, targetId, userId, payload, maxAttempts);
+        try {
+            job = mongoTemplate.insert(job);
+            logger.info("提交优化任务 {}: {} {}", job.getId(), type, targetId);
+            return Optional.of(job);
+        } catch (DuplicateKeyException e) {
+            logger.info("优化任务已在进行中: {} {}", type, targetId);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 领取可执行的任务并交给工作线程，直到没有空闲线程或没有待执行的任务
+     */
+    @Scheduled(fixedDelayString = "${ai.jobs.poll-interval-ms:1000}")
+    public void poll() {
+        if (!enabled || handlers.isEmpty()) {
+            return;
+        }
+
+        while (slots.tryAcquire()) {
+            OptimizationJob job;
+            try {
+                job = claim();
+            } catch (RuntimeException e) {
+                slots.release();
+                logger.warn("领取优化任务失败: {}", e.getMessage());
+                return;
+            }
+            if (job == null) {
+                slots.release();
+                return;
+            }
+
+            running.put(job.getId(), job.getLeaseOwner());
+            try {
+                executorService.execute(() -> {
+                    try {
+                        execute(job);
+                    } finally {
+                        running.remove(job.getId());
+                        slots.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // 线程池已关闭，任务留给租约过期后重新领取
+                running.remove(job.getId());
+                slots.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 为本节点正在执行的任务续租
+     */
+    @Scheduled(fixedDelayString = "${ai.jobs.lease-renew-interval-ms:30000}")
+    public void renewLeases() {
+        for (Map.Entry<String, String> entry : running.entrySet()) {
+            try {
+                UpdateResult result = mongoTemplate.updateFirst(leased(entry.getKey(), entry.getValue()),
+                        new Update().set("leaseExpiresAt", LocalDateTime.now().plus(leaseMillis, ChronoUnit.MILLIS)),
+                        OptimizationJob.class);
+                if (result.getMatchedCount() == 0) {
+                    logger.warn("优化任务 {} 的租约已被其他节点接管", entry.getKey());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("优化任务 {} 续租失败: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取队列统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("nodeId", nodeId);
+        statistics.put("workers", workers);
+        statistics.put("running", running.size());
+        statistics.put("completed", completed.sum());
+        statistics.put("failed", failed.sum());
+        statistics.put("retried", retried.sum());
+        statistics.put("leaseLost", leaseLost.sum());
+        try {
+            statistics.put("pending", mongoTemplate.count(
+                    Query.query(Criteria.where("status").is(OptimizationJob.STATUS_PENDING)), OptimizationJob.class));
+            statistics.put("inProgress", mongoTemplate.count(
+                    Query.query(Criteria.where("status").is(OptimizationJob.STATUS_RUNNING)), OptimizationJob.class));
+        } catch (RuntimeException e) {
+            logger.warn("统计优化任务失败: {}", e.getMessage());
+        }
+        return statistics;
+    }
+
+    /**
+     * 原子领取一个到期的待执行任务或租约已过期的执行中任务
+     */
+    private OptimizationJob claim() {
+        LocalDateTime now = LocalDateTime.now();
+        Criteria ready = new Criteria().orOperator(
+                Criteria.where("status").is(OptimizationJob.STATUS_PENDING).and("nextAttemptAt").lte(now),
+                Criteria.where("status").is(OptimizationJob.STATUS_RUNNING).and("leaseExpiresAt").lte(now));
+        Query query = Query.query(Criteria.where("type").in(handlers.keySet()).andOperator(ready))
+                .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"));
+        Update update = new Update()
+                .set("status", OptimizationJob.STATUS_RUNNING)
+                .set("leaseOwner", nodeId + "/" + UUID.randomUUID())
+                .set("leaseExpiresAt", now.plus(leaseMillis, ChronoUnit.MILLIS))
+                .set("updatedAt", now)
+                .inc("attempts", 1);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+                OptimizationJob.class);
+    }
+
+    private void execute(OptimizationJob job) {
+        if (job.getAttempts() > job.getMaxAttempts()) {
+            // 执行节点多次在租约内宕机
+            fail(job, "超过最大尝试次数: " + job.getLastError());
+            return;
+        }
+
+        JobHandler handler = handlers.get(job.getType());
+        try {
+            handler.handle(job);
+        } catch (Exception e) {
+            String message = truncate(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            if (job.getAttempts() < job.getMaxAttempts()) {
+                retry(job, message);
+            } else {
+                fail(job, message);
+            }
+            return;
+        }
+
+        if (finish(job, OptimizationJob.STATUS_COMPLETED, null)) {
+            completed.increment();
+        }
+    }
+
+    private void retry(OptimizationJob job, String message) {
+        long delay = backoffMillis(job.getAttempts(), backoffBaseMillis, backoffMaxMillis);
+        UpdateResult result = mongoTemplate.updateFirst(leased(job.getId(), job.getLeaseOwner()),
+                new Update().set("status", OptimizationJob.STATUS_PENDING)
+                        .set("nextAttemptAt", LocalDateTime.now().plus(delay, ChronoUnit.MILLIS))
+                        .set("lastError", message)
+                        .set("updatedAt", LocalDateTime.now())
+                        .unset("leaseOwner")
+                        .unset("leaseExpiresAt"),
+                OptimizationJob.class);
+        if (result.getMatchedCount() == 0) {
+            leaseLost.increment();
+            return;
+        }
+        retried.increment();
+        logger.warn("优化任务 {} 第 {} 次执行失败，{} 毫秒后重试: {}", job.getId(), job.getAttempts(), delay, message);
+    }
+
+    private void fail(OptimizationJob job, String message) {
+        if (!finish(job, OptimizationJob.STATUS_FAILED, message)) {
+            return;
+        }
+        failed.increment();
+        logger.error("优化任务 {} 最终失败: {}", job.getId(), message);
+
+        job.setStatus(OptimizationJob.STATUS_FAILED);
+        job.setLastError(message);
+        try {
+            handlers.get(job.getType()).onFailure(job);
+        } catch (RuntimeException e) {
+            logger.warn("优化任务 {} 的失败处理出错: {}", job.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 以领取令牌为条件结束任务，返回是否写入成功
+     */
+    private boolean finish(OptimizationJob job, String status, String message) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update().set("status", status)
+                .set("finishedAt", now)
+                .set("updatedAt", now)
+                .unset("activeKey")
+                .unset("leaseExpiresAt");
+        if (message != null) {
+            update.set("lastError", message);
+        }
+
+        UpdateResult result = mongoTemplate.updateFirst(leased(job.getId(), job.getLeaseOwner()), update,
+                OptimizationJob.class);
+        if (result.getMatchedCount() == 0) {
+            leaseLost.increment();
+            logger.warn("优化任务 {} 的租约已失效，丢弃本次结果", job.getId());
+            return false;
+        }
+        return true;
+    }
+
+    private Query leased(String jobId, String leaseOwner) {
+        return Query.query(Criteria.where("_id").is(jobId)
+                .and("leaseOwner").is(leaseOwner)
+                .and("status").is(OptimizationJob.STATUS_RUNNING));
+    }
+
+    /**
+     * 第attempt次失败后的重试延迟：指数退避，并在后一半区间内随机抖动，避免同时失败的任务同时重试
+     */
+    static long backoffMillis(int attempt, long baseMillis, long maxMillis) {
+        long exponential = baseMillis << Math.min(Math.max(attempt - 1, 0), 20);
+        long capped = Math.min(exponential, maxMillis);
+        long half = capped / 2;
+        return half + ThreadLocalRandom.current().nextLong(capped - half + 1);
+    }
+
+    private static String truncate(String message) {
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    /**
+     * 任务处理器
+     * 任务可能因节点宕机或租约过期被重复执行，处理器应当是幂等的
+     */
+    public interface JobHandler {
+
+        void handle(OptimizationJob job) throws Exception;
+
+        /**
+         * 重试次数用尽后调用
+         */
+        default void onFailure(OptimizationJob job) {
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.cvagent.service;
+
+import com.cvagent.service.ai.PromptTokenEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 提示词令牌预算服务
+ * 按服务类型限制发送给模型的内容令牌数：先压缩空白、去掉分隔线和页码，
+ * 超出预算时依次去除重复行和模板化内容、删除低价值章节，最后按句子边界截断
+ */
+@Service
+public class PromptBudgetService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PromptBudgetService.class);
+
+    private static final String TRUNCATION_MARK = "…";
+
+    private static final Pattern INLINE_WHITESPACE = Pattern.compile("[ \\t\\u00A0\\u3000\\x0B\\f]+");
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[。！？；!?;\\n])|(?<=\\.)(?=\\s)");
+    private static final Pattern PAGE_MARKER_OR_SEPARATOR = Pattern.compile(
+            "(?i)^(第\\s*\\d+\\s*页.*|page\\s+\\d+(\\s*(of|/)\\s*\\d+)?|[-_=*·•~]{3,})$");
+    private static final Pattern BOILERPLATE = Pattern.compile(
+            "(?i)^(个人简历|简历|curriculum vitae|resume|references available upon request|推荐人信息备索|以上信息真实有效.*)$");
+    private static final Pattern HEADING_DECORATION = Pattern.compile("^[#*【\\[\\s]+|[】\\]:：*\\s]+$");
+
+    /** 超出预算时最先删除的章节 */
+    private static final Set<String> LOW_VALUE_SECTIONS = Set.of(
+            "兴趣爱好", "爱好", "业余爱好", "个人爱好", "推荐人", "hobbies", "interests", "references",
+            "公司福利", "福利待遇", "福利", "benefits", "perks", "工作地点", "location", "联系方式", "contact");
+
+    /** 低价值章节删完仍超出预算时删除的章节 */
+    private static final Set<String> MEDIUM_VALUE_SECTIONS = Set.of(
+            "自我评价", "个人评价", "证书", "资格证书", "获奖情况", "荣誉奖项", "语言能力", "培训经历", "其他",
+            "公司介绍", "关于我们", "公司简介", "certifications", "awards", "languages", "training", "other",
+            "about us", "about the company");
+
+    @Autowired
+    private Environment environment;
+
+    @Value("${ai.prompt-budget.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.prompt-budget.default-max-tokens:3000}")
+    private int defaultMaxTokens;
+
+    private final Map<String, ServiceStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 按服务类型的预算压缩一组提示词内容，返回与输入一一对应的结果；
+     * 预算在各部分之间按水位分配，短的部分保持完整，剩余预算均分给长的部分
+     */
+    public String[] fit(String serviceType, String... parts) {
+        String[] compacted = new String[parts.length];
+        int[] tokens = new int[parts.length];
+        long originalTokens = 0;
+        long compactedTokens = 0;
+        for (int i = 0; i < parts.length; i++) {
+            originalTokens += PromptTokenEstimator.estimate(parts[i]);
+            compacted[i] = enabled ? normalize(parts[i]) : parts[i];
+            tokens[i] = PromptTokenEstimator.estimate(compacted[i]);
+            compactedTokens += tokens[i];
+        }
+        if (!enabled) {
+            return compacted;
+        }
+
+        int budget = maxTokensFor(serviceType);
+        boolean removeRepeatedLines = removeRepeatedLinesFor(serviceType);
+        boolean truncated = false;
+        if (compactedTokens > budget) {
+            int[] allowance = allocate(tokens, budget);
+            compactedTokens = 0;
+            for (int i = 0; i < parts.length; i++) {
+                if (tokens[i] > allowance[i]) {
+                    compacted[i] = shrink(compacted[i], allowance[i], removeRepeatedLines);
+                    truncated = true;
+                }
+                compactedTokens += PromptTokenEstimator.estimate(compacted[i]);
+            }
+        }
+
+        stats.computeIfAbsent(serviceType, key -> new ServiceStats())
+                .record(originalTokens, compactedTokens, truncated);
+        if (truncated) {
+            logger.info("提示词超出预算已压缩: {}, {} -> {} tokens (预算 {})",
+                    serviceType, originalTokens, compactedTokens, budget);
+        }
+        return compacted;
+    }
+
+    /**
+     * 压缩单段内容
+     */
+    public String compact(String serviceType, String text) {
+        return fit(serviceType, text)[0];
+    }
+
+    /**
+     * 获取各服务的预算压缩统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new HashMap<>();
+        long totalSaved = 0;
+        Map<String, Object> services = new HashMap<>();
+        for (Map.Entry<String, ServiceStats> entry : stats.entrySet()) {
+            ServiceStats serviceStats = entry.getValue();
+            totalSaved += serviceStats.tokensSaved();
+            services.put(entry.getKey(), serviceStats.toMap());
+        }
+        result.put("enabled", enabled);
+        result.put("defaultMaxTokens", defaultMaxTokens);
+        result.put("tokensSaved", totalSaved);
+        result.put("services", services);
+        return result;
+    }
+
+    private int maxTokensFor(String serviceType) {
+        return environment.getProperty("ai.prompt-budget.services." + serviceType + ".max-tokens",
+                Integer.class, defaultMaxTokens);
+    }
+
+    /**
+     * 结构化提示词中各条目共有的字段行会重复出现，这类服务关闭重复行去除
+     */
+    private boolean removeRepeatedLinesFor(String serviceType) {
+        return environment.getProperty("ai.prompt-budget.services." + serviceType + ".remove-repeated-lines",
+                Boolean.class, true);
+    }
+
+    /**
+     * 水位分配：按令牌数从小到大处理，不超过平均份额的部分全额保留
+     */
+    static int[] allocate(int[] tokens, int budget) {
+        Integer[] order = new Integer[tokens.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> tokens[i]));
+
+        int[] allowance = new int[tokens.length];
+        int remaining = budget;
+        for (int k = 0; k < order.length; k++) {
+            int index = order[k];
+            int share = remaining / (order.length - k);
+            allowance[index] = Math.min(tokens[index], share);
+            remaining -= allowance[index];
+        }
+        return allowance;
+    }
+
+    /**
+     * 压缩空白，去掉分隔线和页码。每次调用都会执行，不删除任何有内容的行
+     */
+    static String normalize(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+
+        StringBuilder result = new StringBuilder(text.length());
+        boolean lastBlank = true;
+        for (String rawLine : text.split("\\r?\\n")) {
+            String line = INLINE_WHITESPACE.matcher(rawLine).replaceAll(" ").trim();
+            if (line.isEmpty()) {
+                if (!lastBlank) {
+                    result.append('\n');
+                    lastBlank = true;
+                }
+                continue;
+            }
+            if (PAGE_MARKER_OR_SEPARATOR.matcher(line).matches()) {
+                continue;
+            }
+            result.append(line).append('\n');
+            lastBlank = false;
+        }
+        return result.toString().trim();
+    }
+
+    /**
+     * 把内容压缩到指定令牌数以内：先去除重复行和模板化内容（removeRepeatedLines为false时跳过），
+     * 再删低价值章节、中等价值章节，最后按句子边界截断
+     */
+    static String shrink(String text, int maxTokens, boolean removeRepeatedLines) {
+        if (text == null || PromptTokenEstimator.estimate(text) <= maxTokens) {
+            return text;
+        }
+        if (maxTokens <= 0) {
+            return "";
+        }
+
+        String deduplicated = removeRepeatedLines ? removeRepeatedLines(text) : text;
+        if (PromptTokenEstimator.estimate(deduplicated) <= maxTokens) {
+            return deduplicated;
+        }
+
+        List<Section> sections = splitSections(deduplicated);
+        String remaining = dropSections(sections, LOW_VALUE_SECTIONS, maxTokens);
+        if (remaining == null) {
+            remaining = dropSections(sections, MEDIUM_VALUE_SECTIONS, maxTokens);
+        }
+        return remaining != null ? remaining : truncateOnSentence(join(sections), maxTokens);
+    }
+
+    /**
+     * 去掉简历标题、备注等模板化行和重复出现的行（忽略大小写，单个字符的行保留）
+     */
+    private static String removeRepeatedLines(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        Set<String> seen = new HashSet<>();
+        for (String line : text.split("\n", -1)) {
+            if (BOILERPLATE.matcher(line).matches() || (line.length() > 1 && !seen.add(line.toLowerCase(Locale.ROOT)))) {
+                continue;
+            }
+            result.append(line).append('\n');
+        }
+        return result.toString().trim();
+    }
+
+    /**
+     * 从后往前删除属于指定类别的章节，删到不超出预算即返回结果；删完仍超出预算返回null
+     */
+    private static String dropSections(List<Section> sections, Set<String> names, int maxTokens) {
+        for (int i = sections.size() - 1; i >= 0; i--) {
+            if (sections.get(i).heading != null && names.contains(sections.get(i).heading)) {
+                sections.remove(i);
+                String joined = join(sections);
+                if (PromptTokenEstimator.estimate(joined) <= maxTokens) {
+                    return joined;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String truncateOnSentence(String text, int maxTokens) {
+        int budget = maxTokens - PromptTokenEstimator.estimate(TRUNCATION_MARK);
+        StringBuilder result = new StringBuilder();
+        int used = 0;
+        for (String sentence : SENTENCE_END.split(text)) {
+            int cost = PromptTokenEstimator.estimate(sentence);
+            if (used + cost > budget) {
+                break;
+            }
+            result.append(sentence);
+            used += cost;
+        }
+
+        if (result.length() == 0) {
+            // 第一句就超出预算时按比例截取字符
+            int estimate = Math.max(1, PromptTokenEstimator.estimate(text));
+            int length = (int) ((long) text.length() * Math.max(budget, 0) / estimate);
+            result.append(text, 0, Math.min(length, text.length()));
+        }
+        return result.toString().trim() + TRUNCATION_MARK;
+    }
+
+    private static List<Section> splitSections(String text) {
+        List<Section> sections = new ArrayList<>();
+        Section current = new Section(null);
+        for (String line : text.split("\n", -1)) {
+            String heading = headingOf(line);
+            if (heading != null) {
+                sections.add(current);
+                current = new Section(heading);
+            }
+            current.content.append(line).append('\n');
+        }
+        sections.add(current);
+        return sections;
+    }
+
+    /**
+     * 识别章节标题行，返回规范化的标题名；不是已知章节标题时返回null
+     */
+    private static String headingOf(String line) {
+        if (line.length() > 30) {
+            return null;
+        }
+        String heading = HEADING_DECORATION.matcher(line).replaceAll("").toLowerCase(Locale.ROOT);
+        return LOW_VALUE_SECTIONS.contains(heading) || MEDIUM_VALUE_SECTIONS.contains(heading) ? heading : null;
+    }
+
+    private static String join(List<Section> sections) {
+        StringBuilder result = new StringBuilder();
+        sections.forEach(section -> result.append(section.content));
+        return result.toString().trim();
+    }
+
+    private static class Section {
+        private final String heading;
+        private final StringBuilder content = new StringBuilder();
+
+        private Section(String heading) {
+            this.heading = heading;
+        }
+    }
+
+    private static class ServiceStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder truncatedRequests = new LongAdder();
+        private final LongAdder originalTokens = new LongAdder();
+        private final LongAdder sentTokens = new LongAdder();
+
+        private void record(long original, long sent, boolean truncated) {
+            requests.increment();
+            originalTokens.add(original);
+            sentTokens.add(sent);
+            if (truncated) {
+                truncatedRequests.increment();
+            }
+        }
+
+        private long tokensSaved() {
+            return Math.max(0, originalTokens.sum() - sentTokens.sum());
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("requests", requests.sum());
+            map.put("truncatedRequests", truncatedRequests.sum());
+            map.put("originalTokens", originalTokens.sum());
+            map.put("sentTokens", sentTokens.sum());
+            map.put("tokensSaved", tokensSaved());
+            return map;
+        }
+    }
+}
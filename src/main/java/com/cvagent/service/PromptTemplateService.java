@@ -1,37 +1,75 @@
 package com.cvagent.service;
 
+import com.cvagent.model.PromptTemplate;
+import com.cvagent.repository.PromptTemplateRepository;
+import com.cvagent.service.ai.CompiledPromptTemplate;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 提示词模板服务
- * 管理和提供各种AI功能的提示词模板
+ * 管理和提供各种AI功能的提示词模板；模板预编译后缓存在本地，
+ * 自定义模板按版本保存在MongoDB，各节点定期增量刷新
  */
 @Service
 public class PromptTemplateService {
 
     private static final Logger logger = LoggerFactory.getLogger(PromptTemplateService.class);
 
+    // 增量刷新时向前多查的时间窗口，容忍节点间的时钟偏差
+    private static final long REFRESH_OVERLAP_SECONDS = 5;
+
+    // 并发保存同一模板时分配版本号的最大尝试次数
+    private static final int MAX_SAVE_ATTEMPTS = 5;
+
     @Autowired
     private AiMonitoringService aiMonitoringService;
 
+    @Autowired
+    private PromptTemplateRepository templateRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired(required = false)
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
     // 内置提示词模板
     private final Map<String, String> builtinTemplates = new ConcurrentHashMap<>();
 
+    // 当前生效的预编译模板，内置模板为版本0
+    private final Map<String, CompiledPromptTemplate> compiledTemplates = new ConcurrentHashMap<>();
+
+    private volatile LocalDateTime lastRefreshedAt;
+
     public PromptTemplateService() {
         // 初始化内置提示词模板
         initializeBuiltinTemplates();
+        builtinTemplates.forEach((name, content) ->
+                compiledTemplates.put(name, CompiledPromptTemplate.compile(name, 0, content)));
     }
 
     /**
@@ -180,31 +218,74 @@ public class PromptTemplateService {
                 """);
     }
 
+    /**
+     * 加载数据库中的全部自定义模板
+     */
+    public void loadStoredTemplates() {
+        try {
+            LocalDateTime startedAt = LocalDateTime.now();
+            int loaded = 0;
+            for (String name : mongoTemplate.findDistinct(new Query(), "name", PromptTemplate.class, String.class)) {
+                reloadTemplate(name);
+                loaded++;
+            }
+            lastRefreshedAt = startedAt;
+            logger.info("加载自定义提示词模板 {} 个", loaded);
+        } catch (Exception e) {
+            logger.warn("加载自定义提示词模板失败，使用内置模板: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 定期增量刷新：只重新加载上次刷新后有修改的模板，使其他节点的修改在本节点生效；
+     * 启动后的第一次执行加载全部自定义模板，不阻塞应用启动
+     */
+    @Scheduled(fixedDelayString = "${ai.prompt-templates.refresh-interval-ms:30000}")
+    public void refreshTemplates() {
+        LocalDateTime since = lastRefreshedAt;
+        if (since == null) {
+            loadStoredTemplates();
+            return;
+        }
+
+        try {
+            LocalDateTime startedAt = LocalDateTime.now();
+            List<PromptTemplate> changed = templateRepository.findByUpdatedAtAfter(
+                    since.minusSeconds(REFRESH_OVERLAP_SECONDS));
+            for (String name : distinctNames(changed)) {
+                reloadTemplate(name);
+            }
+            lastRefreshedAt = startedAt;
+        } catch (Exception e) {
+            logger.warn("刷新提示词模板失败: {}", e.getMessage());
+        }
+    }
+
     /**
      * 获取提示词模板
+     * 渲染结果随变量变化，不做结果缓存；模板本身已预编译
      */
-    @Cacheable(value = "promptTemplates", key = "#templateName")
     public String getPrompt(String templateName, Map<String, Object> variables) {
+        return Observation.createNotStarted("prompt.render", observationRegistry)
+                .lowCardinalityKeyValue("prompt.template", templateName)
+                .observe(() -> renderPrompt(templateName, variables));
+    }
+
+    private String renderPrompt(String templateName, Map<String, Object> variables) {
         long startTime = System.currentTimeMillis();
         try {
-            String template = builtinTemplates.get(templateName);
+            CompiledPromptTemplate template = compiledTemplates.get(templateName);
             if (template == null) {
                 logger.warn("未找到提示词模板: {}", templateName);
                 return "未找到指定的提示词模板";
             }
 
-            // 替换模板变量
-            String prompt = template;
-            for (Map.Entry<String, Object> entry : variables.entrySet()) {
-                String placeholder = "{" + entry.getKey() + "}";
-                String value = entry.getValue() != null ? entry.getValue().toString() : "";
-                prompt = prompt.replace(placeholder, value);
-            }
+            String prompt = template.render(variables);
 
             long duration = System.currentTimeMillis() - startTime;
             aiMonitoringService.recordPromptRequest(templateName, duration, true);
 
-            logger.info("获取提示词模板完成: {}, 耗时: {}ms", templateName, duration);
+            logger.debug("获取提示词模板完成: {} v{}, 耗时: {}ms", templateName, template.getVersion(), duration);
             return prompt;
         } catch (Exception e) {
             long duration = System.currentTimeMillis() - startTime;
@@ -216,65 +297,90 @@ public class PromptTemplateService {
     }
 
     /**
-     * 添加自定义提示词模板
+     * 添加自定义提示词模板，保存为新版本并立即在本节点生效
      */
-    public void addCustomTemplate(String templateName, String templateContent) {
-        builtinTemplates.put(templateName, templateContent);
-        logger.info("添加自定义提示词模板: {}", templateName);
+    public PromptTemplate addCustomTemplate(String templateName, String templateContent) {
+        return saveTemplate(templateName, templateContent, null);
     }
 
     /**
-     * 删除提示词模板
+     * 保存提示词模板的新版本
+     * 版本号取最新版本+1，并发保存撞上(name, version)唯一索引时重新读取最新版本后重试
+     */
+    public PromptTemplate saveTemplate(String templateName, String templateContent, String changedBy) {
+        for (int attempt = 1; ; attempt++) {
+            int version = templateRepository.findFirstByNameOrderByVersionDesc(templateName)
+                    .map(PromptTemplate::getVersion)
+                    .orElse(0) + 1;
+            PromptTemplate saved;
+            try {
+                saved = templateRepository.save(new PromptTemplate(templateName, version, templateContent, changedBy));
+            } catch (DuplicateKeyException e) {
+                if (attempt >= MAX_SAVE_ATTEMPTS) {
+                    throw e;
+                }
+                logger.debug("提示词模板 {} v{} 已被并发保存，重试", templateName, version);
+                continue;
+            }
+
+            // 并发保存时只保留版本号最大的编译结果
+            CompiledPromptTemplate compiled = CompiledPromptTemplate.compile(templateName, version, templateContent);
+            compiledTemplates.merge(templateName, compiled,
+                    (current, candidate) -> candidate.getVersion() >= current.getVersion() ? candidate : current);
+            logger.info("保存提示词模板: {} v{}", templateName, version);
+            return saved;
+        }
+    }
+
+    /**
+     * 删除提示词模板：停用所有自定义版本，有内置模板时恢复为内置模板
      */
     public void removeTemplate(String templateName) {
-        builtinTemplates.remove(templateName);
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("name").is(templateName).and("active").is(true)),
+                new Update().set("active", false).set("updatedAt", LocalDateTime.now()),
+                PromptTemplate.class);
+        installBuiltinOrRemove(templateName);
         logger.info("删除提示词模板: {}", templateName);
     }
 
+    /**
+     * 获取模板的所有版本
+     */
+    public List<PromptTemplate> getTemplateVersions(String templateName) {
+        return templateRepository.findByNameOrderByVersionDesc(templateName);
+    }
+
     /**
      * 获取所有模板名称
      */
     public java.util.List<String> getAllTemplateNames() {
-        return new java.util.ArrayList<>(builtinTemplates.keySet());
+        return new java.util.ArrayList<>(compiledTemplates.keySet());
     }
 
     /**
      * 获取模板详情
      */
     public Map<String, Object> getTemplateDetails(String templateName) {
+        CompiledPromptTemplate template = compiledTemplates.get(templateName);
         Map<String, Object> details = new HashMap<>();
         details.put("name", templateName);
-        details.put("content", builtinTemplates.get(templateName));
-        details.put("variables", extractVariables(builtinTemplates.get(templateName)));
+        details.put("content", template != null ? template.getSource() : null);
+        details.put("variables", template != null ? template.getVariables() : List.of());
+        details.put("version", template != null ? template.getVersion() : null);
         return details;
     }
 
-    /**
-     * 提取模板中的变量
-     */
-    private java.util.List<String> extractVariables(String template) {
-        java.util.List<String> variables = new java.util.ArrayList<>();
-        if (template != null) {
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\{([^}]+)\\}");
-            java.util.regex.Matcher matcher = pattern.matcher(template);
-            while (matcher.find()) {
-                variables.add(matcher.group(1));
-            }
-        }
-        return variables;
-    }
-
     /**
      * 验证模板变量
      */
     public boolean validateTemplateVariables(String templateName, Map<String, Object> variables) {
-        String template = builtinTemplates.get(templateName);
+        CompiledPromptTemplate template = compiledTemplates.get(templateName);
         if (template == null) {
             return false;
         }
 
-        java.util.List<String> requiredVariables = extractVariables(template);
-        return variables.keySet().containsAll(requiredVariables);
+        return variables.keySet().containsAll(template.getVariables());
     }
 
     /**
@@ -285,7 +391,7 @@ public class PromptTemplateService {
             ClassPathResource resource = new ClassPathResource(filePath);
             Path path = resource.getFile().toPath();
             String content = Files.readString(path);
-            builtinTemplates.put(templateName, content);
+            addCustomTemplate(templateName, content);
             logger.info("从文件加载提示词模板: {}", templateName);
         } catch (IOException e) {
             logger.error("从文件加载提示词模板失败: {}", templateName, e);
@@ -293,6 +399,41 @@ public class PromptTemplateService {
         }
     }
 
+    /**
+     * 用数据库中启用的最新版本替换本地模板；已是该版本时跳过重新编译
+     */
+    private void reloadTemplate(String templateName) {
+        Optional<PromptTemplate> latest = templateRepository.findFirstByNameAndActiveTrueOrderByVersionDesc(templateName);
+        if (latest.isEmpty()) {
+            installBuiltinOrRemove(templateName);
+            return;
+        }
+
+        PromptTemplate stored = latest.get();
+        CompiledPromptTemplate current = compiledTemplates.get(templateName);
+        if (current != null && current.getVersion() == stored.getVersion()) {
+            return;
+        }
+        compiledTemplates.put(templateName,
+                CompiledPromptTemplate.compile(templateName, stored.getVersion(), stored.getContent()));
+        logger.info("提示词模板已更新: {} v{}", templateName, stored.getVersion());
+    }
+
+    private void installBuiltinOrRemove(String templateName) {
+        String builtin = builtinTemplates.get(templateName);
+        if (builtin != null) {
+            compiledTemplates.put(templateName, CompiledPromptTemplate.compile(templateName, 0, builtin));
+        } else {
+            compiledTemplates.remove(templateName);
+        }
+    }
+
+    private static Set<String> distinctNames(List<PromptTemplate> templates) {
+        Set<String> names = new LinkedHashSet<>();
+        templates.forEach(template -> names.add(template.getName()));
+        return names;
+    }
+
     /**
      * 批量处理模板
      */
@@ -2,17 +2,21 @@ package com.cvagent.service;
 
 import com.cvagent.model.OptimizationRule;
 import com.cvagent.repository.OptimizationRuleRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
@@ -24,6 +28,19 @@ public class RuleEngineService {
 
     private static final Logger logger = LoggerFactory.getLogger(RuleEngineService.class);
 
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String DEFAULT_SUGGESTION = "建议优化此部分内容";
+
+    private static final int MAX_MATCHES_IN_PROMPT = 3;
+
+    // 整段命中（如长度规则）时只取开头，原始内容另有单独的预算
+    private static final int MAX_MATCH_LENGTH = 40;
+
+    private static final String ALL_SECTIONS = "ALL";
+
+    private static final RuleMatcher EMPTY_MATCHER = new RuleMatcher(List.of(), 0);
+
     @Autowired
     private OptimizationRuleRepository ruleRepository;
 
@@ -33,22 +50,59 @@ public class RuleEngineService {
     @Autowired
     private RuleVersionControlService versionControlService;
 
+    @Autowired
+    private PromptBudgetService promptBudgetService;
+
+    @Autowired(required = false)
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+    @Value("${ai.rules.consolidated-suggestions:true}")
+    private boolean consolidatedSuggestions;
+
+    // 每次合并请求最多包含的规则数，保证提示词在rule_suggestions预算之内
+    @Value("${ai.rules.suggestions-per-request:15}")
+    private int suggestionsPerRequest = 15;
+
+    @Value("${ai.rules.matcher.steps-per-char:100}")
+    private long matcherStepsPerChar;
+
+    /**
+     * 当前生效的规则快照，规则变更后整体替换；首次使用时加载
+     */
+    private final AtomicReference<RuleSnapshot> snapshot = new AtomicReference<>();
+
+    private final AtomicLong snapshotVersion = new AtomicLong();
+
     /**
      * 应用所有规则到简历内容
      */
     public List<OptimizationResult> applyAllRules(String resumeContent, String targetSection) {
+        return Observation.createNotStarted("rule.engine.apply", observationRegistry)
+                .lowCardinalityKeyValue("rule.section", String.valueOf(targetSection))
+                .observe(() -> applyAllRulesObserved(resumeContent, targetSection));
+    }
+
+    private List<OptimizationResult> applyAllRulesObserved(String resumeContent, String targetSection) {
         logger.info("开始应用优化规则到简历内容");
 
-        List<OptimizationRule> applicableRules = getApplicableRules(targetSection);
+        // 该区域所有规则一次匹配完成，AI建议只针对命中的规则生成
         List<OptimizationResult> results = new ArrayList<>();
-
-        for (OptimizationRule rule : applicableRules) {
-            OptimizationResult result = applyRule(rule, resumeContent);
+        for (RuleMatcher.Result match : currentSnapshot().matcherFor(targetSection).match(resumeContent)) {
+            OptimizationResult result = toOptimizationResult(match);
             if (result.hasMatches()) {
                 results.add(result);
             }
         }
 
+        if (consolidatedSuggestions) {
+            // 把该区域命中的规则合并成一次AI请求
+            generateConsolidatedOptimization(results, resumeContent, targetSection);
+        } else {
+            for (OptimizationResult result : results) {
+                result.setOptimizedSuggestion(generateAIOptimization(result.getRule(), resumeContent, result.getMatches()));
+            }
+        }
+
         logger.info("规则应用完成，共发现 {} 个优化建议", results.size());
         return results;
     }
@@ -57,35 +111,27 @@ public class RuleEngineService {
      * 应用单个规则
      */
     public OptimizationResult applyRule(OptimizationRule rule, String content) {
+        RuleMatcher matcher = new RuleMatcher(List.of(rule), matcherStepsPerChar);
+        OptimizationResult result = toOptimizationResult(matcher.match(content).get(0));
+        if (result.hasMatches()) {
+            // 使用AI进行智能优化建议
+            String optimizedSuggestion = generateAIOptimization(rule, content, result.getMatches());
+            result.setOptimizedSuggestion(optimizedSuggestion);
+        }
+        return result;
+    }
+
+    private static OptimizationResult toOptimizationResult(RuleMatcher.Result match) {
         OptimizationResult result = new OptimizationResult();
-        result.setRule(rule);
+        result.setRule(match.getRule());
         result.setAppliedAt(LocalDateTime.now());
-
-        if (rule.getPattern() != null && !rule.getPattern().trim().isEmpty()) {
-            try {
-                Pattern pattern = Pattern.compile(rule.getPattern(), Pattern.CASE_INSENSITIVE);
-                Matcher matcher = pattern.matcher(content);
-
-                List<String> matches = new ArrayList<>();
-                while (matcher.find()) {
-                    matches.add(matcher.group());
-                }
-
-                result.setMatches(matches);
-                result.setMatchCount(matches.size());
-
-                if (matches.size() > 0) {
-                    // 使用AI进行智能优化建议
-                    String optimizedSuggestion = generateAIOptimization(rule, content, matches);
-                    result.setOptimizedSuggestion(optimizedSuggestion);
-                }
-
-            } catch (Exception e) {
-                logger.error("应用规则时出错: {}", rule.getName(), e);
-                result.setError("规则模式无效: " + e.getMessage());
-            }
+        if (match.getError() != null) {
+            logger.warn("应用规则时出错: {}, {}", match.getRule().getName(), match.getError());
+            result.setError(match.getError());
+        } else {
+            result.setMatches(match.getMatches());
+            result.setMatchCount(match.getMatches().size());
         }
-
         return result;
     }
 
@@ -101,32 +147,164 @@ public class RuleEngineService {
                 rule.getTargetSection(),
                 rule.getDescription(),
                 String.join(", ", matches),
-                content.substring(0, Math.min(content.length(), 500))
+                promptBudgetService.compact("rule_optimization", content)
             );
 
             return aiServiceManager.improveResumeSection(context, rule.getCategory());
         } catch (Exception e) {
             logger.warn("AI优化生成失败，使用默认建议: {}", e.getMessage());
-            return rule.getSuggestion() != null ? rule.getSuggestion() : "建议优化此部分内容";
+            return defaultSuggestion(rule);
         }
     }
 
     /**
-     * 获取适用的规则
+     * 把一个区域命中的规则按suggestionsPerRequest条一组合并成AI请求，要求模型按规则序号返回JSON建议；
+     * 解析失败或缺少某条规则的建议时使用该规则自带的建议文本
      */
-    @Cacheable(value = "applicableRules", key = "#targetSection")
-    public List<OptimizationRule> getApplicableRules(String targetSection) {
-        List<OptimizationRule> rules;
+    private void generateConsolidatedOptimization(List<OptimizationResult> results, String content,
+                                                  String targetSection) {
+        int batchSize = Math.max(1, suggestionsPerRequest);
+        for (int from = 0; from < results.size(); from += batchSize) {
+            generateConsolidatedBatch(results.subList(from, Math.min(from + batchSize, results.size())),
+                    content, targetSection);
+        }
+    }
 
-        if ("ALL".equals(targetSection) || targetSection == null) {
-            rules = ruleRepository.findByIsActiveTrueOrderByPriorityDesc();
-        } else {
-            rules = ruleRepository.findByTargetSectionAndIsActiveTrueOrderByPriorityDesc(targetSection);
+    private void generateConsolidatedBatch(List<OptimizationResult> results, String content, String targetSection) {
+        Map<Integer, String> suggestions = Collections.emptyMap();
+        try {
+            String response = aiServiceManager.generateRuleSuggestions(
+                    buildConsolidatedPrompt(results, content, targetSection));
+            suggestions = parseConsolidatedSuggestions(response);
+            if (suggestions.size() < results.size()) {
+                logger.warn("合并建议缺少 {} 条规则的结果，使用默认建议", results.size() - suggestions.size());
+            }
+        } catch (Exception e) {
+            logger.warn("合并AI优化生成失败，使用默认建议: {}", e.getMessage());
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            OptimizationResult result = results.get(i);
+            String suggestion = suggestions.get(i + 1);
+            result.setOptimizedSuggestion(suggestion != null ? suggestion : defaultSuggestion(result.getRule()));
+        }
+    }
+
+    /**
+     * 格式要求放在最前面，超出预算时从尾部截断也不会丢失
+     */
+    private String buildConsolidatedPrompt(List<OptimizationResult> results, String content, String targetSection) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("以下简历内容命中了多条优化规则，请针对每条规则给出具体、可执行的优化建议。\n");
+        prompt.append("请只返回JSON数组，不要包含其他文字，格式如下：\n")
+                .append("[{\"index\": 规则序号, \"suggestion\": \"优化建议\"}]\n\n");
+        prompt.append("目标区域：").append(targetSection != null ? targetSection : "ALL").append("\n\n");
+
+        for (int i = 0; i < results.size(); i++) {
+            OptimizationRule rule = results.get(i).getRule();
+            List<String> matches = results.get(i).getMatches();
+            prompt.append("规则").append(i + 1).append("：'").append(rule.getName()).append("'\n")
+                    .append("类别：").append(rule.getCategory()).append("\n")
+                    .append("描述：").append(rule.getDescription()).append("\n")
+                    .append("匹配到的问题：");
+            for (int j = 0; j < Math.min(matches.size(), MAX_MATCHES_IN_PROMPT); j++) {
+                String match = matches.get(j);
+                prompt.append(j > 0 ? ", " : "")
+                        .append(match.length() > MAX_MATCH_LENGTH ? match.substring(0, MAX_MATCH_LENGTH) + "…" : match);
+            }
+            prompt.append("\n\n");
+        }
+
+        prompt.append("原始内容：").append(promptBudgetService.compact("rule_optimization", content));
+        return prompt.toString();
+    }
+
+    /**
+     * 解析合并建议的JSON响应，返回规则序号到建议的映射；兼容代码块包裹和{"suggestions": [...]}形式
+     */
+    static Map<Integer, String> parseConsolidatedSuggestions(String response) {
+        Map<Integer, String> suggestions = new HashMap<>();
+        if (response == null) {
+            return suggestions;
+        }
+
+        int start = response.indexOf('[');
+        int end = response.lastIndexOf(']');
+        if (start < 0 || end <= start) {
+            return suggestions;
+        }
+
+        try {
+            JsonNode root = objectMapper.readTree(response.substring(start, end + 1));
+            for (JsonNode item : root) {
+                JsonNode index = item.get("index");
+                JsonNode suggestion = item.get("suggestion");
+                if (index != null && index.canConvertToInt() && suggestion != null
+                        && !suggestion.asText().isBlank()) {
+                    suggestions.put(index.asInt(), suggestion.asText().trim());
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("解析合并建议失败: {}", e.getMessage());
         }
+        return suggestions;
+    }
+
+    private static String defaultSuggestion(OptimizationRule rule) {
+        return rule.getSuggestion() != null ? rule.getSuggestion() : DEFAULT_SUGGESTION;
+    }
+
+    /**
+     * 只匹配不生成AI建议：按优先级返回当前快照中命中内容的规则，匹配出错或超出步数预算的规则跳过。
+     * 供AI不可用时的规则降级应答使用
+     */
+    public List<OptimizationRule> findMatchingRules(String content) {
+        List<OptimizationRule> matched = new ArrayList<>();
+        for (RuleMatcher.Result match : currentSnapshot().matcherFor(ALL_SECTIONS).match(content)) {
+            if (match.getError() != null) {
+                logger.debug("降级匹配跳过规则: {}, {}", match.getRule().getName(), match.getError());
+            } else if (!match.getMatches().isEmpty()) {
+                matched.add(match.getRule());
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 获取适用的规则
+     */
+    public List<OptimizationRule> getApplicableRules(String targetSection) {
+        return currentSnapshot().matcherFor(targetSection).getRules();
+    }
 
-        return rules.stream()
+    /**
+     * 重新加载活跃规则并整体替换快照；通过本服务或版本恢复修改规则后调用，
+     * 直接改库的变更需要调用本方法才能生效
+     */
+    public synchronized long refreshRules() {
+        List<OptimizationRule> rules = ruleRepository.findByIsActiveTrueOrderByPriorityDesc().stream()
                 .filter(rule -> rule.getPattern() != null && !rule.getPattern().trim().isEmpty())
                 .collect(Collectors.toList());
+
+        RuleSnapshot next = new RuleSnapshot(snapshotVersion.incrementAndGet(), rules, matcherStepsPerChar);
+        snapshot.set(next);
+
+        logger.info("规则快照已更新: 版本 {}, 规则 {} 条, 匹配方式 {}", next.getVersion(), rules.size(),
+                next.matcherFor(ALL_SECTIONS).getStrategyCounts());
+        return next.getVersion();
+    }
+
+    private RuleSnapshot currentSnapshot() {
+        RuleSnapshot current = snapshot.get();
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot.get() == null) {
+                refreshRules();
+            }
+            return snapshot.get();
+        }
     }
 
     /**
@@ -145,6 +323,7 @@ public class RuleEngineService {
 
         OptimizationRule savedRule = ruleRepository.save(rule);
         logger.info("创建新的优化规则: {}", rule.getName());
+        refreshRules();
 
         return savedRule;
     }
@@ -175,6 +354,7 @@ public class RuleEngineService {
 
         OptimizationRule updatedRule = ruleRepository.save(rule);
         logger.info("更新优化规则: {}", rule.getName());
+        refreshRules();
 
         return updatedRule;
     }
@@ -188,6 +368,7 @@ public class RuleEngineService {
 
         ruleRepository.delete(rule);
         logger.info("删除优化规则: {}", rule.getName());
+        refreshRules();
     }
 
     /**
@@ -202,6 +383,7 @@ public class RuleEngineService {
         ruleRepository.save(rule);
 
         logger.info("规则状态更新: {} -> {}", id, isActive ? "激活" : "停用");
+        refreshRules();
     }
 
     /**
@@ -246,6 +428,11 @@ public class RuleEngineService {
      * 批量应用规则
      */
     public BatchOptimizationResult batchApplyRules(String resumeContent) {
+        return Observation.createNotStarted("rule.engine.batch", observationRegistry)
+                .observe(() -> batchApplyRulesObserved(resumeContent));
+    }
+
+    private BatchOptimizationResult batchApplyRulesObserved(String resumeContent) {
         BatchOptimizationResult batchResult = new BatchOptimizationResult();
         batchResult.setProcessedAt(LocalDateTime.now());
 
@@ -263,6 +450,38 @@ public class RuleEngineService {
         return batchResult;
     }
 
+    /**
+     * 不可变的活跃规则快照：每个目标区域一个预编译的匹配器，规则按优先级降序；"ALL"或未指定区域时使用全部活跃规则
+     */
+    private static class RuleSnapshot {
+        private final long version;
+        private final RuleMatcher allRules;
+        private final Map<String, RuleMatcher> rulesBySection;
+
+        RuleSnapshot(long version, List<OptimizationRule> rules, long stepsPerChar) {
+            this.version = version;
+            this.allRules = new RuleMatcher(rules, stepsPerChar);
+            Map<String, List<OptimizationRule>> bySection = new HashMap<>();
+            for (OptimizationRule rule : rules) {
+                if (rule.getTargetSection() != null) {
+                    bySection.computeIfAbsent(rule.getTargetSection(), section -> new ArrayList<>()).add(rule);
+                }
+            }
+            Map<String, RuleMatcher> matchers = new HashMap<>();
+            bySection.forEach((section, sectionRules) -> matchers.put(section, new RuleMatcher(sectionRules, stepsPerChar)));
+            this.rulesBySection = Map.copyOf(matchers);
+        }
+
+        RuleMatcher matcherFor(String targetSection) {
+            if (targetSection == null || ALL_SECTIONS.equals(targetSection)) {
+                return allRules;
+            }
+            return rulesBySection.getOrDefault(targetSection, EMPTY_MATCHER);
+        }
+
+        long getVersion() { return version; }
+    }
+
     /**
      * 优化结果类
      */
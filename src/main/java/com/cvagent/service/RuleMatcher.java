@@ -0,0 +1,511 @@
+package com.cvagent.service;
+
+import com.cvagent.model.OptimizationRule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 多规则匹配器
+ * 字面量分支规则（如 "(java|python)"）和 ".*(负责|参与).*" 形式的整行规则合并成一个Aho-Corasick自动机，
+ * 对内容只扫描一遍；其余规则改写后使用RE2J线性时间引擎。无法等价改写的写法（零宽断言、反向引用、
+ * 占有量词、"$" 等）回退到java.util.regex，并按内容长度限制匹配步数，超出预算的规则中止并返回错误。
+ * 结果与java.util.regex按CASE_INSENSITIVE逐条find一致；唯一差别是RE2J按Unicode折叠大小写，
+ * 极少数非ASCII字母（如开尔文符号）会多匹配
+ */
+final class RuleMatcher {
+
+    private static final int MIN_STEP_BUDGET = 10_000;
+
+    private static final String CASE_INSENSITIVE_FLAG = "(?i)";
+
+    private static final String ANY_LINE = ".*";
+
+    private static final String LITERAL_METACHARACTERS = "\\[](){}.*+?^$|";
+
+    /** java.util.regex的 "." 不匹配的行终止符 */
+    private static final String RE2_JAVA_DOT = "[^\\n\\r\\x{85}\\x{2028}\\x{2029}]";
+
+    /** java.util.regex的 "\\s" */
+    private static final String RE2_JAVA_SPACE = " \\t\\n\\x0B\\f\\r";
+
+    /** 在两种引擎中含义相同的字母转义 */
+    private static final String RE2_SAME_ESCAPES = "dDwWtnrf";
+
+    private enum Strategy {
+        /** 无模式，不匹配 */
+        EMPTY,
+        /** 模式无效 */
+        INVALID,
+        /** 字面量分支，结果为命中的字面量 */
+        LITERAL,
+        /** ".*字面量分支.*"，结果为包含字面量的整行 */
+        LINE,
+        /** RE2J线性时间匹配 */
+        RE2,
+        /** java.util.regex回溯匹配，限制步数 */
+        BACKTRACKING
+    }
+
+    private final List<Entry> entries;
+
+    private final Automaton automaton;
+
+    private final long stepsPerChar;
+
+    RuleMatcher(List<OptimizationRule> rules, long stepsPerChar) {
+        List<Entry> compiled = new ArrayList<>(rules.size());
+        for (OptimizationRule rule : rules) {
+            compiled.add(Entry.compile(rule));
+        }
+        this.entries = Collections.unmodifiableList(compiled);
+        this.automaton = new Automaton(compiled);
+        this.stepsPerChar = stepsPerChar;
+    }
+
+    /**
+     * 按规则顺序返回匹配结果；字面量规则共享一次扫描，每条正则规则单独计步，互不影响
+     */
+    List<Result> match(String content) {
+        List<List<int[]>> occurrences = automaton.scan(content);
+        long stepBudget = Math.max(MIN_STEP_BUDGET, stepsPerChar * (content.length() + 1L));
+
+        List<Result> results = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            switch (entry.strategy) {
+                case EMPTY:
+                    results.add(new Result(entry.rule, List.of(), null));
+                    break;
+                case INVALID:
+                    results.add(new Result(entry.rule, List.of(), "规则模式无效: " + entry.error));
+                    break;
+                case LITERAL:
+                    results.add(new Result(entry.rule, literalMatches(content, occurrences.get(i)), null));
+                    break;
+                case LINE:
+                    results.add(new Result(entry.rule, lineMatches(content, occurrences.get(i)), null));
+                    break;
+                case RE2:
+                    results.add(new Result(entry.rule, re2Matches(entry.re2Pattern, content), null));
+                    break;
+                default:
+                    results.add(backtrackingMatches(entry, content, stepBudget));
+                    break;
+            }
+        }
+        return results;
+    }
+
+    List<OptimizationRule> getRules() {
+        List<OptimizationRule> rules = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            rules.add(entry.rule);
+        }
+        return rules;
+    }
+
+    /**
+     * 各匹配方式的规则数量
+     */
+    Map<String, Integer> getStrategyCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Entry entry : entries) {
+            counts.merge(entry.strategy.name(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * 模拟find()：取最左的命中，同一位置按分支顺序取第一个，下一次从命中结尾继续
+     */
+    private static List<String> literalMatches(String content, List<int[]> occurrences) {
+        occurrences.sort(Comparator.<int[]>comparingInt(o -> o[0]).thenComparingInt(o -> o[1]));
+        List<String> matches = new ArrayList<>();
+        int position = 0;
+        for (int[] occurrence : occurrences) {
+            if (occurrence[0] >= position) {
+                position = occurrence[0] + occurrence[2];
+                matches.add(content.substring(occurrence[0], position));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * ".*X.*" 在每个包含X的行上匹配整行（"." 不匹配行终止符）
+     */
+    private static List<String> lineMatches(String content, List<int[]> occurrences) {
+        occurrences.sort(Comparator.comparingInt(o -> o[0]));
+        List<String> matches = new ArrayList<>();
+        int lineEnd = -1;
+        for (int[] occurrence : occurrences) {
+            if (occurrence[0] < lineEnd) {
+                continue;
+            }
+            int lineStart = occurrence[0];
+            while (lineStart > 0 && !isLineTerminator(content.charAt(lineStart - 1))) {
+                lineStart--;
+            }
+            lineEnd = occurrence[0] + occurrence[2];
+            while (lineEnd < content.length() && !isLineTerminator(content.charAt(lineEnd))) {
+                lineEnd++;
+            }
+            matches.add(content.substring(lineStart, lineEnd));
+        }
+        return matches;
+    }
+
+    private static List<String> re2Matches(com.google.re2j.Pattern pattern, String content) {
+        com.google.re2j.Matcher matcher = pattern.matcher(content);
+        List<String> matches = new ArrayList<>();
+        while (matcher.find()) {
+            matches.add(matcher.group());
+        }
+        return matches;
+    }
+
+    private static Result backtrackingMatches(Entry entry, String content, long stepBudget) {
+        Matcher matcher = entry.pattern.matcher(new BudgetedCharSequence(content, stepBudget));
+        List<String> matches = new ArrayList<>();
+        try {
+            while (matcher.find()) {
+                matches.add(matcher.group());
+            }
+            return new Result(entry.rule, matches, null);
+        } catch (StepBudgetExceededException e) {
+            return new Result(entry.rule, List.of(), "规则匹配超出步数预算（" + stepBudget + "），已中止");
+        } catch (StackOverflowError e) {
+            return new Result(entry.rule, List.of(), "规则匹配回溯过深，已中止");
+        }
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * CASE_INSENSITIVE未启用UNICODE_CASE时只忽略ASCII字母的大小写
+     */
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * 解析字面量分支："a|b"、"(a|b)"、"(?:a|b)"，支持转义的标点；含其他正则语法时返回null
+     */
+    static List<String> parseLiterals(String pattern) {
+        String body = pattern;
+        if (body.startsWith("(?:") && body.endsWith(")")) {
+            body = body.substring(3, body.length() - 1);
+        } else if (body.startsWith("(") && !body.startsWith("(?") && body.endsWith(")")) {
+            body = body.substring(1, body.length() - 1);
+        }
+
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= body.length() || Character.isLetterOrDigit(body.charAt(i + 1))) {
+                    return null;
+                }
+                literal.append(body.charAt(++i));
+            } else if (c == '|') {
+                if (literal.length() == 0) {
+                    return null;
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+            } else if (LITERAL_METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() == 0) {
+            return null;
+        }
+        literals.add(literal.toString());
+        return literals;
+    }
+
+    /**
+     * 把java.util.regex模式改写成语义相同的RE2J模式："." 改为排除全部行终止符，"\\s" 补上垂直制表符。
+     * "$"（RE2J只匹配文本末尾）、"\\b"（Java按Unicode字母判断边界）、内联标志、零宽断言、占有量词、
+     * 字符类交集与嵌套等写法无法等价改写，返回null
+     */
+    static String toRe2Syntax(String source) {
+        StringBuilder re2 = new StringBuilder(source.length() + 16);
+        boolean inClass = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            if (c == '\\') {
+                if (next == 0) {
+                    return null;
+                }
+                i++;
+                if (next == 's') {
+                    re2.append(inClass ? RE2_JAVA_SPACE : "[" + RE2_JAVA_SPACE + "]");
+                } else if (next == 'S' && !inClass) {
+                    re2.append("[^").append(RE2_JAVA_SPACE).append("]");
+                } else if (Character.isLetterOrDigit(next) && RE2_SAME_ESCAPES.indexOf(next) < 0) {
+                    return null;
+                } else {
+                    re2.append(c).append(next);
+                }
+            } else if (inClass) {
+                if (c == '[' || (c == '&' && next == '&')) {
+                    return null;
+                }
+                inClass = c != ']';
+                re2.append(c);
+            } else if (c == '[') {
+                inClass = true;
+                re2.append(c);
+                if (next == '^') {
+                    re2.append(next);
+                    i++;
+                }
+                if (i + 1 < source.length() && source.charAt(i + 1) == ']') {
+                    return null;
+                }
+            } else if (c == '.') {
+                re2.append(RE2_JAVA_DOT);
+            } else if (c == '$') {
+                return null;
+            } else if (c == '(' && next == '?') {
+                boolean leadingCaseFlag = i == 0 && source.startsWith(CASE_INSENSITIVE_FLAG);
+                if (!leadingCaseFlag && !source.startsWith("(?:", i)) {
+                    return null;
+                }
+                re2.append(c);
+            } else if ((c == '*' || c == '+' || c == '?' || c == '}') && next == '+') {
+                return null;
+            } else {
+                re2.append(c);
+            }
+        }
+        return inClass ? null : re2.toString();
+    }
+
+    /**
+     * 单条规则的编译结果
+     */
+    private static class Entry {
+        private final OptimizationRule rule;
+        private final Strategy strategy;
+        private final List<String> literals;
+        private final Pattern pattern;
+        private final com.google.re2j.Pattern re2Pattern;
+        private final String error;
+
+        private Entry(OptimizationRule rule, Strategy strategy, List<String> literals, Pattern pattern,
+                      com.google.re2j.Pattern re2Pattern, String error) {
+            this.rule = rule;
+            this.strategy = strategy;
+            this.literals = literals;
+            this.pattern = pattern;
+            this.re2Pattern = re2Pattern;
+            this.error = error;
+        }
+
+        static Entry compile(OptimizationRule rule) {
+            String source = rule.getPattern();
+            if (source == null || source.trim().isEmpty()) {
+                return new Entry(rule, Strategy.EMPTY, null, null, null, null);
+            }
+
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(source, Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                return new Entry(rule, Strategy.INVALID, null, null, null, e.getMessage());
+            }
+
+            String body = source.startsWith(CASE_INSENSITIVE_FLAG) ? source.substring(CASE_INSENSITIVE_FLAG.length()) : source;
+            List<String> literals = parseLiterals(body);
+            if (literals != null) {
+                return new Entry(rule, Strategy.LITERAL, literals, pattern, null, null);
+            }
+            if (body.length() > 2 * ANY_LINE.length() && body.startsWith(ANY_LINE) && body.endsWith(ANY_LINE)) {
+                String middle = body.substring(ANY_LINE.length(), body.length() - ANY_LINE.length());
+                List<String> lineLiterals = parseLiterals(middle);
+                // 未分组的 "a|b" 会把两侧的 ".*" 拆到不同分支，只接受单个字面量或整体分组
+                boolean grouped = middle.startsWith("(") || (lineLiterals != null && lineLiterals.size() == 1);
+                if (lineLiterals != null && grouped
+                        && lineLiterals.stream().noneMatch(literal -> literal.chars().anyMatch(c -> isLineTerminator((char) c)))) {
+                    return new Entry(rule, Strategy.LINE, lineLiterals, pattern, null, null);
+                }
+            }
+            String re2Source = toRe2Syntax(source);
+            if (re2Source != null) {
+                try {
+                    com.google.re2j.Pattern re2Pattern =
+                            com.google.re2j.Pattern.compile(re2Source, com.google.re2j.Pattern.CASE_INSENSITIVE);
+                    return new Entry(rule, Strategy.RE2, null, pattern, re2Pattern, null);
+                } catch (com.google.re2j.PatternSyntaxException e) {
+                    // RE2J不支持的语法，回退到java.util.regex
+                }
+            }
+            return new Entry(rule, Strategy.BACKTRACKING, null, pattern, null, null);
+        }
+    }
+
+    /**
+     * 所有字面量规则共享的Aho-Corasick自动机，命中记录为 {起始位置, 分支序号, 长度}
+     */
+    private static class Automaton {
+        private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+        private final List<List<int[]>> outputs = new ArrayList<>();
+        private final int[] fail;
+        private final int ruleCount;
+
+        Automaton(List<Entry> entries) {
+            this.ruleCount = entries.size();
+            addNode();
+            for (int ruleIndex = 0; ruleIndex < entries.size(); ruleIndex++) {
+                List<String> literals = entries.get(ruleIndex).literals;
+                if (literals == null) {
+                    continue;
+                }
+                for (int alternative = 0; alternative < literals.size(); alternative++) {
+                    String literal = literals.get(alternative);
+                    int node = 0;
+                    for (int i = 0; i < literal.length(); i++) {
+                        char c = fold(literal.charAt(i));
+                        Integer next = transitions.get(node).get(c);
+                        if (next == null) {
+                            next = addNode();
+                            transitions.get(node).put(c, next);
+                        }
+                        node = next;
+                    }
+                    outputs.get(node).add(new int[]{ruleIndex, alternative, literal.length()});
+                }
+            }
+
+            // 按层构建失败指针，并把失败节点的输出并入当前节点
+            fail = new int[transitions.size()];
+            Queue<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                for (Map.Entry<Character, Integer> edge : transitions.get(node).entrySet()) {
+                    int child = edge.getValue();
+                    int state = fail[node];
+                    while (state != 0 && !transitions.get(state).containsKey(edge.getKey())) {
+                        state = fail[state];
+                    }
+                    Integer target = node != 0 ? transitions.get(state).get(edge.getKey()) : null;
+                    fail[child] = target != null && target != child ? target : 0;
+                    outputs.get(child).addAll(outputs.get(fail[child]));
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int addNode() {
+            transitions.add(new HashMap<>());
+            outputs.add(new ArrayList<>());
+            return transitions.size() - 1;
+        }
+
+        /**
+         * 扫描一遍内容，按规则返回所有命中（包括重叠的命中）
+         */
+        List<List<int[]>> scan(String content) {
+            List<List<int[]>> occurrences = new ArrayList<>(ruleCount);
+            for (int i = 0; i < ruleCount; i++) {
+                occurrences.add(new ArrayList<>());
+            }
+            if (transitions.size() == 1) {
+                return occurrences;
+            }
+
+            int state = 0;
+            for (int i = 0; i < content.length(); i++) {
+                char c = fold(content.charAt(i));
+                while (state != 0 && !transitions.get(state).containsKey(c)) {
+                    state = fail[state];
+                }
+                state = transitions.get(state).getOrDefault(c, 0);
+                for (int[] output : outputs.get(state)) {
+                    occurrences.get(output[0]).add(new int[]{i - output[2] + 1, output[1], output[2]});
+                }
+            }
+            return occurrences;
+        }
+    }
+
+    /**
+     * 统计java.util.regex读取字符的次数，超出预算时中止匹配
+     */
+    private static class BudgetedCharSequence implements CharSequence {
+        private final String content;
+        private final long budget;
+        private long steps;
+
+        BudgetedCharSequence(String content, long budget) {
+            this.content = content;
+            this.budget = budget;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++steps > budget) {
+                throw new StepBudgetExceededException();
+            }
+            return content.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return content.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return content.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return content;
+        }
+    }
+
+    private static class StepBudgetExceededException extends RuntimeException {
+        StepBudgetExceededException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 单条规则的匹配结果
+     */
+    static class Result {
+        private final OptimizationRule rule;
+        private final List<String> matches;
+        private final String error;
+
+        Result(OptimizationRule rule, List<String> matches, String error) {
+            this.rule = rule;
+            this.matches = matches;
+            this.error = error;
+        }
+
+        OptimizationRule getRule() { return rule; }
+        List<String> getMatches() { return matches; }
+        String getError() { return error; }
+    }
+}
@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -30,6 +31,11 @@ public class RuleVersionControlService {
     @Autowired
     private OptimizationRuleRepository ruleRepository;
 
+    // 规则引擎依赖本服务记录版本，延迟注入避免循环依赖
+    @Lazy
+    @Autowired
+    private RuleEngineService ruleEngineService;
+
     /**
      * 创建规则新版本
      */
@@ -128,6 +134,7 @@ public class RuleVersionControlService {
 
             // 保存恢复后的规则
             OptimizationRule restoredRule = ruleRepository.save(currentRule);
+            ruleEngineService.refreshRules();
 
             logger.info("规则恢复成功: {}, 版本: {}", ruleId, version);
             return restoredRule;
@@ -0,0 +1,367 @@
+package com.cvagent.service;
+
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.propagation.TraceContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存链路存储
+ * 作为Brave的SpanHandler接收结束的span，按traceId分组保存最近的链路（数量有界，最早的先淘汰）；
+ * 查询时计算每个span的自身耗时（扣除子span覆盖的时间），按阶段汇总出一次请求的耗时分布
+ */
+@Service
+public class TraceStoreService extends SpanHandler {
+
+    @Value("${tracing.store.max-traces:500}")
+    private int maxTraces;
+
+    @Value("${tracing.store.max-spans-per-trace:2000}")
+    private int maxSpansPerTrace;
+
+    private final Map<String, StoredTrace> traces = new ConcurrentHashMap<>();
+
+    // 链路的到达顺序，用于淘汰最早的链路
+    private final ConcurrentLinkedQueue<String> arrivalOrder = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder spansRecorded = new LongAdder();
+    private final LongAdder spansDropped = new LongAdder();
+    private final LongAdder tracesEvicted = new LongAdder();
+
+    @Override
+    public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+        if (cause != Cause.FINISHED || span.traceId() == null) {
+            return true;
+        }
+
+        StoredTrace trace = traces.get(span.traceId());
+        if (trace == null) {
+            StoredTrace created = new StoredTrace();
+            trace = traces.putIfAbsent(span.traceId(), created);
+            if (trace == null) {
+                trace = created;
+                arrivalOrder.add(span.traceId());
+                evictOldest();
+            }
+        }
+
+        if (trace.add(new SpanRecord(span), maxSpansPerTrace)) {
+            spansRecorded.increment();
+        } else {
+            spansDropped.increment();
+        }
+        return true;
+    }
+
+    /**
+     * 最近的链路摘要，按开始时间倒序
+     *
+     * @param minDurationMillis 只返回总耗时不小于该值的链路
+     * @param name              根span名称包含该字符串时才返回，为空时不过滤
+     */
+    public List<Map<String, Object>> getRecentTraces(long minDurationMillis, String name, int limit) {
+        List<TraceSummary> summaries = new ArrayList<>();
+        traces.forEach((traceId, trace) -> {
+            List<SpanRecord> spans = trace.snapshot();
+            if (spans.isEmpty()) {
+                return;
+            }
+            TraceSummary summary = new TraceSummary(traceId, spans);
+            if (summary.durationMicros >= minDurationMillis * 1000
+                    && (name == null || name.isEmpty() || summary.root.name.contains(name))) {
+                summaries.add(summary);
+            }
+        });
+
+        summaries.sort(Comparator.comparingLong((TraceSummary summary) -> summary.startMicros).reversed());
+        return summaries.stream().limit(limit).map(TraceSummary::toMap).toList();
+    }
+
+    /**
+     * 单条链路：按开始时间排列的span树（含层级和自身耗时）以及按阶段的耗时分布
+     */
+    public Optional<Map<String, Object>> getTrace(String traceId) {
+        StoredTrace trace = traces.get(traceId);
+        List<SpanRecord> spans = trace != null ? trace.snapshot() : List.of();
+        if (spans.isEmpty()) {
+            return Optional.empty();
+        }
+
+        TraceSummary summary = new TraceSummary(traceId, spans);
+        Map<String, Long> selfTimes = selfTimes(spans);
+        Map<String, Integer> depths = depths(spans);
+
+        List<Map<String, Object>> spanViews = new ArrayList<>();
+        spans.stream().sorted(Comparator.comparingLong(span -> span.startMicros)).forEach(span -> {
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("spanId", span.spanId);
+            view.put("parentId", span.parentId);
+            view.put("name", span.name);
+            view.put("kind", span.kind);
+            view.put("depth", depths.getOrDefault(span.spanId, 0));
+            view.put("offsetMillis", (span.startMicros - summary.startMicros) / 1000.0);
+            view.put("durationMillis", span.durationMicros / 1000.0);
+            view.put("selfMillis", selfTimes.getOrDefault(span.spanId, 0L) / 1000.0);
+            view.put("tags", span.tags);
+            if (span.error != null) {
+                view.put("error", span.error);
+            }
+            spanViews.add(view);
+        });
+
+        Map<String, Object> result = summary.toMap();
+        result.put("stages", stageBreakdown(List.of(spans), summary.durationMicros));
+        result.put("spans", spanViews);
+        return Optional.of(result);
+    }
+
+    /**
+     * 所有保存的链路中按阶段汇总的耗时分布，按自身耗时倒序，用于找出最值得优化的阶段
+     *
+     * @param name 只统计根span名称包含该字符串的链路，为空时统计全部
+     */
+    public Map<String, Object> getStageBreakdown(String name) {
+        List<List<SpanRecord>> matched = new ArrayList<>();
+        long totalMicros = 0;
+        for (StoredTrace trace : traces.values()) {
+            List<SpanRecord> spans = trace.snapshot();
+            if (spans.isEmpty()) {
+                continue;
+            }
+            TraceSummary summary = new TraceSummary(null, spans);
+            if (name == null || name.isEmpty() || summary.root.name.contains(name)) {
+                matched.add(spans);
+                totalMicros += summary.durationMicros;
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("traces", matched.size());
+        result.put("totalMillis", totalMicros / 1000.0);
+        result.put("stages", stageBreakdown(matched, totalMicros));
+        return result;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("traces", traces.size());
+        stats.put("maxTraces", maxTraces);
+        stats.put("spansRecorded", spansRecorded.sum());
+        stats.put("spansDropped", spansDropped.sum());
+        stats.put("tracesEvicted", tracesEvicted.sum());
+        return stats;
+    }
+
+    private void evictOldest() {
+        while (traces.size() > maxTraces) {
+            String oldest = arrivalOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            if (traces.remove(oldest) != null) {
+                tracesEvicted.increment();
+            }
+        }
+    }
+
+    /**
+     * 按span名称汇总次数、总耗时和自身耗时，自身耗时之和等于各链路被span覆盖的时间
+     */
+    private static List<Map<String, Object>> stageBreakdown(List<List<SpanRecord>> traceSpans, long totalMicros) {
+        Map<String, long[]> stages = new HashMap<>();
+        for (List<SpanRecord> spans : traceSpans) {
+            Map<String, Long> selfTimes = selfTimes(spans);
+            for (SpanRecord span : spans) {
+                long[] stage = stages.computeIfAbsent(span.name, key -> new long[4]);
+                stage[0]++;
+                stage[1] += span.durationMicros;
+                stage[2] += selfTimes.getOrDefault(span.spanId, 0L);
+                stage[3] = Math.max(stage[3], span.durationMicros);
+            }
+        }
+
+        List<Map<String, Object>> breakdown = new ArrayList<>();
+        stages.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue()[2], a.getValue()[2]))
+                .forEach(entry -> {
+                    long[] stage = entry.getValue();
+                    Map<String, Object> view = new LinkedHashMap<>();
+                    view.put("name", entry.getKey());
+                    view.put("count", stage[0]);
+                    view.put("totalMillis", stage[1] / 1000.0);
+                    view.put("selfMillis", stage[2] / 1000.0);
+                    view.put("averageMillis", stage[1] / 1000.0 / stage[0]);
+                    view.put("maxMillis", stage[3] / 1000.0);
+                    view.put("selfPercent", totalMicros > 0 ? stage[2] * 100.0 / totalMicros : 0.0);
+                    breakdown.add(view);
+                });
+        return breakdown;
+    }
+
+    /**
+     * 每个span的自身耗时：自身时长减去子span在其时间范围内覆盖的时长（并发的子span按并集计算）
+     */
+    static Map<String, Long> selfTimes(List<SpanRecord> spans) {
+        Map<String, List<SpanRecord>> children = new HashMap<>();
+        for (SpanRecord span : spans) {
+            if (span.parentId != null) {
+                children.computeIfAbsent(span.parentId, key -> new ArrayList<>()).add(span);
+            }
+        }
+
+        Map<String, Long> selfTimes = new HashMap<>();
+        for (SpanRecord span : spans) {
+            long start = span.startMicros;
+            long end = span.startMicros + span.durationMicros;
+            List<SpanRecord> spanChildren = new ArrayList<>(children.getOrDefault(span.spanId, List.of()));
+            spanChildren.sort(Comparator.comparingLong(child -> child.startMicros));
+
+            long covered = 0;
+            long cursor = start;
+            for (SpanRecord child : spanChildren) {
+                long childStart = Math.max(child.startMicros, cursor);
+                long childEnd = Math.min(child.startMicros + child.durationMicros, end);
+                if (childEnd > childStart) {
+                    covered += childEnd - childStart;
+                    cursor = childEnd;
+                }
+            }
+            selfTimes.put(span.spanId, Math.max(0, span.durationMicros - covered));
+        }
+        return selfTimes;
+    }
+
+    private static Map<String, Integer> depths(List<SpanRecord> spans) {
+        Map<String, String> parents = new HashMap<>();
+        spans.forEach(span -> parents.put(span.spanId, span.parentId));
+
+        Map<String, Integer> depths = new HashMap<>();
+        for (SpanRecord span : spans) {
+            int depth = 0;
+            String parent = span.parentId;
+            while (parent != null && parents.containsKey(parent) && depth < spans.size()) {
+                depth++;
+                parent = parents.get(parent);
+            }
+            depths.put(span.spanId, depth);
+        }
+        return depths;
+    }
+
+    /**
+     * 一条链路已结束的span
+     */
+    private static class StoredTrace {
+        private final List<SpanRecord> spans = new ArrayList<>();
+
+        synchronized boolean add(SpanRecord span, int maxSpans) {
+            if (spans.size() >= maxSpans) {
+                return false;
+            }
+            spans.add(span);
+            return true;
+        }
+
+        synchronized List<SpanRecord> snapshot() {
+            return new ArrayList<>(spans);
+        }
+    }
+
+    /**
+     * 结束的span中查询需要的字段，时间单位为微秒
+     */
+    static class SpanRecord {
+        private final String spanId;
+        private final String parentId;
+        private final String name;
+        private final String kind;
+        private final long startMicros;
+        private final long durationMicros;
+        private final Map<String, String> tags;
+        private final String error;
+
+        SpanRecord(MutableSpan span) {
+            this(span.id(), span.parentId(), span.name() != null ? span.name() : "unknown",
+                    span.kind() != null ? span.kind().name() : null, span.startTimestamp(),
+                    Math.max(0, span.finishTimestamp() - span.startTimestamp()), span.tags(),
+                    span.error() != null ? span.error().toString() : span.tag("error"));
+        }
+
+        SpanRecord(String spanId, String parentId, String name, String kind, long startMicros, long durationMicros,
+                   Map<String, String> tags, String error) {
+            this.spanId = spanId;
+            this.parentId = parentId;
+            this.name = name;
+            this.kind = kind;
+            this.startMicros = startMicros;
+            this.durationMicros = durationMicros;
+            this.tags = tags;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 链路摘要：根span为没有父span（或父span不在本进程）中最早开始的一个
+     */
+    private static class TraceSummary {
+        private final String traceId;
+        private final SpanRecord root;
+        private final long startMicros;
+        private final long durationMicros;
+        private final int spanCount;
+        private final boolean error;
+
+        TraceSummary(String traceId, List<SpanRecord> spans) {
+            Map<String, SpanRecord> byId = new HashMap<>();
+            spans.forEach(span -> byId.put(span.spanId, span));
+
+            SpanRecord rootSpan = null;
+            long start = Long.MAX_VALUE;
+            long end = Long.MIN_VALUE;
+            boolean failed = false;
+            for (SpanRecord span : spans) {
+                start = Math.min(start, span.startMicros);
+                end = Math.max(end, span.startMicros + span.durationMicros);
+                failed |= span.error != null;
+                boolean isRoot = span.parentId == null || !byId.containsKey(span.parentId);
+                if (isRoot && (rootSpan == null || span.startMicros < rootSpan.startMicros)) {
+                    rootSpan = span;
+                }
+            }
+
+            this.traceId = traceId;
+            this.root = rootSpan != null ? rootSpan : spans.get(0);
+            this.startMicros = start;
+            this.durationMicros = end - start;
+            this.spanCount = spans.size();
+            this.error = failed;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("traceId", traceId);
+            map.put("name", root.name);
+            map.put("startTime", LocalDateTime.ofInstant(
+                    Instant.ofEpochSecond(0, startMicros * 1000), ZoneId.systemDefault()));
+            map.put("durationMillis", durationMicros / 1000.0);
+            map.put("spanCount", spanCount);
+            map.put("error", error);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.cvagent.service.ai;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AI响应元数据上下文
+ * 控制器在调用前开始收集，缓存等环节把命中方式、相似度等信息写入当前线程，随响应返回给调用方
+ */
+public final class AiResponseMetadata implements AutoCloseable {
+
+    private static final ThreadLocal<AiResponseMetadata> CURRENT = new ThreadLocal<>();
+
+    private final AiResponseMetadata previous;
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    private AiResponseMetadata(AiResponseMetadata previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * 开始收集当前线程上的响应元数据，结束时需关闭返回的对象
+     */
+    public static AiResponseMetadata start() {
+        AiResponseMetadata metadata = new AiResponseMetadata(CURRENT.get());
+        CURRENT.set(metadata);
+        return metadata;
+    }
+
+    /**
+     * 写入一项元数据，当前线程没有在收集时忽略
+     */
+    public static void put(String key, Object value) {
+        AiResponseMetadata metadata = CURRENT.get();
+        if (metadata != null) {
+            metadata.values.put(key, value);
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        return new LinkedHashMap<>(values);
+    }
+
+    @Override
+    public void close() {
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+    }
+}
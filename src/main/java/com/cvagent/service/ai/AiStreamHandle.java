@@ -0,0 +1,18 @@
+package com.cvagent.service.ai;
+
+/**
+ * 进行中的流式请求，客户端断开或超时时取消
+ */
+@FunctionalInterface
+public interface AiStreamHandle {
+
+    /**
+     * 已经结束的请求（缓存命中、被拒绝等）使用的空句柄
+     */
+    AiStreamHandle NONE = () -> { };
+
+    /**
+     * 取消请求：释放占用的许可并停止转发后续输出，已结束的请求调用无效果
+     */
+    void cancel();
+}
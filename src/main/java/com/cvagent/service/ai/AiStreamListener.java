@@ -0,0 +1,10 @@
+package com.cvagent.service.ai;
+
+/**
+ * 流式AI响应回调
+ */
+public interface AiStreamListener {
+    void onToken(String token);
+    void onComplete(String response);
+    void onError(Throwable error);
+}
@@ -0,0 +1,103 @@
+package com.cvagent.service.ai;
+
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.function.Supplier;
+
+/**
+ * AI调用用量上下文
+ * 在发起调用的线程上收集模型返回的令牌用量，并为异步执行线程传递发起请求的用户ID
+ */
+public final class AiUsageContext {
+
+    private static final ThreadLocal<Capture> CURRENT = new ThreadLocal<>();
+
+    private static final ThreadLocal<String> DELEGATED_USER = new ThreadLocal<>();
+
+    private AiUsageContext() {
+    }
+
+    /**
+     * 开始收集当前线程上的模型用量，结束时需关闭返回的Capture
+     */
+    public static Capture start() {
+        Capture capture = new Capture(CURRENT.get());
+        CURRENT.set(capture);
+        return capture;
+    }
+
+    /**
+     * 记录一次模型响应的用量，当前线程没有在收集时忽略
+     */
+    public static void record(String modelName, TokenUsage tokenUsage) {
+        Capture capture = CURRENT.get();
+        if (capture != null) {
+            capture.add(modelName, tokenUsage);
+        }
+    }
+
+    /**
+     * 以指定用户的身份在当前线程执行（用于异步执行线程上没有安全上下文的场景）
+     */
+    public static <T> T callAs(String userId, Supplier<T> call) {
+        String previous = DELEGATED_USER.get();
+        DELEGATED_USER.set(userId);
+        try {
+            return call.get();
+        } finally {
+            if (previous != null) {
+                DELEGATED_USER.set(previous);
+            } else {
+                DELEGATED_USER.remove();
+            }
+        }
+    }
+
+    public static String delegatedUser() {
+        return DELEGATED_USER.get();
+    }
+
+    /**
+     * 一次调用收集到的用量
+     */
+    public static final class Capture implements AutoCloseable {
+        private final Capture previous;
+        private String modelName;
+        private int inputTokens;
+        private int outputTokens;
+        private boolean recorded;
+
+        private Capture(Capture previous) {
+            this.previous = previous;
+        }
+
+        private void add(String model, TokenUsage tokenUsage) {
+            modelName = model;
+            if (tokenUsage != null) {
+                inputTokens += tokenUsage.inputTokenCount() != null ? tokenUsage.inputTokenCount() : 0;
+                outputTokens += tokenUsage.outputTokenCount() != null ? tokenUsage.outputTokenCount() : 0;
+                recorded = true;
+            }
+        }
+
+        public String getModelName() {
+            return modelName;
+        }
+
+        /**
+         * 收集到的令牌用量，没有模型响应时返回null
+         */
+        public TokenUsage getTokenUsage() {
+            return recorded ? new TokenUsage(inputTokens, outputTokens) : null;
+        }
+
+        @Override
+        public void close() {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+}
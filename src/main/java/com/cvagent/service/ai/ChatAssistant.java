@@ -1,8 +1,11 @@
 package com.cvagent.service.ai;
 
+import dev.langchain4j.service.TokenStream;
+
 /**
  * 聊天接口
  */
 public interface ChatAssistant {
     String chat(String message);
+    TokenStream chatStream(String message);
 }
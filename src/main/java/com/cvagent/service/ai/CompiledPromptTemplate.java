@@ -0,0 +1,107 @@
+package com.cvagent.service.ai;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 预编译的提示词模板
+ * 编译时把模板切分为字面量片段和占位符，渲染时单次遍历写入预估好容量的缓冲区；
+ * 没有提供值的占位符原样保留，值为null时替换为空串
+ */
+public final class CompiledPromptTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([A-Za-z_][A-Za-z0-9_.-]*)}");
+
+    private final String name;
+    private final int version;
+    private final String source;
+    // literals比placeholders多一个：literals[0] placeholders[0] literals[1] ... literals[n]
+    private final String[] literals;
+    private final String[] placeholders;
+    private final int literalLength;
+    private final List<String> variables;
+
+    private CompiledPromptTemplate(String name, int version, String source, String[] literals, String[] placeholders) {
+        this.name = name;
+        this.version = version;
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+
+        LinkedHashSet<String> distinct = new LinkedHashSet<>();
+        Collections.addAll(distinct, placeholders);
+        this.variables = List.copyOf(distinct);
+    }
+
+    /**
+     * 编译模板
+     */
+    public static CompiledPromptTemplate compile(String name, int version, String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        int last = 0;
+        while (matcher.find()) {
+            literals.add(source.substring(last, matcher.start()));
+            placeholders.add(matcher.group(1));
+            last = matcher.end();
+        }
+        literals.add(source.substring(last));
+        return new CompiledPromptTemplate(name, version, source,
+                literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /**
+     * 渲染模板
+     */
+    public String render(Map<String, ?> values) {
+        String[] rendered = new String[placeholders.length];
+        int capacity = literalLength;
+        for (int i = 0; i < placeholders.length; i++) {
+            String key = placeholders[i];
+            if (values.containsKey(key)) {
+                Object value = values.get(key);
+                rendered[i] = value != null ? value.toString() : "";
+            } else {
+                rendered[i] = "{" + key + "}";
+            }
+            capacity += rendered[i].length();
+        }
+
+        StringBuilder result = new StringBuilder(capacity);
+        for (int i = 0; i < placeholders.length; i++) {
+            result.append(literals[i]).append(rendered[i]);
+        }
+        return result.append(literals[placeholders.length]).toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * 模板中的变量名（去重，按首次出现顺序）
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+}
@@ -0,0 +1,72 @@
+package com.cvagent.service.ai;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 用于压测和性能测试的模拟聊天模型
+ * 按设定的延迟分布阻塞后返回确定性回答；录制模式下透传给真实模型并写入录制带
+ */
+public class FakeChatModel implements ChatModel {
+
+    private final String modelName;
+    private final FakeLlmBehavior behavior;
+    private final ChatModel delegate;
+
+    public FakeChatModel(String modelName, FakeLlmBehavior behavior, ChatModel delegate) {
+        this.modelName = modelName;
+        this.behavior = behavior;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest request) {
+        if (behavior.getMode() == FakeLlmBehavior.Mode.RECORD) {
+            return recordCall(request);
+        }
+
+        PromptCassette.Entry answer = behavior.answer(modelName, request);
+        sleep(answer.getLatencyMillis());
+        if (behavior.shouldFail()) {
+            throw new RuntimeException("模拟模型调用失败: " + modelName);
+        }
+        return ChatResponse.builder()
+                .aiMessage(AiMessage.from(answer.getResponse()))
+                .modelName(modelName)
+                .tokenUsage(new TokenUsage(answer.getInputTokens(), answer.getOutputTokens()))
+                .finishReason(FinishReason.STOP)
+                .build();
+    }
+
+    private ChatResponse recordCall(ChatRequest request) {
+        long startTime = System.currentTimeMillis();
+        ChatResponse response = delegate.chat(request);
+        String text = response.aiMessage().text();
+        TokenUsage usage = response.tokenUsage();
+        behavior.record(modelName, request, new PromptCassette.Entry(text,
+                usage != null && usage.inputTokenCount() != null
+                        ? usage.inputTokenCount() : PromptTokenEstimator.estimate(PromptCassette.promptText(request)),
+                usage != null && usage.outputTokenCount() != null
+                        ? usage.outputTokenCount() : PromptTokenEstimator.estimate(text),
+                System.currentTimeMillis() - startTime));
+        return response;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("模拟模型调用被中断");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.cvagent.service.ai;
+
+import dev.langchain4j.model.chat.request.ChatRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模拟模型的行为设定，由所有模拟模型共享
+ * GENERATE按请求内容生成确定性的模板化回答；REPLAY优先回放录制带，未录制的请求退回生成；
+ * RECORD调用真实模型并把结果写入录制带
+ */
+public class FakeLlmBehavior {
+
+    public enum Mode {
+        GENERATE, REPLAY, RECORD
+    }
+
+    private static final String[] PHRASES = {
+            "建议在项目经历中突出与目标职位相关的技术栈。",
+            "使用量化的成果描述工作贡献，例如性能提升的百分比。",
+            "技能部分按熟练程度排序，并与职位描述中的关键词保持一致。",
+            "工作经历采用“背景-行动-结果”的结构描述。",
+            "删除与目标职位无关的经历，保持简历简洁。",
+            "在个人总结中用一两句话概括核心竞争力。",
+            "补充参与过的大型项目规模，例如用户量和并发量。",
+            "统一时间格式和标点符号，保持排版整洁。"
+    };
+
+    private final Mode mode;
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final int outputTokens;
+    private final CompiledPromptTemplate responseTemplate;
+    private final long tokenIntervalMillis;
+    private final int chunkChars;
+    private final PromptCassette cassette;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder replayHits = new LongAdder();
+    private final LongAdder replayMisses = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+
+    public FakeLlmBehavior(Mode mode, LatencyDistribution latency, double errorRate, int outputTokens,
+                           String responseTemplate, long tokenIntervalMillis, int chunkChars, PromptCassette cassette) {
+        if (mode != Mode.GENERATE && cassette == null) {
+            throw new IllegalArgumentException(mode + " 模式需要配置录制带路径");
+        }
+        this.mode = mode;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.outputTokens = outputTokens;
+        this.responseTemplate = CompiledPromptTemplate.compile("fake-response", 0, responseTemplate);
+        this.tokenIntervalMillis = tokenIntervalMillis;
+        this.chunkChars = Math.max(1, chunkChars);
+        this.cassette = cassette;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fake-llm-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 给出一次模拟调用的回答、令牌数和延迟：回放模式下优先使用录制的记录
+     */
+    public PromptCassette.Entry answer(String modelName, ChatRequest request) {
+        calls.increment();
+        if (mode == Mode.REPLAY) {
+            Optional<PromptCassette.Entry> entry = cassette.find(modelName, request);
+            if (entry.isPresent()) {
+                replayHits.increment();
+                return entry.get();
+            }
+            replayMisses.increment();
+        }
+
+        String prompt = PromptCassette.promptText(request);
+        String response = generate(modelName, prompt);
+        return new PromptCassette.Entry(response, PromptTokenEstimator.estimate(prompt),
+                PromptTokenEstimator.estimate(response), latency.sampleMillis());
+    }
+
+    /**
+     * 按错误率决定本次调用是否模拟失败
+     */
+    public boolean shouldFail() {
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            injectedErrors.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public void record(String modelName, ChatRequest request, PromptCassette.Entry entry) {
+        cassette.record(modelName, request, entry);
+        recorded.increment();
+    }
+
+    /**
+     * 以请求内容为随机种子生成回答，相同的请求总是得到相同的回答
+     */
+    String generate(String modelName, String prompt) {
+        Random random = new Random(31L * modelName.hashCode() + prompt.hashCode());
+        StringBuilder body = new StringBuilder();
+        int tokens = 0;
+        int index = 1;
+        while (tokens < outputTokens) {
+            String sentence = index++ + ". " + PHRASES[random.nextInt(PHRASES.length)] + "\n";
+            body.append(sentence);
+            tokens += PromptTokenEstimator.estimate(sentence);
+        }
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("model", modelName);
+        values.put("promptTokens", PromptTokenEstimator.estimate(prompt));
+        values.put("body", body.toString().trim());
+        return responseTemplate.render(values);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getTokenIntervalMillis() {
+        return tokenIntervalMillis;
+    }
+
+    public int getChunkChars() {
+        return chunkChars;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 获取模拟调用统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", mode);
+        stats.put("calls", calls.sum());
+        stats.put("replayHits", replayHits.sum());
+        stats.put("replayMisses", replayMisses.sum());
+        stats.put("injectedErrors", injectedErrors.sum());
+        stats.put("recorded", recorded.sum());
+        stats.put("cassetteSize", cassette != null ? cassette.size() : 0);
+        return stats;
+    }
+}
@@ -0,0 +1,103 @@
+package com.cvagent.service.ai;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用于压测和性能测试的模拟流式模型
+ * 按延迟分布等待首段输出，之后按固定间隔逐段输出；录制模式下透传给真实模型并写入录制带
+ */
+public class FakeStreamingChatModel implements StreamingChatModel {
+
+    private final String modelName;
+    private final FakeLlmBehavior behavior;
+    private final StreamingChatModel delegate;
+
+    public FakeStreamingChatModel(String modelName, FakeLlmBehavior behavior, StreamingChatModel delegate) {
+        this.modelName = modelName;
+        this.behavior = behavior;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+        if (behavior.getMode() == FakeLlmBehavior.Mode.RECORD) {
+            recordCall(request, handler);
+            return;
+        }
+
+        PromptCassette.Entry answer = behavior.answer(modelName, request);
+        boolean fail = behavior.shouldFail();
+        behavior.getScheduler().schedule(() -> {
+            if (fail) {
+                handler.onError(new RuntimeException("模拟模型调用失败: " + modelName));
+            } else {
+                emit(answer, 0, handler);
+            }
+        }, Math.max(0, answer.getLatencyMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private void emit(PromptCassette.Entry answer, int offset, StreamingChatResponseHandler handler) {
+        String text = answer.getResponse();
+        if (offset >= text.length()) {
+            handler.onCompleteResponse(ChatResponse.builder()
+                    .aiMessage(AiMessage.from(text))
+                    .modelName(modelName)
+                    .tokenUsage(new TokenUsage(answer.getInputTokens(), answer.getOutputTokens()))
+                    .finishReason(FinishReason.STOP)
+                    .build());
+            return;
+        }
+
+        int end = Math.min(text.length(), offset + behavior.getChunkChars());
+        try {
+            handler.onPartialResponse(text.substring(offset, end));
+        } catch (RuntimeException e) {
+            handler.onError(e);
+            return;
+        }
+        behavior.getScheduler().schedule(() -> emit(answer, end, handler),
+                behavior.getTokenIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void recordCall(ChatRequest request, StreamingChatResponseHandler handler) {
+        long startTime = System.currentTimeMillis();
+        delegate.chat(request, new StreamingChatResponseHandler() {
+            // 流式调用录制首段输出的延迟，回放时按此延迟开始输出
+            private volatile long firstTokenMillis = -1;
+
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                if (firstTokenMillis < 0) {
+                    firstTokenMillis = System.currentTimeMillis() - startTime;
+                }
+                handler.onPartialResponse(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse response) {
+                String text = response.aiMessage().text();
+                TokenUsage usage = response.tokenUsage();
+                behavior.record(modelName, request, new PromptCassette.Entry(text,
+                        usage != null && usage.inputTokenCount() != null
+                                ? usage.inputTokenCount() : PromptTokenEstimator.estimate(PromptCassette.promptText(request)),
+                        usage != null && usage.outputTokenCount() != null
+                                ? usage.outputTokenCount() : PromptTokenEstimator.estimate(text),
+                        firstTokenMillis >= 0 ? firstTokenMillis : System.currentTimeMillis() - startTime));
+                handler.onCompleteResponse(response);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                handler.onError(error);
+            }
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package com.cvagent.service.ai;
+
+/**
+ * 对冲请求策略
+ * minDelayMillis为对冲延迟下限，minSamples为计算p95所需的最少样本数，
+ * maxRatio为对冲请求占总请求数的比例上限，防止故障时对冲放大流量
+ */
+public class HedgePolicy {
+
+    private final boolean enabled;
+    private final long minDelayMillis;
+    private final int minSamples;
+    private final double maxRatio;
+
+    public HedgePolicy(boolean enabled, long minDelayMillis, int minSamples, double maxRatio) {
+        this.enabled = enabled;
+        this.minDelayMillis = minDelayMillis;
+        this.minSamples = minSamples;
+        this.maxRatio = maxRatio;
+    }
+
+    public static HedgePolicy disabled() {
+        return new HedgePolicy(false, 0, 0, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMinDelayMillis() {
+        return minDelayMillis;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    public double getMaxRatio() {
+        return maxRatio;
+    }
+}
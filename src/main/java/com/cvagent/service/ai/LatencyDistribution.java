@@ -0,0 +1,41 @@
+package com.cvagent.service.ai;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 模拟模型的响应延迟分布
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    /**
+     * 抽取一次延迟（毫秒）
+     */
+    long sampleMillis();
+
+    /**
+     * 固定延迟
+     */
+    static LatencyDistribution fixed(long millis) {
+        return () -> millis;
+    }
+
+    /**
+     * 对数正态分布：中位数为medianMillis，sigma越大长尾越重
+     */
+    static LatencyDistribution lognormal(double medianMillis, double sigma) {
+        double mu = Math.log(Math.max(medianMillis, 1));
+        return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * 从实测样本中随机抽取，样本为空时退化为0延迟
+     */
+    static LatencyDistribution empirical(long[] samples) {
+        if (samples.length == 0) {
+            return fixed(0);
+        }
+        long[] copy = samples.clone();
+        return () -> copy[ThreadLocalRandom.current().nextInt(copy.length)];
+    }
+}
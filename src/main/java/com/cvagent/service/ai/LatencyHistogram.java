@@ -0,0 +1,148 @@
+package com.cvagent.service.ai;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁延迟直方图（毫秒）
+ * 按HDR直方图的对数-线性方式分桶：128ms以内每毫秒一个桶，之后每个2的幂区间再均分为64个桶，
+ * 分位数的相对误差不超过1/64；超过上限（约70分钟）的值计入最后一个桶，最大值单独精确记录
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int MAX_VALUE_BITS = 22;
+    private static final long MAX_TRACKED_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    static final int BUCKET_COUNT = bucketIndex(MAX_TRACKED_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 当前分布的快照
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.add(this);
+        return snapshot;
+    }
+
+    /**
+     * 值所在的桶序号，超过上限的值计入最后一个桶
+     */
+    public static int bucketIndex(long value) {
+        value = Math.min(Math.max(value, 0), MAX_TRACKED_VALUE);
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * 桶内的最大值，分位数按桶上界报告
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * 直方图快照，可以合并多个直方图（例如滑动窗口的各个时间片）
+     */
+    public static final class Snapshot {
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long count;
+        private long sum;
+        private long max;
+
+        public void add(LatencyHistogram histogram) {
+            long added = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long bucket = histogram.counts.get(i);
+                counts[i] += bucket;
+                added += bucket;
+            }
+            // 以桶计数为准，避免与并发写入的总数不一致
+            count += added;
+            sum += histogram.sum.sum();
+            max = Math.max(max, histogram.max.get());
+        }
+
+        /**
+         * 合并外部保存的桶计数（例如按分钟汇总的文档），序号越界的桶忽略
+         */
+        public void addBucket(int index, long bucketCount) {
+            if (index >= 0 && index < BUCKET_COUNT) {
+                counts[index] += bucketCount;
+                count += bucketCount;
+            }
+        }
+
+        public void addTotals(long latencySum, long latencyMax) {
+            sum += latencySum;
+            max = Math.max(max, latencyMax);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0.0;
+        }
+
+        /**
+         * 分位数（0-100），没有数据时返回0
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
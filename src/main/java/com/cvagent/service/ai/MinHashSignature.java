@@ -0,0 +1,152 @@
+package com.cvagent.service.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 文本的MinHash签名
+ * 文本先规范化（大小写、空白、标点，邮箱和长数字串替换为占位符），再切成字符4-gram集合；
+ * 签名相同位置取值相等的比例即两段文本4-gram集合Jaccard相似度的估计。
+ * 签名按16个区段、每段8个取值做LSH分桶，相似度0.9的文本几乎必然落入同一个桶，0.5的文本约6%
+ */
+public final class MinHashSignature {
+
+    public static final int NUM_HASHES = 128;
+    public static final int BANDS = 16;
+    public static final int ROWS = NUM_HASHES / BANDS;
+
+    private static final int SHINGLE_SIZE = 4;
+
+    private static final Pattern EMAIL = Pattern.compile("[\\w.+-]+@[\\w-]+(\\.[\\w-]+)+");
+    private static final Pattern LONG_NUMBER = Pattern.compile("\\+?\\d[\\d\\s-]{5,}\\d");
+    private static final Pattern NON_CONTENT = Pattern.compile("[^\\p{L}\\p{N}\\u0001\\u0002]+");
+
+    private static final long[] SEEDS = new long[NUM_HASHES];
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final long[] values;
+
+    private MinHashSignature(long[] values) {
+        this.values = values;
+    }
+
+    /**
+     * 计算文本的签名；规范化后不足一个4-gram的文本返回null
+     */
+    public static MinHashSignature of(String text) {
+        String normalized = normalize(text);
+        if (normalized.length() < SHINGLE_SIZE) {
+            return null;
+        }
+
+        long[] values = new long[NUM_HASHES];
+        Arrays.fill(values, Long.MAX_VALUE);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i + SHINGLE_SIZE <= normalized.length(); i++) {
+            long shingle = fnv1a(normalized, i, i + SHINGLE_SIZE);
+            if (!seen.add(shingle)) {
+                continue;
+            }
+            for (int h = 0; h < NUM_HASHES; h++) {
+                long value = mix(shingle ^ SEEDS[h]);
+                if (value < values[h]) {
+                    values[h] = value;
+                }
+            }
+        }
+        return new MinHashSignature(values);
+    }
+
+    /**
+     * 从持久化的取值恢复签名，长度不符时返回null
+     */
+    public static MinHashSignature fromValues(List<Long> stored) {
+        if (stored == null || stored.size() != NUM_HASHES) {
+            return null;
+        }
+        long[] values = new long[NUM_HASHES];
+        for (int i = 0; i < NUM_HASHES; i++) {
+            values[i] = stored.get(i);
+        }
+        return new MinHashSignature(values);
+    }
+
+    /**
+     * 估计的Jaccard相似度
+     */
+    public double similarity(MinHashSignature other) {
+        int equal = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (values[i] == other.values[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / NUM_HASHES;
+    }
+
+    /**
+     * LSH分桶键，scope不同的签名不会落入同一个桶
+     */
+    public List<String> bandKeys(String scope) {
+        long scopeHash = fnv1a(scope, 0, scope.length());
+        List<String> keys = new ArrayList<>(BANDS);
+        for (int band = 0; band < BANDS; band++) {
+            long hash = mix(scopeHash + band);
+            for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+                hash = mix(hash ^ values[row]);
+            }
+            keys.add(band + ":" + Long.toHexString(hash));
+        }
+        return keys;
+    }
+
+    public List<Long> toValues() {
+        List<Long> stored = new ArrayList<>(NUM_HASHES);
+        for (long value : values) {
+            stored.add(value);
+        }
+        return stored;
+    }
+
+    /**
+     * 规范化：小写，邮箱和电话号码等长数字串替换为占位符，去掉空白和标点
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String masked = EMAIL.matcher(text.toLowerCase(Locale.ROOT)).replaceAll("\u0001");
+        masked = LONG_NUMBER.matcher(masked).replaceAll("\u0002");
+        return NON_CONTENT.matcher(masked).replaceAll("");
+    }
+
+    private static long fnv1a(String text, int start, int end) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * SplitMix64终结函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,54 @@
+package com.cvagent.service.ai;
+
+import com.cvagent.service.AiCircuitBreaker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 降级链中的一级模型及其熔断器
+ */
+public class ModelTier<M> {
+
+    private final String modelName;
+    private final M model;
+    private final AiCircuitBreaker breaker;
+
+    private final LongAdder served = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    public ModelTier(String modelName, M model, AiCircuitBreaker breaker) {
+        this.modelName = modelName;
+        this.model = model;
+        this.breaker = breaker;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public M getModel() {
+        return model;
+    }
+
+    public AiCircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    void recordServed() {
+        served.increment();
+    }
+
+    void recordShortCircuit() {
+        shortCircuited.increment();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>(breaker.getStatistics());
+        stats.put("model", modelName);
+        stats.put("served", served.sum());
+        stats.put("shortCircuited", shortCircuited.sum());
+        return stats;
+    }
+}
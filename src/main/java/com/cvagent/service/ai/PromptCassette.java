@@ -0,0 +1,176 @@
+package com.cvagent.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 模型调用录制带
+ * 以模型名和请求消息的SHA-256为键，每条记录一行JSON追加到文件；回放时按相同的键查找
+ */
+public class PromptCassette {
+
+    private static final Logger logger = LoggerFactory.getLogger(PromptCassette.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Path path;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public PromptCassette(Path path) {
+        this.path = path;
+        load();
+    }
+
+    /**
+     * 按请求查找录制的响应
+     */
+    public Optional<Entry> find(String modelName, ChatRequest request) {
+        return Optional.ofNullable(entries.get(keyOf(modelName, request)));
+    }
+
+    /**
+     * 录制一次调用，同一请求以最后一次录制为准
+     */
+    public void record(String modelName, ChatRequest request, Entry entry) {
+        String key = keyOf(modelName, request);
+        entries.put(key, entry);
+        try {
+            String line = objectMapper.writeValueAsString(Map.of(
+                    "key", key,
+                    "model", modelName,
+                    "response", entry.getResponse(),
+                    "inputTokens", entry.getInputTokens(),
+                    "outputTokens", entry.getOutputTokens(),
+                    "latencyMillis", entry.getLatencyMillis()));
+            synchronized (this) {
+                Files.createDirectories(path.toAbsolutePath().getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入录制带失败: " + path, e);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void load() {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<?, ?> row = objectMapper.readValue(line, Map.class);
+                entries.put((String) row.get("key"), new Entry((String) row.get("response"),
+                        ((Number) row.get("inputTokens")).intValue(),
+                        ((Number) row.get("outputTokens")).intValue(),
+                        ((Number) row.get("latencyMillis")).longValue()));
+            }
+            logger.info("加载录制带 {}，共 {} 条记录", path, entries.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取录制带失败: " + path, e);
+        }
+    }
+
+    static String keyOf(String modelName, ChatRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+            for (ChatMessage message : request.messages()) {
+                digest.update((byte) 0);
+                digest.update(message.type().name().getBytes(StandardCharsets.UTF_8));
+                digest.update(textOf(message).getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 请求中所有消息的文本
+     */
+    public static String promptText(ChatRequest request) {
+        List<ChatMessage> messages = request.messages();
+        StringBuilder text = new StringBuilder();
+        for (ChatMessage message : messages) {
+            text.append(textOf(message)).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String textOf(ChatMessage message) {
+        if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+            return userMessage.singleText();
+        }
+        if (message instanceof SystemMessage systemMessage) {
+            return systemMessage.text();
+        }
+        if (message instanceof AiMessage aiMessage && aiMessage.text() != null) {
+            return aiMessage.text();
+        }
+        return message.toString();
+    }
+
+    /**
+     * 一条录制记录
+     */
+    public static class Entry {
+        private final String response;
+        private final int inputTokens;
+        private final int outputTokens;
+        private final long latencyMillis;
+
+        public Entry(String response, int inputTokens, int outputTokens, long latencyMillis) {
+            this.response = response;
+            this.inputTokens = inputTokens;
+            this.outputTokens = outputTokens;
+            this.latencyMillis = latencyMillis;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+
+        public int getInputTokens() {
+            return inputTokens;
+        }
+
+        public int getOutputTokens() {
+            return outputTokens;
+        }
+
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+    }
+}
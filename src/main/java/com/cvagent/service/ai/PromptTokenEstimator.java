@@ -0,0 +1,61 @@
+package com.cvagent.service.ai;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地令牌数估算器
+ * 按BPE分词器的预切分规则把文本切成词片，再按词片类型估算合并后的令牌数：
+ * 汉字每字约1个令牌，英文单词每6个字母约1个令牌，数字每3位1个令牌，连续标点每2个1个令牌
+ */
+public final class PromptTokenEstimator {
+
+    private static final Pattern PRE_TOKENIZER = Pattern.compile(
+            "'(?i:[sdmt]|ll|ve|re)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+");
+
+    private PromptTokenEstimator() {
+    }
+
+    /**
+     * 估算文本的令牌数，空文本为0
+     */
+    public static int estimate(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+
+        int tokens = 0;
+        Matcher matcher = PRE_TOKENIZER.matcher(text);
+        while (matcher.find()) {
+            tokens += estimatePiece(text, matcher.start(), matcher.end());
+        }
+        return tokens;
+    }
+
+    private static int estimatePiece(CharSequence text, int start, int end) {
+        int han = 0;
+        int letters = 0;
+        int others = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+                han++;
+            } else if (Character.isLetterOrDigit(c)) {
+                letters++;
+            } else if (!Character.isWhitespace(c)) {
+                others++;
+            }
+        }
+
+        if (han == 0 && letters == 0 && others == 0) {
+            // 纯空白词片
+            return 1;
+        }
+        int tokens = han + (letters + 5) / 6;
+        if (others > 0) {
+            // 单词前的单个符号通常与单词合并，成串的标点约每2个合并为1个令牌
+            tokens += letters > 0 || han > 0 ? others / 2 : (others + 1) / 2;
+        }
+        return Math.max(1, tokens);
+    }
+}
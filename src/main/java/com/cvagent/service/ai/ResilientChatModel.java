@@ -0,0 +1,281 @@
+package com.cvagent.service.ai;
+
+import com.cvagent.exception.AiModelUnavailableException;
+import com.cvagent.service.AiBulkhead;
+import com.cvagent.service.AiCircuitBreaker;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带熔断、对冲请求和降级链的聊天模型
+ * 按顺序尝试各级模型，已熔断的模型直接跳过；
+ * 某一级调用超过其p95延迟仍未返回时再发出一个对冲请求，取先成功的结果；
+ * 对冲请求占用模型舱壁的许可，舱壁已满时不对冲
+ */
+public class ResilientChatModel implements ChatModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResilientChatModel.class);
+
+    private final String name;
+    private final List<ModelTier<ChatModel>> tiers;
+    private final Executor hedgeExecutor;
+    private final HedgePolicy hedgePolicy;
+    private final AiBulkhead hedgeBulkhead;
+    private final ObservationRegistry observationRegistry;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedgedRequests = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder hedgesSkipped = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    public ResilientChatModel(String name, List<ModelTier<ChatModel>> tiers, Executor hedgeExecutor,
+                              HedgePolicy hedgePolicy) {
+        this(name, tiers, hedgeExecutor, hedgePolicy, null, ObservationRegistry.NOOP);
+    }
+
+    /**
+     * @param hedgeBulkhead 对冲请求占用许可的舱壁，为null时对冲不受并发限制
+     */
+    public ResilientChatModel(String name, List<ModelTier<ChatModel>> tiers, Executor hedgeExecutor,
+                              HedgePolicy hedgePolicy, AiBulkhead hedgeBulkhead,
+                              ObservationRegistry observationRegistry) {
+        this.name = name;
+        this.tiers = tiers;
+        this.hedgeExecutor = hedgeExecutor;
+        this.hedgePolicy = hedgePolicy;
+        this.hedgeBulkhead = hedgeBulkhead;
+        this.observationRegistry = observationRegistry;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest request) {
+        requests.increment();
+        RuntimeException lastError = null;
+
+        for (int i = 0; i < tiers.size(); i++) {
+            ModelTier<ChatModel> tier = tiers.get(i);
+            if (!tier.getBreaker().tryAcquirePermission()) {
+                tier.recordShortCircuit();
+                continue;
+            }
+
+            try {
+                ChatResponse response = callTier(tier, request);
+                tier.recordServed();
+                AiUsageContext.record(response.modelName() != null ? response.modelName() : tier.getModelName(),
+                        response.tokenUsage());
+                if (i > 0) {
+                    logger.warn("{} 已降级到 {}", name, tier.getModelName());
+                }
+                return response;
+            } catch (RuntimeException e) {
+                lastError = e;
+                logger.warn("{} 调用 {} 失败: {}", name, tier.getModelName(), e.getMessage());
+            }
+        }
+
+        exhausted.increment();
+        throw new AiModelUnavailableException(name + " 降级链上的模型均不可用", lastError);
+    }
+
+    /**
+     * 调用单级模型：延迟样本足够时，超过p95仍未返回就发出对冲请求
+     */
+    private ChatResponse callTier(ModelTier<ChatModel> tier, ChatRequest request) {
+        long hedgeDelay = hedgeDelay(tier);
+        if (hedgeDelay < 0) {
+            return timedCall(tier, request);
+        }
+
+        CompletableFuture<ChatResponse> primary = submit(tier, request);
+        if (primary == null) {
+            return timedCall(tier, request);
+        }
+
+        try {
+            return primary.get(hedgeDelay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 超过p95仍未返回，发出对冲请求
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            primary.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("等待模型响应时被中断");
+        }
+
+        CompletableFuture<ChatResponse> hedge = submitHedge(tier, request);
+        if (hedge == null) {
+            return join(primary);
+        }
+        hedgedRequests.increment();
+
+        CompletableFuture<ChatResponse> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((response, error) -> settle(winner, failures, response, error));
+        hedge.whenComplete((response, error) -> settle(winner, failures, response, error));
+
+        try {
+            ChatResponse response = join(winner);
+            // 在调用线程上判断胜者，返回前统计已经更新
+            if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.join() == response) {
+                hedgeWins.increment();
+            }
+            return response;
+        } finally {
+            primary.cancel(false);
+            hedge.cancel(false);
+        }
+    }
+
+    private void settle(CompletableFuture<ChatResponse> winner, AtomicInteger failures,
+                        ChatResponse response, Throwable error) {
+        if (error == null) {
+            winner.complete(response);
+        } else if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 调用一次模型，每次调用（含对冲请求）各自是一个span
+     */
+    private ChatResponse timedCall(ModelTier<ChatModel> tier, ChatRequest request) {
+        return Observation.createNotStarted("ai.model.call", observationRegistry)
+                .lowCardinalityKeyValue("ai.model.bean", name)
+                .lowCardinalityKeyValue("ai.model", tier.getModelName())
+                .observe(() -> breakerTimedCall(tier, request));
+    }
+
+    private ChatResponse breakerTimedCall(ModelTier<ChatModel> tier, ChatRequest request) {
+        long startTime = System.currentTimeMillis();
+        try {
+            ChatResponse response = tier.getModel().chat(request);
+            tier.getBreaker().onResult(System.currentTimeMillis() - startTime, true);
+            return response;
+        } catch (RuntimeException e) {
+            tier.getBreaker().onResult(System.currentTimeMillis() - startTime, false);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<ChatResponse> submit(ModelTier<ChatModel> tier, ChatRequest request) {
+        try {
+            return CompletableFuture.supplyAsync(() -> timedCall(tier, request), hedgeExecutor);
+        } catch (RuntimeException e) {
+            // 执行器已满时不做对冲，退回到当前线程直接调用
+            return null;
+        }
+    }
+
+    /**
+     * 发出对冲请求：对冲是一次额外的模型调用，先占用舱壁许可，没有空闲许可时返回null不做对冲。
+     * 输掉的请求被取消后底层HTTP调用仍会执行到结束，许可在调用真正结束时才释放
+     */
+    private CompletableFuture<ChatResponse> submitHedge(ModelTier<ChatModel> tier, ChatRequest request) {
+        if (hedgeBulkhead != null && !hedgeBulkhead.tryAcquire()) {
+            hedgesSkipped.increment();
+            return null;
+        }
+
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<ChatResponse> hedge = new CompletableFuture<>();
+        try {
+            hedgeExecutor.execute(() -> {
+                try {
+                    // 开始执行前主请求已经返回时不再调用模型
+                    if (!hedge.isDone()) {
+                        hedge.complete(timedCall(tier, request));
+                    }
+                } catch (Throwable e) {
+                    hedge.completeExceptionally(e);
+                } finally {
+                    releaseHedgePermit(startTime);
+                }
+            });
+            return hedge;
+        } catch (RuntimeException e) {
+            releaseHedgePermit(startTime);
+            return null;
+        }
+    }
+
+    private void releaseHedgePermit(long startTime) {
+        if (hedgeBulkhead != null) {
+            hedgeBulkhead.release(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * 对冲延迟：仅在熔断器关闭、延迟样本足够且对冲比例未超预算时启用，否则返回-1
+     */
+    private long hedgeDelay(ModelTier<ChatModel> tier) {
+        if (!hedgePolicy.isEnabled() || tier.getBreaker().getState() != AiCircuitBreaker.State.CLOSED) {
+            return -1;
+        }
+        if (hedgedRequests.sum() >= requests.sum() * hedgePolicy.getMaxRatio()) {
+            return -1;
+        }
+        long p95 = tier.getBreaker().latencyPercentile(0.95, hedgePolicy.getMinSamples());
+        return p95 < 0 ? -1 : Math.max(p95, hedgePolicy.getMinDelayMillis());
+    }
+
+    private static ChatResponse join(CompletableFuture<ChatResponse> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RuntimeException runtimeException ? runtimeException : new CompletionException(cause);
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return tiers.get(0).getModel().supportedCapabilities();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 获取熔断、对冲和降级统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requests", requests.sum());
+        stats.put("hedgedRequests", hedgedRequests.sum());
+        stats.put("hedgeWins", hedgeWins.sum());
+        stats.put("hedgesSkipped", hedgesSkipped.sum());
+        stats.put("exhausted", exhausted.sum());
+        stats.put("tiers", tiers.stream().map(ModelTier::getStatistics).toList());
+        return stats;
+    }
+}
@@ -0,0 +1,108 @@
+package com.cvagent.service.ai;
+
+import com.cvagent.exception.AiModelUnavailableException;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带熔断和降级链的流式聊天模型
+ * 在收到第一段输出之前失败时切换到下一级模型；已开始输出后失败则直接报告错误，避免内容拼接错乱
+ */
+public class ResilientStreamingChatModel implements StreamingChatModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResilientStreamingChatModel.class);
+
+    private final String name;
+    private final List<ModelTier<StreamingChatModel>> tiers;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    public ResilientStreamingChatModel(String name, List<ModelTier<StreamingChatModel>> tiers) {
+        this.name = name;
+        this.tiers = tiers;
+    }
+
+    @Override
+    public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+        requests.increment();
+        attempt(0, request, handler, null);
+    }
+
+    private void attempt(int fromTier, ChatRequest request, StreamingChatResponseHandler handler, Throwable lastError) {
+        for (int i = fromTier; i < tiers.size(); i++) {
+            ModelTier<StreamingChatModel> tier = tiers.get(i);
+            if (!tier.getBreaker().tryAcquirePermission()) {
+                tier.recordShortCircuit();
+                continue;
+            }
+
+            int nextTier = i + 1;
+            try {
+                tier.getModel().chat(request, new StreamingChatResponseHandler() {
+                    private volatile boolean started;
+
+                    @Override
+                    public void onPartialResponse(String partialResponse) {
+                        started = true;
+                        handler.onPartialResponse(partialResponse);
+                    }
+
+                    @Override
+                    public void onCompleteResponse(ChatResponse response) {
+                        // 流式调用的总耗时取决于输出长度，不参与慢调用判断
+                        tier.getBreaker().onResult(0, true);
+                        tier.recordServed();
+                        if (nextTier > 1) {
+                            logger.warn("{} 已降级到 {}", name, tier.getModelName());
+                        }
+                        handler.onCompleteResponse(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        tier.getBreaker().onResult(0, false);
+                        logger.warn("{} 流式调用 {} 失败: {}", name, tier.getModelName(), error.getMessage());
+                        if (started) {
+                            handler.onError(error);
+                        } else {
+                            attempt(nextTier, request, handler, error);
+                        }
+                    }
+                });
+                return;
+            } catch (RuntimeException e) {
+                tier.getBreaker().onResult(0, false);
+                lastError = e;
+                logger.warn("{} 流式调用 {} 启动失败: {}", name, tier.getModelName(), e.getMessage());
+            }
+        }
+
+        exhausted.increment();
+        handler.onError(new AiModelUnavailableException(name + " 降级链上的模型均不可用", lastError));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 获取熔断和降级统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requests", requests.sum());
+        stats.put("exhausted", exhausted.sum());
+        stats.put("tiers", tiers.stream().map(ModelTier::getStatistics).toList());
+        return stats;
+    }
+}
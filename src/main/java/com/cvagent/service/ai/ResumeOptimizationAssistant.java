@@ -7,4 +7,5 @@ public interface ResumeOptimizationAssistant {
     String optimizeResume(String resumeContent, String jobDescription);
     String improveResumeSection(String sectionContent, String sectionType);
     String generateResumeSummary(String resumeContent);
+    String generateRuleSuggestions(String prompt);
 }
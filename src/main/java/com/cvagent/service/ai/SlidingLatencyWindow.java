@@ -0,0 +1,66 @@
+package com.cvagent.service.ai;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 滑动时间窗口延迟分布
+ * 时间按固定长度切片，每片一个直方图，环形复用；查询时合并窗口覆盖的时间片。
+ * 窗口包含当前未结束的时间片，因此实际覆盖的时长在窗口长度和窗口长度加一片之间
+ */
+public final class SlidingLatencyWindow {
+
+    private final long sliceMillis;
+    private final AtomicReferenceArray<Slice> slices;
+
+    /**
+     * @param sliceMillis 时间片长度
+     * @param maxWindowMillis 支持查询的最长窗口
+     */
+    public SlidingLatencyWindow(long sliceMillis, long maxWindowMillis) {
+        this.sliceMillis = sliceMillis;
+        this.slices = new AtomicReferenceArray<>((int) (maxWindowMillis / sliceMillis) + 1);
+    }
+
+    public void record(long nowMillis, long latencyMillis) {
+        long epoch = nowMillis / sliceMillis;
+        int index = (int) (epoch % slices.length());
+        Slice slice = slices.get(index);
+        if (slice == null || slice.epoch < epoch) {
+            Slice fresh = new Slice(epoch);
+            slice = slices.compareAndSet(index, slice, fresh) ? fresh : slices.get(index);
+        }
+        // 写入前被更新的时间片替换时，这条记录落入新片，不影响统计的正确性
+        slice.histogram.record(latencyMillis);
+    }
+
+    /**
+     * 合并最近windowMillis内的时间片
+     */
+    public LatencyHistogram.Snapshot snapshot(long nowMillis, long windowMillis) {
+        long currentEpoch = nowMillis / sliceMillis;
+        long oldestEpoch = currentEpoch - Math.min(windowMillis / sliceMillis, slices.length() - 1);
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        for (int i = 0; i < slices.length(); i++) {
+            Slice slice = slices.get(i);
+            if (slice != null && slice.epoch >= oldestEpoch && slice.epoch <= currentEpoch) {
+                snapshot.add(slice.histogram);
+            }
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        for (int i = 0; i < slices.length(); i++) {
+            slices.set(i, null);
+        }
+    }
+
+    private static final class Slice {
+        private final long epoch;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private Slice(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.cvagent.service.ai;
+
+import dev.langchain4j.service.TokenStream;
+
+/**
+ * 创意写作流式接口
+ * 参数为已渲染的完整提示词
+ */
+public interface StreamingCreativeWritingAssistant {
+    TokenStream generateCoverLetter(String prompt);
+}
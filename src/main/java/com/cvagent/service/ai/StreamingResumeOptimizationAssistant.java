@@ -0,0 +1,12 @@
+package com.cvagent.service.ai;
+
+import dev.langchain4j.service.TokenStream;
+
+/**
+ * 简历优化流式接口
+ * 参数为已渲染的完整提示词
+ */
+public interface StreamingResumeOptimizationAssistant {
+    TokenStream optimizeResume(String prompt);
+    TokenStream improveResumeSection(String prompt);
+}
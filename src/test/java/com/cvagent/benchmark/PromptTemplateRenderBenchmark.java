@@ -0,0 +1,80 @@
+package com.cvagent.benchmark;
+
+import com.cvagent.service.PromptTemplateService;
+import com.cvagent.service.ai.CompiledPromptTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提示词模板渲染基准测试：逐变量String.replace与预编译模板单次渲染对比
+ * 运行方式：mvn test-compile 后以测试类路径执行本类的main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptTemplateRenderBenchmark {
+
+    @Param({"resume-optimization", "cover-letter-generation", "interview-questions-prediction"})
+    private String templateName;
+
+    @Param({"2000", "20000"})
+    private int resumeLength;
+
+    private String source;
+    private CompiledPromptTemplate compiled;
+    private Map<String, Object> variables;
+
+    @Setup
+    public void setUp() {
+        source = (String) new PromptTemplateService().getTemplateDetails(templateName).get("content");
+        compiled = CompiledPromptTemplate.compile(templateName, 0, source);
+
+        StringBuilder resume = new StringBuilder(resumeLength);
+        while (resume.length() < resumeLength) {
+            resume.append("负责订单系统的架构设计与性能优化，使用Java、Spring Boot和MongoDB，日均处理订单十万笔。\n");
+        }
+        variables = new HashMap<>();
+        variables.put("resumeContent", resume.substring(0, resumeLength));
+        variables.put("jobDescription", "招聘高级Java工程师，熟悉分布式系统、消息队列和缓存设计，有大型电商项目经验者优先。");
+        variables.put("companyInfo", "一家专注于跨境电商的互联网公司。");
+    }
+
+    @Benchmark
+    public String replacePerVariable() {
+        String prompt = source;
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            prompt = prompt.replace("{" + entry.getKey() + "}", entry.getValue().toString());
+        }
+        return prompt;
+    }
+
+    @Benchmark
+    public String compiledRender() {
+        return compiled.render(variables);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PromptTemplateRenderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
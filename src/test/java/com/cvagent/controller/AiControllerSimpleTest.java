@@ -49,6 +49,18 @@ class AiControllerSimpleTest {
     @MockBean
     private com.cvagent.repository.UserRepository userRepository;
 
+    @MockBean
+    private com.cvagent.service.AiBatchJobService batchJobService;
+
+    @MockBean
+    private com.cvagent.service.AiResponseCacheService responseCacheService;
+
+    @MockBean
+    private com.cvagent.service.AiCostService aiCostService;
+
+    @MockBean
+    private com.cvagent.service.AiUserUsageService aiUserUsageService;
+
     @Test
     void testChat() throws Exception {
         // 模拟AI服务返回
@@ -0,0 +1,188 @@
+package com.cvagent.controller;
+
+import com.cvagent.exception.AiOverloadedException;
+import com.cvagent.exception.AiRateLimitException;
+import com.cvagent.security.UserPrincipal;
+import com.cvagent.service.AiServiceManager;
+import com.cvagent.service.ai.AiStreamHandle;
+import com.cvagent.service.ai.AiStreamListener;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.method.annotation.AuthenticationPrincipalArgumentResolver;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/**
+ * 流式接口测试：逐段推送token事件，结束时推送done事件，失败时推送error事件
+ */
+@ExtendWith(MockitoExtension.class)
+class AiControllerStreamTest {
+
+    @Mock
+    private AiServiceManager aiServiceManager;
+
+    @Mock
+    private AiStreamHandle handle;
+
+    @InjectMocks
+    private AiController aiController;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(aiController, "streamTimeout", 5000L);
+        mockMvc = MockMvcBuilders.standaloneSetup(aiController)
+                .setCustomArgumentResolvers(new AuthenticationPrincipalArgumentResolver())
+                // 与Spring Boot默认配置一致，文本事件按UTF-8写出
+                .setMessageConverters(new StringHttpMessageConverter(StandardCharsets.UTF_8),
+                        new MappingJackson2HttpMessageConverter())
+                .build();
+
+        UserPrincipal principal = new UserPrincipal("user1", "testuser", "test@example.com", "password",
+                "Test User", List.of());
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void testChatStream_SendsTokensThenDone() throws Exception {
+        doAnswer(invocation -> {
+            AiStreamListener listener = invocation.getArgument(1);
+            listener.onToken("你好");
+            listener.onToken("，世界");
+            listener.onComplete("你好，世界");
+            return handle;
+        }).when(aiServiceManager).streamChat(eq("你好"), any());
+
+        String body = perform("/api/ai/chat/stream", "{\"message\":\"你好\"}");
+
+        assertTrue(body.contains("event:token\ndata:你好"));
+        assertTrue(body.contains("event:token\ndata:，世界"));
+        assertTrue(body.contains("event:done"));
+        assertTrue(body.contains("\"length\":5"));
+        assertFalse(body.contains("event:error"));
+    }
+
+    @Test
+    void testChatStream_DisconnectCancelsUpstream() throws Exception {
+        doAnswer(invocation -> {
+            AiStreamListener listener = invocation.getArgument(1);
+            listener.onToken("你好");
+            return handle;
+        }).when(aiServiceManager).streamChat(eq("你好"), any());
+
+        MvcResult result = mockMvc.perform(post("/api/ai/chat/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"message\":\"你好\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        verify(handle, never()).cancel();
+
+        // 客户端断开后容器以超时或出错结束异步请求
+        MockAsyncContext asyncContext = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+
+        verify(handle, atLeastOnce()).cancel();
+    }
+
+    @Test
+    void testOptimizeResumeStream_RateLimitedSendsErrorEvent() throws Exception {
+        doAnswer(invocation -> {
+            AiStreamListener listener = invocation.getArgument(2);
+            listener.onError(new AiRateLimitException("请求过于频繁", AiRateLimitException.USER_RATE, 7));
+            return handle;
+        }).when(aiServiceManager).streamOptimizeResume(eq("简历内容"), eq("职位描述"), any());
+
+        String body = perform("/api/ai/optimize-resume/stream",
+                "{\"resumeContent\":\"简历内容\",\"jobDescription\":\"职位描述\"}");
+
+        assertTrue(body.contains("event:error"));
+        assertTrue(body.contains("\"limitType\":\"user_rate\""));
+        assertTrue(body.contains("\"retryAfter\":7"));
+        assertFalse(body.contains("event:done"));
+    }
+
+    @Test
+    void testImproveResumeSectionStream_OverloadedSendsBusyError() throws Exception {
+        doAnswer(invocation -> {
+            AiStreamListener listener = invocation.getArgument(2);
+            listener.onError(new AiOverloadedException("舱壁已满", 2));
+            return handle;
+        }).when(aiServiceManager).streamImproveResumeSection(eq("章节内容"), eq("SUMMARY"), any());
+
+        String body = perform("/api/ai/improve-resume-section/stream",
+                "{\"sectionContent\":\"章节内容\",\"sectionType\":\"SUMMARY\"}");
+
+        assertTrue(body.contains("event:error"));
+        assertTrue(body.contains("AI服务繁忙，请稍后重试"));
+        assertTrue(body.contains("\"retryAfter\":2"));
+    }
+
+    @Test
+    void testGenerateCoverLetterStream_FailureSendsServiceError() throws Exception {
+        doAnswer(invocation -> {
+            AiStreamListener listener = invocation.getArgument(3);
+            listener.onToken("尊敬的");
+            listener.onError(new RuntimeException("连接中断"));
+            return handle;
+        }).when(aiServiceManager).streamGenerateCoverLetter(eq("简历内容"), eq("职位描述"), isNull(), any());
+
+        String body = perform("/api/ai/generate-cover-letter/stream",
+                "{\"resumeContent\":\"简历内容\",\"jobDescription\":\"职位描述\"}");
+
+        assertTrue(body.contains("event:token\ndata:尊敬的"));
+        assertTrue(body.contains("event:error"));
+        assertTrue(body.contains("求职信生成服务暂时不可用"));
+        assertFalse(body.contains("连接中断"));
+    }
+
+    @Test
+    void testGenerateCoverLetterStream_MissingJobDescriptionRejected() throws Exception {
+        String body = perform("/api/ai/generate-cover-letter/stream", "{\"resumeContent\":\"简历内容\"}");
+
+        assertTrue(body.contains("event:error"));
+        assertTrue(body.contains("职位描述不能为空"));
+        verifyNoInteractions(aiServiceManager);
+    }
+
+    private String perform(String url, String content) throws Exception {
+        MvcResult result = mockMvc.perform(post(url)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(content))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,293 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiRateLimitException;
+import com.cvagent.model.EnhancedResume;
+import com.cvagent.model.JobRequirement;
+import com.cvagent.model.OptimizationJob;
+import com.cvagent.repository.EnhancedResumeRepository;
+import com.cvagent.repository.JobRequirementRepository;
+import com.cvagent.service.ai.AiUsageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * AI简历优化服务测试
+ */
+@ExtendWith(MockitoExtension.class)
+class AIResumeOptimizationServiceTest {
+
+    @Mock
+    private EnhancedResumeRepository enhancedResumeRepository;
+
+    @Mock
+    private JobRequirementRepository jobRequirementRepository;
+
+    @Mock
+    private AiServiceManager aiServiceManager;
+
+    @Mock
+    private AiExecutionService aiExecutionService;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private OptimizationJobQueue optimizationJobQueue;
+
+    @Mock
+    private AiRateLimiter rateLimiter;
+
+    @InjectMocks
+    private AIResumeOptimizationService optimizationService;
+
+    private ExecutorService executor;
+
+    private EnhancedResume resume;
+
+    private JobRequirement jobRequirement;
+
+    private OptimizationJob job;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        ReflectionTestUtils.setField(optimizationService, "sectionDeadlineMillis", 500L);
+
+        resume = new EnhancedResume();
+        resume.setId("resume-1");
+        resume.setUserId("user-1");
+        resume.setSummary("五年Java后端开发经验");
+        resume.setOptimizationStatus("processing");
+
+        EnhancedResume.WorkExperience workExperience = new EnhancedResume.WorkExperience();
+        workExperience.setExperiences(new ArrayList<>(List.of(experience("公司A"), experience("公司B"))));
+        resume.setWorkExperience(workExperience);
+
+        EnhancedResume.Skills skills = new EnhancedResume.Skills();
+        skills.setTechnicalSkills(new ArrayList<>(List.of("Java", "MongoDB")));
+        resume.setSkills(skills);
+
+        EnhancedResume.Projects projects = new EnhancedResume.Projects();
+        EnhancedResume.Projects.ProjectItem project = new EnhancedResume.Projects.ProjectItem();
+        project.setName("简历平台");
+        project.setDescription("负责后端服务");
+        projects.setProjects(new ArrayList<>(List.of(project)));
+        resume.setProjects(projects);
+
+        jobRequirement = new JobRequirement();
+        jobRequirement.setId("job-1");
+        jobRequirement.setDescription("招聘高级Java工程师");
+        jobRequirement.setSkills(List.of("Java", "Spring Boot"));
+
+        job = new OptimizationJob(AIResumeOptimizationService.JOB_TYPE, "resume-1", "user-1",
+                Map.of("jobRequirementId", "job-1"), 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void runOptimizationJob_CancelsSlowSectionsAndMergesInOrder() {
+        givenStoredResume();
+        when(aiServiceManager.improveResumeSection(anyString(), anyString())).thenAnswer(invocation -> {
+            String content = invocation.getArgument(0);
+            String type = invocation.getArgument(1);
+            if (content.contains("公司B")) {
+                Thread.sleep(10_000);
+            }
+            return "skills".equals(type) ? "- Java\n- Spring Boot\n- MongoDB" : "优化后的" + type;
+        });
+
+        long start = System.currentTimeMillis();
+        optimizationService.runOptimizationJob(job);
+
+        // 耗时取决于截止时间而不是慢章节
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+        assertEquals("completed", resume.getOptimizationStatus());
+        assertEquals("优化后的summary", resume.getSummary());
+        assertEquals("优化后的experience", resume.getWorkExperience().getExperiences().get(0).getDescription());
+        assertEquals("原始描述", resume.getWorkExperience().getExperiences().get(1).getDescription());
+        assertEquals(List.of("Java", "Spring Boot", "MongoDB"), resume.getSkills().getTechnicalSkills());
+        assertEquals("优化后的project", resume.getProjects().getProjects().get(0).getDescription());
+        assertEquals(List.of("summary", "experience[0]", "skills", "project[0]"), resume.getOptimizedSections());
+
+        // 每个成功的章节单独持久化
+        verify(mongoTemplate, times(4)).updateFirst(any(Query.class), any(Update.class), eq(EnhancedResume.class));
+        verify(enhancedResumeRepository).save(resume);
+    }
+
+    @Test
+    void runOptimizationJob_DiscardsSectionThatIgnoresCancellation() throws Exception {
+        givenStoredResume();
+        when(aiServiceManager.improveResumeSection(anyString(), anyString())).thenAnswer(invocation -> {
+            String content = invocation.getArgument(0);
+            String type = invocation.getArgument(1);
+            if (content.contains("公司B")) {
+                // 模拟不响应中断的模型调用，在截止时间之后才返回
+                long until = System.currentTimeMillis() + 1_000;
+                while (System.currentTimeMillis() < until) {
+                    try {
+                        Thread.sleep(until - System.currentTimeMillis());
+                    } catch (InterruptedException ignored) {
+                        // 忽略取消
+                    }
+                }
+            }
+            return "skills".equals(type) ? "- Java" : "优化后的" + type;
+        });
+
+        optimizationService.runOptimizationJob(job);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // 迟到的结果既不写库，也不与最终保存的文档和跳过计数冲突
+        verify(mongoTemplate, times(4)).updateFirst(any(Query.class), any(Update.class), eq(EnhancedResume.class));
+        assertEquals("原始描述", resume.getWorkExperience().getExperiences().get(1).getDescription());
+        assertFalse(resume.getOptimizedSections().contains("experience[1]"));
+        assertEquals(1, resume.getOptimizationMetrics().get("sectionsSkipped"));
+    }
+
+    @Test
+    void runOptimizationJob_SkipsSectionsOptimizedByPreviousAttempt() {
+        givenStoredResume();
+        resume.setOptimizedSections(new ArrayList<>(List.of("summary", "experience[0]", "experience[1]", "skills")));
+        when(aiServiceManager.improveResumeSection(anyString(), eq("project"))).thenReturn("优化后的project");
+
+        optimizationService.runOptimizationJob(job);
+
+        verify(aiServiceManager, times(1)).improveResumeSection(anyString(), anyString());
+        assertEquals("五年Java后端开发经验", resume.getSummary());
+        assertEquals(5, resume.getOptimizedSections().size());
+    }
+
+    @Test
+    void runOptimizationJob_ThrowsForRetryWhenEverySectionFails() {
+        givenStoredResume();
+        when(aiServiceManager.improveResumeSection(anyString(), anyString()))
+                .thenThrow(new RuntimeException("模型不可用"));
+
+        assertThrows(RuntimeException.class, () -> optimizationService.runOptimizationJob(job));
+        verify(enhancedResumeRepository, never()).save(any());
+    }
+
+    @Test
+    void optimizeResume_ChargesQuotaForEverySectionBeforeSubmitting() {
+        when(enhancedResumeRepository.findById("resume-1")).thenReturn(Optional.of(resume));
+        when(jobRequirementRepository.findById("job-1")).thenReturn(Optional.of(jobRequirement));
+        when(enhancedResumeRepository.save(any(EnhancedResume.class))).thenAnswer(invocation -> {
+            EnhancedResume saved = invocation.getArgument(0);
+            saved.setId("resume-2");
+            return saved;
+        });
+
+        when(optimizationJobQueue.submit(eq(AIResumeOptimizationService.JOB_TYPE), eq("resume-2"), eq("user-1"), any()))
+                .thenReturn(Optional.of(job));
+
+        optimizationService.optimizeResume("resume-1", "job-1");
+
+        // 五个章节的提示词各自附带职位要求
+        ArgumentCaptor<Long> tokens = ArgumentCaptor.forClass(Long.class);
+        verify(rateLimiter).acquireUser(eq("user-1"), tokens.capture());
+        assertTrue(tokens.getValue() >= 5 * AiRateLimiter.estimateTokens(jobRequirement.getDescription()));
+        verify(optimizationJobQueue).submit(eq(AIResumeOptimizationService.JOB_TYPE), eq("resume-2"), eq("user-1"), any());
+        verify(rateLimiter, never()).refundUser(anyString(), anyLong());
+    }
+
+    @Test
+    void optimizeResume_RefundsQuotaWhenJobAlreadyActive() {
+        when(enhancedResumeRepository.findById("resume-1")).thenReturn(Optional.of(resume));
+        when(jobRequirementRepository.findById("job-1")).thenReturn(Optional.of(jobRequirement));
+        when(enhancedResumeRepository.save(any(EnhancedResume.class))).thenAnswer(invocation -> {
+            EnhancedResume saved = invocation.getArgument(0);
+            saved.setId("resume-2");
+            return saved;
+        });
+        when(optimizationJobQueue.submit(anyString(), anyString(), anyString(), any())).thenReturn(Optional.empty());
+
+        optimizationService.optimizeResume("resume-1", "job-1");
+
+        // 重复提交不会新建任务，预扣的配额全部退还
+        ArgumentCaptor<Long> charged = ArgumentCaptor.forClass(Long.class);
+        verify(rateLimiter).acquireUser(eq("user-1"), charged.capture());
+        verify(rateLimiter).refundUser("user-1", charged.getValue());
+    }
+
+    @Test
+    void optimizeResume_QuotaExceededLeavesNoProcessingCopy() {
+        when(enhancedResumeRepository.findById("resume-1")).thenReturn(Optional.of(resume));
+        when(jobRequirementRepository.findById("job-1")).thenReturn(Optional.of(jobRequirement));
+        doThrow(new AiRateLimitException("今日AI令牌配额已用完", AiRateLimitException.DAILY_QUOTA, 60))
+                .when(rateLimiter).acquireUser(anyString(), anyLong());
+
+        assertThrows(AiRateLimitException.class, () -> optimizationService.optimizeResume("resume-1", "job-1"));
+        verify(enhancedResumeRepository, never()).save(any());
+        verifyNoInteractions(optimizationJobQueue);
+    }
+
+    @Test
+    void registeredHandler_RunsJobAsSubmittingUser() throws Exception {
+        givenStoredResume();
+        List<String> users = new java.util.concurrent.CopyOnWriteArrayList<>();
+        when(aiServiceManager.improveResumeSection(anyString(), anyString())).thenAnswer(invocation -> {
+            users.add(AiUsageContext.delegatedUser());
+            return "skills".equals(invocation.getArgument(1)) ? "- Java" : "优化后的内容";
+        });
+
+        optimizationService.registerJobHandler();
+        ArgumentCaptor<OptimizationJobQueue.JobHandler> handler = ArgumentCaptor.forClass(OptimizationJobQueue.JobHandler.class);
+        verify(optimizationJobQueue).registerHandler(eq(AIResumeOptimizationService.JOB_TYPE), handler.capture());
+        handler.getValue().handle(job);
+
+        assertEquals(5, users.size());
+        assertTrue(users.stream().allMatch("user-1"::equals));
+        assertNull(AiUsageContext.delegatedUser());
+    }
+
+    @Test
+    void parseSkills_SplitsListsAndStripsBullets() {
+        assertEquals(List.of("Java", "Spring Boot", "Redis"),
+                AIResumeOptimizationService.parseSkills("1. Java\n2、Spring Boot；Redis,Java"));
+        assertThrows(IllegalStateException.class, () -> AIResumeOptimizationService.parseSkills(" \n "));
+    }
+
+    private void givenStoredResume() {
+        when(aiExecutionService.executor()).thenReturn(executor);
+        when(enhancedResumeRepository.findById("resume-1")).thenReturn(Optional.of(resume));
+        when(jobRequirementRepository.findById("job-1")).thenReturn(Optional.of(jobRequirement));
+    }
+
+    private static EnhancedResume.WorkExperience.ExperienceItem experience(String company) {
+        EnhancedResume.WorkExperience.ExperienceItem item = new EnhancedResume.WorkExperience.ExperienceItem();
+        item.setCompany(company);
+        item.setPosition("后端工程师");
+        item.setDescription("原始描述");
+        return item;
+    }
+}
@@ -0,0 +1,216 @@
+package com.cvagent.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 批量任务测试：订阅补发、逐条推送、截止时间与访问控制
+ */
+@ExtendWith(MockitoExtension.class)
+class AiBatchJobServiceTest {
+
+    @Mock
+    private AiExecutionService aiExecutionService;
+
+    @Mock
+    private AiRateLimiter rateLimiter;
+
+    @Spy
+    @InjectMocks
+    private AiServiceManager aiServiceManager;
+
+    private AiBatchJobService batchJobService;
+
+    private ExecutorService executorService;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        executorService = Executors.newCachedThreadPool();
+        lenient().when(aiExecutionService.executor()).thenReturn(executorService);
+        ReflectionTestUtils.setField(aiServiceManager, "batchParallelism", 2);
+        ReflectionTestUtils.setField(aiServiceManager, "batchItemTimeoutMillis", 5000L);
+
+        batchJobService = new AiBatchJobService();
+        ReflectionTestUtils.setField(batchJobService, "aiServiceManager", aiServiceManager);
+        ReflectionTestUtils.setField(batchJobService, "deadlineMillis", 5000L);
+        ReflectionTestUtils.setField(batchJobService, "retentionMinutes", 60L);
+        batchJobService.init();
+
+        // 消息1在放行前一直阻塞；任务在后台执行，测试结束前不一定调用到
+        lenient().doAnswer(invocation -> {
+            if ("消息1".equals(invocation.getArgument(0))) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return "回复:" + invocation.getArgument(0);
+        }).when(aiServiceManager).chat(anyString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testSubscribe_ReplaysCompletedThenStreamsRest() throws Exception {
+        AiBatchJobService.BatchJob job = batchJobService.submit("user1", chatRequests(3));
+        waitForCompleted(job, 2);
+
+        RecordingListener listener = new RecordingListener();
+        job.subscribe(listener);
+        // 已完成的结果立即补发
+        assertEquals(List.of("item0", "item2"), listener.keys);
+
+        release.countDown();
+        AiBatchJobService.BatchJob finished = listener.done.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("item0", "item2", "item1"), listener.keys);
+        assertEquals("COMPLETED", finished.getStatus());
+        assertEquals("回复:消息1", ((Map<?, ?>) finished.toMap().get("results")).get("item1"));
+    }
+
+    @Test
+    void testSubscribe_CompletionDuringReplayIsDeliveredLast() throws Exception {
+        AiBatchJobService.BatchJob job = batchJobService.submit("user1", chatRequests(3));
+        waitForCompleted(job, 2);
+
+        // 补发第一条结果时阻塞，期间任务完成
+        CountDownLatch replaying = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        List<String> events = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AiBatchJobService.BatchJobListener listener = new AiBatchJobService.BatchJobListener() {
+            @Override
+            public void onItem(String key, String result) {
+                events.add(key);
+                if (events.size() == 1) {
+                    replaying.countDown();
+                    try {
+                        resume.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void onComplete(AiBatchJobService.BatchJob finished) {
+                events.add("done");
+                done.complete(null);
+            }
+        };
+        CompletableFuture.runAsync(() -> job.subscribe(listener), executorService);
+        assertTrue(replaying.await(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"COMPLETED".equals(job.getStatus()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("COMPLETED", job.getStatus());
+        assertEquals(List.of("item0"), events);
+
+        resume.countDown();
+        done.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("item0", "item2", "item1", "done"), events);
+    }
+
+    @Test
+    void testSubmit_DeadlineMarksPartial() throws Exception {
+        ReflectionTestUtils.setField(batchJobService, "deadlineMillis", 200L);
+
+        AiBatchJobService.BatchJob job = batchJobService.submit("user1", chatRequests(3));
+        RecordingListener listener = new RecordingListener();
+        job.subscribe(listener);
+        AiBatchJobService.BatchJob finished = listener.done.get(5, TimeUnit.SECONDS);
+
+        assertEquals("PARTIAL", finished.getStatus());
+        Map<?, ?> results = (Map<?, ?>) finished.toMap().get("results");
+        assertEquals("回复:消息0", results.get("item0"));
+        assertEquals("处理超时", results.get("item1"));
+        assertEquals("回复:消息2", results.get("item2"));
+
+        // 截止后完成的结果不再写入
+        release.countDown();
+        Thread.sleep(100);
+        assertEquals("处理超时", ((Map<?, ?>) job.toMap().get("results")).get("item1"));
+    }
+
+    @Test
+    void testSubscribe_FinishedJobCompletesImmediately() throws Exception {
+        release.countDown();
+        AiBatchJobService.BatchJob job = batchJobService.submit("user1", chatRequests(2));
+        waitForCompleted(job, 2);
+        Thread.sleep(50);
+
+        RecordingListener listener = new RecordingListener();
+        job.subscribe(listener);
+
+        assertEquals(List.of("item0", "item1"), listener.keys);
+        assertTrue(listener.done.isDone());
+    }
+
+    @Test
+    void testGetJob_OnlyOwnerCanAccess() {
+        AiBatchJobService.BatchJob job = batchJobService.submit("user1", chatRequests(1));
+
+        assertTrue(batchJobService.getJob(job.getJobId(), "user1").isPresent());
+        assertTrue(batchJobService.getJob(job.getJobId(), "user2").isEmpty());
+        assertTrue(batchJobService.getJob("missing", "user1").isEmpty());
+    }
+
+    private static void waitForCompleted(AiBatchJobService.BatchJob job, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (job.getCompleted() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, job.getCompleted());
+    }
+
+    private static Map<String, Object> chatRequests(int count) {
+        Map<String, Object> requests = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            requests.put("item" + i, Map.of("type", "chat", "message", "消息" + i));
+        }
+        return requests;
+    }
+
+    private static class RecordingListener implements AiBatchJobService.BatchJobListener {
+        private final List<String> keys = new ArrayList<>();
+        private final CompletableFuture<AiBatchJobService.BatchJob> done = new CompletableFuture<>();
+
+        @Override
+        public synchronized void onItem(String key, String result) {
+            keys.add(key);
+        }
+
+        @Override
+        public void onComplete(AiBatchJobService.BatchJob job) {
+            done.complete(job);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiOverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiBulkheadTest {
+
+    @Test
+    void testCall_RunsWithinConcurrencyLimit() {
+        AiBulkhead bulkhead = new AiBulkhead("test", 2, 0, 100);
+
+        assertEquals("结果", bulkhead.call(() -> "结果"));
+        assertEquals(0, bulkhead.getActiveCount());
+        assertEquals(1L, bulkhead.getStatistics().get("accepted"));
+    }
+
+    @Test
+    void testAcquire_RejectsWhenQueueIsFull() throws Exception {
+        AiBulkhead bulkhead = new AiBulkhead("test", 1, 0, 1000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> bulkhead.call(() -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "完成";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        AiOverloadedException error = assertThrows(AiOverloadedException.class, () -> bulkhead.call(() -> "不应执行"));
+        assertTrue(error.getRetryAfterSeconds() >= 1);
+        assertEquals(1L, bulkhead.getStatistics().get("rejected"));
+
+        release.countDown();
+        assertEquals("完成", running.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testAcquire_QueuedCallTimesOut() {
+        AiBulkhead bulkhead = new AiBulkhead("test", 1, 1, 50);
+        bulkhead.acquireNow();
+
+        assertThrows(AiOverloadedException.class, bulkhead::acquire);
+        assertEquals(0, bulkhead.getWaitingCount());
+
+        bulkhead.release(10);
+        bulkhead.acquire();
+        assertEquals(1, bulkhead.getActiveCount());
+    }
+}
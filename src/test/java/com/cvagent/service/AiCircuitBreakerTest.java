@@ -0,0 +1,61 @@
+package com.cvagent.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiCircuitBreakerTest {
+
+    @Test
+    void testOpensWhenFailureRateExceedsThreshold() {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 10, 4, 50, 100, 1000, 60_000, 1);
+
+        breaker.onResult(10, true);
+        breaker.onResult(10, false);
+        breaker.onResult(10, true);
+        assertEquals(AiCircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onResult(10, false);
+        assertEquals(AiCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1L, breaker.getStatistics().get("notPermittedCalls"));
+    }
+
+    @Test
+    void testOpensWhenSlowCallRateExceedsThreshold() {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 10, 2, 100, 50, 100, 60_000, 1);
+
+        breaker.onResult(500, true);
+        breaker.onResult(500, true);
+
+        assertEquals(AiCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void testHalfOpenProbeClosesBreakerOnSuccess() throws Exception {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 10, 1, 50, 100, 1000, 10, 1);
+        breaker.onResult(10, false);
+        assertEquals(AiCircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(20);
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(AiCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // 半开状态只放行配置数量的探测请求
+        assertFalse(breaker.tryAcquirePermission());
+
+        breaker.onResult(10, true);
+        assertEquals(AiCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void testLatencyPercentile() {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 100, 100, 100, 100, 10_000, 60_000, 1);
+        assertEquals(-1, breaker.latencyPercentile(0.95, 20));
+
+        for (int i = 1; i <= 20; i++) {
+            breaker.onResult(i * 10L, true);
+        }
+        assertEquals(190, breaker.latencyPercentile(0.95, 20));
+        assertEquals(100, breaker.latencyPercentile(0.5, 20));
+    }
+}
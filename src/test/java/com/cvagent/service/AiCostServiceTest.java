@@ -0,0 +1,125 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.model.AiUsageRollup;
+import com.cvagent.model.AiUserDailyUsage;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AiCostServiceTest {
+
+    private AiCostService costService;
+    private MongoTemplate mongoTemplate;
+    private AiUsageRollupService rollupService;
+
+    @BeforeEach
+    void setUp() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("ai.pricing.models.qwen-plus.input-per-1k", "0.0008")
+                .withProperty("ai.pricing.models.qwen-plus.output-per-1k", "0.002");
+
+        costService = new AiCostService();
+        ReflectionTestUtils.setField(costService, "environment", environment);
+        ReflectionTestUtils.setField(costService, "defaultInputPricePer1k", 0.01);
+        ReflectionTestUtils.setField(costService, "defaultOutputPricePer1k", 0.03);
+        ReflectionTestUtils.setField(costService, "currency", "CNY");
+        ReflectionTestUtils.setField(costService, "logRetentionDays", 30);
+
+        mongoTemplate = mock(MongoTemplate.class);
+        rollupService = mock(AiUsageRollupService.class);
+        ReflectionTestUtils.setField(costService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(costService, "aiUsageRollupService", rollupService);
+    }
+
+    @Test
+    void testCalculateCost_UsesModelPrice() {
+        assertEquals(0.0028, costService.calculateCost("qwen-plus", 1000, 1000), 1e-9);
+        assertEquals(0.0004, costService.calculateCost("qwen-plus", 500, 0), 1e-9);
+    }
+
+    @Test
+    void testCalculateCost_FallsBackToDefaultPrice() {
+        assertEquals(0.04, costService.calculateCost("unknown-model", 1000, 1000), 1e-9);
+        assertEquals(0.04, costService.calculateCost(null, 1000, 1000), 1e-9);
+    }
+
+    @Test
+    void testGetCostByUser_TotalCostCoversUsersBeyondLimit() {
+        Document output = new Document("items", List.of(
+                new Document("_id", "user1").append("requests", 3).append("cost", 5.0)))
+                .append("total", List.of(new Document("_id", null).append("cost", 12.5)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(AiUsageLog.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(output), new Document()));
+
+        LocalDateTime to = LocalDateTime.now();
+        Map<String, Object> result = costService.getCostByUser(to.minusDays(7), to, 1);
+
+        // 合计包含$limit之外的用户
+        assertEquals(12.5, result.get("totalCost"));
+        assertEquals("logs", result.get("source"));
+        List<?> items = (List<?>) result.get("items");
+        assertEquals(1, items.size());
+        assertEquals("user1", ((Map<?, ?>) items.get(0)).get("userId"));
+
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(aggregation.capture(), eq(AiUsageLog.class), eq(Document.class));
+        String pipeline = aggregation.getValue().toString();
+        assertTrue(pipeline.contains("$facet"));
+        assertTrue(pipeline.indexOf("$limit") > pipeline.indexOf("$facet"));
+    }
+
+    @Test
+    void testGetCostByUser_BeyondLogRetentionReadsDailyUsage() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(AiUserDailyUsage.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+        LocalDateTime to = LocalDateTime.now();
+        Map<String, Object> result = costService.getCostByUser(to.minusDays(90), to, 10);
+
+        assertEquals("dailyUsage", result.get("source"));
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), eq(AiUsageLog.class), eq(Document.class));
+    }
+
+    @Test
+    void testGetCostByService_BeyondLogRetentionReadsRollups() {
+        when(rollupService.findRollups(any(), any(), isNull())).thenReturn(List.of(
+                rollup("chat", 10, 0.5), rollup("chat", 5, 0.25), rollup("resume_optimization", 2, 1.0)));
+
+        LocalDateTime to = LocalDateTime.now();
+        Map<String, Object> result = costService.getCostByService(to.minusDays(90), to);
+
+        assertEquals("rollups", result.get("source"));
+        assertEquals(1.75, result.get("totalCost"));
+        List<?> items = (List<?>) result.get("items");
+        Map<?, ?> first = (Map<?, ?>) items.get(0);
+        Map<?, ?> second = (Map<?, ?>) items.get(1);
+        assertEquals("resume_optimization", first.get("serviceType"));
+        assertEquals("chat", second.get("serviceType"));
+        assertEquals(15L, second.get("requests"));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    private static AiUsageRollup rollup(String serviceType, long count, double cost) {
+        AiUsageRollup rollup = new AiUsageRollup();
+        rollup.setServiceType(serviceType);
+        rollup.setCount(count);
+        rollup.setCost(cost);
+        return rollup;
+    }
+}
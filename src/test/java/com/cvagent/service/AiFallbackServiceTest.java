@@ -0,0 +1,80 @@
+package com.cvagent.service;
+
+import com.cvagent.model.OptimizationRule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 降级应答测试：过期缓存优先，其次按规则快照的匹配结果给出建议
+ */
+@ExtendWith(MockitoExtension.class)
+class AiFallbackServiceTest {
+
+    @Mock
+    private AiResponseCacheService responseCacheService;
+
+    @Mock
+    private RuleEngineService ruleEngineService;
+
+    @InjectMocks
+    private AiFallbackService fallbackService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(fallbackService, "ruleFallbackEnabled", true);
+        lenient().when(responseCacheService.getStale(anyString(), anyString())).thenReturn(Optional.empty());
+    }
+
+    @Test
+    void testFallback_StaleCacheWins() {
+        when(responseCacheService.getStale("resume_optimization", "key")).thenReturn(Optional.of("过期的优化结果"));
+
+        assertEquals(Optional.of("过期的优化结果"), fallbackService.fallback("resume_optimization", "key", "简历内容"));
+        verifyNoInteractions(ruleEngineService);
+    }
+
+    @Test
+    void testFallback_RuleAnswerFromMatchedRules() {
+        when(ruleEngineService.findMatchingRules("简历内容")).thenReturn(List.of(rule("补充量化成果"), rule(null),
+                rule("补充技术关键词"), rule("补充量化成果")));
+
+        String answer = fallbackService.fallback("resume_optimization", "key", "简历内容").orElseThrow();
+
+        assertTrue(answer.contains("1. 补充量化成果"));
+        assertTrue(answer.contains("2. 补充技术关键词"));
+        assertFalse(answer.contains("3."));
+        assertEquals(1L, fallbackService.getStatistics().get("ruleAnswers"));
+    }
+
+    @Test
+    void testFallback_RuleMatchingFailureIsUnanswered() {
+        when(ruleEngineService.findMatchingRules(anyString())).thenThrow(new IllegalStateException("规则加载失败"));
+
+        assertTrue(fallbackService.fallback("resume_section_improvement", "key", "简历内容").isEmpty());
+        assertEquals(1L, fallbackService.getStatistics().get("unanswered"));
+    }
+
+    @Test
+    void testFallback_NoRuleAnswerForChat() {
+        assertTrue(fallbackService.fallback("chat", "key", "你好").isEmpty());
+        verifyNoInteractions(ruleEngineService);
+    }
+
+    private static OptimizationRule rule(String suggestion) {
+        OptimizationRule rule = new OptimizationRule();
+        rule.setSuggestion(suggestion);
+        return rule;
+    }
+}
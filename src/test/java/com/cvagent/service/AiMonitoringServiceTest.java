@@ -0,0 +1,129 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AiMonitoringServiceTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private AiUsageLogWriter aiUsageLogWriter;
+
+    private AiMonitoringService monitoringService;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        aiUsageLogWriter = mock(AiUsageLogWriter.class);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("ai.usage-log.retention.services.chat", "7")
+                .withProperty("ai.usage-log.retention.services.resume_optimization", "0");
+
+        monitoringService = new AiMonitoringService();
+        ReflectionTestUtils.setField(monitoringService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(monitoringService, "aiUsageLogWriter", aiUsageLogWriter);
+        ReflectionTestUtils.setField(monitoringService, "aiCostService", mock(AiCostService.class));
+        ReflectionTestUtils.setField(monitoringService, "environment", environment);
+        ReflectionTestUtils.setField(monitoringService, "defaultRetentionDays", 30);
+    }
+
+    @Test
+    void testRecordRequest_SetsExpiryFromServiceRetention() {
+        monitoringService.recordRequest("chat", 100, true, null);
+        monitoringService.recordRequest("resume_optimization", 100, true, null);
+        monitoringService.recordPromptRequest("resume_summary", 5, true);
+
+        ArgumentCaptor<AiUsageLog> logs = ArgumentCaptor.forClass(AiUsageLog.class);
+        verify(aiUsageLogWriter, times(3)).submit(logs.capture());
+        AiUsageLog chat = logs.getAllValues().get(0);
+        assertEquals(chat.getRequestTime().plusDays(7), chat.getExpireAt());
+        // 保留天数为0的服务永久保留
+        assertNull(logs.getAllValues().get(1).getExpireAt());
+        AiUsageLog prompt = logs.getAllValues().get(2);
+        assertEquals(prompt.getRequestTime().plusDays(30), prompt.getExpireAt());
+    }
+
+    @Test
+    void testCleanupOldLogs_DeletesWithSingleServerSideDelete() {
+        when(mongoTemplate.remove(any(Query.class), eq(AiUsageLog.class)))
+                .thenReturn(DeleteResult.acknowledged(1200));
+
+        assertEquals(1200, monitoringService.cleanupOldLogs(30));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(query.capture(), eq(AiUsageLog.class));
+        Document requestTime = (Document) query.getValue().getQueryObject().get("requestTime");
+        LocalDateTime cutoff = (LocalDateTime) requestTime.get("$lt");
+        assertTrue(cutoff.isBefore(LocalDateTime.now().minusDays(29)));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(AiUsageLog.class));
+    }
+
+    @Test
+    void testFindLogs_PagesByRequestTimeAndIdCursor() {
+        LocalDateTime time = LocalDateTime.of(2026, 10, 17, 9, 30);
+        String lastId = new ObjectId().toHexString();
+        List<AiUsageLog> firstPage = new ArrayList<>(List.of(
+                log(new ObjectId().toHexString(), time.plusSeconds(1)),
+                log(lastId, time),
+                log(new ObjectId().toHexString(), time)));
+        when(mongoTemplate.find(any(Query.class), eq(AiUsageLog.class))).thenReturn(firstPage, List.of());
+
+        AiMonitoringService.LogPage page = monitoringService.findLogs(false, "chat", null, null, null, 2, null);
+
+        assertEquals(2, page.getLogs().size());
+        assertNotNull(page.getNextCursor());
+        assertTrue(page.getNextCursor().matches("[A-Za-z0-9_-]+"));
+
+        AiMonitoringService.LogPage next = monitoringService.findLogs(false, "chat", null, null, null, 2,
+                page.getNextCursor());
+        assertNull(next.getNextCursor());
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queries.capture(), eq(AiUsageLog.class));
+        Query first = queries.getAllValues().get(0);
+        assertEquals(3, first.getLimit());
+        assertEquals(new Document("requestTime", -1).append("_id", -1), first.getSortObject());
+        assertFalse(first.getFieldsObject().containsKey("requestSummary"));
+        assertEquals(1, first.getFieldsObject().get("serviceType"));
+
+        // 第二页从 (requestTime, _id) 之后继续
+        List<?> conditions = (List<?>) queries.getAllValues().get(1).getQueryObject().get("$and");
+        List<?> keyset = (List<?>) ((Document) conditions.get(conditions.size() - 1)).get("$or");
+        assertEquals(time, ((Document) ((Document) keyset.get(0)).get("requestTime")).get("$lt"));
+        Document tie = (Document) keyset.get(1);
+        assertEquals(time, tie.get("requestTime"));
+        assertEquals(new ObjectId(lastId), ((Document) tie.get("_id")).get("$lt"));
+    }
+
+    @Test
+    void testFindLogs_RejectsInvalidCursor() {
+        assertThrows(IllegalArgumentException.class,
+                () -> monitoringService.findLogs(null, null, null, null, null, 10, "not-a-cursor"));
+    }
+
+    private static AiUsageLog log(String id, LocalDateTime requestTime) {
+        AiUsageLog log = new AiUsageLog();
+        log.setId(id);
+        log.setRequestTime(requestTime);
+        log.setServiceType("chat");
+        return log;
+    }
+}
@@ -0,0 +1,146 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiRateLimitException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.Environment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AiRateLimiterTest {
+
+    private AiRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        Environment environment = mock(Environment.class);
+        when(environment.getProperty(anyString(), eq(Long.class), anyLong()))
+                .thenAnswer(invocation -> invocation.getArgument(2));
+
+        rateLimiter = new AiRateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "environment", environment);
+        ReflectionTestUtils.setField(rateLimiter, "enabled", true);
+        ReflectionTestUtils.setField(rateLimiter, "stripes", 2);
+        ReflectionTestUtils.setField(rateLimiter, "defaultModelCapacity", 100L);
+        ReflectionTestUtils.setField(rateLimiter, "defaultModelRefillPerSecond", 1L);
+        ReflectionTestUtils.setField(rateLimiter, "userCapacity", 50L);
+        ReflectionTestUtils.setField(rateLimiter, "userRefillPerSecond", 1L);
+        ReflectionTestUtils.setField(rateLimiter, "dailyTokenQuota", 1000L);
+    }
+
+    @Test
+    void testAcquireUser_RejectsWhenBucketIsEmpty() {
+        rateLimiter.acquireUser("user1", 30);
+
+        AiRateLimitException error = assertThrows(AiRateLimitException.class,
+                () -> rateLimiter.acquireUser("user1", 30));
+        assertEquals(AiRateLimitException.USER_RATE, error.getLimitType());
+        assertTrue(error.getRetryAfterSeconds() >= 1);
+
+        // 其他用户不受影响
+        assertDoesNotThrow(() -> rateLimiter.acquireUser("user2", 30));
+    }
+
+    @Test
+    void testAcquireUser_RejectsWhenDailyQuotaExceeded() {
+        ReflectionTestUtils.setField(rateLimiter, "dailyTokenQuota", 40L);
+        rateLimiter.acquireUser("user1", 30);
+
+        AiRateLimitException error = assertThrows(AiRateLimitException.class,
+                () -> rateLimiter.acquireUser("user1", 20));
+        assertEquals(AiRateLimitException.DAILY_QUOTA, error.getLimitType());
+        assertEquals(30L, rateLimiter.getUserUsage("user1").get("tokensUsedToday"));
+    }
+
+    @Test
+    void testReconcile_KeepsCountingLocalUsageAfterReconcile() {
+        AiUserUsageService aiUserUsageService = mock(AiUserUsageService.class);
+        ReflectionTestUtils.setField(rateLimiter, "aiUserUsageService", aiUserUsageService);
+        ReflectionTestUtils.setField(rateLimiter, "userCapacity", 1000L);
+        rateLimiter.acquireUser("user1", 100);
+
+        // 数据库汇总含输出token，大于本地估算，替代对账前的本地计数
+        when(aiUserUsageService.getTokensUsedOn(any())).thenReturn(Map.of("user1", 300L));
+        rateLimiter.reconcileDailyUsage();
+        assertEquals(300L, rateLimiter.getUserUsage("user1").get("tokensUsedToday"));
+
+        // 对账后新准入的用量继续累加
+        rateLimiter.acquireUser("user1", 400);
+        assertEquals(700L, rateLimiter.getUserUsage("user1").get("tokensUsedToday"));
+        AiRateLimitException error = assertThrows(AiRateLimitException.class,
+                () -> rateLimiter.acquireUser("user1", 400));
+        assertEquals(AiRateLimitException.DAILY_QUOTA, error.getLimitType());
+    }
+
+    @Test
+    void testRefundUser_RestoresBucketAndDailyUsage() {
+        rateLimiter.acquireUser("user1", 40);
+        rateLimiter.refundUser("user1", 40);
+
+        assertEquals(0L, rateLimiter.getUserUsage("user1").get("tokensUsedToday"));
+        assertDoesNotThrow(() -> rateLimiter.acquireUser("user1", 40));
+    }
+
+    @Test
+    void testAcquireUser_SkipsAnonymousCalls() {
+        assertDoesNotThrow(() -> rateLimiter.acquireUser(null, 10_000));
+    }
+
+    @Test
+    void testAcquireModel_UsesAllStripesBeforeRejecting() {
+        // 两个分段各50个令牌
+        rateLimiter.acquireModel("chatLanguageModel", 50);
+        rateLimiter.acquireModel("chatLanguageModel", 50);
+
+        AiRateLimitException error = assertThrows(AiRateLimitException.class,
+                () -> rateLimiter.acquireModel("chatLanguageModel", 50));
+        assertEquals(AiRateLimitException.MODEL_RATE, error.getLimitType());
+    }
+
+    @Test
+    void testAcquireModel_LargeRequestChargedAcrossStripes() {
+        // 80个令牌超过单个分段的容量，应从两个分段合计扣减
+        rateLimiter.acquireModel("chatLanguageModel", 80);
+
+        assertThrows(AiRateLimitException.class, () -> rateLimiter.acquireModel("chatLanguageModel", 30));
+        assertDoesNotThrow(() -> rateLimiter.acquireModel("chatLanguageModel", 20));
+    }
+
+    @Test
+    void testStripedTokenBucket_FailedLargeRequestRefundsTokens() {
+        AiRateLimiter.StripedTokenBucket bucket = new AiRateLimiter.StripedTokenBucket(100, 1, 4);
+        assertEquals(0, bucket.tryAcquire(25));
+
+        // 剩余75个令牌不足，已从各分段取出的令牌退回
+        assertTrue(bucket.tryAcquire(90) > 0);
+        assertEquals(75, bucket.available());
+        // 超过总容量的请求按总容量扣减
+        assertTrue(bucket.tryAcquire(500) > 0);
+        assertEquals(0, bucket.tryAcquire(75));
+        assertEquals(0, bucket.available());
+    }
+
+    @Test
+    void testTokenBucket_OversizedRequestIsClampedToCapacity() {
+        AiRateLimiter.TokenBucket bucket = new AiRateLimiter.TokenBucket(10, 1);
+
+        assertEquals(0, bucket.tryAcquire(100));
+        assertTrue(bucket.tryAcquire(1) > 0);
+    }
+
+    @Test
+    void testEstimateTokens() {
+        assertEquals(4, AiRateLimiter.estimateTokens("简历优化"));
+        assertEquals(3, AiRateLimiter.estimateTokens("hello world!"));
+        assertEquals(1, AiRateLimiter.estimateTokens((String) null));
+    }
+}
@@ -0,0 +1,151 @@
+package com.cvagent.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiRequestCoalescerTest {
+
+    private final AiRequestCoalescer coalescer = new AiRequestCoalescer();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testExecuteAsync_IdenticalRequestsShareOneCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> first = coalescer.executeAsync("key", () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "结果";
+        }, executor);
+        CompletableFuture<String> second = coalescer.executeAsync("key", () -> {
+            calls.incrementAndGet();
+            return "不应执行";
+        }, executor);
+
+        release.countDown();
+
+        assertEquals("结果", first.get(5, TimeUnit.SECONDS));
+        assertEquals("结果", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(1L, coalescer.getStatistics().get("coalesced"));
+    }
+
+    @Test
+    void testExecuteAsync_CancelledWaiterDoesNotAffectOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = coalescer.executeAsync("key", () -> {
+            await(release);
+            return "结果";
+        }, executor);
+        CompletableFuture<String> second = coalescer.executeAsync("key", () -> "不应执行", executor);
+
+        first.cancel(true);
+        release.countDown();
+
+        assertTrue(first.isCancelled());
+        assertEquals("结果", second.get(5, TimeUnit.SECONDS));
+        assertEquals(0L, coalescer.getStatistics().get("abandonedFlights"));
+    }
+
+    @Test
+    void testExecuteAsync_AllWaitersCancelledAbandonsFlight() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = coalescer.executeAsync("key", () -> {
+            await(release);
+            return "旧结果";
+        }, executor);
+        first.cancel(true);
+
+        // 放弃后新的请求重新发起调用
+        CompletableFuture<String> retry = coalescer.executeAsync("key", () -> "新结果", executor);
+        release.countDown();
+
+        assertEquals("新结果", retry.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, coalescer.getStatistics().get("abandonedFlights"));
+    }
+
+    @Test
+    void testExecute_FollowerReceivesLeaderFailure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> coalescer.execute("key", () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalStateException("模型调用失败");
+        }), executor);
+        started.await(5, TimeUnit.SECONDS);
+
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> coalescer.execute("key", () -> "不应执行"), executor);
+        while ((long) coalescer.getStatistics().get("coalesced") == 0L) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        Exception error = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testExecute_FollowerReleasedWhenLeaderThrowsError() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> coalescer.execute("key", () -> {
+            started.countDown();
+            await(release);
+            throw new OutOfMemoryError("模拟内存不足");
+        }), executor);
+        started.await(5, TimeUnit.SECONDS);
+
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> coalescer.execute("key", () -> "不应执行"), executor);
+        while ((long) coalescer.getStatistics().get("coalesced") == 0L) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        // 等待者拿到失败而不是一直阻塞
+        Exception error = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(OutOfMemoryError.class, error.getCause());
+        Exception leaderError = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(OutOfMemoryError.class, leaderError.getCause());
+        assertEquals(0, coalescer.getStatistics().get("inFlight"));
+    }
+
+    @Test
+    void testExecute_ReentrantCallFromLeaderRunsInline() throws Exception {
+        CompletableFuture<String> result = coalescer.executeAsync("key",
+                () -> coalescer.execute("key", () -> "内联结果"), executor);
+
+        assertEquals("内联结果", result.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiResponseCacheEntry;
+import com.cvagent.repository.AiResponseCacheRepository;
+import com.cvagent.service.ai.AiResponseMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.env.Environment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AiResponseCacheServiceTest {
+
+    @Mock
+    private AiResponseCacheRepository cacheRepository;
+
+    @Mock
+    private Environment environment;
+
+    @InjectMocks
+    private AiResponseCacheService cacheService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cacheService, "enabled", true);
+        ReflectionTestUtils.setField(cacheService, "ttlHours", 24L);
+        ReflectionTestUtils.setField(cacheService, "l1ExpireMinutes", 30L);
+        ReflectionTestUtils.setField(cacheService, "defaultMaxSize", 100L);
+        ReflectionTestUtils.setField(cacheService, "similarityEnabled", true);
+        ReflectionTestUtils.setField(cacheService, "similarityThreshold", 0.9);
+        ReflectionTestUtils.setField(cacheService, "similarityServices", List.of("resume_optimization"));
+        lenient().when(environment.getProperty(anyString(), eq(Long.class), anyLong())).thenReturn(100L);
+    }
+
+    @Test
+    void testBuildKey_NormalizesWhitespace() {
+        String key1 = cacheService.buildKey("resume_optimization", "gpt-4", 0.3, "  Java   开发\r\n经验 ", "JD");
+        String key2 = cacheService.buildKey("resume_optimization", "gpt-4", 0.3, "Java 开发\n经验", "JD");
+
+        assertEquals(key1, key2);
+        assertEquals(64, key1.length());
+    }
+
+    @Test
+    void testBuildKey_DiffersByModelAndTemperature() {
+        String key = cacheService.buildKey("resume_optimization", "gpt-4", 0.3, "内容");
+
+        assertNotEquals(key, cacheService.buildKey("resume_optimization", "qwen-plus", 0.3, "内容"));
+        assertNotEquals(key, cacheService.buildKey("resume_optimization", "gpt-4", 0.9, "内容"));
+        assertNotEquals(key, cacheService.buildKey("cover_letter_generation", "gpt-4", 0.3, "内容"));
+    }
+
+    @Test
+    void testGetOrCompute_SecondCallHitsLocalCache() {
+        when(cacheRepository.findById("key")).thenReturn(Optional.empty());
+        AtomicInteger calls = new AtomicInteger();
+
+        String first = cacheService.getOrCompute("chat", "gpt-4", "key", () -> "响应" + calls.incrementAndGet());
+        String second = cacheService.getOrCompute("chat", "gpt-4", "key", () -> "响应" + calls.incrementAndGet());
+
+        assertEquals("响应1", first);
+        assertEquals("响应1", second);
+        assertEquals(1, calls.get());
+        verify(cacheRepository, times(1)).save(any(AiResponseCacheEntry.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGet_PersistentCacheHitIsCounted() {
+        AiResponseCacheEntry entry = new AiResponseCacheEntry("key", "resume_optimization", "gpt-4",
+                "已缓存的响应", 1500, LocalDateTime.now().plusHours(1));
+        when(cacheRepository.findById("key")).thenReturn(Optional.of(entry));
+
+        Optional<String> result = cacheService.get("resume_optimization", "key");
+
+        assertEquals(Optional.of("已缓存的响应"), result);
+        Map<String, Object> stat = ((Map<String, Map<String, Object>>) cacheService.getStatistics()
+                .get("serviceStats")).get("resume_optimization");
+        assertEquals(1L, stat.get("l2Hits"));
+        assertEquals(1500L, stat.get("latencySavedMs"));
+    }
+
+    @Test
+    void testGet_ExpiredPersistentEntryIsMiss() {
+        AiResponseCacheEntry entry = new AiResponseCacheEntry("key", "resume_optimization", "gpt-4",
+                "过期响应", 1500, LocalDateTime.now().minusMinutes(1));
+        when(cacheRepository.findById("key")).thenReturn(Optional.of(entry));
+
+        assertTrue(cacheService.get("resume_optimization", "key").isEmpty());
+    }
+
+    @Test
+    void testGetOrCompute_ReusesNearDuplicateAndReportsSimilarity() {
+        String resume = "张三 电话：138-0013-8000 邮箱 zhangsan@example.com\n"
+                + "五年Java后端开发经验，负责订单系统和支付系统的设计与实现，熟悉Spring Boot、MongoDB和Redis，"
+                + "主导过微服务拆分，系统吞吐量提升三倍，带领五人团队完成核心交易链路重构。";
+        String changed = resume.replace("138-0013-8000", "139 1234 5678").replace("，", ",  ");
+        AtomicInteger calls = new AtomicInteger();
+
+        cacheService.getOrCompute("resume_optimization", "gpt-4", "key-1", "user-1", new String[]{resume, "JD"},
+                () -> "优化结果" + calls.incrementAndGet());
+
+        String result;
+        Map<String, Object> metadata;
+        try (AiResponseMetadata collector = AiResponseMetadata.start()) {
+            result = cacheService.getOrCompute("resume_optimization", "gpt-4", "key-2", "user-1", new String[]{changed, "JD"},
+                    () -> "优化结果" + calls.incrementAndGet());
+            metadata = collector.toMap();
+        }
+
+        assertEquals("优化结果1", result);
+        assertEquals(1, calls.get());
+        assertEquals("similar", metadata.get("cache"));
+        assertTrue((Double) metadata.get("similarity") >= 0.9);
+    }
+
+    @Test
+    void testGetOrCompute_NearDuplicateRequiresSameSecondaryInputs() {
+        String resume = "五年Java后端开发经验，负责订单系统和支付系统的设计与实现，熟悉Spring Boot、MongoDB和Redis。";
+        AtomicInteger calls = new AtomicInteger();
+
+        cacheService.getOrCompute("resume_optimization", "gpt-4", "key-1", "user-1", new String[]{resume, "招聘Java工程师"},
+                () -> "优化结果" + calls.incrementAndGet());
+        String result = cacheService.getOrCompute("resume_optimization", "gpt-4", "key-2", "user-1",
+                new String[]{resume + " ", "招聘前端工程师"}, () -> "优化结果" + calls.incrementAndGet());
+
+        assertEquals("优化结果2", result);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void testGetOrCompute_DissimilarInputIsMiss() {
+        AtomicInteger calls = new AtomicInteger();
+
+        cacheService.getOrCompute("resume_optimization", "gpt-4", "key-1", "user-1",
+                new String[]{"五年Java后端开发经验，负责订单系统和支付系统的设计与实现。", "JD"},
+                () -> "优化结果" + calls.incrementAndGet());
+        String result = cacheService.getOrCompute("resume_optimization", "gpt-4", "key-2", "user-1",
+                new String[]{"三年前端开发经验，熟悉React和TypeScript，负责管理后台开发。", "JD"},
+                () -> "优化结果" + calls.incrementAndGet());
+
+        assertEquals("优化结果2", result);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetOrCompute_NearDuplicateNeverSharedAcrossUsers() {
+        String resume = "张三 电话：138-0013-8000 邮箱 zhangsan@example.com\n"
+                + "五年Java后端开发经验，负责订单系统和支付系统的设计与实现，熟悉Spring Boot、MongoDB和Redis，"
+                + "主导过微服务拆分，系统吞吐量提升三倍，带领五人团队完成核心交易链路重构。";
+        String otherUser = resume.replace("张三", "李四").replace("138-0013-8000", "139 1234 5678")
+                .replace("zhangsan@example.com", "lisi@example.com");
+        AtomicInteger calls = new AtomicInteger();
+
+        cacheService.getOrCompute("resume_optimization", "gpt-4", "key-1", "user-1", new String[]{resume, "JD"},
+                () -> "张三的优化结果" + calls.incrementAndGet());
+        String result = cacheService.getOrCompute("resume_optimization", "gpt-4", "key-2", "user-2",
+                new String[]{otherUser, "JD"}, () -> "李四的优化结果" + calls.incrementAndGet());
+
+        assertEquals("李四的优化结果2", result);
+        // 二级缓存同样按用户分桶，查询时不会用到第一个用户的分桶键
+        ArgumentCaptor<AiResponseCacheEntry> saved = ArgumentCaptor.forClass(AiResponseCacheEntry.class);
+        verify(cacheRepository, times(2)).save(saved.capture());
+        ArgumentCaptor<List<String>> queried = ArgumentCaptor.forClass(List.class);
+        verify(cacheRepository, times(2)).findTop20ByServiceTypeAndLshBandsIn(eq("resume_optimization"), queried.capture());
+        assertTrue(Collections.disjoint(saved.getAllValues().get(0).getLshBands(), queried.getValue()));
+    }
+}
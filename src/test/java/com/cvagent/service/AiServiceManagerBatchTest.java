@@ -0,0 +1,165 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiOverloadedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 批量处理测试：窗口并发、单个请求超时、全局截止时间和执行器拒绝
+ */
+@ExtendWith(MockitoExtension.class)
+class AiServiceManagerBatchTest {
+
+    @Mock
+    private AiExecutionService aiExecutionService;
+
+    @Mock
+    private AiRateLimiter rateLimiter;
+
+    @Spy
+    @InjectMocks
+    private AiServiceManager aiServiceManager;
+
+    private ExecutorService executorService;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        executorService = Executors.newCachedThreadPool();
+        lenient().when(aiExecutionService.executor()).thenReturn(executorService);
+        ReflectionTestUtils.setField(aiServiceManager, "batchParallelism", 2);
+        ReflectionTestUtils.setField(aiServiceManager, "batchItemTimeoutMillis", 5000L);
+        ReflectionTestUtils.setField(aiServiceManager, "batchDeadlineMillis", 5000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testRunBatch_WindowedParallelism() throws Exception {
+        doAnswer(invocation -> tracked(() -> {
+            Thread.sleep(30);
+            return "回复:" + invocation.getArgument(0);
+        })).when(aiServiceManager).chat(anyString());
+
+        Map<String, String> completed = new ConcurrentHashMap<>();
+        AiServiceManager.BatchRun run = aiServiceManager.runBatch(chatRequests(8), completed::put);
+        run.completion().get(5, TimeUnit.SECONDS);
+
+        assertEquals(8, completed.size());
+        assertEquals("回复:消息3", completed.get("item3"));
+        assertEquals(2, maxActive.get());
+    }
+
+    @Test
+    void testRunBatch_TimedOutItemKeepsSlotUntilFinished() throws Exception {
+        ReflectionTestUtils.setField(aiServiceManager, "batchParallelism", 1);
+        ReflectionTestUtils.setField(aiServiceManager, "batchItemTimeoutMillis", 100L);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> tracked(() -> {
+            if ("消息0".equals(invocation.getArgument(0))) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return "完成";
+        })).when(aiServiceManager).chat(anyString());
+
+        Map<String, String> completed = new ConcurrentHashMap<>();
+        AiServiceManager.BatchRun run = aiServiceManager.runBatch(chatRequests(2), completed::put);
+
+        // 超时的结果先回报，但请求仍在执行，下一个请求不启动
+        Thread.sleep(300);
+        assertEquals(Map.of("item0", "处理超时"), completed);
+        verify(aiServiceManager, never()).chat("消息1");
+
+        release.countDown();
+        run.completion().get(5, TimeUnit.SECONDS);
+        assertEquals("处理超时", completed.get("item0"));
+        assertEquals("完成", completed.get("item1"));
+        assertEquals(1, maxActive.get());
+    }
+
+    @Test
+    void testRunBatch_RejectedSubmissionsDoNotRecurse() throws Exception {
+        ReflectionTestUtils.setField(aiServiceManager, "batchParallelism", 8);
+        when(aiExecutionService.executor()).thenReturn(task -> {
+            throw new AiOverloadedException("AI执行线程已满", 1);
+        });
+
+        Map<String, String> completed = new ConcurrentHashMap<>();
+        AiServiceManager.BatchRun run = aiServiceManager.runBatch(chatRequests(5000), completed::put);
+        run.completion().get(5, TimeUnit.SECONDS);
+
+        assertEquals(5000, completed.size());
+        assertEquals("处理失败: AI执行线程已满", completed.get("item4999"));
+    }
+
+    @Test
+    void testBatchProcess_DeadlineReturnsPartialResults() {
+        ReflectionTestUtils.setField(aiServiceManager, "batchDeadlineMillis", 200L);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            if ("消息1".equals(invocation.getArgument(0))) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return "完成";
+        }).when(aiServiceManager).chat(anyString());
+
+        Map<String, String> results = aiServiceManager.batchProcess(chatRequests(3));
+        release.countDown();
+
+        assertEquals(3, results.size());
+        assertEquals("完成", results.get("item0"));
+        assertEquals("处理超时", results.get("item1"));
+        assertEquals("完成", results.get("item2"));
+    }
+
+    @Test
+    void testRunBatch_ChargesUserQuotaOnce() throws Exception {
+        doReturn("完成").when(aiServiceManager).chat(anyString());
+
+        aiServiceManager.runBatch(chatRequests(3), (key, result) -> { }).completion().get(5, TimeUnit.SECONDS);
+
+        verify(rateLimiter).acquireUser(isNull(), anyLong());
+    }
+
+    private String tracked(java.util.concurrent.Callable<String> call) throws Exception {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+            return call.call();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private static Map<String, Object> chatRequests(int count) {
+        Map<String, Object> requests = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            requests.put("item" + i, Map.of("type", "chat", "message", "消息" + i));
+        }
+        return requests;
+    }
+}
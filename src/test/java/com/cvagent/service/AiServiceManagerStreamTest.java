@@ -0,0 +1,307 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiModelUnavailableException;
+import com.cvagent.exception.AiOverloadedException;
+import com.cvagent.exception.AiRateLimitException;
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.service.ai.AiStreamHandle;
+import com.cvagent.service.ai.AiStreamListener;
+import com.cvagent.service.ai.ChatAssistant;
+import com.cvagent.service.ai.StreamingResumeOptimizationAssistant;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.service.TokenStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 流式调用测试：缓存回放、限流与舱壁拒绝、模型不可用降级，以及各结束路径上舱壁许可的释放
+ */
+@ExtendWith(MockitoExtension.class)
+class AiServiceManagerStreamTest {
+
+    @Mock
+    private ChatAssistant chatAssistant;
+
+    @Mock
+    private StreamingResumeOptimizationAssistant streamingResumeOptimizationAssistant;
+
+    @Mock
+    private PromptTemplateService promptTemplateService;
+
+    @Mock
+    private AiMonitoringService aiMonitoringService;
+
+    @Mock
+    private AiResponseCacheService responseCacheService;
+
+    @Mock
+    private AiExecutionService aiExecutionService;
+
+    @Mock
+    private AiRateLimiter rateLimiter;
+
+    @Mock
+    private AiFallbackService fallbackService;
+
+    @Mock
+    private PromptBudgetService promptBudgetService;
+
+    @Mock
+    private TokenStream tokenStream;
+
+    @InjectMocks
+    private AiServiceManager aiServiceManager;
+
+    private final AiBulkhead bulkhead = new AiBulkhead("test", 1, 0, 0);
+    private final RecordingListener listener = new RecordingListener();
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(aiExecutionService.bulkhead(anyString())).thenReturn(bulkhead);
+        lenient().when(promptBudgetService.compact(anyString(), anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+        lenient().when(promptBudgetService.fit(anyString(), any(String[].class)))
+                .thenAnswer(invocation -> invocation.getRawArguments()[1]);
+        lenient().when(promptTemplateService.getPrompt(anyString(), anyMap())).thenReturn("渲染后的提示词");
+        lenient().when(responseCacheService.buildKey(anyString(), any(), anyDouble(), any(String[].class)))
+                .thenReturn("cache-key");
+        lenient().when(responseCacheService.get(anyString(), anyString())).thenReturn(Optional.empty());
+        lenient().when(tokenStream.onPartialResponse(any())).thenReturn(tokenStream);
+        lenient().when(tokenStream.onCompleteResponse(any())).thenReturn(tokenStream);
+        lenient().when(tokenStream.onError(any())).thenReturn(tokenStream);
+    }
+
+    @Test
+    void testStream_CacheHitReplaysWithoutCallingModel() {
+        when(responseCacheService.get("resume_optimization", "cache-key")).thenReturn(Optional.of("缓存的优化结果"));
+
+        aiServiceManager.streamOptimizeResume("简历内容", "职位描述", listener);
+
+        assertEquals(List.of("缓存的优化结果"), listener.tokens);
+        assertEquals("缓存的优化结果", listener.completed);
+        assertNull(listener.error);
+        verifyNoInteractions(streamingResumeOptimizationAssistant);
+        assertEquals(0, bulkhead.getActiveCount());
+    }
+
+    @Test
+    void testStream_KeyedOnRenderedPrompt() {
+        when(streamingResumeOptimizationAssistant.optimizeResume("渲染后的提示词")).thenReturn(tokenStream);
+
+        aiServiceManager.streamOptimizeResume("简历内容", "职位描述", listener);
+
+        // 缓存键按实际发送给流式助手的提示词计算，不与按原始参数计算的阻塞路径共用
+        verify(responseCacheService).buildKey(eq("resume_optimization"), any(), anyDouble(),
+                eq(new String[]{"渲染后的提示词"}));
+    }
+
+    @Test
+    void testStream_UserRateLimitEmitsError() {
+        doThrow(new AiRateLimitException("请求过于频繁", AiRateLimitException.USER_RATE, 3))
+                .when(rateLimiter).acquireUser(any(), anyLong());
+
+        aiServiceManager.streamChat("你好", listener);
+
+        assertInstanceOf(AiRateLimitException.class, listener.error);
+        assertNull(listener.completed);
+        verifyNoInteractions(chatAssistant);
+        assertEquals(0, bulkhead.getActiveCount());
+    }
+
+    @Test
+    void testStream_BulkheadFullEmitsError() {
+        bulkhead.acquireNow();
+
+        aiServiceManager.streamChat("你好", listener);
+
+        assertInstanceOf(AiOverloadedException.class, listener.error);
+        verifyNoInteractions(chatAssistant);
+        // 被拒绝的请求不释放别人持有的许可
+        assertEquals(1, bulkhead.getActiveCount());
+        ArgumentCaptor<AiUsageLog> log = ArgumentCaptor.forClass(AiUsageLog.class);
+        verify(aiMonitoringService).recordRequest(log.capture());
+        assertFalse(log.getValue().isSuccess());
+    }
+
+    @Test
+    void testStream_ReleasesBulkheadOnComplete() {
+        when(streamingResumeOptimizationAssistant.optimizeResume(anyString())).thenReturn(tokenStream);
+        doAnswer(invocation -> {
+            assertEquals(1, bulkhead.getActiveCount());
+            partialHandler().accept("优化");
+            partialHandler().accept("结果");
+            completeHandler().accept(ChatResponse.builder()
+                    .aiMessage(AiMessage.from("优化结果"))
+                    .tokenUsage(new TokenUsage(10, 5))
+                    .modelName("gpt-test")
+                    .build());
+            return null;
+        }).when(tokenStream).start();
+
+        aiServiceManager.streamOptimizeResume("简历内容", "职位描述", listener);
+
+        assertEquals(List.of("优化", "结果"), listener.tokens);
+        assertEquals("优化结果", listener.completed);
+        assertEquals(0, bulkhead.getActiveCount());
+        verify(responseCacheService).put(eq("resume_optimization"), any(), eq("cache-key"), eq("优化结果"), anyLong());
+    }
+
+    @Test
+    void testStream_ReleasesBulkheadOnError() {
+        when(chatAssistant.chatStream(anyString())).thenReturn(tokenStream);
+        doAnswer(invocation -> {
+            errorHandler().accept(new RuntimeException("连接中断"));
+            return null;
+        }).when(tokenStream).start();
+
+        aiServiceManager.streamChat("你好", listener);
+
+        assertEquals("连接中断", listener.error.getMessage());
+        assertEquals(0, bulkhead.getActiveCount());
+        verify(responseCacheService, never()).put(anyString(), any(), anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    void testStream_ReleasesBulkheadWhenStartFails() {
+        when(chatAssistant.chatStream(anyString())).thenReturn(tokenStream);
+        doThrow(new IllegalStateException("无法建立连接")).when(tokenStream).start();
+
+        aiServiceManager.streamChat("你好", listener);
+
+        assertInstanceOf(IllegalStateException.class, listener.error);
+        assertEquals(0, bulkhead.getActiveCount());
+    }
+
+    @Test
+    void testStream_FallsBackWhenModelsUnavailable() {
+        when(streamingResumeOptimizationAssistant.optimizeResume(anyString())).thenReturn(tokenStream);
+        when(fallbackService.fallback("resume_optimization", "cache-key", "简历内容"))
+                .thenReturn(Optional.of("规则生成的优化建议"));
+        doAnswer(invocation -> {
+            errorHandler().accept(new AiModelUnavailableException("所有模型均不可用", null));
+            return null;
+        }).when(tokenStream).start();
+
+        aiServiceManager.streamOptimizeResume("简历内容", "职位描述", listener);
+
+        assertNull(listener.error);
+        assertEquals(List.of("规则生成的优化建议"), listener.tokens);
+        assertEquals("规则生成的优化建议", listener.completed);
+        assertEquals(0, bulkhead.getActiveCount());
+    }
+
+    @Test
+    void testStream_NoFallbackForUncachedChat() {
+        when(chatAssistant.chatStream(anyString())).thenReturn(tokenStream);
+        doAnswer(invocation -> {
+            errorHandler().accept(new AiModelUnavailableException("所有模型均不可用", null));
+            return null;
+        }).when(tokenStream).start();
+
+        aiServiceManager.streamChat("你好", listener);
+
+        assertInstanceOf(AiModelUnavailableException.class, listener.error);
+        verifyNoInteractions(fallbackService);
+    }
+
+    @Test
+    void testStream_CancelReleasesBulkheadAndDropsLaterOutput() {
+        when(streamingResumeOptimizationAssistant.optimizeResume(anyString())).thenReturn(tokenStream);
+
+        AiStreamHandle handle = aiServiceManager.streamOptimizeResume("简历内容", "职位描述", listener);
+        partialHandler().accept("优化");
+        assertEquals(1, bulkhead.getActiveCount());
+
+        handle.cancel();
+        handle.cancel();
+
+        assertEquals(0, bulkhead.getActiveCount());
+        assertInstanceOf(CancellationException.class, listener.error);
+
+        // 底层调用无法中止，之后的输出被丢弃，结束时仍记录用量并写入缓存
+        partialHandler().accept("结果");
+        completeHandler().accept(ChatResponse.builder()
+                .aiMessage(AiMessage.from("优化结果"))
+                .tokenUsage(new TokenUsage(10, 5))
+                .build());
+
+        assertEquals(List.of("优化"), listener.tokens);
+        assertNull(listener.completed);
+        assertEquals(0, bulkhead.getActiveCount());
+        ArgumentCaptor<AiUsageLog> log = ArgumentCaptor.forClass(AiUsageLog.class);
+        verify(aiMonitoringService).recordRequest(log.capture());
+        assertEquals(15, log.getValue().getTokensUsed());
+        verify(responseCacheService).put(eq("resume_optimization"), any(), eq("cache-key"), eq("优化结果"), anyLong());
+    }
+
+    @Test
+    void testStream_CancelAfterErrorIsNoop() {
+        when(chatAssistant.chatStream(anyString())).thenReturn(tokenStream);
+
+        AiStreamHandle handle = aiServiceManager.streamChat("你好", listener);
+        errorHandler().accept(new RuntimeException("连接中断"));
+        handle.cancel();
+
+        assertEquals("连接中断", listener.error.getMessage());
+        assertEquals(0, bulkhead.getActiveCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<String> partialHandler() {
+        ArgumentCaptor<Consumer<String>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(tokenStream).onPartialResponse(captor.capture());
+        return captor.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<ChatResponse> completeHandler() {
+        ArgumentCaptor<Consumer<ChatResponse>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(tokenStream).onCompleteResponse(captor.capture());
+        return captor.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<Throwable> errorHandler() {
+        ArgumentCaptor<Consumer<Throwable>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(tokenStream).onError(captor.capture());
+        return captor.getValue();
+    }
+
+    private static class RecordingListener implements AiStreamListener {
+        private final List<String> tokens = new ArrayList<>();
+        private String completed;
+        private Throwable error;
+
+        @Override
+        public void onToken(String token) {
+            tokens.add(token);
+        }
+
+        @Override
+        public void onComplete(String response) {
+            completed = response;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class AiUsageLogWriterTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private MongoCollection<Document> collection;
+
+    private AiUsageLogWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getConverter()).thenReturn(mock(MongoConverter.class));
+        when(mongoTemplate.getCollectionName(AiUsageLog.class)).thenReturn("ai_usage_logs");
+        when(mongoTemplate.getCollection("ai_usage_logs")).thenReturn(collection);
+        when(collection.withWriteConcern(any(WriteConcern.class))).thenReturn(collection);
+
+        writer = new AiUsageLogWriter();
+        ReflectionTestUtils.setField(writer, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(writer, "aiUsageRollupService", mock(AiUsageRollupService.class));
+        ReflectionTestUtils.setField(writer, "aiUserUsageService", mock(AiUserUsageService.class));
+        ReflectionTestUtils.setField(writer, "bufferCapacity", 4);
+        ReflectionTestUtils.setField(writer, "batchSize", 2);
+        ReflectionTestUtils.setField(writer, "flushIntervalMillis", 60000L);
+        ReflectionTestUtils.setField(writer, "writeConcernName", "MAJORITY");
+        ReflectionTestUtils.setField(writer, "shutdownTimeoutMillis", 5000L);
+    }
+
+    @Test
+    void testRingBuffer_RejectsWhenFullAndReusesSlots() {
+        AiUsageLogWriter.MpscRingBuffer<Integer> buffer = new AiUsageLogWriter.MpscRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drainTo(drained, 10));
+        assertEquals(List.of(1, 2, 3, 4), drained);
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void testRingBuffer_ConcurrentProducersLoseNothing() throws Exception {
+        AiUsageLogWriter.MpscRingBuffer<Integer> buffer = new AiUsageLogWriter.MpscRingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            executor.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        LockSupport.parkNanos(1000);
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        Set<Integer> seen = new HashSet<>();
+        List<Integer> drained = new ArrayList<>();
+        while (seen.size() < producers * perProducer) {
+            drained.clear();
+            if (buffer.drainTo(drained, 64) == 0) {
+                LockSupport.parkNanos(1000);
+            }
+            seen.addAll(drained);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSubmit_WritesFullBatchWithConfiguredWriteConcern() {
+        writer.start();
+        try {
+            writer.submit(log("chat"));
+            writer.submit(log("chat"));
+
+            ArgumentCaptor<List<Document>> documents = ArgumentCaptor.forClass(List.class);
+            verify(collection, timeout(2000)).insertMany(documents.capture(), any(InsertManyOptions.class));
+            assertEquals(2, documents.getValue().size());
+            verify(collection).withWriteConcern(WriteConcern.MAJORITY);
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    void testSubmit_DropsWhenBufferFullAndFlushesOnShutdown() throws InterruptedException {
+        ReflectionTestUtils.setField(writer, "batchSize", 100);
+        writer.start();
+        // 等写线程进入等待，未攒够一批且未到刷新间隔时不会取走日志
+        Thread.sleep(100);
+
+        for (int i = 0; i < 6; i++) {
+            writer.submit(log("chat"));
+        }
+        assertEquals(2L, writer.getStatistics().get("dropped"));
+        verify(collection, never()).insertMany(anyList(), any(InsertManyOptions.class));
+
+        writer.shutdown();
+
+        verify(collection).insertMany(anyList(), any(InsertManyOptions.class));
+        assertEquals(4L, writer.getStatistics().get("written"));
+        assertEquals(0, writer.getStatistics().get("buffered"));
+    }
+
+    private static AiUsageLog log(String serviceType) {
+        AiUsageLog log = new AiUsageLog();
+        log.setServiceType(serviceType);
+        log.setResponseTime(10);
+        log.setSuccess(true);
+        return log;
+    }
+}
@@ -0,0 +1,128 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.model.AiUsageRollup;
+import com.cvagent.service.ai.LatencyHistogram;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AiUsageRollupServiceTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private AiUsageRollupService rollupService;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        rollupService = new AiUsageRollupService();
+        ReflectionTestUtils.setField(rollupService, "mongoTemplate", mongoTemplate);
+    }
+
+    @Test
+    void testRecord_PreAggregatesBatchIntoMinuteAndHourUpserts() {
+        BulkOperations operations = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, AiUsageRollup.class)).thenReturn(operations);
+        LocalDateTime minute = LocalDateTime.of(2026, 10, 17, 9, 30);
+
+        rollupService.record(List.of(
+                log("chat", minute.plusSeconds(5), 100, true, 0.01),
+                log("chat", minute.plusSeconds(40), 300, false, 0.02),
+                log("chat", minute.plusMinutes(1), 200, true, null)));
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        // 两个分钟桶加一个小时桶，整批只执行一次
+        verify(operations, times(3)).upsert(queries.capture(), updates.capture());
+        verify(operations).execute();
+
+        int hourIndex = queries.getAllValues().stream().map(q -> q.getQueryObject().get("_id"))
+                .toList().indexOf(AiUsageRollup.idOf(AiUsageRollup.GRANULARITY_HOUR, "chat", minute.withMinute(0)));
+        Document hour = updates.getAllValues().get(hourIndex).getUpdateObject();
+        Document inc = (Document) hour.get("$inc");
+        assertEquals(3L, inc.get("count"));
+        assertEquals(1L, inc.get("errors"));
+        assertEquals(600L, inc.get("latencySum"));
+        assertEquals(0.03, (Double) inc.get("cost"), 1e-9);
+        assertEquals(1L, inc.get("latencyBuckets." + LatencyHistogram.bucketIndex(300)));
+        assertEquals(300L, ((Document) hour.get("$max")).get("latencyMax"));
+    }
+
+    @Test
+    void testFindRollups_ReadsWholeHoursFromHourBuckets() {
+        LocalDateTime from = LocalDateTime.of(2026, 10, 17, 9, 30);
+        LocalDateTime to = LocalDateTime.of(2026, 10, 17, 12, 15);
+
+        rollupService.findRollups(from, to, "chat");
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(3)).find(queries.capture(), eq(AiUsageRollup.class));
+        List<String> granularities = new ArrayList<>();
+        for (Query query : queries.getAllValues()) {
+            granularities.add((String) query.getQueryObject().get("granularity"));
+            assertEquals("chat", query.getQueryObject().get("serviceType"));
+        }
+        assertEquals(List.of("minute", "hour", "minute"), granularities);
+
+        // 不跨整小时的范围只读分钟汇总
+        reset(mongoTemplate);
+        rollupService.findRollups(from, from.plusMinutes(20), null);
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(AiUsageRollup.class));
+    }
+
+    @Test
+    void testSummarize_MergesLatencySketches() {
+        AiUsageRollup fast = rollup(990, 0, 100);
+        AiUsageRollup slow = rollup(10, 10, 20_000);
+
+        Map<String, Object> summary = rollupService.summarize(List.of(fast, slow));
+
+        assertEquals(1000L, summary.get("requests"));
+        assertEquals(10L, summary.get("errors"));
+        assertEquals(99.0, (Double) summary.get("successRate"), 1e-9);
+        assertEquals(100L, summary.get("p50"));
+        assertTrue((Long) summary.get("p99") <= 100L);
+        assertEquals(20_000L, summary.get("maxResponseTime"));
+        assertEquals(299L, summary.get("averageResponseTime"));
+    }
+
+    private static AiUsageRollup rollup(long count, long errors, long latency) {
+        AiUsageRollup rollup = new AiUsageRollup();
+        rollup.setServiceType("chat");
+        rollup.setBucketStart(LocalDateTime.of(2026, 10, 17, 9, 0));
+        rollup.setCount(count);
+        rollup.setErrors(errors);
+        rollup.setLatencySum(count * latency);
+        rollup.setLatencyMax(latency);
+        rollup.setLatencyBuckets(Map.of(String.valueOf(LatencyHistogram.bucketIndex(latency)), count));
+        return rollup;
+    }
+
+    private static AiUsageLog log(String serviceType, LocalDateTime requestTime, long responseTime,
+                                  boolean success, Double cost) {
+        AiUsageLog log = new AiUsageLog();
+        log.setServiceType(serviceType);
+        log.setRequestTime(requestTime);
+        log.setResponseTime(responseTime);
+        log.setSuccess(success);
+        log.setCost(cost);
+        return log;
+    }
+}
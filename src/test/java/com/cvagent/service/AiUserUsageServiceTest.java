@@ -0,0 +1,119 @@
+package com.cvagent.service;
+
+import com.cvagent.model.AiUsageLog;
+import com.cvagent.model.AiUserDailyUsage;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AiUserUsageServiceTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private AiUserUsageService usageService;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        usageService = new AiUserUsageService();
+        ReflectionTestUtils.setField(usageService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(usageService, "retentionDays", 400);
+    }
+
+    @Test
+    void testRecord_IncrementsOneDocumentPerUserAndDay() {
+        BulkOperations operations = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, AiUserDailyUsage.class)).thenReturn(operations);
+        LocalDateTime morning = LocalDateTime.of(2026, 10, 17, 9, 0);
+
+        usageService.record(List.of(
+                log("user-1", "chat", morning, 120, true, 0.01),
+                log("user-1", "resume_optimization", morning.plusHours(2), 300, false, 0.02),
+                log("user-1", "chat", morning.plusDays(1), 50, true, 0.01),
+                log(null, "chat", morning, 10, true, 0.01)));
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(operations, times(2)).upsert(queries.capture(), updates.capture());
+        verify(operations).execute();
+
+        int index = queries.getAllValues().stream().map(q -> q.getQueryObject().get("_id")).toList()
+                .indexOf(AiUserDailyUsage.idOf("user-1", LocalDate.of(2026, 10, 17)));
+        Document update = updates.getAllValues().get(index).getUpdateObject();
+        Document inc = (Document) update.get("$inc");
+        assertEquals(2L, inc.get("requests"));
+        assertEquals(1L, inc.get("errors"));
+        assertEquals(300L, inc.get("tokensUsed"));
+        assertEquals(420L, inc.get("latencySum"));
+        assertEquals(1L, inc.get("services.chat.requests"));
+        assertEquals(1L, inc.get("services.resume_optimization.errors"));
+        assertEquals(LocalDate.of(2027, 11, 21).atStartOfDay(), ((Document) update.get("$setOnInsert")).get("expireAt"));
+    }
+
+    @Test
+    void testGetUserUsage_SumsDailyDocuments() {
+        when(mongoTemplate.find(any(Query.class), eq(AiUserDailyUsage.class)))
+                .thenReturn(List.of(day(LocalDate.of(2026, 10, 16), 4, 1000), day(LocalDate.of(2026, 10, 17), 6, 500)));
+
+        Map<String, Object> usage = usageService.getUserUsage("user-1",
+                LocalDate.of(2026, 10, 11), LocalDate.of(2026, 10, 17));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> total = (Map<String, Object>) usage.get("total");
+        assertEquals(10L, total.get("requests"));
+        assertEquals(1500L, total.get("tokensUsed"));
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> services = (Map<String, Map<String, Object>>) usage.get("services");
+        assertEquals(10L, services.get("chat").get("requests"));
+        assertEquals(2, ((List<?>) usage.get("daily")).size());
+    }
+
+    @Test
+    void testGetTopUsers_RejectsUnknownSortField() {
+        assertThrows(IllegalArgumentException.class, () -> usageService.getTopUsers(
+                LocalDate.of(2026, 10, 11), LocalDate.of(2026, 10, 17), "userId", 10));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    private static AiUserDailyUsage day(LocalDate date, long requests, long tokens) {
+        AiUserDailyUsage usage = new AiUserDailyUsage();
+        usage.setUserId("user-1");
+        usage.setDate(date);
+        usage.setRequests(requests);
+        usage.setTokensUsed(tokens);
+        AiUserDailyUsage.ServiceUsage chat = new AiUserDailyUsage.ServiceUsage();
+        chat.setRequests(requests);
+        chat.setTokensUsed(tokens);
+        usage.setServices(Map.of("chat", chat));
+        return usage;
+    }
+
+    private static AiUsageLog log(String userId, String serviceType, LocalDateTime requestTime, long responseTime,
+                                  boolean success, double cost) {
+        AiUsageLog log = new AiUsageLog();
+        log.setUserId(userId);
+        log.setServiceType(serviceType);
+        log.setRequestTime(requestTime);
+        log.setResponseTime(responseTime);
+        log.setSuccess(success);
+        log.setTokensUsed(150);
+        log.setCost(cost);
+        return log;
+    }
+}
@@ -0,0 +1,49 @@
+package com.cvagent.service;
+
+import com.cvagent.service.ai.CompiledPromptTemplate;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledPromptTemplateTest {
+
+    @Test
+    void testRender_ReplacesAllOccurrences() {
+        CompiledPromptTemplate template = CompiledPromptTemplate.compile("t", 1,
+                "简历：{resumeContent}\n职位：{jobDescription}\n再次确认：{resumeContent}");
+
+        String result = template.render(Map.of("resumeContent", "R", "jobDescription", "J"));
+
+        assertEquals("简历：R\n职位：J\n再次确认：R", result);
+        assertEquals(List.of("resumeContent", "jobDescription"), template.getVariables());
+    }
+
+    @Test
+    void testRender_KeepsMissingPlaceholdersAndBlanksNulls() {
+        CompiledPromptTemplate template = CompiledPromptTemplate.compile("t", 1, "{a}-{b}-{c}");
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "1");
+        values.put("b", null);
+
+        assertEquals("1--{c}", template.render(values));
+    }
+
+    @Test
+    void testRender_DoesNotRescanSubstitutedValues() {
+        CompiledPromptTemplate template = CompiledPromptTemplate.compile("t", 1, "{a}{b}");
+
+        assertEquals("{b}x", template.render(Map.of("a", "{b}", "b", "x")));
+    }
+
+    @Test
+    void testBuiltinTemplatesAreCompiled() {
+        Map<String, Object> details = new PromptTemplateService().getTemplateDetails("resume-optimization");
+
+        assertEquals(0, details.get("version"));
+        assertEquals(List.of("resumeContent", "jobDescription"), details.get("variables"));
+    }
+}
@@ -1,16 +1,20 @@
 package com.cvagent.service;
 
+import com.cvagent.exception.AiRateLimitException;
 import com.cvagent.model.CoverLetter;
 import com.cvagent.model.CoverLetterTemplate;
 import com.cvagent.model.EnhancedResume;
 import com.cvagent.model.JobRequirement;
+import com.cvagent.model.OptimizationJob;
 import com.cvagent.repository.CoverLetterRepository;
 import com.cvagent.repository.CoverLetterTemplateRepository;
 import com.cvagent.repository.EnhancedResumeRepository;
 import com.cvagent.repository.JobRequirementRepository;
+import com.cvagent.service.ai.AiUsageContext;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -46,6 +50,12 @@ class CoverLetterGenerationServiceTest {
     @Mock
     private AiServiceManager aiServiceManager;
 
+    @Mock
+    private OptimizationJobQueue optimizationJobQueue;
+
+    @Mock
+    private AiRateLimiter rateLimiter;
+
     @InjectMocks
     private CoverLetterGenerationService coverLetterGenerationService;
 
@@ -231,10 +241,30 @@ class CoverLetterGenerationServiceTest {
         customData.put("highlightSkills", List.of("Spring Boot", "MongoDB"));
         customData.put("experienceLevel", "高级");
 
-        // 执行测试
-        CoverLetter result = coverLetterGenerationService.generatePersonalizedCoverLetter(
+        when(optimizationJobQueue.submit(anyString(), anyString(), anyString(), any()))
+                .thenAnswer(invocation -> Optional.of(new OptimizationJob(invocation.getArgument(0),
+                        invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3), 3)));
+
+        // 执行测试：请求只创建求职信并提交后台任务
+        CoverLetter submitted = coverLetterGenerationService.generatePersonalizedCoverLetter(
             "user-1", "resume-1", "job-1", "template-1", customData);
 
+        assertEquals("processing", submitted.getOptimizationStatus());
+        verifyNoInteractions(aiServiceManager);
+        verify(rateLimiter).acquireUser(eq("user-1"), anyLong());
+        ArgumentCaptor<Map<String, Object>> payload = ArgumentCaptor.forClass(Map.class);
+        verify(optimizationJobQueue).submit(eq(CoverLetterGenerationService.PERSONALIZATION_JOB_TYPE),
+                eq("cl-1"), eq("user-1"), payload.capture());
+        assertEquals("resume-1", payload.getValue().get("resumeId"));
+        verify(rateLimiter, never()).refundUser(anyString(), anyLong());
+
+        // 执行后台任务
+        when(coverLetterRepository.findById("cl-1")).thenReturn(Optional.of(submitted));
+        OptimizationJob job = new OptimizationJob(CoverLetterGenerationService.PERSONALIZATION_JOB_TYPE,
+                "cl-1", "user-1", payload.getValue(), 3);
+        coverLetterGenerationService.runPersonalizationJob(job);
+        CoverLetter result = submitted;
+
         // 验证结果
         assertNotNull(result);
         assertEquals("user-1", result.getUserId());
@@ -274,6 +304,55 @@ class CoverLetterGenerationServiceTest {
 
         // 验证保存调用（创建 + 更新状态）
         verify(coverLetterRepository, times(2)).save(any(CoverLetter.class));
+
+        // 任务被重复执行时不会再次调用AI
+        coverLetterGenerationService.runPersonalizationJob(job);
+        verify(aiServiceManager, times(1)).generateCoverLetter(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void generatePersonalizedCoverLetter_WhenQuotaExceeded_ShouldNotCreateCoverLetter() {
+        when(enhancedResumeRepository.findById("resume-1")).thenReturn(Optional.of(testResume));
+        when(jobRequirementRepository.findById("job-1")).thenReturn(Optional.of(testJobRequirement));
+        when(coverLetterTemplateRepository.findById("template-1")).thenReturn(Optional.of(testTemplate));
+        doThrow(new AiRateLimitException("今日AI令牌配额已用完", AiRateLimitException.DAILY_QUOTA, 60))
+                .when(rateLimiter).acquireUser(eq("user-1"), anyLong());
+
+        assertThrows(AiRateLimitException.class, () -> coverLetterGenerationService.generatePersonalizedCoverLetter(
+                "user-1", "resume-1", "job-1", "template-1", null));
+
+        verify(coverLetterRepository, never()).save(any(CoverLetter.class));
+        verifyNoInteractions(optimizationJobQueue);
+    }
+
+    @Test
+    void registeredHandler_ShouldRunPersonalizationAsSubmittingUser() throws Exception {
+        CoverLetter coverLetter = new CoverLetter();
+        coverLetter.setId("cl-1");
+        coverLetter.setUserId("user-1");
+        coverLetter.setOptimizationStatus("processing");
+        when(coverLetterRepository.findById("cl-1")).thenReturn(Optional.of(coverLetter));
+        when(coverLetterRepository.save(any(CoverLetter.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(enhancedResumeRepository.findById("resume-1")).thenReturn(Optional.of(testResume));
+        when(jobRequirementRepository.findById("job-1")).thenReturn(Optional.of(testJobRequirement));
+        when(coverLetterTemplateRepository.findById("template-1")).thenReturn(Optional.of(testTemplate));
+        String[] usageUser = new String[1];
+        when(aiServiceManager.generateCoverLetter(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            usageUser[0] = AiUsageContext.delegatedUser();
+            return "尊敬的招聘经理：\n\n我对贵公司的职位非常感兴趣。\n\n此致\n敬礼";
+        });
+
+        coverLetterGenerationService.registerJobHandler();
+        ArgumentCaptor<OptimizationJobQueue.JobHandler> handler = ArgumentCaptor.forClass(OptimizationJobQueue.JobHandler.class);
+        verify(optimizationJobQueue).registerHandler(eq(CoverLetterGenerationService.PERSONALIZATION_JOB_TYPE),
+                handler.capture());
+        handler.getValue().handle(new OptimizationJob(CoverLetterGenerationService.PERSONALIZATION_JOB_TYPE, "cl-1", "user-1",
+                Map.of("resumeId", "resume-1", "jobRequirementId", "job-1", "templateId", "template-1"), 3));
+
+        // 队列线程上没有安全上下文，用量记在提交任务的用户名下
+        assertEquals("user-1", usageUser[0]);
+        assertEquals("completed", coverLetter.getOptimizationStatus());
+        assertNull(AiUsageContext.delegatedUser());
     }
 
     @Test
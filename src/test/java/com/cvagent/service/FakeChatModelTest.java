@@ -0,0 +1,105 @@
+package com.cvagent.service;
+
+import com.cvagent.service.ai.FakeChatModel;
+import com.cvagent.service.ai.FakeLlmBehavior;
+import com.cvagent.service.ai.FakeStreamingChatModel;
+import com.cvagent.service.ai.LatencyDistribution;
+import com.cvagent.service.ai.PromptCassette;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FakeChatModelTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static ChatRequest request(String text) {
+        return ChatRequest.builder().messages(UserMessage.from(text)).build();
+    }
+
+    private static FakeLlmBehavior behavior(FakeLlmBehavior.Mode mode, double errorRate, PromptCassette cassette) {
+        return new FakeLlmBehavior(mode, LatencyDistribution.fixed(0), errorRate, 50, "[{model}] {body}", 0, 8,
+                cassette);
+    }
+
+    @Test
+    void testGenerate_IsDeterministicAndReportsUsage() {
+        FakeChatModel model = new FakeChatModel("fake-model", behavior(FakeLlmBehavior.Mode.GENERATE, 0, null), null);
+
+        ChatResponse first = model.chat(request("优化我的简历"));
+        ChatResponse second = model.chat(request("优化我的简历"));
+
+        assertEquals(first.aiMessage().text(), second.aiMessage().text());
+        assertTrue(first.aiMessage().text().startsWith("[fake-model] 1. "));
+        assertEquals("fake-model", first.modelName());
+        assertTrue(first.tokenUsage().outputTokenCount() >= 50);
+    }
+
+    @Test
+    void testErrorRate_FailsCalls() {
+        FakeChatModel model = new FakeChatModel("fake-model", behavior(FakeLlmBehavior.Mode.GENERATE, 1.0, null), null);
+
+        assertThrows(RuntimeException.class, () -> model.chat(request("hello")));
+    }
+
+    @Test
+    void testRecordThenReplay() {
+        Path path = tempDir.resolve("cassette.jsonl");
+        ChatModel real = new ChatModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest chatRequest) {
+                return ChatResponse.builder().aiMessage(AiMessage.from("真实回答")).build();
+            }
+        };
+        new FakeChatModel("m", behavior(FakeLlmBehavior.Mode.RECORD, 0, new PromptCassette(path)), real)
+                .chat(request("问题"));
+
+        FakeLlmBehavior replay = behavior(FakeLlmBehavior.Mode.REPLAY, 0, new PromptCassette(path));
+        FakeChatModel model = new FakeChatModel("m", replay, null);
+
+        assertEquals("真实回答", model.chat(request("问题")).aiMessage().text());
+        assertNotEquals("真实回答", model.chat(request("另一个问题")).aiMessage().text());
+        assertEquals(1L, replay.getStatistics().get("replayHits"));
+        assertEquals(1L, replay.getStatistics().get("replayMisses"));
+    }
+
+    @Test
+    void testStreaming_EmitsChunksThenCompletes() throws Exception {
+        FakeStreamingChatModel model = new FakeStreamingChatModel("fake-model",
+                behavior(FakeLlmBehavior.Mode.GENERATE, 0, null), null);
+        StringBuilder streamed = new StringBuilder();
+        CompletableFuture<ChatResponse> done = new CompletableFuture<>();
+
+        model.chat(request("优化我的简历"), new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                streamed.append(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                done.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                done.completeExceptionally(error);
+            }
+        });
+
+        ChatResponse response = done.get(5, TimeUnit.SECONDS);
+        assertEquals(response.aiMessage().text(), streamed.toString());
+    }
+}
@@ -0,0 +1,99 @@
+package com.cvagent.service;
+
+import com.cvagent.service.ai.LatencyHistogram;
+import com.cvagent.service.ai.SlidingLatencyWindow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testPercentiles_WithinOneBucketOfExactValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertEquals(10_000, snapshot.getMax());
+        assertWithin(5_000, snapshot.percentile(50));
+        assertWithin(9_900, snapshot.percentile(99));
+        assertWithin(9_990, snapshot.percentile(99.9));
+        assertEquals(5_000.5, snapshot.getMean(), 0.001);
+    }
+
+    @Test
+    void testPercentiles_ExposeTailHiddenByAverage() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 980; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 20; i++) {
+            histogram.record(30_000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.percentile(50));
+        assertEquals(100, snapshot.percentile(90));
+        assertWithin(30_000, snapshot.percentile(99));
+        assertEquals(30_000, snapshot.getMax());
+    }
+
+    @Test
+    void testSlidingWindow_DropsExpiredSlices() {
+        SlidingLatencyWindow window = new SlidingLatencyWindow(10_000, 300_000);
+        window.record(0, 5_000);
+        window.record(55_000, 100);
+        window.record(65_000, 200);
+
+        assertEquals(2, window.snapshot(75_000, 60_000).getCount());
+        assertEquals(3, window.snapshot(75_000, 300_000).getCount());
+        assertEquals(1, window.snapshot(120_000, 60_000).getCount());
+        // 环形复用后旧时间片不再计入
+        window.record(310_000, 300);
+        assertEquals(3, window.snapshot(310_000, 300_000).getCount());
+    }
+
+    @Test
+    void testMonitoring_TracksUnknownServiceAndRegistersMeters() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AiMonitoringService monitoringService = new AiMonitoringService();
+        ReflectionTestUtils.setField(monitoringService, "meterRegistry", registry);
+        ReflectionTestUtils.setField(monitoringService, "aiCostService", mock(AiCostService.class));
+        ReflectionTestUtils.setField(monitoringService, "aiUsageLogWriter", mock(AiUsageLogWriter.class));
+        ReflectionTestUtils.setField(monitoringService, "environment", new MockEnvironment());
+        monitoringService.registerMeters();
+
+        monitoringService.recordRequest("streaming_chat", 250, true, null);
+        monitoringService.recordRequest("streaming_chat", 750, false, "超时");
+
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> serviceStats = (Map<String, Map<String, Object>>)
+                monitoringService.getServiceStatistics().get("serviceStats");
+        Map<String, Object> streaming = serviceStats.get("streaming_chat");
+        assertEquals(2L, streaming.get("requestCount"));
+        assertEquals(1L, streaming.get("errorCount"));
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> latency = (Map<String, Map<String, Object>>) streaming.get("latency");
+        assertEquals(2L, latency.get("1m").get("count"));
+        assertEquals(750L, latency.get("1h").get("max"));
+
+        assertEquals(2.0, registry.get("ai.requests").tag("service", "streaming_chat").functionCounter().count());
+        assertEquals(750.0, registry.get("ai.request.latency")
+                .tags("service", "streaming_chat", "window", "1m", "quantile", "max").gauge().value());
+        assertNotNull(registry.find("ai.requests").tag("service", "chat").functionCounter());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 64 + 1,
+                "期望约为 " + expected + "，实际为 " + actual);
+    }
+}
@@ -0,0 +1,48 @@
+package com.cvagent.service;
+
+import com.cvagent.service.ai.MinHashSignature;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MinHashSignatureTest {
+
+    private static final String RESUME = "李四 电话 13800138000 邮箱 lisi@example.com\n"
+            + "负责推荐系统的召回和排序模块，使用Spark处理每日十亿级行为日志，"
+            + "将点击率提升了百分之十二，并搭建了实时特征平台。";
+
+    @Test
+    void testSimilarity_IgnoresWhitespacePunctuationAndContactDetails() {
+        String changed = RESUME.replace("13800138000", "+86 139-0000-1111")
+                .replace("lisi@example.com", "li.si@corp.cn")
+                .replace("，", ",\n  ");
+
+        MinHashSignature original = MinHashSignature.of(RESUME);
+        assertEquals(1.0, original.similarity(MinHashSignature.of(changed)));
+        assertEquals(original.bandKeys("scope"), MinHashSignature.of(changed).bandKeys("scope"));
+    }
+
+    @Test
+    void testSimilarity_EstimatesJaccardForEditedText() {
+        MinHashSignature original = MinHashSignature.of(RESUME);
+        MinHashSignature edited = MinHashSignature.of(RESUME.replace("百分之十二", "百分之十五"));
+        MinHashSignature unrelated = MinHashSignature.of("三年前端开发经验，熟悉React、Vue和TypeScript，负责管理后台和移动端页面。");
+
+        double editedSimilarity = original.similarity(edited);
+        assertTrue(editedSimilarity > 0.8 && editedSimilarity < 1.0, "相似度: " + editedSimilarity);
+        assertTrue(original.similarity(unrelated) < 0.2);
+    }
+
+    @Test
+    void testBandKeys_DependOnScopeAndSurvivePersistence() {
+        MinHashSignature signature = MinHashSignature.of(RESUME);
+        List<String> bands = signature.bandKeys("gpt-4\u001FJD");
+
+        assertEquals(MinHashSignature.BANDS, bands.size());
+        assertNotEquals(bands, signature.bandKeys("gpt-4\u001F其他JD"));
+        assertEquals(bands, MinHashSignature.fromValues(signature.toValues()).bandKeys("gpt-4\u001FJD"));
+        assertNull(MinHashSignature.of("  ，。 "));
+    }
+}
@@ -0,0 +1,164 @@
+package com.cvagent.service;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MongoQueryProfilerTest {
+
+    private static final ConnectionDescription CONNECTION =
+            new ConnectionDescription(new ServerId(new ClusterId(), new ServerAddress()));
+
+    private MongoQueryProfiler profiler;
+
+    private int requestId;
+
+    @BeforeEach
+    void setUp() {
+        profiler = new MongoQueryProfiler();
+        ReflectionTestUtils.setField(profiler, "enabled", true);
+        ReflectionTestUtils.setField(profiler, "slowThresholdMillis", 100L);
+        ReflectionTestUtils.setField(profiler, "maxShapes", 100);
+        ReflectionTestUtils.setField(profiler, "maxSlowQueries", 10);
+        ReflectionTestUtils.setField(profiler, "explainIntervalMillis", 600_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        profiler.shutdown();
+    }
+
+    @Test
+    void testShape_RedactsValuesAndGroupsQueriesWithSameShape() {
+        run("find", "{find: 'projects', filter: {userId: 'u1', tags: {$in: ['java', 'go']},"
+                + " name: {$regex: 'cv', $options: 'i'}}, sort: {createdAt: -1}, $db: 'cvagent'}", 2);
+        run("find", "{find: 'projects', filter: {userId: 'u2', tags: {$in: ['rust']},"
+                + " name: {$regex: 'agent', $options: 'i'}}, sort: {createdAt: -1}, $db: 'cvagent'}", 4);
+        run("find", "{find: 'projects', filter: {userId: 'u2', tags: {$in: ['rust']},"
+                + " name: {$regex: '^agent', $options: ''}}, sort: {createdAt: -1}, $db: 'cvagent'}", 4);
+
+        List<Map<String, Object>> shapes = shapes(profiler.getReport(null, "totalTime", 10));
+        // 前缀锚定的正则是另一种形状
+        assertEquals(2, shapes.size());
+        Map<String, Object> shape = shapes.get(0);
+        assertEquals("projects", shape.get("collection"));
+        assertEquals(2L, shape.get("count"));
+        String json = (String) shape.get("shape");
+        assertFalse(json.contains("u1") || json.contains("java") || json.contains("cv\""));
+        assertEquals(BsonDocument.parse("{filter: {userId: '?', tags: {$in: ['?']},"
+                + " name: {$regex: '?'}}, sort: {createdAt: -1}}"), BsonDocument.parse(json));
+        assertTrue(((String) shapes.get(1).get("shape")).contains("^?"));
+    }
+
+    @Test
+    void testSlowQueries_CapturedAboveThreshold() {
+        run("find", "{find: 'resumes', filter: {userId: 'u1'}}", 5);
+        run("update", "{update: 'resumes', updates: [{q: {_id: 'r1'}, u: {$set: {title: 't'}}}]}", 250);
+        start("delete", "{delete: 'resumes', deletes: [{q: {'user.$id': 'u1'}, limit: 0}]}");
+        profiler.commandFailed(new CommandFailedEvent(null, 1, requestId, CONNECTION, "cvagent", "delete",
+                TimeUnit.MILLISECONDS.toNanos(300), new RuntimeException("timeout")));
+
+        Map<String, Object> report = profiler.getReport(null, "slow", 10);
+        List<Map<String, Object>> slow = list(report.get("slowQueries"));
+        assertEquals(2, slow.size());
+        assertEquals("delete", slow.get(0).get("command"));
+        assertEquals(false, slow.get(0).get("success"));
+        assertEquals("update", slow.get(1).get("command"));
+        assertEquals(250.0, slow.get(1).get("durationMillis"));
+        assertEquals(2L, ((Map<?, ?>) report.get("statistics")).get("slowCommands"));
+
+        assertEquals(1, list(profiler.getReport("resumes", "count", 10).get("shapes")).stream()
+                .filter(shape -> shape.get("command").equals("find")).count());
+        assertThrows(IllegalArgumentException.class, () -> profiler.getReport(null, "name", 10));
+    }
+
+    @Test
+    void testExplain_FlagsCollectionScanOnSlowShape() {
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(database.runCommand(any(Bson.class))).thenReturn(Document.parse("{queryPlanner: {"
+                + "winningPlan: {stage: 'SORT', inputStage: {stage: 'COLLSCAN'}},"
+                + "rejectedPlans: [{stage: 'FETCH', inputStage: {stage: 'IXSCAN', indexName: 'user_idx'}}]}}"));
+        MongoDatabaseFactory factory = mock(MongoDatabaseFactory.class);
+        when(factory.getMongoDatabase("cvagent")).thenReturn(database);
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getMongoDatabaseFactory()).thenReturn(factory);
+        @SuppressWarnings("unchecked")
+        ObjectProvider<MongoTemplate> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(mongoTemplate);
+        ReflectionTestUtils.setField(profiler, "mongoTemplates", provider);
+        ReflectionTestUtils.setField(profiler, "explainEnabled", true);
+
+        run("find", "{find: 'projects', filter: {description: {$regex: 'java', $options: ''}}, lsid: {id: 1}, $db: 'cvagent'}", 150);
+        run("find", "{find: 'projects', filter: {description: {$regex: 'go', $options: ''}}, lsid: {id: 1}, $db: 'cvagent'}", 150);
+
+        ArgumentCaptor<Bson> explain = ArgumentCaptor.forClass(Bson.class);
+        // 同一形状在间隔内只explain一次
+        verify(database, timeout(2000).times(1)).runCommand(explain.capture());
+        BsonDocument command = (BsonDocument) ((Document) explain.getValue()).get("explain");
+        assertEquals("queryPlanner", ((Document) explain.getValue()).get("verbosity"));
+        assertFalse(command.containsKey("lsid") || command.containsKey("$db"));
+        assertEquals("java", command.getDocument("filter").getRegularExpression("description").getPattern());
+
+        Map<?, ?> plan = waitForPlan();
+        assertEquals(true, plan.get("collectionScan"));
+        assertEquals(List.of(), plan.get("indexes"));
+    }
+
+    private Map<?, ?> waitForPlan() {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            Object plan = shapes(profiler.getReport(null, "totalTime", 10)).get(0).get("plan");
+            if (plan != null) {
+                return (Map<?, ?>) plan;
+            }
+            Thread.onSpinWait();
+        }
+        fail("explain未完成");
+        return null;
+    }
+
+    private void run(String commandName, String command, long millis) {
+        start(commandName, command);
+        profiler.commandSucceeded(new CommandSucceededEvent(null, 1, requestId, CONNECTION, "cvagent", commandName,
+                new BsonDocument(), TimeUnit.MILLISECONDS.toNanos(millis)));
+    }
+
+    private void start(String commandName, String command) {
+        requestId++;
+        profiler.commandStarted(new CommandStartedEvent(null, 1, requestId, CONNECTION, "cvagent", commandName,
+                BsonDocument.parse(command)));
+    }
+
+    private static List<Map<String, Object>> shapes(Map<String, Object> report) {
+        return list(report.get("shapes"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> list(Object value) {
+        return (List<Map<String, Object>>) value;
+    }
+}
@@ -0,0 +1,155 @@
+package com.cvagent.service;
+
+import com.cvagent.model.OptimizationJob;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OptimizationJobQueueTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private OptimizationJobQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(OptimizationJob.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        queue = new OptimizationJobQueue();
+        ReflectionTestUtils.setField(queue, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(queue, "enabled", true);
+        ReflectionTestUtils.setField(queue, "workers", 2);
+        ReflectionTestUtils.setField(queue, "maxAttempts", 3);
+        ReflectionTestUtils.setField(queue, "leaseMillis", 60000L);
+        ReflectionTestUtils.setField(queue, "backoffBaseMillis", 1000L);
+        ReflectionTestUtils.setField(queue, "backoffMaxMillis", 10000L);
+        ReflectionTestUtils.setField(queue, "nodeId", "node-1");
+        queue.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void testBackoff_GrowsExponentiallyWithinCap() {
+        for (int i = 0; i < 20; i++) {
+            long first = OptimizationJobQueue.backoffMillis(1, 1000, 10000);
+            long third = OptimizationJobQueue.backoffMillis(3, 1000, 10000);
+            long capped = OptimizationJobQueue.backoffMillis(10, 1000, 10000);
+            assertTrue(first >= 500 && first <= 1000);
+            assertTrue(third >= 2000 && third <= 4000);
+            assertTrue(capped >= 5000 && capped <= 10000);
+        }
+    }
+
+    @Test
+    void testPoll_CompletesJobUnderLease() {
+        OptimizationJob job = claimed(1);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(OptimizationJob.class))).thenReturn(job, (OptimizationJob) null);
+        AtomicInteger handled = new AtomicInteger();
+        queue.registerHandler("resume_optimization", claimedJob -> handled.incrementAndGet());
+
+        queue.poll();
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, timeout(2000)).updateFirst(any(Query.class), update.capture(), eq(OptimizationJob.class));
+        assertEquals(1, handled.get());
+        assertEquals(OptimizationJob.STATUS_COMPLETED, setValue(update.getValue(), "status"));
+    }
+
+    @Test
+    void testPoll_RetriesFailedJobWithBackoff() {
+        OptimizationJob job = claimed(1);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(OptimizationJob.class))).thenReturn(job, (OptimizationJob) null);
+        queue.registerHandler("resume_optimization", claimedJob -> {
+            throw new IllegalStateException("模型超时");
+        });
+
+        queue.poll();
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, timeout(2000)).updateFirst(any(Query.class), update.capture(), eq(OptimizationJob.class));
+        assertEquals(OptimizationJob.STATUS_PENDING, setValue(update.getValue(), "status"));
+        assertEquals("模型超时", setValue(update.getValue(), "lastError"));
+    }
+
+    @Test
+    void testPoll_FailsJobAfterLastAttempt() throws Exception {
+        OptimizationJob job = claimed(3);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(OptimizationJob.class))).thenReturn(job, (OptimizationJob) null);
+        OptimizationJobQueue.JobHandler handler = mock(OptimizationJobQueue.JobHandler.class);
+        doThrow(new IllegalStateException("模型超时")).when(handler).handle(any());
+        queue.registerHandler("resume_optimization", handler);
+
+        queue.poll();
+
+        verify(handler, timeout(2000)).onFailure(job);
+        assertEquals(OptimizationJob.STATUS_FAILED, job.getStatus());
+    }
+
+    @Test
+    void testPoll_DiscardsResultWhenLeaseWasLost() throws Exception {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(OptimizationJob.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        OptimizationJob job = claimed(3);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(OptimizationJob.class))).thenReturn(job, (OptimizationJob) null);
+        OptimizationJobQueue.JobHandler handler = mock(OptimizationJobQueue.JobHandler.class);
+        doThrow(new IllegalStateException("模型超时")).when(handler).handle(any());
+        queue.registerHandler("resume_optimization", handler);
+
+        queue.poll();
+
+        awaitIdle();
+        verify(handler, never()).onFailure(any());
+        assertEquals(1L, queue.getStatistics().get("leaseLost"));
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        for (int i = 0; i < 200 && !Integer.valueOf(0).equals(queue.getStatistics().get("running")); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private OptimizationJob claimed(int attempts) {
+        OptimizationJob job = new OptimizationJob("resume_optimization", "resume-1", "user-1",
+                Map.of("jobRequirementId", "job-1"), 3);
+        job.setId("job-" + attempts);
+        job.setStatus(OptimizationJob.STATUS_RUNNING);
+        job.setAttempts(attempts);
+        job.setLeaseOwner("node-1/lease");
+        return job;
+    }
+
+    private static Object setValue(Update update, String field) {
+        return ((Document) update.getUpdateObject().get("$set")).get(field);
+    }
+}
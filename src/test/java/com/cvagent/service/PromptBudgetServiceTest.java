@@ -0,0 +1,95 @@
+package com.cvagent.service;
+
+import com.cvagent.service.ai.PromptTokenEstimator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptBudgetServiceTest {
+
+    private PromptBudgetService budgetService;
+
+    @BeforeEach
+    void setUp() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("ai.prompt-budget.services.small.max-tokens", "40")
+                .withProperty("ai.prompt-budget.services.structured.max-tokens", "40")
+                .withProperty("ai.prompt-budget.services.structured.remove-repeated-lines", "false");
+
+        budgetService = new PromptBudgetService();
+        ReflectionTestUtils.setField(budgetService, "environment", environment);
+        ReflectionTestUtils.setField(budgetService, "enabled", true);
+        ReflectionTestUtils.setField(budgetService, "defaultMaxTokens", 3000);
+    }
+
+    @Test
+    void testFit_NormalizesWhitespaceAndPageMarkers() {
+        String content = "个人简历\n\n\n负责   订单系统开发\n第 1 页\n负责   订单系统开发\n-----\n熟悉Java";
+
+        String result = budgetService.compact("default", content);
+
+        // 未超出预算时只压缩空白、去掉页码和分隔线，重复行和标题行保留
+        assertEquals("个人简历\n\n负责 订单系统开发\n负责 订单系统开发\n熟悉Java", result);
+        assertEquals((long) PromptTokenEstimator.estimate(content) - PromptTokenEstimator.estimate(result),
+                budgetService.getStatistics().get("tokensSaved"));
+    }
+
+    @Test
+    void testFit_RemovesRepeatedLinesOnlyWhenOverBudget() {
+        String line = "类别：内容优化";
+        String content = String.join("\n", "简历", line, "建议一：量化项目成果", line, "建议二：补充技术栈", line,
+                "建议三：突出个人职责");
+
+        String result = budgetService.compact("small", content);
+
+        assertEquals(String.join("\n", line, "建议一：量化项目成果", "建议二：补充技术栈", "建议三：突出个人职责"), result);
+        assertTrue(PromptTokenEstimator.estimate(result) <= 40);
+    }
+
+    @Test
+    void testFit_KeepsRepeatedLinesWhenDisabledForService() {
+        String line = "类别：内容优化";
+        String content = String.join("\n", "请只返回JSON数组", line, "建议一：量化项目成果", line, "建议二：补充技术栈", line,
+                "建议三：突出个人职责");
+
+        String result = budgetService.compact("structured", content);
+
+        assertTrue(result.startsWith("请只返回JSON数组\n类别：内容优化\n建议一：量化项目成果\n类别：内容优化"));
+        assertTrue(result.endsWith("…"));
+        assertTrue(PromptTokenEstimator.estimate(result) <= 40);
+    }
+
+    @Test
+    void testFit_DropsLowValueSectionsFirst() {
+        String content = "工作经历\n负责订单系统开发，日均处理订单十万笔。\n兴趣爱好\n篮球、游泳、摄影、旅行、阅读、登山、烹饪。";
+
+        String result = budgetService.compact("small", content);
+
+        assertTrue(result.contains("负责订单系统开发"));
+        assertFalse(result.contains("兴趣爱好"));
+        assertTrue(PromptTokenEstimator.estimate(result) <= 40);
+    }
+
+    @Test
+    void testFit_TruncatesOnSentenceBoundary() {
+        String content = "第一句介绍项目背景和目标。第二句说明技术栈和架构设计。第三句描述个人职责与贡献。第四句总结项目成果。";
+
+        String result = budgetService.compact("small", content);
+
+        assertTrue(result.startsWith("第一句介绍项目背景和目标。"));
+        assertTrue(result.endsWith("。…"));
+        assertTrue(PromptTokenEstimator.estimate(result) <= 40);
+    }
+
+    @Test
+    void testAllocate_KeepsShortPartsIntact() {
+        int[] allowance = PromptBudgetService.allocate(new int[]{100, 10, 50}, 90);
+
+        assertEquals(10, allowance[1]);
+        assertEquals(40, allowance[0]);
+        assertEquals(40, allowance[2]);
+    }
+}
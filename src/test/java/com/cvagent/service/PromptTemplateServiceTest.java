@@ -0,0 +1,56 @@
+package com.cvagent.service;
+
+import com.cvagent.model.PromptTemplate;
+import com.cvagent.repository.PromptTemplateRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PromptTemplateServiceTest {
+
+    @Mock
+    private PromptTemplateRepository templateRepository;
+
+    @InjectMocks
+    private PromptTemplateService promptTemplateService;
+
+    @Test
+    void testSaveTemplate_RetriesWithNextVersionOnDuplicateKey() {
+        // 第一次读取到v1后，另一个节点抢先保存了v2
+        when(templateRepository.findFirstByNameOrderByVersionDesc("greeting"))
+                .thenReturn(Optional.of(new PromptTemplate("greeting", 1, "旧内容", "admin")))
+                .thenReturn(Optional.of(new PromptTemplate("greeting", 2, "并发内容", "other")));
+        when(templateRepository.save(any(PromptTemplate.class)))
+                .thenThrow(new DuplicateKeyException("name_version"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        PromptTemplate saved = promptTemplateService.saveTemplate("greeting", "你好，{name}", "admin");
+
+        assertEquals(3, saved.getVersion());
+        ArgumentCaptor<PromptTemplate> attempts = ArgumentCaptor.forClass(PromptTemplate.class);
+        verify(templateRepository, times(2)).save(attempts.capture());
+        assertEquals(2, attempts.getAllValues().get(0).getVersion());
+        assertEquals("你好，{name}", promptTemplateService.getTemplateDetails("greeting").get("content"));
+    }
+
+    @Test
+    void testSaveTemplate_GivesUpAfterRepeatedDuplicateKeys() {
+        when(templateRepository.findFirstByNameOrderByVersionDesc("greeting")).thenReturn(Optional.empty());
+        when(templateRepository.save(any(PromptTemplate.class))).thenThrow(new DuplicateKeyException("name_version"));
+
+        assertThrows(DuplicateKeyException.class,
+                () -> promptTemplateService.saveTemplate("greeting", "你好", "admin"));
+        verify(templateRepository, times(5)).save(any(PromptTemplate.class));
+    }
+}
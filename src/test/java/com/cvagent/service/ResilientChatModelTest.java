@@ -0,0 +1,151 @@
+package com.cvagent.service;
+
+import com.cvagent.exception.AiModelUnavailableException;
+import com.cvagent.service.ai.HedgePolicy;
+import com.cvagent.service.ai.ModelTier;
+import com.cvagent.service.ai.ResilientChatModel;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ResilientChatModelTest {
+
+    private final ChatRequest request = ChatRequest.builder().messages(UserMessage.from("你好")).build();
+
+    @Test
+    void testFallsBackToNextTierOnFailure() {
+        ChatModel primary = mock(ChatModel.class);
+        ChatModel fallback = mock(ChatModel.class);
+        when(primary.chat(any(ChatRequest.class))).thenThrow(new RuntimeException("超时"));
+        when(fallback.chat(any(ChatRequest.class))).thenReturn(response("降级结果"));
+
+        ResilientChatModel model = new ResilientChatModel("test", List.of(
+                new ModelTier<>("primary", primary, breaker()),
+                new ModelTier<>("fallback", fallback, breaker())
+        ), Runnable::run, HedgePolicy.disabled());
+
+        assertEquals("降级结果", model.chat(request).aiMessage().text());
+    }
+
+    @Test
+    void testSkipsOpenBreakerAndThrowsWhenChainExhausted() {
+        ChatModel primary = mock(ChatModel.class);
+        AiCircuitBreaker openBreaker = new AiCircuitBreaker("open", 10, 1, 50, 100, 1000, 60_000, 1);
+        openBreaker.onResult(10, false);
+
+        ResilientChatModel model = new ResilientChatModel("test", List.of(
+                new ModelTier<>("primary", primary, openBreaker)
+        ), Runnable::run, HedgePolicy.disabled());
+
+        assertThrows(AiModelUnavailableException.class, () -> model.chat(request));
+        verify(primary, never()).chat(any(ChatRequest.class));
+    }
+
+    @Test
+    void testHedgesSlowRequestAboveP95() {
+        ChatModel primary = mock(ChatModel.class);
+        when(primary.chat(any(ChatRequest.class)))
+                .thenAnswer(invocation -> response("预热"))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(2000);
+                    return response("慢请求");
+                })
+                .thenAnswer(invocation -> response("对冲请求"));
+
+        AiCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 5; i++) {
+            breaker.onResult(10, true);
+        }
+        ResilientChatModel model = new ResilientChatModel("test", List.of(
+                new ModelTier<>("primary", primary, breaker)
+        ), Executors.newCachedThreadPool(), new HedgePolicy(true, 50, 5, 1.0));
+
+        assertEquals("预热", model.chat(request).aiMessage().text());
+        assertEquals("对冲请求", model.chat(request).aiMessage().text());
+        assertEquals(1L, model.getStatistics().get("hedgeWins"));
+    }
+
+    @Test
+    void testSkipsHedgeWhenBulkheadIsFull() {
+        ChatModel primary = mock(ChatModel.class);
+        when(primary.chat(any(ChatRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(300);
+            return response("慢请求");
+        });
+        AiBulkhead bulkhead = new AiBulkhead("test", 1, 0, 0);
+        // 调用方已占用唯一的许可
+        bulkhead.acquireNow();
+
+        ResilientChatModel model = new ResilientChatModel("test", List.of(
+                new ModelTier<>("primary", primary, warmBreaker())
+        ), Executors.newCachedThreadPool(), new HedgePolicy(true, 50, 5, 1.0), bulkhead, ObservationRegistry.NOOP);
+
+        assertEquals("慢请求", model.chat(request).aiMessage().text());
+        verify(primary, times(1)).chat(any(ChatRequest.class));
+        assertEquals(0L, model.getStatistics().get("hedgedRequests"));
+        assertEquals(1L, model.getStatistics().get("hedgesSkipped"));
+        assertEquals(1, bulkhead.getActiveCount());
+    }
+
+    @Test
+    void testLosingHedgeHoldsPermitUntilCallFinishes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ChatModel primary = mock(ChatModel.class);
+        when(primary.chat(any(ChatRequest.class)))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(300);
+                    return response("主请求");
+                })
+                .thenAnswer(invocation -> {
+                    // 对冲请求不响应中断，取消后仍执行到结束
+                    release.await(5, TimeUnit.SECONDS);
+                    return response("对冲请求");
+                });
+        AiBulkhead bulkhead = new AiBulkhead("test", 2, 0, 0);
+        bulkhead.acquireNow();
+
+        ResilientChatModel model = new ResilientChatModel("test", List.of(
+                new ModelTier<>("primary", primary, warmBreaker())
+        ), Executors.newCachedThreadPool(), new HedgePolicy(true, 50, 5, 1.0), bulkhead, ObservationRegistry.NOOP);
+
+        assertEquals("主请求", model.chat(request).aiMessage().text());
+        assertEquals(1L, model.getStatistics().get("hedgedRequests"));
+        assertEquals(2, bulkhead.getActiveCount());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bulkhead.getActiveCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bulkhead.getActiveCount());
+    }
+
+    private static AiCircuitBreaker warmBreaker() {
+        AiCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 5; i++) {
+            breaker.onResult(10, true);
+        }
+        return breaker;
+    }
+
+    private static AiCircuitBreaker breaker() {
+        return new AiCircuitBreaker("test", 10, 5, 100, 100, 60_000, 60_000, 1);
+    }
+
+    private static ChatResponse response(String text) {
+        return ChatResponse.builder().aiMessage(AiMessage.from(text)).build();
+    }
+}
@@ -5,9 +5,12 @@ import com.cvagent.repository.OptimizationRuleRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -15,6 +18,7 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,6 +36,9 @@ class RuleEngineServiceTest {
     @Mock
     private RuleEffectEvaluationService effectEvaluationService;
 
+    @Mock
+    private PromptBudgetService promptBudgetService;
+
     @InjectMocks
     private RuleEngineService ruleEngineService;
 
@@ -70,8 +77,8 @@ class RuleEngineServiceTest {
         String resumeContent = "这是一个超过50个字符的简历摘要内容，应该不会被匹配到短内容规则。";
         String targetSection = "SUMMARY";
 
-        when(ruleRepository.findByTargetSectionAndIsActiveTrueOrderByPriorityDesc(targetSection))
-                .thenReturn(List.of(testRule));
+        when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc())
+                .thenReturn(List.of(testRule, testRule2));
 
         // 执行测试
         List<RuleEngineService.OptimizationResult> results =
@@ -80,7 +87,7 @@ class RuleEngineServiceTest {
         // 验证结果 - 由于测试规则会匹配任何内容，这里应该有结果
         assertFalse(results.isEmpty());
         assertEquals(1, results.size());
-        verify(ruleRepository, times(1)).findByTargetSectionAndIsActiveTrueOrderByPriorityDesc(targetSection);
+        verify(ruleRepository, times(1)).findByIsActiveTrueOrderByPriorityDesc();
     }
 
     @Test
@@ -89,7 +96,7 @@ class RuleEngineServiceTest {
         String resumeContent = "短摘要";
         String targetSection = "SUMMARY";
 
-        when(ruleRepository.findByTargetSectionAndIsActiveTrueOrderByPriorityDesc(targetSection))
+        when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc())
                 .thenReturn(List.of(testRule));
         when(aiServiceManager.improveResumeSection(any(), any()))
                 .thenReturn("AI优化建议：请扩展简历摘要内容");
@@ -281,10 +288,8 @@ class RuleEngineServiceTest {
         // 准备测试数据
         String resumeContent = "短摘要 包含java技能";
 
-        when(ruleRepository.findByTargetSectionAndIsActiveTrueOrderByPriorityDesc(any()))
-                .thenReturn(List.of(testRule));
         when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc())
-                .thenReturn(List.of(testRule2));
+                .thenReturn(List.of(testRule2, testRule));
         when(aiServiceManager.improveResumeSection(any(), any()))
                 .thenReturn("AI优化建议");
 
@@ -299,6 +304,145 @@ class RuleEngineServiceTest {
         assertEquals(LocalDateTime.now().getDayOfYear(), result.getProcessedAt().getDayOfYear());
     }
 
+    @Test
+    void testApplyAllRules_ConsolidatedSingleRequest() {
+        ReflectionTestUtils.setField(ruleEngineService, "consolidatedSuggestions", true);
+        String resumeContent = "短摘要java";
+
+        testRule2.setTargetSection("SUMMARY");
+        when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc())
+                .thenReturn(List.of(testRule, testRule2));
+        when(aiServiceManager.generateRuleSuggestions(any()))
+                .thenReturn("```json\n[{\"index\": 1, \"suggestion\": \"扩展摘要\"}, "
+                        + "{\"index\": 2, \"suggestion\": \"补充技术关键词\"}]\n```");
+
+        List<RuleEngineService.OptimizationResult> results =
+                ruleEngineService.applyAllRules(resumeContent, "SUMMARY");
+
+        assertEquals(2, results.size());
+        assertEquals("扩展摘要", results.get(0).getOptimizedSuggestion());
+        assertEquals("补充技术关键词", results.get(1).getOptimizedSuggestion());
+        verify(aiServiceManager, times(1)).generateRuleSuggestions(any());
+        verify(aiServiceManager, never()).improveResumeSection(any(), any());
+    }
+
+    @Test
+    void testApplyAllRules_ConsolidatedPromptKeepsFormatInstructionWithManyRules() {
+        ReflectionTestUtils.setField(ruleEngineService, "consolidatedSuggestions", true);
+        List<OptimizationRule> rules = new java.util.ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            OptimizationRule rule = new OptimizationRule();
+            rule.setId("rule" + i);
+            rule.setName("内容检查" + i);
+            rule.setPattern("^[\\s\\S]+$");
+            rule.setCategory("内容优化");
+            rule.setDescription("检查内容是否完整");
+            rule.setTargetSection("EXPERIENCE");
+            rule.setIsActive(true);
+            rules.add(rule);
+        }
+        String resumeContent = "负责订单系统的设计与开发，支撑日均十万笔交易。".repeat(60);
+
+        when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc()).thenReturn(rules);
+        when(promptBudgetService.compact(eq("rule_optimization"), any())).thenReturn("压缩后的原始内容");
+        when(aiServiceManager.generateRuleSuggestions(any())).thenReturn("[]");
+
+        ruleEngineService.applyAllRules(resumeContent, "EXPERIENCE");
+
+        // 40条规则按每组15条分三次请求
+        ArgumentCaptor<String> prompts = ArgumentCaptor.forClass(String.class);
+        verify(aiServiceManager, times(3)).generateRuleSuggestions(prompts.capture());
+
+        // 按rule_suggestions的配置压缩后，格式要求和每条规则的类别行仍然送达模型
+        PromptBudgetService budgetService = new PromptBudgetService();
+        ReflectionTestUtils.setField(budgetService, "environment", new MockEnvironment()
+                .withProperty("ai.prompt-budget.services.rule_suggestions.max-tokens", "3000")
+                .withProperty("ai.prompt-budget.services.rule_suggestions.remove-repeated-lines", "false"));
+        ReflectionTestUtils.setField(budgetService, "enabled", true);
+        ReflectionTestUtils.setField(budgetService, "defaultMaxTokens", 3000);
+
+        int categoryLines = 0;
+        for (String prompt : prompts.getAllValues()) {
+            // 整段命中的内容只取开头
+            assertFalse(prompt.contains(resumeContent));
+            String sent = budgetService.compact("rule_suggestions", prompt);
+            assertTrue(sent.contains("请只返回JSON数组"));
+            assertTrue(sent.endsWith("原始内容：压缩后的原始内容"));
+            categoryLines += sent.split("类别：内容优化", -1).length - 1;
+        }
+        assertEquals(40, categoryLines);
+    }
+
+    @Test
+    void testApplyAllRules_ConsolidatedFallsBackOnInvalidJson() {
+        ReflectionTestUtils.setField(ruleEngineService, "consolidatedSuggestions", true);
+        String resumeContent = "短摘要java";
+
+        testRule2.setTargetSection("SUMMARY");
+        when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc())
+                .thenReturn(List.of(testRule, testRule2));
+        when(aiServiceManager.generateRuleSuggestions(any()))
+                .thenReturn("[{\"index\": 2, \"suggestion\": \"补充技术关键词\"}, 无效内容]");
+
+        List<RuleEngineService.OptimizationResult> results =
+                ruleEngineService.applyAllRules(resumeContent, "SUMMARY");
+
+        assertEquals(testRule.getSuggestion(), results.get(0).getOptimizedSuggestion());
+        assertEquals(testRule2.getSuggestion(), results.get(1).getOptimizedSuggestion());
+    }
+
+    @Test
+    void testApplyAllRules_UsesSnapshotUntilRulesChange() {
+        ReflectionTestUtils.setField(ruleEngineService, "consolidatedSuggestions", false);
+        OptimizationRule invalidRule = new OptimizationRule();
+        invalidRule.setId("rule3");
+        invalidRule.setName("无效规则");
+        invalidRule.setPattern("[invalid regex");
+        invalidRule.setTargetSection("SKILLS");
+        invalidRule.setIsActive(true);
+
+        when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc())
+                .thenReturn(List.of(testRule2, invalidRule))
+                .thenReturn(List.of(invalidRule));
+        when(ruleRepository.findById("rule2")).thenReturn(Optional.of(testRule2));
+        when(aiServiceManager.improveResumeSection(any(), any())).thenReturn("AI优化建议");
+
+        assertEquals(1, ruleEngineService.applyAllRules("熟悉Java和Python", "SKILLS").size());
+        assertEquals(1, ruleEngineService.applyAllRules("熟悉Java", "SKILLS").get(0).getMatchCount());
+        assertEquals(List.of(testRule2, invalidRule), ruleEngineService.getApplicableRules("ALL"));
+        assertTrue(ruleEngineService.getApplicableRules("SUMMARY").isEmpty());
+        // 多次应用只加载一次规则
+        verify(ruleRepository, times(1)).findByIsActiveTrueOrderByPriorityDesc();
+
+        ruleEngineService.toggleRuleStatus("rule2", false);
+
+        assertTrue(ruleEngineService.applyAllRules("熟悉Java", "SKILLS").isEmpty());
+        verify(ruleRepository, times(2)).findByIsActiveTrueOrderByPriorityDesc();
+        verify(ruleRepository, never()).findByTargetSectionAndIsActiveTrueOrderByPriorityDesc(any());
+    }
+
+    @Test
+    void testFindMatchingRules_UsesSnapshotAndSkipsRulesOverStepBudget() {
+        OptimizationRule pathologicalRule = new OptimizationRule();
+        pathologicalRule.setId("rule3");
+        pathologicalRule.setName("病态规则");
+        // 反向引用只能回溯匹配，未命中时指数级回溯
+        pathologicalRule.setPattern("(a+)+\\1b");
+        pathologicalRule.setSuggestion("不应出现");
+        pathologicalRule.setIsActive(true);
+        when(ruleRepository.findByIsActiveTrueOrderByPriorityDesc())
+                .thenReturn(List.of(testRule2, pathologicalRule));
+
+        String content = "熟悉Java " + "a".repeat(40);
+        List<OptimizationRule> matched = assertTimeoutPreemptively(java.time.Duration.ofSeconds(5),
+                () -> ruleEngineService.findMatchingRules(content));
+        ruleEngineService.findMatchingRules(content);
+
+        assertEquals(List.of(testRule2), matched);
+        verify(ruleRepository, times(1)).findByIsActiveTrueOrderByPriorityDesc();
+        verifyNoInteractions(aiServiceManager);
+    }
+
     @Test
     void testOptimizationResult_HasMatches() {
         // 创建测试结果
@@ -0,0 +1,128 @@
+package com.cvagent.service;
+
+import com.cvagent.model.OptimizationRule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleMatcherTest {
+
+    private static final List<String> SEEDED_PATTERNS = List.of(
+            "^[\\s\\S]{0,50}$",
+            "(?i)(java|python|javascript|react|spring|sql|git|docker|kubernetes)",
+            "负责.*工作|参与.*项目|协助.*完成",
+            "\\d{4}\\.\\d{1,2}|\\d{4}/\\d{1,2}|\\d{4}年\\d{1,2}月",
+            "(?i)(电话|手机|邮箱|email|@.*\\.com)",
+            "^[^\\n]*大学|^[^\\n]*学院",
+            "(?i)(精通|熟练|掌握|了解|熟悉)",
+            "^[\\s\\S]{1000,}",
+            ".*(负责|参与|协助).*",
+            ".*(?:提高|改善|增加|减少|优化).*",
+            "^(.{0,50}|.{300,})$",
+            "^(?!.*(?:项目描述|技术栈|主要职责|项目成果)).*$",
+            "\\bJava\\b",
+            "[a-z]+\\s\\S+");
+
+    private static final List<String> CONTENTS = List.of(
+            "",
+            "短摘要",
+            "熟悉Java和JavaScript，精通Spring Boot与Docker\r\n负责订单系统开发工作，参与支付项目设计\n邮箱 cv@example.com",
+            "2019.07 - 2023/06 北京大学 计算机学院\n协助测试团队完成回归 负责性能优化，提高吞吐量30%\n",
+            "JAVASCRIPT java Git kubernetes\n\n\n技术栈：Python 主要职责：负责模块设计",
+            "项目描述".repeat(120) + "\n");
+
+    @Test
+    void testMatch_SameResultsAsJavaRegex() {
+        List<OptimizationRule> rules = new ArrayList<>();
+        for (String pattern : SEEDED_PATTERNS) {
+            rules.add(rule(pattern));
+        }
+        RuleMatcher matcher = new RuleMatcher(rules, 100);
+
+        Map<String, Integer> strategies = matcher.getStrategyCounts();
+        assertEquals(2, strategies.get("LITERAL"));
+        assertEquals(2, strategies.get("LINE"));
+        assertEquals(5, strategies.get("RE2"));
+        assertEquals(5, strategies.get("BACKTRACKING"));
+
+        for (String content : CONTENTS) {
+            List<RuleMatcher.Result> results = matcher.match(content);
+            for (int i = 0; i < rules.size(); i++) {
+                assertNull(results.get(i).getError());
+                assertEquals(javaMatches(rules.get(i).getPattern(), content), results.get(i).getMatches(),
+                        rules.get(i).getPattern() + " / " + content);
+            }
+        }
+    }
+
+    @Test
+    void testMatch_LiteralAlternativesFollowFindSemantics() {
+        RuleMatcher matcher = new RuleMatcher(List.of(rule("(java|javascript|script)"), rule("a\\.b|A")), 100);
+
+        List<RuleMatcher.Result> results = matcher.match("JavaScript a.b");
+
+        // 同一位置按分支顺序取第一个，命中之后从结尾继续，不返回重叠的命中
+        assertEquals(List.of("Java", "Script"), results.get(0).getMatches());
+        assertEquals(List.of("a", "a", "a.b"), results.get(1).getMatches());
+        assertEquals(javaMatches("a\\.b|A", "JavaScript a.b"), results.get(1).getMatches());
+    }
+
+    @Test
+    void testMatch_AbortsPathologicalPatternWithinBudget() {
+        RuleMatcher matcher = new RuleMatcher(List.of(rule("(.*a){12}$"), rule("(?<=x)(a|aa)+b"), rule("java")), 100);
+        // 不限步数时java.util.regex需要十几秒
+        String content = "a".repeat(30) + "!java";
+
+        long start = System.nanoTime();
+        List<RuleMatcher.Result> results = matcher.match(content);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(results.get(0).getError().contains("超出步数预算"));
+        assertTrue(results.get(0).getMatches().isEmpty());
+        // 其他规则不受影响
+        assertNull(results.get(1).getError());
+        assertEquals(List.of("java"), results.get(2).getMatches());
+        assertTrue(elapsedMillis < 1000, "耗时 " + elapsedMillis + "ms");
+    }
+
+    @Test
+    void testMatch_InvalidPatternReportsError() {
+        List<RuleMatcher.Result> results = new RuleMatcher(List.of(rule("[invalid regex")), 100).match("内容");
+
+        assertTrue(results.get(0).getError().startsWith("规则模式无效"));
+    }
+
+    @Test
+    void testToRe2Syntax_RejectsConstructsWithDifferentSemantics() {
+        assertEquals("[^\\n\\r\\x{85}\\x{2028}\\x{2029}]*", RuleMatcher.toRe2Syntax(".*"));
+        assertEquals("[ \\t\\n\\x0B\\f\\r]\\d", RuleMatcher.toRe2Syntax("\\s\\d"));
+        assertNull(RuleMatcher.toRe2Syntax("a$"));
+        assertNull(RuleMatcher.toRe2Syntax("\\bword"));
+        assertNull(RuleMatcher.toRe2Syntax("(?m)^a"));
+        assertNull(RuleMatcher.toRe2Syntax("a++"));
+        assertNull(RuleMatcher.toRe2Syntax("[a-z&&[^e]]"));
+        assertEquals("[$.]", RuleMatcher.toRe2Syntax("[$.]"));
+    }
+
+    private static List<String> javaMatches(String pattern, String content) {
+        Matcher matcher = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher(content);
+        List<String> matches = new ArrayList<>();
+        while (matcher.find()) {
+            matches.add(matcher.group());
+        }
+        return matches;
+    }
+
+    private static OptimizationRule rule(String pattern) {
+        OptimizationRule rule = new OptimizationRule();
+        rule.setName(pattern);
+        rule.setPattern(pattern);
+        return rule;
+    }
+}
@@ -201,6 +201,7 @@ class RuleVersionControlServiceTest {
 
         verify(ruleRepository, times(1)).save(any());
         verify(versionRepository, times(1)).save(any()); // 创建新版本
+        verify(ruleEngineService, times(1)).refreshRules();
     }
 
     @Test
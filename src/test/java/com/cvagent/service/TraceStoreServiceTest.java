@@ -0,0 +1,112 @@
+package com.cvagent.service;
+
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceStoreServiceTest {
+
+    private TraceStoreService traceStore;
+
+    @BeforeEach
+    void setUp() {
+        traceStore = new TraceStoreService();
+        ReflectionTestUtils.setField(traceStore, "maxTraces", 2);
+        ReflectionTestUtils.setField(traceStore, "maxSpansPerTrace", 100);
+    }
+
+    @Test
+    void testGetTrace_BreaksDownSelfTimeByStage() {
+        // 请求 0-100ms：查询 5-15ms，两个并发的模型调用 20-80ms 和 50-90ms
+        end("a1", "1", null, "http post /api/cover-letters/personalized", 0, 100);
+        end("a1", "2", "1", "find resumes", 5, 15);
+        end("a1", "3", "1", "ai.service", 20, 95);
+        end("a1", "4", "3", "ai.model.call", 20, 80);
+        end("a1", "5", "3", "ai.model.call", 50, 90);
+
+        Map<String, Object> trace = traceStore.getTrace(id("a1")).orElseThrow();
+
+        assertEquals("http post /api/cover-letters/personalized", trace.get("name"));
+        assertEquals(100.0, trace.get("durationMillis"));
+        assertEquals(5, trace.get("spanCount"));
+
+        Map<String, Map<String, Object>> stages = stagesByName(trace);
+        // 并发的对冲请求按并集扣除，父span自身耗时只剩 80-95ms
+        assertEquals(5.0, stages.get("ai.service").get("selfMillis"));
+        assertEquals(100.0, stages.get("ai.model.call").get("selfMillis"));
+        assertEquals(2L, stages.get("ai.model.call").get("count"));
+        assertEquals(10.0, stages.get("find resumes").get("selfMillis"));
+        assertEquals(15.0, stages.get("http post /api/cover-letters/personalized").get("selfMillis"));
+
+        List<?> spans = (List<?>) trace.get("spans");
+        assertEquals(2, ((Map<?, ?>) spans.get(3)).get("depth"));
+    }
+
+    @Test
+    void testGetRecentTraces_FiltersByDurationAndEvictsOldest() {
+        end("f1", "1", null, "http get /api/resumes", 0, 5);
+        end("f2", "2", null, "http post /api/cover-letters/personalized", 10, 4010);
+        end("f3", "3", null, "http get /api/projects", 20, 30);
+
+        // 最多保存两条链路，最早到达的被淘汰
+        assertTrue(traceStore.getTrace(id("f1")).isEmpty());
+        assertEquals(1L, traceStore.getStatistics().get("tracesEvicted"));
+
+        List<Map<String, Object>> slow = traceStore.getRecentTraces(1000, null, 10);
+        assertEquals(1, slow.size());
+        assertEquals(id("f2"), slow.get(0).get("traceId"));
+
+        List<Map<String, Object>> all = traceStore.getRecentTraces(0, "/api/", 10);
+        assertEquals(List.of(id("f3"), id("f2")), all.stream().map(t -> t.get("traceId")).toList());
+    }
+
+    @Test
+    void testGetStageBreakdown_AggregatesMatchingTraces() {
+        end("a1", "1", null, "http post /api/cover-letters/personalized", 0, 100);
+        end("a1", "2", "1", "ai.model.call", 10, 90);
+        end("a2", "3", null, "http get /api/resumes", 0, 50);
+
+        Map<String, Object> breakdown = traceStore.getStageBreakdown("cover-letters");
+
+        assertEquals(1, breakdown.get("traces"));
+        List<?> stages = (List<?>) breakdown.get("stages");
+        Map<?, ?> top = (Map<?, ?>) stages.get(0);
+        assertEquals("ai.model.call", top.get("name"));
+        assertEquals(80.0, top.get("selfPercent"));
+    }
+
+    private void end(String traceId, String spanId, String parentId, String name, long startMillis, long endMillis) {
+        MutableSpan span = new MutableSpan();
+        span.traceId(id(traceId));
+        span.id(id(spanId));
+        span.parentId(parentId != null ? id(parentId) : null);
+        span.name(name);
+        span.startTimestamp(startMillis * 1000);
+        span.finishTimestamp(endMillis * 1000);
+        traceStore.end(null, span, SpanHandler.Cause.FINISHED);
+    }
+
+    /**
+     * Brave按16位十六进制保存ID
+     */
+    private static String id(String hex) {
+        return "0".repeat(16 - hex.length()) + hex;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> stagesByName(Map<String, Object> trace) {
+        Map<String, Map<String, Object>> byName = new HashMap<>();
+        for (Map<String, Object> stage : (List<Map<String, Object>>) trace.get("stages")) {
+            byName.put((String) stage.get("name"), stage);
+        }
+        return byName;
+    }
+}